@@ -0,0 +1,41 @@
+import bench.SymbolTable;
+
+/**
+ * SymTableAdapter
+ *
+ * Gives the benchmarks in package bench access to a SymTable (see
+ * bench.SymbolTable). The checked exceptions of SymTable mean a bug in a
+ * benchmark, so they are rethrown unchecked.
+ */
+public class SymTableAdapter implements SymbolTable {
+    private final SymTable table = new SymTable();
+
+    public void addScope() {
+        table.addScope();
+    }
+
+    public void removeScope() {
+        try {
+            table.removeScope();
+        } catch (EmptySymTableException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    public void addDecl(String name, String type) {
+        try {
+            table.addDecl(name, new Sym(type));
+        } catch (DuplicateSymException | EmptySymTableException
+                 | WrongArgumentException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    public Object lookupGlobal(String name) {
+        try {
+            return table.lookupGlobal(name);
+        } catch (EmptySymTableException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * SymTableBenchmark
+ *
+ * Declarations and global lookups in the P1 symbol table with a varying
+ * number of open scopes. Every scope holds NAMES_PER_SCOPE names; lookups
+ * are made for a name of the innermost scope, of the outermost scope
+ * (which has to pass every other scope first) and for a name that is not
+ * declared at all. addDecl opens a scope, fills it and closes it again, so
+ * the table is the same before and after each operation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SymTableBenchmark {
+    static final int NAMES_PER_SCOPE = 16;
+
+    @Param({"1", "4", "16", "64"})
+    int depth;
+
+    SymbolTable table;
+    String[] newNames;
+    String innermost;
+    String outermost;
+    String missing;
+
+    @Setup
+    public void setUp() {
+        table = SymbolTable.create();
+        for (int s = 0; s < depth; s++) {
+            if (s > 0) {
+                table.addScope();
+            }
+            for (int k = 0; k < NAMES_PER_SCOPE; k++) {
+                table.addDecl(name(s, k), "int");
+            }
+        }
+        newNames = new String[NAMES_PER_SCOPE];
+        for (int k = 0; k < NAMES_PER_SCOPE; k++) {
+            newNames[k] = name(depth, k);
+        }
+        // fresh strings, so lookups cannot short-cut on identity
+        innermost = new String(name(depth - 1, NAMES_PER_SCOPE / 2));
+        outermost = new String(name(0, NAMES_PER_SCOPE / 2));
+        missing = "undeclared";
+    }
+
+    private static String name(int scope, int k) {
+        return "v" + scope + "_" + k;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NAMES_PER_SCOPE)
+    public void addDecl() {
+        table.addScope();
+        for (String name : newNames) {
+            table.addDecl(name, "int");
+        }
+        table.removeScope();
+    }
+
+    @Benchmark
+    public Object lookupGlobalInnermost() {
+        return table.lookupGlobal(innermost);
+    }
+
+    @Benchmark
+    public Object lookupGlobalOutermost() {
+        return table.lookupGlobal(outermost);
+    }
+
+    @Benchmark
+    public Object lookupGlobalMissing() {
+        return table.lookupGlobal(missing);
+    }
+}
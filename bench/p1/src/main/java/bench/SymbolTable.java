@@ -0,0 +1,31 @@
+package bench;
+
+/**
+ * The operations of the P1 symbol table that are benchmarked.
+ *
+ * The symbol table lives in the default package, which cannot be imported
+ * from a named package (and JMH does not allow benchmarks in the default
+ * package), so the benchmarks reach it through this interface, implemented
+ * by SymTableAdapter in the default package.
+ */
+public interface SymbolTable {
+    void addScope();
+
+    void removeScope();
+
+    void addDecl(String name, String type);
+
+    Object lookupGlobal(String name);
+
+    /**
+     * Creates an adapter around a new, empty SymTable.
+     */
+    static SymbolTable create() {
+        try {
+            return (SymbolTable)Class.forName("SymTableAdapter")
+                .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
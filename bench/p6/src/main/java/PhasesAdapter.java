@@ -0,0 +1,145 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java_cup.runtime.Symbol;
+import bench.Phases;
+
+/**
+ * PhasesAdapter
+ *
+ * Gives the benchmarks in package bench access to the compiler phases (see
+ * bench.Phases). Every call uses a fresh CompileContext whose error
+ * messages are discarded.
+ */
+public class PhasesAdapter implements Phases {
+    private static final PrintStream SINK =
+        new PrintStream(OutputStream.nullOutputStream());
+
+    private static CompileContext context(PrintWriter out) {
+        return new CompileContext(out, null, SINK);
+    }
+
+    public int scan(String source) {
+        Yylex scanner = new Yylex(new StringReader(source), context(null));
+        int count = 0;
+        try {
+            while (scanner.next_token().sym != sym.EOF) {
+                count++;
+            }
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return count;
+    }
+
+    public int scanBytes(ByteBuffer source) {
+        ByteScanner scanner = new ByteScanner(source, context(null));
+        int count = 0;
+        while (scanner.next_token().sym != sym.EOF) {
+            count++;
+        }
+        return count;
+    }
+
+    public int scanPacked(ByteBuffer source) {
+        return new ByteScanner(source, context(null)).scanAll().size() - 1;
+    }
+
+    public Object parse(String source) {
+        CompileContext ctx = context(null);
+        try {
+            Symbol root = new parser(new Yylex(new StringReader(source), ctx),
+                                     ctx).parse();
+            return root.value;
+        } catch (Exception ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    public Object parseBytes(ByteBuffer source) {
+        CompileContext ctx = context(null);
+        TokenBuffer tokens = new ByteScanner(source, ctx).scanAll();
+        try {
+            return new parser(tokens.scanner(ctx.errMsg), ctx).parse().value;
+        } catch (Exception ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    public Object tokens(ByteBuffer source) {
+        return new ByteScanner(source, context(null)).scanAll();
+    }
+
+    public Object parseTokens(Object tokens, String parserName) {
+        CompileContext ctx = context(null);
+        TokenBuffer buffer = (TokenBuffer)tokens;
+        try {
+            if (parserName.equals(P6.PARSER_LR)) {
+                return new LRParser(buffer, ctx).parse();
+            } else if (parserName.equals(P6.PARSER_DESCENT)) {
+                return new DescentParser(buffer, ctx).parse();
+            }
+            return new parser(buffer.scanner(ctx.errMsg), ctx).parse().value;
+        } catch (Exception ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    public boolean nameAnalysis(Object root) {
+        CompileContext ctx = context(null);
+        ((ProgramNode)root).nameAnalysis(ctx);
+        return !ctx.errMsg.getErr();
+    }
+
+    public boolean nameAnalysisParallel(Object root) {
+        CompileContext ctx = context(null);
+        ((ProgramNode)root).nameAnalysis(ctx, ForkJoinPool.commonPool());
+        return !ctx.errMsg.getErr();
+    }
+
+    public boolean typeCheck(Object root) {
+        CompileContext ctx = context(null);
+        ((ProgramNode)root).typeCheck(ctx);
+        return !ctx.errMsg.getErr();
+    }
+
+    public boolean typeCheckParallel(Object root) {
+        CompileContext ctx = context(null);
+        ((ProgramNode)root).typeCheck(ctx, ForkJoinPool.commonPool());
+        return !ctx.errMsg.getErr();
+    }
+
+    public int codeGen(Object root, PrintWriter out) {
+        CompileContext ctx = context(out);
+        ((ProgramNode)root).codeGen(ctx.codegen);
+        return ctx.codegen.peekLabel();
+    }
+
+    public int compile(ByteBuffer source, File cacheDir, PrintWriter out) {
+        CompileContext ctx = context(out);
+        TokenBuffer tokens = new ByteScanner(source, ctx).scanAll();
+        ProgramNode program;
+        try {
+            program = new LRParser(tokens, ctx).parse();
+        } catch (Exception ex) {
+            throw new IllegalStateException(ex);
+        }
+        FnCodeCache cache = null;
+        if (cacheDir != null) {
+            cache = new FnCodeCache(cacheDir);
+            ctx.codegen.fnCache = cache;
+            tokens.setSources(program.functions());
+        }
+        program.nameAnalysis(ctx);
+        program.typeCheck(ctx);
+        if (ctx.errMsg.getErr()) {
+            throw new IllegalStateException("the program has errors");
+        }
+        program.codeGen(ctx.codegen);
+        return cache == null ? 0 : cache.getHits();
+    }
+
+    public void unparse(Object root, PrintWriter out) {
+        ((ProgramNode)root).unparse(out, 0);
+    }
+}
@@ -0,0 +1,64 @@
+import bench.SymbolTable;
+
+/**
+ * SymTableAdapter
+ *
+ * Gives the benchmarks in package bench access to a SymTable or a
+ * PersistentSymTable (see bench.SymbolTable). The checked exceptions of
+ * the tables mean a bug in a benchmark, so they are rethrown unchecked.
+ */
+public class SymTableAdapter implements SymbolTable {
+    private static final Type INT = Type.INT;
+
+    private SymTable table;
+    private PersistentSymTable version;
+
+    public SymTableAdapter(String table) {
+        NameTable names = new NameTable();
+        if (table.equals("SymTable")) {
+            this.table = new SymTable(names);
+        } else if (table.equals("PersistentSymTable")) {
+            version = new PersistentSymTable(names);
+        } else {
+            throw new IllegalArgumentException(table);
+        }
+    }
+
+    public void addScope() {
+        if (table != null) {
+            table.addScope();
+        } else {
+            version = version.addScope();
+        }
+    }
+
+    public void removeScope() {
+        try {
+            if (table != null) {
+                table.removeScope();
+            } else {
+                version = version.removeScope();
+            }
+        } catch (EmptySymTableException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    public void addDecl(int name) {
+        try {
+            if (table != null) {
+                table.addDecl(name, new Sym(INT));
+            } else {
+                version = version.addDecl(name, new Sym(INT));
+            }
+        } catch (DuplicateSymException | EmptySymTableException
+                 | WrongArgumentException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    public Object lookupGlobal(int name) {
+        return table != null ? table.lookupGlobal(name)
+                             : version.lookupGlobal(name);
+    }
+}
@@ -0,0 +1,68 @@
+package bench;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * FnCodeCacheBenchmark
+ *
+ * A whole compilation (scanning, parsing, analysis and code generation,
+ * as for a source file) of the programs of PhaseBenchmark, without the
+ * function code cache (uncached) and with a cache that already holds every
+ * function of the program (cached), as when a file is compiled again after
+ * a change to a few of its functions. A function found in the cache is not
+ * analyzed and its code is copied from the cache, so cached costs the
+ * scanning and parsing, the analysis of the globals, the key of every
+ * function and the reading of its entry.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FnCodeCacheBenchmark {
+    @Param({"small", "medium", "large"})
+    String program;
+
+    Phases phases;
+    ByteBuffer mapped;
+    File cacheDir;
+    PrintWriter sink;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        phases = Phases.create();
+        mapped = PhaseBenchmark.map(PhaseBenchmark.load(program));
+        sink = new PrintWriter(Writer.nullWriter());
+        cacheDir = Files.createTempDirectory("carrot-cache").toFile();
+        phases.compile(mapped, cacheDir, sink);
+        if (phases.compile(mapped, cacheDir, sink) == 0) {
+            throw new IllegalStateException(program + " is not cached");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(cacheDir.toPath())) {
+            files.sorted(Comparator.reverseOrder())
+                 .map(Path::toFile)
+                 .forEach(File::delete);
+        }
+    }
+
+    @Benchmark
+    public int uncached() {
+        return phases.compile(mapped, null, sink);
+    }
+
+    @Benchmark
+    public int cached() {
+        return phases.compile(mapped, cacheDir, sink);
+    }
+}
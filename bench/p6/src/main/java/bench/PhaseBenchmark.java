@@ -0,0 +1,172 @@
+package bench;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * PhaseBenchmark
+ *
+ * Each compiler phase on its own, over the programs in
+ * src/main/resources/programs: small is a handful of functions, medium
+ * uses every statement and expression form the code generator supports,
+ * and large is many functions like those of medium.
+ *
+ * Each phase gets its input from the phases before it, run outside the
+ * measurement. Name analysis fills in the tree it runs on, so it gets a
+ * freshly parsed tree for every invocation; the later phases can be run
+ * again on the same tree and share one analyzed tree per trial.
+ *
+ * scan reads the source through a Reader with the JLex-generated scanner;
+ * scanMapped scans the bytes of a copy of it in a memory-mapped file one
+ * token at a time, and scanPacked scans them into a packed token buffer.
+ * parse gets its tokens from the JLex-generated scanner, and parseMapped
+ * from a packed token buffer of the mapped copy, both with the
+ * CUP-generated parser. parseCup, parseLR and parseDescent time parsing
+ * alone: they parse one token buffer, scanned once per trial, with the
+ * CUP-generated parser, with the table-driven LRParser the compiler uses
+ * for source files, and with the hand-written DescentParser.
+ * nameAnalysisParallel and typeCheckParallel analyze the functions on the
+ * common ForkJoinPool, as the compiler does by default; their speed-up
+ * depends on the number of processors.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PhaseBenchmark {
+    @Param({"small", "medium", "large"})
+    String program;
+
+    Phases phases;
+    String source;
+    Object analyzed;
+    ByteBuffer mapped;
+    Object tokens;
+    PrintWriter sink;
+
+    /**
+     * A freshly parsed tree for every invocation of nameAnalysis.
+     */
+    @State(Scope.Thread)
+    public static class Parsed {
+        Object root;
+
+        @Setup(Level.Invocation)
+        public void parse(PhaseBenchmark b) {
+            root = b.phases.parse(b.source);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        phases = Phases.create();
+        source = load(program);
+        sink = new PrintWriter(Writer.nullWriter());
+        mapped = map(source);
+        tokens = phases.tokens(mapped);
+        analyzed = phases.parse(source);
+        if (!phases.nameAnalysis(analyzed) || !phases.typeCheck(analyzed)) {
+            throw new IllegalStateException(program + " does not compile");
+        }
+    }
+
+    static String load(String name) throws IOException {
+        String path = "/programs/" + name + ".crrt";
+        try (InputStream in = PhaseBenchmark.class.getResourceAsStream(path)) {
+            if (in == null) {
+                throw new FileNotFoundException(path);
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    static ByteBuffer map(String source) throws IOException {
+        Path file = Files.createTempFile("bench", ".crrt");
+        try {
+            Files.write(file, source.getBytes(StandardCharsets.US_ASCII));
+            try (FileChannel channel = FileChannel.open(file)) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                                   channel.size());
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Benchmark
+    public int scan() {
+        return phases.scan(source);
+    }
+
+    @Benchmark
+    public int scanMapped() {
+        return phases.scanBytes(mapped);
+    }
+
+    @Benchmark
+    public int scanPacked() {
+        return phases.scanPacked(mapped);
+    }
+
+    @Benchmark
+    public Object parse() {
+        return phases.parse(source);
+    }
+
+    @Benchmark
+    public Object parseMapped() {
+        return phases.parseBytes(mapped);
+    }
+
+    @Benchmark
+    public Object parseCup() {
+        return phases.parseTokens(tokens, "cup");
+    }
+
+    @Benchmark
+    public Object parseLR() {
+        return phases.parseTokens(tokens, "lr");
+    }
+
+    @Benchmark
+    public Object parseDescent() {
+        return phases.parseTokens(tokens, "descent");
+    }
+
+    @Benchmark
+    public boolean nameAnalysis(Parsed parsed) {
+        return phases.nameAnalysis(parsed.root);
+    }
+
+    @Benchmark
+    public boolean nameAnalysisParallel(Parsed parsed) {
+        return phases.nameAnalysisParallel(parsed.root);
+    }
+
+    @Benchmark
+    public boolean typeCheck() {
+        return phases.typeCheck(analyzed);
+    }
+
+    @Benchmark
+    public boolean typeCheckParallel() {
+        return phases.typeCheckParallel(analyzed);
+    }
+
+    @Benchmark
+    public int codeGen() {
+        return phases.codeGen(analyzed, sink);
+    }
+
+    @Benchmark
+    public void unparse() {
+        phases.unparse(analyzed, sink);
+    }
+}
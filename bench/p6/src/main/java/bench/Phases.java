@@ -0,0 +1,122 @@
+package bench;
+
+/**
+ * The phases of the compiler that are benchmarked, each run on its own.
+ *
+ * The compiler lives in the default package, which cannot be imported from
+ * a named package (and JMH does not allow benchmarks in the default
+ * package), so the benchmarks reach it through this interface, implemented
+ * by PhasesAdapter in the default package. Trees are passed around as
+ * Object for the same reason.
+ */
+public interface Phases {
+    /**
+     * Scans the source to the end.
+     * @return the number of tokens
+     */
+    int scan(String source);
+
+    /**
+     * Scans the ASCII bytes of a source (from their position to their
+     * limit) with the byte scanner the compiler uses for source files.
+     * @return the number of tokens
+     */
+    int scanBytes(java.nio.ByteBuffer source);
+
+    /**
+     * Scans the ASCII bytes of a source into a packed token buffer.
+     * @return the number of tokens
+     */
+    int scanPacked(java.nio.ByteBuffer source);
+
+    /**
+     * Parses the source.
+     * @return the AST
+     */
+    Object parse(String source);
+
+    /**
+     * Parses the ASCII bytes of a source, scanned into a packed token
+     * buffer first, with the CUP-generated parser.
+     * @return the AST
+     */
+    Object parseBytes(java.nio.ByteBuffer source);
+
+    /**
+     * Scans the ASCII bytes of a source into a packed token buffer, for
+     * parseTokens.
+     * @return the token buffer
+     */
+    Object tokens(java.nio.ByteBuffer source);
+
+    /**
+     * Parses a token buffer returned by tokens with one of the parsers of
+     * the compiler: "lr" (the table-driven LR parser it uses for source
+     * files), "descent" (the hand-written one) or "cup" (the
+     * CUP-generated one). The buffer is not changed, so it can be parsed
+     * again.
+     * @return the AST
+     */
+    Object parseTokens(Object tokens, String parser);
+
+    /**
+     * Runs name analysis on an AST returned by parse, one function after
+     * the other.
+     * @return whether there were no errors
+     */
+    boolean nameAnalysis(Object root);
+
+    /**
+     * Runs name analysis on an AST returned by parse, with the bodies of
+     * the functions analyzed in parallel on the common ForkJoinPool.
+     * @return whether there were no errors
+     */
+    boolean nameAnalysisParallel(Object root);
+
+    /**
+     * Runs the type checker on an AST that passed name analysis, one
+     * function after the other.
+     * @return whether there were no errors
+     */
+    boolean typeCheck(Object root);
+
+    /**
+     * Runs the type checker on an AST that passed name analysis, with the
+     * functions checked in parallel on the common ForkJoinPool.
+     * @return whether there were no errors
+     */
+    boolean typeCheckParallel(Object root);
+
+    /**
+     * Generates code for an AST that passed type checking.
+     * @return the number of labels used
+     */
+    int codeGen(Object root, java.io.PrintWriter out);
+
+    /**
+     * Compiles the ASCII bytes of a source as the compiler compiles a
+     * source file (scanned into a packed token buffer, parsed by LRParser,
+     * analyzed one function after the other), with the function code
+     * cache in cacheDir (none if cacheDir is null).
+     * @return the number of functions found in the cache
+     */
+    int compile(java.nio.ByteBuffer source, java.io.File cacheDir,
+                java.io.PrintWriter out);
+
+    /**
+     * Unparses an AST.
+     */
+    void unparse(Object root, java.io.PrintWriter out);
+
+    /**
+     * Creates the adapter.
+     */
+    static Phases create() {
+        try {
+            return (Phases)Class.forName("PhasesAdapter")
+                .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * SymTableBenchmark
+ *
+ * Declarations and global lookups in the P6 symbol tables, the mutable
+ * SymTable and the PersistentSymTable, with a varying number of open
+ * scopes of NAMES_PER_SCOPE names each, numbered densely from 0 like the
+ * names of a NameTable. Lookups are made for a name of the innermost
+ * scope, of the outermost scope and for a name that is not declared at
+ * all. addDecl opens a scope, fills it and closes it again, so the table
+ * is the same before and after each operation; for PersistentSymTable it
+ * makes a new version of the table for every declaration.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SymTableBenchmark {
+    static final int NAMES_PER_SCOPE = 16;
+
+    @Param({"SymTable", "PersistentSymTable"})
+    String table;
+
+    @Param({"1", "4", "16", "64"})
+    int depth;
+
+    SymbolTable symbols;
+    int[] newNames;
+    int innermost;
+    int outermost;
+    int missing;
+
+    @Setup
+    public void setUp() {
+        symbols = SymbolTable.create(table);
+        for (int s = 0; s < depth; s++) {
+            if (s > 0) {
+                symbols.addScope();
+            }
+            for (int k = 0; k < NAMES_PER_SCOPE; k++) {
+                symbols.addDecl(name(s, k));
+            }
+        }
+        newNames = new int[NAMES_PER_SCOPE];
+        for (int k = 0; k < NAMES_PER_SCOPE; k++) {
+            newNames[k] = name(depth, k);
+        }
+        innermost = name(depth - 1, NAMES_PER_SCOPE / 2);
+        outermost = name(0, NAMES_PER_SCOPE / 2);
+        missing = name(depth + 1, 0);
+    }
+
+    private static int name(int scope, int k) {
+        return scope * NAMES_PER_SCOPE + k;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NAMES_PER_SCOPE)
+    public void addDecl() {
+        symbols.addScope();
+        for (int name : newNames) {
+            symbols.addDecl(name);
+        }
+        symbols.removeScope();
+    }
+
+    @Benchmark
+    public Object lookupGlobalInnermost() {
+        return symbols.lookupGlobal(innermost);
+    }
+
+    @Benchmark
+    public Object lookupGlobalOutermost() {
+        return symbols.lookupGlobal(outermost);
+    }
+
+    @Benchmark
+    public Object lookupGlobalMissing() {
+        return symbols.lookupGlobal(missing);
+    }
+}
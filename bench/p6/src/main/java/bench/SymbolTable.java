@@ -0,0 +1,34 @@
+package bench;
+
+/**
+ * The operations of the P6 symbol tables that are benchmarked, on names
+ * given as name numbers (see NameTable).
+ *
+ * The symbol tables live in the default package, which cannot be imported
+ * from a named package, so the benchmarks reach them through this
+ * interface, implemented by SymTableAdapter in the default package. A
+ * persistent table is wrapped with its current version, which every
+ * operation replaces.
+ */
+public interface SymbolTable {
+    void addScope();
+
+    void removeScope();
+
+    void addDecl(int name);
+
+    Object lookupGlobal(int name);
+
+    /**
+     * Creates an adapter around a new table with one empty scope: a
+     * "SymTable" or a "PersistentSymTable".
+     */
+    static SymbolTable create(String table) {
+        try {
+            return (SymbolTable)Class.forName("SymTableAdapter")
+                .getDeclaredConstructor(String.class).newInstance(table);
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
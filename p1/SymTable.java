@@ -1,36 +1,64 @@
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.List;
 
 /**
  * The class SymTable is used to represent a symbol table
+ *
+ * Each name maps to the stack of its bindings, so looking it up is one
+ * hash whatever the number of scopes. The bindings of all the scopes are
+ * pushed on one log, each with the binding it hides; removeScope pops the
+ * bindings of the innermost scope and puts back the ones they hid.
  */
 public class SymTable {
     /**
-     * The symbol table is store in the list
+     * The binding stack of one name: the log index of its innermost
+     * binding, or -1 if it has none
      */
-    private List<HashMap<String, Sym>> list = new LinkedList<>();
+    private static class Name {
+        int innermost = -1;
+    }
+
+    /**
+     * The names that have bindings, with their binding stacks
+     */
+    private HashMap<String, Name> names = new HashMap<>();
+
+    /**
+     * The declarations of all the scopes, outermost first, each with the
+     * innermost binding of its name before it was declared
+     */
+    private Name[] logNames = new Name[16];
+    private String[] logIds = new String[16];
+    private Sym[] logSyms = new Sym[16];
+    private int[] logHidden = new int[16];
+    private int logSize = 0;
+
+    /**
+     * The log index where each scope starts, outermost first
+     */
+    private int[] scopeStarts = new int[8];
+    private int depth = 0;
 
     /**
      * The default constructor.
-     * It initialize the the list field to contain a single, empty HashMap
+     * It initialize the the symbol table to contain a single, empty scope
      */
     public SymTable() {
-        list.add(new HashMap<>());
+        addScope();
     }
 
     /**
      * @param idName the id name for a deceleration
      * @param sym    the symbol for a deceleration
-     * @throws DuplicateSymException  If the first HashMap in the list already
-     *                                contains the given id name as a key
-     * @throws EmptySymTableException If this SymTable's list is empty
+     * @throws DuplicateSymException  If the innermost scope already
+     *                                contains the given id name
+     * @throws EmptySymTableException If this SymTable has no scope
      * @throws WrongArgumentException If either idName or sym (or both) is null
      */
     public void addDecl(String idName, Sym sym)
             throws DuplicateSymException, EmptySymTableException,
             WrongArgumentException {
-        if (list.isEmpty())
+        if (depth == 0)
             throw new EmptySymTableException();
 
         if (idName == null && sym == null)
@@ -42,71 +70,123 @@ public class SymTable {
         if (sym == null)
             throw new WrongArgumentException("Sym is null.");
 
-        if (list.get(0).containsKey(idName))
+        if (declare(idName, sym) != null)
             throw new DuplicateSymException();
-
-        list.get(0).put(idName, sym);
     }
 
+    /**
+     * Declare id name in the innermost scope unless it is already
+     * declared there, with a single lookup of the name.
+     *
+     * @param idName the id name for a deceleration (not null)
+     * @param sym    the symbol for a deceleration
+     * @return the symbol id name already has in the innermost scope, in
+     * which case nothing is changed, or null if sym was added
+     * @throws EmptySymTableException If this SymTable has no scope
+     */
+    public Sym declare(String idName, Sym sym) throws EmptySymTableException {
+        if (depth == 0)
+            throw new EmptySymTableException();
+
+        Name name = names.computeIfAbsent(idName, k -> new Name());
+        if (name.innermost >= scopeStarts[depth - 1])
+            return logSyms[name.innermost];
+
+        if (logSize == logNames.length) {
+            logNames = Arrays.copyOf(logNames, 2 * logSize);
+            logIds = Arrays.copyOf(logIds, 2 * logSize);
+            logSyms = Arrays.copyOf(logSyms, 2 * logSize);
+            logHidden = Arrays.copyOf(logHidden, 2 * logSize);
+        }
+        logNames[logSize] = name;
+        logIds[logSize] = idName;
+        logSyms[logSize] = sym;
+        logHidden[logSize] = name.innermost;
+        name.innermost = logSize++;
+        return null;
+    }
 
     /**
-     * Add a new, empty HashMap to the front of the list.
+     * Add a new, empty scope inside the others.
      */
     public void addScope() {
-        list.add(0, new HashMap<>());
+        if (depth == scopeStarts.length)
+            scopeStarts = Arrays.copyOf(scopeStarts, 2 * depth);
+
+        scopeStarts[depth++] = logSize;
     }
 
     /**
      * @param idName the id name for a symbol
-     * @return associated symbol if the first HashMap in the list contains
-     * id name as a key, or null if not found
-     * @throws EmptySymTableException If this SymTable's list is empty
+     * @return associated symbol if the innermost scope contains id name,
+     * or null if not found
+     * @throws EmptySymTableException If this SymTable has no scope
      */
     public Sym lookupLocal(String idName) throws EmptySymTableException {
-        if (list.isEmpty())
+        if (depth == 0)
             throw new EmptySymTableException();
 
-        return list.get(0).getOrDefault(idName, null);
+        Name name = names.get(idName);
+        if (name == null || name.innermost < scopeStarts[depth - 1])
+            return null;
+
+        return logSyms[name.innermost];
     }
 
     /**
      * @param idName the id name for a symbol
-     * @return associated symbol if the any HashMap in the list contains
-     * id name as a key, or null if not found
-     * @throws EmptySymTableException If this SymTable's list is empty
+     * @return associated symbol if any scope contains id name (the one of
+     * the innermost such scope), or null if not found
+     * @throws EmptySymTableException If this SymTable has no scope
      */
     public Sym lookupGlobal(String idName) throws EmptySymTableException {
-        if (list.isEmpty())
+        if (depth == 0)
             throw new EmptySymTableException();
 
-        for (HashMap<String, Sym> map : list)
-            if (map.containsKey(idName))
-                return map.get(idName);
+        Name name = names.get(idName);
+        if (name == null || name.innermost < 0)
+            return null;
 
-        return null;
+        return logSyms[name.innermost];
     }
 
     /**
-     * remove the HashMap from the front of the list.
+     * remove the innermost scope, and the declarations in it. A name left
+     * with no binding is dropped from names.
      *
-     * @throws EmptySymTableException If this SymTable's list is empty
+     * @throws EmptySymTableException If this SymTable has no scope
      */
     public void removeScope() throws EmptySymTableException {
-        if (list.isEmpty())
+        if (depth == 0)
             throw new EmptySymTableException();
 
-        list.remove(0);
+        int start = scopeStarts[--depth];
+        for (int i = logSize - 1; i >= start; i--) {
+            logNames[i].innermost = logHidden[i];
+            if (logHidden[i] < 0)
+                names.remove(logIds[i]);
+            logNames[i] = null;
+            logIds[i] = null;
+            logSyms[i] = null;
+        }
+        logSize = start;
     }
 
 
     /**
      * This method is for debugging.
-     * It prints the data store in the symbol table
+     * It prints the data store in the symbol table, one HashMap for each
+     * scope, innermost first
      */
     public void print() {
         System.out.print("\n=== Sym Table ===\n");
-        for (HashMap<String, Sym> map : list)
+        for (int d = depth - 1; d >= 0; d--) {
+            int end = d + 1 < depth ? scopeStarts[d + 1] : logSize;
+            HashMap<String, Sym> map = new HashMap<>();
+            for (int i = scopeStarts[d]; i < end; i++)
+                map.put(logIds[i], logSyms[i]);
             System.out.println(map);
+        }
         System.out.println();
     }
 }
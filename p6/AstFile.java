@@ -0,0 +1,257 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.BufferUnderflowException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.*;
+import java.util.*;
+
+/**
+ * AstFile
+ *
+ * A compact binary format for an AST that has been through name analysis
+ * and type checking, so that a later compilation of the same source can go
+ * straight to code generation without scanning, parsing or analyzing.
+ *
+ * A file holds a header (magic number, format version, and the SHA-256
+ * hash of the source it was made from) followed by the tree, written in
+ * preorder. Every node starts with a one-byte tag (0 for a missing child);
+ * lists start with their length. Integers are written as zig-zag varints,
+ * so line numbers and offsets usually take one byte. Strings, symbols and
+ * types are written in full the first time they appear and as a reference
+ * after that, so every IdNode that was linked to a given Sym is linked to
+ * one shared Sym again when the tree is read back.
+ *
+ * The loader maps the file into memory and rebuilds the tree directly from
+ * the mapped bytes. It returns null (and the caller compiles the source as
+ * usual) if the file is missing, was made by another format version or
+ * from other source text, or is damaged.
+ */
+public class AstFile {
+    public static final int FORMAT_VERSION = 4;
+    public static final String SUFFIX = ".cast";
+    static final int MAGIC = 0x43415354; // "CAST"
+    static final int HASH_LENGTH = 32;
+
+    // node tags
+    static final int NONE = 0;
+    static final int PROGRAM = 1;
+    static final int DECL_LIST = 2;
+    static final int FORMALS_LIST = 3;
+    static final int FN_BODY = 4;
+    static final int STMT_LIST = 5;
+    static final int EXP_LIST = 6;
+    static final int VAR_DECL = 7;
+    static final int FN_DECL = 8;
+    static final int FORMAL_DECL = 9;
+    static final int STRUCT_DECL = 10;
+    static final int INT = 11;
+    static final int BOOL = 12;
+    static final int VOID = 13;
+    static final int STRUCT = 14;
+    static final int ASSIGN_STMT = 15;
+    static final int POST_INC_STMT = 16;
+    static final int POST_DEC_STMT = 17;
+    static final int READ_STMT = 18;
+    static final int WRITE_STMT = 19;
+    static final int IF_STMT = 20;
+    static final int IF_ELSE_STMT = 21;
+    static final int WHILE_STMT = 22;
+    static final int REPEAT_STMT = 23;
+    static final int CALL_STMT = 24;
+    static final int RETURN_STMT = 25;
+    static final int INT_LIT = 26;
+    static final int STRING_LIT = 27;
+    static final int TRUE = 28;
+    static final int FALSE = 29;
+    static final int ID = 30;
+    static final int DOT_ACCESS = 31;
+    static final int ASSIGN = 32;
+    static final int CALL_EXP = 33;
+    static final int UNARY_MINUS = 34;
+    static final int NOT = 35;
+    static final int PLUS = 36;
+    static final int MINUS = 37;
+    static final int TIMES = 38;
+    static final int DIVIDE = 39;
+    static final int AND = 40;
+    static final int OR = 41;
+    static final int EQUALS = 42;
+    static final int NOT_EQUALS = 43;
+    static final int LESS = 44;
+    static final int GREATER = 45;
+    static final int LESS_EQ = 46;
+    static final int GREATER_EQ = 47;
+
+    // type tags
+    static final int ERROR_TYPE = 1;
+    static final int INT_TYPE = 2;
+    static final int BOOL_TYPE = 3;
+    static final int VOID_TYPE = 4;
+    static final int STRING_TYPE = 5;
+    static final int FN_TYPE = 6;
+    static final int STRUCT_TYPE = 7;
+    static final int STRUCT_DEF_TYPE = 8;
+
+    // symbol kinds
+    static final int SYM = 1;
+    static final int FN_SYM = 2;
+    static final int STRUCT_SYM = 3;
+    static final int STRUCT_DEF_SYM = 4;
+
+    static final Map<Class<?>, Integer> TAGS = new HashMap<Class<?>, Integer>();
+    static {
+        TAGS.put(ProgramNode.class, PROGRAM);
+        TAGS.put(DeclListNode.class, DECL_LIST);
+        TAGS.put(FormalsListNode.class, FORMALS_LIST);
+        TAGS.put(FnBodyNode.class, FN_BODY);
+        TAGS.put(StmtListNode.class, STMT_LIST);
+        TAGS.put(ExpListNode.class, EXP_LIST);
+        TAGS.put(VarDeclNode.class, VAR_DECL);
+        TAGS.put(FnDeclNode.class, FN_DECL);
+        TAGS.put(FormalDeclNode.class, FORMAL_DECL);
+        TAGS.put(StructDeclNode.class, STRUCT_DECL);
+        TAGS.put(IntNode.class, INT);
+        TAGS.put(BoolNode.class, BOOL);
+        TAGS.put(VoidNode.class, VOID);
+        TAGS.put(StructNode.class, STRUCT);
+        TAGS.put(AssignStmtNode.class, ASSIGN_STMT);
+        TAGS.put(PostIncStmtNode.class, POST_INC_STMT);
+        TAGS.put(PostDecStmtNode.class, POST_DEC_STMT);
+        TAGS.put(ReadStmtNode.class, READ_STMT);
+        TAGS.put(WriteStmtNode.class, WRITE_STMT);
+        TAGS.put(IfStmtNode.class, IF_STMT);
+        TAGS.put(IfElseStmtNode.class, IF_ELSE_STMT);
+        TAGS.put(WhileStmtNode.class, WHILE_STMT);
+        TAGS.put(RepeatStmtNode.class, REPEAT_STMT);
+        TAGS.put(CallStmtNode.class, CALL_STMT);
+        TAGS.put(ReturnStmtNode.class, RETURN_STMT);
+        TAGS.put(IntLitNode.class, INT_LIT);
+        TAGS.put(StringLitNode.class, STRING_LIT);
+        TAGS.put(TrueNode.class, TRUE);
+        TAGS.put(FalseNode.class, FALSE);
+        TAGS.put(IdNode.class, ID);
+        TAGS.put(DotAccessExpNode.class, DOT_ACCESS);
+        TAGS.put(AssignNode.class, ASSIGN);
+        TAGS.put(CallExpNode.class, CALL_EXP);
+        TAGS.put(UnaryMinusNode.class, UNARY_MINUS);
+        TAGS.put(NotNode.class, NOT);
+        TAGS.put(PlusNode.class, PLUS);
+        TAGS.put(MinusNode.class, MINUS);
+        TAGS.put(TimesNode.class, TIMES);
+        TAGS.put(DivideNode.class, DIVIDE);
+        TAGS.put(AndNode.class, AND);
+        TAGS.put(OrNode.class, OR);
+        TAGS.put(EqualsNode.class, EQUALS);
+        TAGS.put(NotEqualsNode.class, NOT_EQUALS);
+        TAGS.put(LessNode.class, LESS);
+        TAGS.put(GreaterNode.class, GREATER);
+        TAGS.put(LessEqNode.class, LESS_EQ);
+        TAGS.put(GreaterEqNode.class, GREATER_EQ);
+    }
+
+    /**
+     * Returns the SHA-256 hash of the given source file.
+     */
+    public static byte[] hashSource(String filename) throws IOException {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            return md.digest(Files.readAllBytes(Paths.get(filename)));
+        } catch (NoSuchAlgorithmException ex) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Returns the name of the file (in a cache directory) that holds the
+     * AST of source text with the given hash.
+     */
+    public static String fileName(byte[] sourceHash) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : sourceHash) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.append(SUFFIX).toString();
+    }
+
+    /**
+     * Writes an analyzed AST to a file. Failing to write is not an error;
+     * the source will simply be compiled again next time.
+     * @param root root of an AST that passed name analysis and type checking
+     * @param sourceHash hash of the source text of the AST
+     * @param file destination
+     * @return true if the file was written
+     */
+    public static boolean save(ProgramNode root, byte[] sourceHash,
+                               File file) {
+        Path tmp = null;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.write(sourceHash);
+            AstWriter w = new AstWriter(out);
+            w.writeNode(root);
+            out.flush();
+
+            File dir = file.getAbsoluteFile().getParentFile();
+            dir.mkdirs();
+            tmp = Files.createTempFile(dir.toPath(), "tmp", SUFFIX);
+            Files.write(tmp, bytes.toByteArray());
+            try {
+                Files.move(tmp, file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tmp, file.toPath(),
+                           StandardCopyOption.REPLACE_EXISTING);
+            }
+            return true;
+        } catch (IOException ex) {
+            if (tmp != null) {
+                tmp.toFile().delete();
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Reads an analyzed AST back from a file.
+     * @param file file written by save
+     * @param sourceHash hash of the current source text
+     * @return the root of the AST, or null if the file is missing, stale or
+     *         damaged
+     */
+    public static ProgramNode load(File file, byte[] sourceHash) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                                                    StandardOpenOption.READ)) {
+            ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                                         channel.size());
+            if (buf.getInt() != MAGIC || buf.getInt() != FORMAT_VERSION) {
+                return null;
+            }
+            byte[] hash = new byte[HASH_LENGTH];
+            buf.get(hash);
+            if (!Arrays.equals(hash, sourceHash)) {
+                return null;
+            }
+            ASTnode root = new AstReader(buf).readNode();
+            if (!(root instanceof ProgramNode) || buf.hasRemaining()) {
+                return null;
+            }
+            return (ProgramNode)root;
+        } catch (IOException ex) {
+            return null;
+        } catch (BufferUnderflowException ex) {
+            return null;
+        } catch (ClassCastException ex) {
+            return null;
+        } catch (IllegalArgumentException ex) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+/**
+ * AstFileBenchmark
+ *
+ * Compares the two ways of getting an analyzed AST for a source file:
+ * scanning, parsing, name analysis and type checking ("cold"), against
+ * loading the tree from an AST file (see AstFile). Usage:
+ *
+ *     java AstFileBenchmark [-n rounds] file.crrt...
+ *
+ * Each file is first analyzed once and saved to a temporary directory.
+ * Then both ways are run for the given number of rounds (the first half
+ * are warm-up and not counted) and the average time per file is printed
+ * together with the size of the source and of the AST file.
+ */
+public class AstFileBenchmark {
+    private static final int DEFAULT_ROUNDS = 200;
+
+    public static void main(String[] args) throws IOException {
+        int rounds = DEFAULT_ROUNDS;
+        int k = 0;
+        if (args.length > 1 && args[0].equals("-n")) {
+            rounds = Integer.parseInt(args[1]);
+            k = 2;
+        }
+        if (k >= args.length) {
+            System.err.println("usage: java AstFileBenchmark [-n rounds] " +
+                               "file.crrt...");
+            System.exit(-1);
+        }
+
+        File dir = Files.createTempDirectory("carrot-ast").toFile();
+        System.out.printf("%-30s %8s %8s %12s %12s %8s%n", "file", "source",
+                          "ast", "cold (us)", "load (us)", "speedup");
+        for (; k < args.length; k++) {
+            benchmark(args[k], dir, rounds);
+        }
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    private static void benchmark(String filename, File dir, int rounds)
+        throws IOException {
+        String source = new String(Files.readAllBytes(Paths.get(filename)),
+                                   StandardCharsets.UTF_8);
+        byte[] hash = AstFile.hashSource(filename);
+        File astFile = new File(dir, AstFile.fileName(hash));
+
+        ProgramNode root = analyze(source);
+        if (root == null) {
+            System.out.println(filename + ": does not compile, skipped");
+            return;
+        }
+        AstFile.save(root, hash, astFile);
+
+        long cold = 0;
+        long load = 0;
+        for (int r = 0; r < rounds; r++) {
+            long start = System.nanoTime();
+            analyze(source);
+            long mid = System.nanoTime();
+            if (AstFile.load(astFile, hash) == null) {
+                System.out.println(filename + ": AST file rejected");
+                return;
+            }
+            long end = System.nanoTime();
+            if (r >= rounds / 2) {
+                cold += mid - start;
+                load += end - mid;
+            }
+        }
+
+        int counted = rounds - rounds / 2;
+        System.out.printf("%-30s %8d %8d %12.1f %12.1f %7.1fx%n", filename,
+                          source.length(), astFile.length(),
+                          cold / 1e3 / counted, load / 1e3 / counted,
+                          (double)cold / load);
+    }
+
+    /**
+     * Parses and analyzes a program, discarding diagnostics.
+     * @return the analyzed AST, or null if the program has errors
+     */
+    private static ProgramNode analyze(String source) {
+        PrintStream sink = new PrintStream(OutputStream.nullOutputStream());
+        CompileContext ctx = new CompileContext(
+            new PrintWriter(Writer.nullWriter()), null, sink);
+        ProgramNode root;
+        try {
+            parser P = new parser(new Yylex(new StringReader(source), ctx),
+                                  ctx);
+            root = (ProgramNode)P.parse().value;
+        } catch (Exception ex) {
+            return null;
+        }
+        if (ctx.errMsg.getErr()) {
+            return null;
+        }
+        root.nameAnalysis(ctx);
+        if (ctx.errMsg.getErr()) {
+            return null;
+        }
+        root.typeCheck(ctx);
+        return ctx.errMsg.getErr() ? null : root;
+    }
+}
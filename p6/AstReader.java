@@ -0,0 +1,310 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * AstReader
+ *
+ * Rebuilds nodes, symbols, types and strings from a buffer written by
+ * AstWriter. Malformed input makes it throw IllegalArgumentException,
+ * ClassCastException or BufferUnderflowException.
+ */
+class AstReader {
+    private final ByteBuffer buf;
+    private final List<String> strings = new ArrayList<String>();
+    private final List<Sym> syms = new ArrayList<Sym>();
+
+    // numbers the names of the IDs and struct fields of the tree
+    private final NameTable names = new NameTable();
+
+    AstReader(ByteBuffer buf) {
+        this.buf = buf;
+    }
+
+    int readInt() {
+        int v = 0;
+        int shift = 0;
+        while (true) {
+            int b = buf.get() & 0xff;
+            v |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+            shift += 7;
+            if (shift > 28) {
+                throw new IllegalArgumentException("bad varint");
+            }
+        }
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    boolean readBoolean() {
+        return buf.get() != 0;
+    }
+
+    String readString() {
+        int code = readInt();
+        if (code == 0) {
+            return null;
+        }
+        if (code >= 2) {
+            return strings.get(code - 2);
+        }
+        int length = readInt();
+        if (length < 0 || length > buf.remaining()) {
+            throw new IllegalArgumentException("bad string length");
+        }
+        byte[] bytes = new byte[length];
+        buf.get(bytes);
+        String s = new String(bytes, StandardCharsets.UTF_8);
+        strings.add(s);
+        return s;
+    }
+
+    @SuppressWarnings("unchecked")
+    <T extends ASTnode> LinkedList<T> readNodes() {
+        int size = readInt();
+        if (size < 0 || size > buf.remaining()) {
+            throw new IllegalArgumentException("bad list length");
+        }
+        LinkedList<T> list = new LinkedList<T>();
+        for (int k = 0; k < size; k++) {
+            list.add((T)readNode());
+        }
+        return list;
+    }
+
+    ExpNode readExp() {
+        return (ExpNode)readNode();
+    }
+
+    IdNode readId() {
+        return (IdNode)readNode();
+    }
+
+    DeclListNode readDeclList() {
+        return (DeclListNode)readNode();
+    }
+
+    StmtListNode readStmtList() {
+        return (StmtListNode)readNode();
+    }
+
+    ASTnode readNode() {
+        int tag = buf.get();
+        switch (tag) {
+        case AstFile.NONE:
+            return null;
+        case AstFile.PROGRAM:
+            return new ProgramNode(readDeclList(), names);
+        case AstFile.DECL_LIST:
+            return new DeclListNode(this.<DeclNode>readNodes());
+        case AstFile.FORMALS_LIST:
+            return new FormalsListNode(this.<FormalDeclNode>readNodes());
+        case AstFile.FN_BODY:
+            return new FnBodyNode(readDeclList(), readStmtList());
+        case AstFile.STMT_LIST:
+            return new StmtListNode(this.<StmtNode>readNodes());
+        case AstFile.EXP_LIST:
+            return new ExpListNode(this.<ExpNode>readNodes());
+        case AstFile.VAR_DECL:
+            return new VarDeclNode((TypeNode)readNode(), readId(), readInt());
+        case AstFile.FN_DECL: {
+            FnDeclNode node = new FnDeclNode((TypeNode)readNode(), readId(),
+                                             (FormalsListNode)readNode(),
+                                             (FnBodyNode)readNode());
+            node.setCacheKey(readString());
+            return node;
+        }
+        case AstFile.FORMAL_DECL:
+            return new FormalDeclNode((TypeNode)readNode(), readId());
+        case AstFile.STRUCT_DECL:
+            return new StructDeclNode(readId(), readDeclList());
+        case AstFile.INT:
+            return new IntNode();
+        case AstFile.BOOL:
+            return new BoolNode();
+        case AstFile.VOID:
+            return new VoidNode();
+        case AstFile.STRUCT:
+            return new StructNode(readId());
+        case AstFile.ASSIGN_STMT:
+            return new AssignStmtNode((AssignNode)readNode());
+        case AstFile.POST_INC_STMT:
+            return new PostIncStmtNode(readExp());
+        case AstFile.POST_DEC_STMT:
+            return new PostDecStmtNode(readExp());
+        case AstFile.READ_STMT: {
+            ReadStmtNode node = new ReadStmtNode(readExp());
+            node.setType(readType());
+            return node;
+        }
+        case AstFile.WRITE_STMT: {
+            WriteStmtNode node = new WriteStmtNode(readExp());
+            node.setType(readType());
+            return node;
+        }
+        case AstFile.IF_STMT:
+            return new IfStmtNode(readExp(), readDeclList(), readStmtList());
+        case AstFile.IF_ELSE_STMT:
+            return new IfElseStmtNode(readExp(), readDeclList(),
+                                      readStmtList(), readDeclList(),
+                                      readStmtList());
+        case AstFile.WHILE_STMT:
+            return new WhileStmtNode(readExp(), readDeclList(),
+                                     readStmtList());
+        case AstFile.REPEAT_STMT:
+            return new RepeatStmtNode(readExp(), readDeclList(),
+                                      readStmtList());
+        case AstFile.CALL_STMT:
+            return new CallStmtNode((CallExpNode)readNode());
+        case AstFile.RETURN_STMT: {
+            ReturnStmtNode node = new ReturnStmtNode(readExp());
+            node.setFunction(readString());
+            return node;
+        }
+        case AstFile.INT_LIT:
+            return new IntLitNode(readInt(), readInt(), readInt());
+        case AstFile.STRING_LIT:
+            return new StringLitNode(readInt(), readInt(), readString());
+        case AstFile.TRUE:
+            return new TrueNode(readInt(), readInt());
+        case AstFile.FALSE:
+            return new FalseNode(readInt(), readInt());
+        case AstFile.ID: {
+            int lineNum = readInt();
+            int charNum = readInt();
+            String name = readString();
+            IdNode node = new IdNode(lineNum, charNum, name, names.id(name));
+            node.link(readSym());
+            return node;
+        }
+        case AstFile.DOT_ACCESS: {
+            DotAccessExpNode node = new DotAccessExpNode(readExp(), readId());
+            node.link(readSym());
+            return node;
+        }
+        case AstFile.ASSIGN:
+            return new AssignNode(readExp(), readExp());
+        case AstFile.CALL_EXP:
+            return new CallExpNode(readId(), (ExpListNode)readNode());
+        case AstFile.UNARY_MINUS:
+            return new UnaryMinusNode(readExp());
+        case AstFile.NOT:
+            return new NotNode(readExp());
+        case AstFile.PLUS:
+            return new PlusNode(readExp(), readExp());
+        case AstFile.MINUS:
+            return new MinusNode(readExp(), readExp());
+        case AstFile.TIMES:
+            return new TimesNode(readExp(), readExp());
+        case AstFile.DIVIDE:
+            return new DivideNode(readExp(), readExp());
+        case AstFile.AND:
+            return new AndNode(readExp(), readExp());
+        case AstFile.OR:
+            return new OrNode(readExp(), readExp());
+        case AstFile.EQUALS:
+            return new EqualsNode(readExp(), readExp());
+        case AstFile.NOT_EQUALS:
+            return new NotEqualsNode(readExp(), readExp());
+        case AstFile.LESS:
+            return new LessNode(readExp(), readExp());
+        case AstFile.GREATER:
+            return new GreaterNode(readExp(), readExp());
+        case AstFile.LESS_EQ:
+            return new LessEqNode(readExp(), readExp());
+        case AstFile.GREATER_EQ:
+            return new GreaterEqNode(readExp(), readExp());
+        default:
+            throw new IllegalArgumentException("bad node tag " + tag);
+        }
+    }
+
+    Type readType() {
+        int tag = buf.get();
+        switch (tag) {
+        case AstFile.NONE:
+            return null;
+        case AstFile.ERROR_TYPE:
+            return Type.ERROR;
+        case AstFile.INT_TYPE:
+            return Type.INT;
+        case AstFile.BOOL_TYPE:
+            return Type.BOOL;
+        case AstFile.VOID_TYPE:
+            return Type.VOID;
+        case AstFile.STRING_TYPE:
+            return Type.STRING;
+        case AstFile.FN_TYPE:
+            return Type.FN;
+        case AstFile.STRUCT_TYPE:
+            // only in files of trees with type errors, which are not saved
+            return new StructType(readString());
+        case AstFile.STRUCT_DEF_TYPE:
+            return Type.STRUCT_DEF;
+        default:
+            throw new IllegalArgumentException("bad type tag " + tag);
+        }
+    }
+
+    Sym readSym() {
+        int code = readInt();
+        if (code == 0) {
+            return null;
+        }
+        if (code >= 2) {
+            return syms.get(code - 2);
+        }
+
+        Sym sym;
+        int kind = buf.get();
+        switch (kind) {
+        case AstFile.FN_SYM: {
+            Type returnType = readType();
+            FnSym fnSym = new FnSym(returnType, readInt());
+            int numParams = readInt();
+            if (numParams >= 0) {
+                List<Type> params = new LinkedList<Type>();
+                for (int k = 0; k < numParams; k++) {
+                    params.add(readType());
+                }
+                fnSym.addFormals(params);
+            }
+            sym = fnSym;
+            break;
+        }
+        case AstFile.STRUCT_SYM:
+            sym = new StructSym(readId());
+            break;
+        case AstFile.STRUCT_DEF_SYM: {
+            String name = readString();
+            int size = readInt();
+            SymTable fields = new SymTable(names);
+            int numFields = readInt();
+            try {
+                for (int k = 0; k < numFields; k++) {
+                    fields.addDecl(readString(), readSym());
+                }
+            } catch (DuplicateSymException ex) {
+                throw new IllegalArgumentException("duplicate field");
+            } catch (EmptySymTableException ex) {
+                throw new IllegalArgumentException("no field scope");
+            } catch (WrongArgumentException ex) {
+                throw new IllegalArgumentException("missing field");
+            }
+            sym = new StructDefSym(fields, name, size);
+            break;
+        }
+        case AstFile.SYM:
+            sym = new Sym(readType());
+            break;
+        default:
+            throw new IllegalArgumentException("bad symbol kind " + kind);
+        }
+        sym.isGlobal = readBoolean();
+        sym.offset = readInt();
+        syms.add(sym);
+        return sym;
+    }
+}
@@ -0,0 +1,173 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * AstWriter
+ *
+ * Writes nodes, symbols, types and strings in the format of AstFile. The
+ * nodes themselves decide what to write (see the write methods in
+ * ast.java); this class provides the encodings.
+ */
+class AstWriter {
+    private final DataOutputStream out;
+    private final Map<String, Integer> strings = new HashMap<String, Integer>();
+    private final Map<Sym, Integer> syms = new IdentityHashMap<Sym, Integer>();
+    private int numNodes = 0;
+
+    AstWriter(DataOutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Number of nodes written so far
+     */
+    int getNodeCount() {
+        return numNodes;
+    }
+
+    /**
+     * Number of distinct symbols written so far
+     */
+    int getSymCount() {
+        return syms.size();
+    }
+
+    void writeTag(ASTnode node) throws IOException {
+        Integer tag = AstFile.TAGS.get(node.getClass());
+        if (tag == null) {
+            throw new IllegalArgumentException("no AST file tag for " +
+                                               node.getClass().getName());
+        }
+        out.writeByte(tag);
+        numNodes++;
+    }
+
+    void writeNode(ASTnode node) throws IOException {
+        if (node == null) {
+            out.writeByte(AstFile.NONE);
+        } else {
+            node.write(this);
+        }
+    }
+
+    void writeNodes(List<? extends ASTnode> nodes) throws IOException {
+        writeInt(nodes.size());
+        for (ASTnode node : nodes) {
+            writeNode(node);
+        }
+    }
+
+    /**
+     * Writes an int as a zig-zag varint (small magnitudes take one byte).
+     */
+    void writeInt(int value) throws IOException {
+        int v = (value << 1) ^ (value >> 31);
+        while ((v & ~0x7f) != 0) {
+            out.writeByte((v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        out.writeByte(v);
+    }
+
+    void writeBoolean(boolean value) throws IOException {
+        out.writeByte(value ? 1 : 0);
+    }
+
+    /**
+     * Writes 0 for null, 1 and the text for a new string, and n+2 for the
+     * n-th string written before.
+     */
+    void writeString(String s) throws IOException {
+        if (s == null) {
+            writeInt(0);
+            return;
+        }
+        Integer index = strings.get(s);
+        if (index != null) {
+            writeInt(index + 2);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeInt(1);
+        writeInt(bytes.length);
+        out.write(bytes);
+        strings.put(s, strings.size());
+    }
+
+    void writeType(Type type) throws IOException {
+        if (type == null) {
+            out.writeByte(AstFile.NONE);
+        } else if (type.isErrorType()) {
+            out.writeByte(AstFile.ERROR_TYPE);
+        } else if (type.isIntType()) {
+            out.writeByte(AstFile.INT_TYPE);
+        } else if (type.isBoolType()) {
+            out.writeByte(AstFile.BOOL_TYPE);
+        } else if (type.isVoidType()) {
+            out.writeByte(AstFile.VOID_TYPE);
+        } else if (type.isStringType()) {
+            out.writeByte(AstFile.STRING_TYPE);
+        } else if (type.isFnType()) {
+            out.writeByte(AstFile.FN_TYPE);
+        } else if (type.isStructType()) {
+            out.writeByte(AstFile.STRUCT_TYPE);
+            writeString(((StructType)type).name());
+        } else if (type.isStructDefType()) {
+            out.writeByte(AstFile.STRUCT_DEF_TYPE);
+        } else {
+            throw new IllegalArgumentException("unknown type " + type);
+        }
+    }
+
+    /**
+     * Writes 0 for null, 1 and the contents for a new symbol, and n+2 for
+     * the n-th symbol written before. A symbol is numbered after its
+     * contents are written, in the same order the reader creates them.
+     */
+    void writeSym(Sym sym) throws IOException {
+        if (sym == null) {
+            writeInt(0);
+            return;
+        }
+        Integer index = syms.get(sym);
+        if (index != null) {
+            writeInt(index + 2);
+            return;
+        }
+        writeInt(1);
+        if (sym instanceof FnSym) {
+            FnSym fnSym = (FnSym)sym;
+            out.writeByte(AstFile.FN_SYM);
+            writeType(fnSym.getReturnType());
+            writeInt(fnSym.getNumParams());
+            List<Type> params = fnSym.getParamTypes();
+            writeInt(params == null ? -1 : params.size());
+            if (params != null) {
+                for (Type t : params) {
+                    writeType(t);
+                }
+            }
+        } else if (sym instanceof StructSym) {
+            out.writeByte(AstFile.STRUCT_SYM);
+            writeNode(((StructSym)sym).getStructType());
+        } else if (sym instanceof StructDefSym) {
+            out.writeByte(AstFile.STRUCT_DEF_SYM);
+            writeString(((StructDefSym)sym).getInstanceType().name());
+            writeInt(((StructDefSym)sym).getSize());
+            Map<String, Sym> fields =
+                ((StructDefSym)sym).getSymTable().getLocalScope();
+            writeInt(fields.size());
+            for (Map.Entry<String, Sym> field : fields.entrySet()) {
+                writeString(field.getKey());
+                writeSym(field.getValue());
+            }
+        } else {
+            out.writeByte(AstFile.SYM);
+            writeType(sym.getType());
+        }
+        writeBoolean(sym.isGlobal);
+        writeInt(sym.offset);
+        syms.put(sym, syms.size());
+    }
+}
@@ -0,0 +1,283 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * BatchCompiler
+ *
+ * Compiles many Carrot files in one JVM. It is invoked through P6 as
+ *
+ *     java P6 -batch [-j threads] [options] file-or-dir...
+ *
+ * Every argument that is a directory is searched (recursively) for files
+ * ending in .crrt. The files are compiled concurrently on a fixed pool of
+ * worker threads (one per available processor unless -j is given), each
+ * with its own P6 instance and therefore its own CompileContext. The code
+ * for foo.crrt is written to foo.s in the same directory; the .s file of a
+ * failed compilation is removed.
+ *
+ * The options are those of a single compilation (see P6.setOption), except
+ * -stats, and apply to every file, so that each file is compiled just as
+ * "java P6 [options] file.crrt file.s" would compile it. With -cache, the
+ * code of functions that did not change since an earlier compilation is
+ * reused (see FnCodeCache); with -astcache, the analyzed AST of files whose
+ * text did not change is reused (see AstFile). All files share the cache
+ * directories.
+ *
+ * When all files are done, a summary is printed with the number of
+ * successes and failures, the total time spent in each phase, the function
+ * cache hits and misses and the throughput in files/sec and MB/sec.
+ */
+public class BatchCompiler {
+    public static final String SOURCE_SUFFIX = ".crrt";
+    public static final String OUTPUT_SUFFIX = ".s";
+
+    /**
+     * Result of compiling one file.
+     */
+    static class Result {
+        File source;
+        int resultCode = P6.RESULT_OTHER_ERROR;
+        String message;
+        long[] phaseNanos = new long[P6.PHASE_NAMES.length];
+        int cacheHits;
+        int cacheMisses;
+        boolean astLoaded;
+    }
+
+    // the options of every compilation, as pairs of name and value (see
+    // P6.setOption)
+    private final List<String> options = new ArrayList<String>();
+
+    // function code cache directory (null if caching is disabled)
+    private File cacheDir = null;
+
+    // AST cache directory (null if caching is disabled)
+    private File astCacheDir = null;
+
+    /**
+     * Runs the batch compiler.
+     * @param args command line args, starting with "-batch"
+     * @return process exit code: 0 if every file compiled, -1 otherwise
+     */
+    public static int run(String[] args) {
+        return new BatchCompiler().runBatch(args);
+    }
+
+    private int runBatch(String[] args) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<File> sources = new ArrayList<File>();
+        P6 check = new P6();
+
+        for (int k = 1; k < args.length; k++) {
+            if (args[k].equals("-j")) {
+                if (k + 1 >= args.length) {
+                    System.err.println("-j requires a number of threads");
+                    return -1;
+                }
+                try {
+                    threads = Integer.parseInt(args[++k]);
+                } catch (NumberFormatException ex) {
+                    threads = 0;
+                }
+                if (threads < 1) {
+                    System.err.println("bad number of threads: " + args[k]);
+                    return -1;
+                }
+            } else if (args[k].startsWith("-")) {
+                if (args[k].equals("-stats") || k + 1 >= args.length
+                    || !check.setOption(args[k], args[k + 1])) {
+                    System.err.println("unknown batch option: " + args[k]);
+                    return -1;
+                }
+                if (args[k].equals("-cache")) {
+                    cacheDir = new File(args[k + 1]);
+                } else if (args[k].equals("-astcache")) {
+                    astCacheDir = new File(args[k + 1]);
+                }
+                options.add(args[k]);
+                options.add(args[++k]);
+            } else {
+                File f = new File(args[k]);
+                if (!f.exists()) {
+                    System.err.println("Could not open " + args[k] +
+                                       " for reading");
+                    return -1;
+                }
+                collectSources(f, sources);
+            }
+        }
+
+        if (sources.isEmpty()) {
+            System.err.println("please supply files or directories " +
+                               "containing " + SOURCE_SUFFIX + " files.");
+            return -1;
+        }
+
+        return compileAll(sources, threads);
+    }
+
+    /**
+     * Adds f to the list if it is a file, or all of the Carrot sources
+     * below it if it is a directory.
+     */
+    private static void collectSources(File f, List<File> sources) {
+        if (!f.isDirectory()) {
+            sources.add(f);
+            return;
+        }
+        File[] kids = f.listFiles();
+        if (kids == null) {
+            return;
+        }
+        Arrays.sort(kids);
+        for (File kid : kids) {
+            if (kid.isDirectory() || kid.getName().endsWith(SOURCE_SUFFIX)) {
+                collectSources(kid, sources);
+            }
+        }
+    }
+
+    /**
+     * Compiles every file on a pool of the given number of threads and
+     * prints the summary.
+     */
+    private int compileAll(List<File> sources, int threads) {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<Result>> futures = new ArrayList<Future<Result>>();
+        long totalBytes = 0;
+        long start = System.nanoTime();
+
+        for (final File source : sources) {
+            totalBytes += source.length();
+            futures.add(pool.submit(new Callable<Result>() {
+                public Result call() {
+                    return compile(source);
+                }
+            }));
+        }
+
+        List<Result> results = new ArrayList<Result>();
+        for (Future<Result> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException ex) {
+                // compile() catches everything it can; this is a bug
+                System.err.println("Unexpected exception in BatchCompiler: " +
+                                   ex.getCause());
+            }
+        }
+        pool.shutdown();
+
+        long elapsed = System.nanoTime() - start;
+        printSummary(sources.size(), results, totalBytes, elapsed);
+
+        for (Result r : results) {
+            if (r.resultCode != P6.RESULT_CORRECT) {
+                return -1;
+            }
+        }
+        return results.size() == sources.size() ? 0 : -1;
+    }
+
+    /**
+     * Compiles one file. Never throws: every problem is recorded in the
+     * returned Result.
+     */
+    Result compile(File source) {
+        Result result = new Result();
+        result.source = source;
+        String path = source.getPath();
+        String base = path.endsWith(SOURCE_SUFFIX)
+            ? path.substring(0, path.length() - SOURCE_SUFFIX.length())
+            : path;
+        File output = new File(base + OUTPUT_SUFFIX);
+
+        P6 compiler = new P6();
+        compiler.setDiagnosticsLabel(path);
+        for (int k = 0; k < options.size(); k += 2) {
+            compiler.setOption(options.get(k), options.get(k + 1));
+        }
+        try {
+            compiler.setInfile(path);
+            compiler.setOutfile(output.getPath());
+            result.resultCode = compiler.process();
+        } catch (Exception ex) {
+            result.message = ex.getMessage() != null ? ex.getMessage()
+                                                     : ex.toString();
+        } catch (StackOverflowError ex) {
+            result.message = "program too deeply nested";
+        } finally {
+            compiler.cleanup();
+        }
+        result.phaseNanos = compiler.getPhaseNanos();
+        result.cacheHits = compiler.getCacheHits();
+        result.cacheMisses = compiler.getCacheMisses();
+        result.astLoaded = compiler.isAstLoaded();
+
+        if (result.resultCode != P6.RESULT_CORRECT) {
+            output.delete();
+        }
+        return result;
+    }
+
+    /**
+     * Returns a description of a result code.
+     */
+    private static String describe(Result r) {
+        if (r.message != null) {
+            return r.message;
+        }
+        return P6.resultMessage(r.resultCode);
+    }
+
+    private void printSummary(int numFiles, List<Result> results,
+                                     long totalBytes, long elapsed) {
+        PrintStream out = System.out;
+        long[] phaseTotals = new long[P6.PHASE_NAMES.length];
+        int succeeded = 0;
+        int cacheHits = 0;
+        int cacheMisses = 0;
+        int astLoads = 0;
+
+        for (Result r : results) {
+            cacheHits += r.cacheHits;
+            cacheMisses += r.cacheMisses;
+            if (r.astLoaded) {
+                astLoads++;
+            }
+            if (r.resultCode == P6.RESULT_CORRECT) {
+                succeeded++;
+            } else {
+                out.println("FAILED " + r.source.getPath() + ": " +
+                            describe(r));
+            }
+            for (int k = 0; k < phaseTotals.length; k++) {
+                phaseTotals[k] += r.phaseNanos[k];
+            }
+        }
+
+        double seconds = elapsed / 1e9;
+        out.println();
+        out.println("Compiled " + numFiles + " files: " + succeeded +
+                    " succeeded, " + (numFiles - succeeded) + " failed");
+        out.println("Time per phase (summed over all threads):");
+        for (int k = 0; k < phaseTotals.length; k++) {
+            out.printf("    %-14s %10.1f ms%n", P6.PHASE_NAMES[k],
+                       phaseTotals[k] / 1e6);
+        }
+        if (cacheDir != null) {
+            out.println("Function cache: " + cacheHits + " hits, " +
+                        cacheMisses + " misses");
+        }
+        if (astCacheDir != null) {
+            out.println("AST cache: " + astLoads + " of " + numFiles +
+                        " files loaded");
+        }
+        out.printf("Elapsed %.3f s: %.1f files/sec, %.2f MB/sec%n", seconds,
+                   numFiles / seconds, totalBytes / 1e6 / seconds);
+    }
+}
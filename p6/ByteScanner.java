@@ -0,0 +1,514 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java_cup.runtime.*;
+
+/**
+ * ByteScanner
+ *
+ * A scanner for Carrot that works directly on the bytes of a source file
+ * mapped into memory, instead of decoding the file into chars and copying
+ * them into a buffer as the JLex-generated Yylex does. It returns exactly
+ * the tokens, values, line and character numbers and error messages that
+ * Yylex returns for the same text (see Carrot.jlex), including its quirk
+ * that comments and unterminated strings do not advance the character
+ * number.
+ *
+ * The two differ on a '\r', alone or before a '\n': no rule of Yylex
+ * matches it, and Yylex throws an Error ("Lexical Error: Unmatched
+ * Input."), while ByteScanner reports it as an illegal character and
+ * counts it as the end of a line.
+ *
+ * Carrot source is ASCII; {@link open} returns null for a file with any
+ * other byte, and the caller then scans it with Yylex.
+ *
+ * Runs of blanks are skipped and comments are searched for their end
+ * eight bytes at a time. Identifiers are looked up in the NameTable of
+ * the compilation by their bytes, so a String is made only once per
+ * distinct identifier, and the value of a string literal is made only
+ * when it is asked for (see StrLitTokenVal).
+ */
+public class ByteScanner implements java_cup.runtime.Scanner {
+    // eight copies of a byte, for the word-at-a-time tests
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGHS = 0x8080808080808080L;
+    private static final long LOWS = 0x7f7f7f7f7f7f7f7fL;
+    private static final long SPACES = ONES * ' ';
+    private static final long TABS = ONES * '\t';
+    private static final long NEWLINES = ONES * '\n';
+    private static final long RETURNS = ONES * '\r';
+
+    // character classes (of ASCII bytes)
+    private static final byte OTHER = 0;
+    private static final byte LETTER = 1;   // letters and '_'
+    private static final byte DIGIT = 2;
+    private static final byte[] CLASS = new byte[128];
+    static {
+        for (int c = 'a'; c <= 'z'; c++) {
+            CLASS[c] = LETTER;
+            CLASS[c - 'a' + 'A'] = LETTER;
+        }
+        CLASS['_'] = LETTER;
+        for (int c = '0'; c <= '9'; c++) {
+            CLASS[c] = DIGIT;
+        }
+    }
+
+    private static final String[] KEYWORDS = {
+        "bool", "int", "void", "true", "false", "struct", "cin", "cout",
+        "if", "else", "while", "return", "repeat"
+    };
+    private static final int[] KEYWORD_SYMS = {
+        sym.BOOL, sym.INT, sym.VOID, sym.TRUE, sym.FALSE, sym.STRUCT,
+        sym.CIN, sym.COUT, sym.IF, sym.ELSE, sym.WHILE, sym.RETURN,
+        sym.REPEAT
+    };
+
+    private final ByteBuffer buf;
+    private final int limit;
+    private final CompileContext ctx;
+
+    private int pos = 0;
+    // number of line ends before pos, counted as in Yylex: every '\r'
+    // and every '\n' that does not follow a '\r'
+    private int line = 0;
+
+    // token kind of each keyword, indexed by the number of its name
+    // (-1 for other names)
+    private final int[] keywordSyms;
+
+    // the last token scanned: its position and value (the number of the
+    // name of an ID, the value of an INTLITERAL, or the start of a
+    // STRINGLITERAL in buf, whose length is tokLength)
+    private int tokLine;
+    private int tokChar;
+    private int tokValue;
+    private int tokLength;
+
+    // where scanAll puts the tokens and messages (null in next_token)
+    private TokenBuffer tokens;
+
+    /**
+     * Creates a scanner for the bytes of buf from its position to its
+     * limit, which must all be ASCII.
+     */
+    ByteScanner(ByteBuffer buf, CompileContext ctx) {
+        this.buf = buf.slice().order(ByteOrder.LITTLE_ENDIAN);
+        this.limit = this.buf.limit();
+        this.ctx = ctx;
+        int[] ids = new int[KEYWORDS.length];
+        int maxId = 0;
+        for (int k = 0; k < KEYWORDS.length; k++) {
+            ids[k] = ctx.names.id(KEYWORDS[k]);
+            maxId = Math.max(maxId, ids[k]);
+        }
+        keywordSyms = new int[maxId + 1];
+        Arrays.fill(keywordSyms, -1);
+        for (int k = 0; k < KEYWORDS.length; k++) {
+            keywordSyms[ids[k]] = KEYWORD_SYMS[k];
+        }
+    }
+
+    /**
+     * Maps a source file into memory and creates a scanner for it.
+     * @return the scanner, or null if the file is not pure ASCII
+     */
+    public static ByteScanner open(File file, CompileContext ctx)
+        throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                                                    StandardOpenOption.READ)) {
+            ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                                         channel.size());
+            return isAscii(buf) ? new ByteScanner(buf, ctx) : null;
+        }
+    }
+
+    /**
+     * Whether every byte of buf (from its position) is ASCII.
+     */
+    static boolean isAscii(ByteBuffer buf) {
+        ByteBuffer b = buf.slice().order(ByteOrder.LITTLE_ENDIAN);
+        int n = b.limit();
+        int k = 0;
+        long bits = 0;
+        for (; k + 8 <= n; k += 8) {
+            bits |= b.getLong(k);
+        }
+        for (; k < n; k++) {
+            bits |= b.get(k);
+        }
+        return (bits & HIGHS) == 0;
+    }
+
+    /**
+     * Returns the high bit of every byte of x that is zero.
+     */
+    private static long zeroBytes(long x) {
+        return ~(((x & LOWS) + LOWS) | x | LOWS);
+    }
+
+    public Symbol next_token() {
+        int kind = scan();
+        switch (kind) {
+        case sym.EOF:
+            return new Symbol(sym.EOF);
+        case sym.ID:
+            return new Symbol(sym.ID,
+                              new IdTokenVal(tokLine, tokChar,
+                                             ctx.names.name(tokValue),
+                                             tokValue));
+        case sym.INTLITERAL:
+            return new Symbol(sym.INTLITERAL,
+                              new IntLitTokenVal(tokLine, tokChar, tokValue));
+        case sym.STRINGLITERAL:
+            return new Symbol(sym.STRINGLITERAL,
+                              new StrLitTokenVal(tokLine, tokChar, buf,
+                                                 tokValue, tokLength));
+        default:
+            return new Symbol(kind, new TokenVal(tokLine, tokChar));
+        }
+    }
+
+    /**
+     * Scans the whole source into a TokenBuffer, without making a Symbol
+     * or TokenVal for any token. Error messages are kept in the buffer
+     * too, and given to ErrMsg as the parser reaches them (see
+     * TokenBuffer.scanner), so they come out exactly as with next_token.
+     */
+    public TokenBuffer scanAll() {
+        tokens = new TokenBuffer(buf, ctx.names);
+        int kind;
+        do {
+            kind = scan();
+            int value = tokValue;
+            if (kind == sym.STRINGLITERAL) {
+                value = tokens.addString(tokValue, tokLength);
+            }
+            tokens.add(kind, tokLine, tokChar, value);
+        } while (kind != sym.EOF);
+        TokenBuffer result = tokens;
+        tokens = null;
+        return result;
+    }
+
+    /**
+     * Reports an error, or keeps it in the buffer of scanAll.
+     */
+    private void error(boolean fatal, int lineNum, int charNum, String msg) {
+        if (tokens != null) {
+            tokens.addMessage(fatal, lineNum, charNum, msg);
+        } else if (fatal) {
+            ctx.errMsg.fatal(lineNum, charNum, msg);
+        } else {
+            ctx.errMsg.warn(lineNum, charNum, msg);
+        }
+    }
+
+    /**
+     * Scans the next token.
+     * @return its kind (a sym number); its position and value are left in
+     *         the tok fields
+     */
+    private int scan() {
+        while (pos < limit) {
+            int start = pos;
+            int c = buf.get(pos);
+            switch (c) {
+            case '\n':
+                if (pos == 0 || buf.get(pos - 1) != '\r') {
+                    line++;
+                }
+                pos++;
+                ctx.charNum = 1;
+                continue;
+            case ' ':
+            case '\t':
+                skipBlanks();
+                ctx.charNum += pos - start;
+                continue;
+            case '#':
+                skipComment();
+                continue;
+            case '/':
+                if (peek(1) == '/') {
+                    skipComment();
+                    continue;
+                }
+                return token(sym.DIVIDE, 1);
+            case '"':
+                if (string()) {
+                    return sym.STRINGLITERAL;
+                }
+                continue;
+            case '{': return token(sym.LCURLY, 1);
+            case '}': return token(sym.RCURLY, 1);
+            case '(': return token(sym.LPAREN, 1);
+            case ')': return token(sym.RPAREN, 1);
+            case ';': return token(sym.SEMICOLON, 1);
+            case ',': return token(sym.COMMA, 1);
+            case '.': return token(sym.DOT, 1);
+            case '*': return token(sym.TIMES, 1);
+            case '<':
+                if (peek(1) == '<') return token(sym.WRITE, 2);
+                if (peek(1) == '=') return token(sym.LESSEQ, 2);
+                return token(sym.LESS, 1);
+            case '>':
+                if (peek(1) == '>') return token(sym.READ, 2);
+                if (peek(1) == '=') return token(sym.GREATEREQ, 2);
+                return token(sym.GREATER, 1);
+            case '+':
+                if (peek(1) == '+') return token(sym.PLUSPLUS, 2);
+                return token(sym.PLUS, 1);
+            case '-':
+                if (peek(1) == '-') return token(sym.MINUSMINUS, 2);
+                return token(sym.MINUS, 1);
+            case '!':
+                if (peek(1) == '=') return token(sym.NOTEQUALS, 2);
+                return token(sym.NOT, 1);
+            case '=':
+                if (peek(1) == '=') return token(sym.EQUALS, 2);
+                return token(sym.ASSIGN, 1);
+            case '&':
+                if (peek(1) == '&') return token(sym.AND, 2);
+                break;
+            case '|':
+                if (peek(1) == '|') return token(sym.OR, 2);
+                break;
+            case '\r':
+                // ends a line for the line count, but is illegal
+                break;
+            default:
+                if (CLASS[c] == LETTER) {
+                    return word();
+                }
+                if (CLASS[c] == DIGIT) {
+                    return number();
+                }
+                break;
+            }
+
+            // anything else is an illegal character
+            pos++;
+            error(true, line + 1, ctx.charNum,
+                  "illegal character ignored: " + (char)c);
+            ctx.charNum++;
+            if (c == '\r') {
+                line++;
+            }
+        }
+        tokLine = line + 1;
+        tokChar = ctx.charNum;
+        return sym.EOF;
+    }
+
+    private int peek(int offset) {
+        return pos + offset < limit ? buf.get(pos + offset) : -1;
+    }
+
+    /**
+     * Scans a token without a value of the given length at pos.
+     */
+    private int token(int kind, int length) {
+        tokLine = line + 1;
+        tokChar = ctx.charNum;
+        pos += length;
+        ctx.charNum += length;
+        return kind;
+    }
+
+    /**
+     * Advances pos past blanks and tabs.
+     */
+    private void skipBlanks() {
+        while (pos + 8 <= limit) {
+            long x = buf.getLong(pos);
+            long blanks = zeroBytes(x ^ SPACES) | zeroBytes(x ^ TABS);
+            if (blanks != HIGHS) {
+                pos += Long.numberOfTrailingZeros(~blanks & HIGHS) >>> 3;
+                return;
+            }
+            pos += 8;
+        }
+        while (pos < limit && (buf.get(pos) == ' ' || buf.get(pos) == '\t')) {
+            pos++;
+        }
+    }
+
+    /**
+     * Advances pos to the end of the line (a comment does not change the
+     * character number, as in Yylex, but a '\r' in it counts as a line
+     * end).
+     */
+    private void skipComment() {
+        while (pos + 8 <= limit) {
+            long x = buf.getLong(pos);
+            long ends = zeroBytes(x ^ NEWLINES) | zeroBytes(x ^ RETURNS);
+            if (ends == 0) {
+                pos += 8;
+                continue;
+            }
+            pos += Long.numberOfTrailingZeros(ends) >>> 3;
+            if (buf.get(pos) == '\n') {
+                return;
+            }
+            line++;
+            pos++;
+        }
+        int c;
+        while (pos < limit && (c = buf.get(pos)) != '\n') {
+            if (c == '\r') {
+                line++;
+            }
+            pos++;
+        }
+    }
+
+    /**
+     * Scans an identifier or keyword.
+     */
+    private int word() {
+        int start = pos;
+        int hash = 0;
+        int c;
+        while (pos < limit && (c = buf.get(pos)) >= 0 && CLASS[c] != OTHER) {
+            hash = 31 * hash + c;
+            pos++;
+        }
+        int length = pos - start;
+        int id = ctx.names.id(buf, start, length, hash);
+        tokLine = line + 1;
+        tokChar = ctx.charNum;
+        tokValue = id;
+        ctx.charNum += length;
+        if (id < keywordSyms.length && keywordSyms[id] >= 0) {
+            return keywordSyms[id];
+        }
+        return sym.ID;
+    }
+
+    /**
+     * Scans an integer literal.
+     */
+    private int number() {
+        int start = pos;
+        long value = 0;
+        boolean tooLarge = false;
+        int c;
+        while (pos < limit && (c = buf.get(pos)) >= '0' && c <= '9') {
+            value = 10 * value + (c - '0');
+            if (value > Integer.MAX_VALUE) {
+                tooLarge = true;
+                value = Integer.MAX_VALUE;
+            }
+            pos++;
+        }
+        if (tooLarge) {
+            error(false, line + 1, ctx.charNum,
+                  "integer literal too large; using max value");
+        }
+        tokLine = line + 1;
+        tokChar = ctx.charNum;
+        tokValue = (int)value;
+        ctx.charNum += pos - start;
+        return sym.INTLITERAL;
+    }
+
+    /**
+     * Whether c may follow a backslash in a string literal.
+     */
+    private static boolean isEscapedChar(int c) {
+        return c == 'n' || c == 't' || c == '\'' || c == '"' || c == '?'
+               || c == '\\';
+    }
+
+    /**
+     * Returns the end of the longest run of ordinary characters and valid
+     * escapes in a string literal starting at from.
+     */
+    private int stringBody(int from) {
+        int k = from;
+        while (k < limit) {
+            int c = buf.get(k);
+            if (c == '\\' && k + 1 < limit && isEscapedChar(buf.get(k + 1))) {
+                k += 2;
+            } else if (c != '\\' && c != '"' && c != '\n') {
+                k++;
+            } else {
+                break;
+            }
+        }
+        return k;
+    }
+
+    /**
+     * Scans a string literal starting at the '"' at pos. The four string
+     * rules of Carrot.jlex are matched as JLex would (longest match, the
+     * earlier rule on a tie).
+     * @return whether it is a good literal (a bad one is reported)
+     */
+    private boolean string() {
+        int start = pos;
+        int end = stringBody(start + 1);
+
+        // rule 1: a good literal, and rule 2: an unterminated one
+        int good = end < limit && buf.get(end) == '"' ? end + 1 - start : -1;
+        int unterminated = end - start;
+
+        // rule 3: a bad escape, terminated (anything but a newline may
+        // follow the bad escape)
+        boolean badEscape = end + 1 < limit && buf.get(end) == '\\'
+            && buf.get(end + 1) != '\n' && !isEscapedChar(buf.get(end + 1));
+        int badTerminated = -1;
+        int afterBad = -1;
+        if (badEscape) {
+            int k = end + 2;
+            while (k < limit && buf.get(k) != '"' && buf.get(k) != '\n') {
+                k++;
+            }
+            if (k < limit && buf.get(k) == '"') {
+                badTerminated = k + 1 - start;
+            }
+            afterBad = stringBody(end + 2);
+        }
+
+        // rule 4: unterminated with (at most one) bad escape, and perhaps
+        // a final backslash
+        int k = badEscape ? afterBad : end;
+        if (k < limit && buf.get(k) == '\\') {
+            k++;
+        }
+        int badUnterminated = k - start;
+
+        int length = Math.max(Math.max(good, unterminated),
+                              Math.max(badTerminated, badUnterminated));
+        pos = start + length;
+        int tokenLine = line + 1;
+        for (k = start; k < pos; k++) {
+            if (buf.get(k) == '\r') {
+                line++;
+            }
+        }
+        if (length == good) {
+            tokLine = tokenLine;
+            tokChar = ctx.charNum;
+            tokValue = start;
+            tokLength = length;
+            ctx.charNum += length;
+            return true;
+        }
+        if (length == unterminated) {
+            error(true, tokenLine, ctx.charNum,
+                  "unterminated string literal ignored");
+        } else if (length == badTerminated) {
+            error(true, tokenLine, ctx.charNum,
+                  "string literal with bad escaped character ignored");
+            ctx.charNum += length;
+        } else {
+            error(true, tokenLine, ctx.charNum,
+                  "unterminated string literal with bad escaped character ignored");
+        }
+        return false;
+    }
+}
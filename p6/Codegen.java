@@ -19,11 +19,15 @@ import java.io.*;
 //     genLabel
 // and a method nextLabel to create and return a new label.
 //
+// Each compilation owns its own Codegen instance (see CompileContext), so
+// the output file and the label counter are never shared between
+// compilations running in the same JVM.
+//
 // **********************************************************************
 
 public class Codegen {
     // file into which generated code is written
-    public static PrintWriter p = null;    
+    public PrintWriter p = null;    
 
     // values of true and false
     public static final String TRUE = "1";
@@ -39,13 +43,39 @@ public class Codegen {
     public static final String T0 = "$t0";
     public static final String T1 = "$t1";
 
+    // callee-saved registers, which hold the trip counters of repeat loops
+    public static final String[] SAVED = {
+        "$s0", "$s1", "$s2", "$s3", "$s4", "$s5", "$s6", "$s7"
+    };
+
 
     // for pretty printing generated code
     private static final int MAXLEN = 4;
 
 
     // for generating labels
-    private static int currLabel = 0;
+    private int currLabel = 0;
+
+    // number of instructions generated so far
+    private int numInstructions = 0;
+
+    // cache of per-function code (null if caching is disabled)
+    public FnCodeCache fnCache = null;
+
+    // copies of the body per trip of a repeat loop with a literal count
+    // (1 for no unrolling)
+    public static final int DEFAULT_UNROLL_FACTOR = 4;
+    public int unrollFactor = DEFAULT_UNROLL_FACTOR;
+
+    // in the function being generated: the frame offset of the slot of
+    // the outermost level of repeat loops, and the level of repeat loops
+    // at this point (see RepeatStmtNode.codeGen)
+    public int repeatBase = 0;
+    public int repeatDepth = 0;
+
+    public Codegen(PrintWriter out) {
+        p = out;
+    }
 
 
     // **********************************************************************
@@ -59,11 +89,12 @@ public class Codegen {
     //    given:  op code, comment, and 0 to 3 string args
     //    do:     write nicely formatted code (ending with new line)
     // **********************************************************************
-    public static void generateWithComment(String opcode, String comment,
-                                        String arg1, String arg2, String arg3) {
+    public void generateWithComment(String opcode, String comment,
+                                 String arg1, String arg2, String arg3) {
         int space = MAXLEN - opcode.length() + 2;
     
         p.print("\t" + opcode);
+        numInstructions++;
         if (arg1 != "") {
             for (int k = 1; k <= space; k++) 
                 p.print(" ");
@@ -79,17 +110,17 @@ public class Codegen {
         p.println();
     }
 
-    public static void generateWithComment(String opcode, String comment,
-                                           String arg1, String arg2) {
+    public void generateWithComment(String opcode, String comment,
+                                    String arg1, String arg2) {
         generateWithComment(opcode, comment, arg1, arg2, "");
     }
 
-    public static void generateWithComment(String opcode, String comment,
-                                           String arg1) {
+    public void generateWithComment(String opcode, String comment,
+                                    String arg1) {
         generateWithComment(opcode, comment, arg1, "", "");
     }
 
-    public static void generateWithComment(String opcode, String comment) {
+    public void generateWithComment(String opcode, String comment) {
         generateWithComment(opcode, comment, "", "", "");
     }
 
@@ -98,11 +129,12 @@ public class Codegen {
     //    given:  op code, and 0 to 3 string args
     //    do:     write nicely formatted code (ending with new line)
     // **********************************************************************
-    public static void generate(String opcode, String arg1, String arg2,
-                                String arg3) {
+    public void generate(String opcode, String arg1, String arg2,
+                         String arg3) {
         int space = MAXLEN - opcode.length() + 2;
     
         p.print("\t" + opcode);
+        numInstructions++;
         if (arg1 != "") {
             for (int k = 1; k <= space; k++) 
                 p.print(" ");
@@ -116,15 +148,15 @@ public class Codegen {
         p.println();
     }
 
-    public static void generate(String opcode, String arg1, String arg2) {
+    public void generate(String opcode, String arg1, String arg2) {
         generate(opcode, arg1, arg2, "");
     }
 
-    public static void generate(String opcode, String arg1) {
+    public void generate(String opcode, String arg1) {
         generate(opcode, arg1, "", "");
     }
 
-    public static void generate(String opcode) {
+    public void generate(String opcode) {
         generate(opcode, "", "", "");
     }
 
@@ -133,11 +165,12 @@ public class Codegen {
     //    given:  op code and args
     //    do:     write nicely formatted code (ending with new line)
     // **********************************************************************
-    public static void generate(String opcode, String arg1, String arg2,
-                                int arg3) {
+    public void generate(String opcode, String arg1, String arg2,
+                         int arg3) {
         int space = MAXLEN - opcode.length() + 2;
     
         p.print("\t" + opcode);
+        numInstructions++;
         for (int k = 1; k <= space; k++) 
             p.print(" ");
         p.println(arg1 + ", " + arg2 + ", " + arg3);
@@ -148,10 +181,11 @@ public class Codegen {
     //    given:  op code and args
     //    do:     write nicely formatted code (ending with new line)
     // **********************************************************************
-    public static void generate(String opcode, String arg1, int arg2) {
+    public void generate(String opcode, String arg1, int arg2) {
         int space = MAXLEN - opcode.length() + 2;
     
         p.print("\t" + opcode);
+        numInstructions++;
         for (int k = 1; k <= space; k++) 
             p.print(" ");
         p.println(arg1 + ", " + arg2);
@@ -164,11 +198,12 @@ public class Codegen {
     //    do:     write nicely formatted code (ending with new line):
     //                 op T1, xx(T2) #comment
     // **********************************************************************
-    public static void generateIndexed(String opcode, String arg1, String arg2,
-                                       int arg3, String comment) {
+    public void generateIndexed(String opcode, String arg1, String arg2,
+                                int arg3, String comment) {
         int space = MAXLEN - opcode.length() + 2;
     
         p.print("\t" + opcode);
+        numInstructions++;
         for (int k = 1; k <= space; k++) 
             p.print(" ");
         p.print(arg1 + ", " + arg3 + "(" + arg2 + ")");
@@ -177,8 +212,8 @@ public class Codegen {
         p.println();
     }
     
-    public static void generateIndexed(String opcode, String arg1, String arg2,
-                                       int arg3) {
+    public void generateIndexed(String opcode, String arg1, String arg2,
+                                int arg3) {
         generateIndexed(opcode, arg1, arg2, arg3, "");
     }
 
@@ -187,12 +222,13 @@ public class Codegen {
     //    given:  label, op code, comment, and arg
     //    do:     write nicely formatted code (ending with new line)
     // **********************************************************************
-    public static void generateLabeled(String label, String opcode,
-                                       String comment, String arg1) {
+    public void generateLabeled(String label, String opcode,
+                                String comment, String arg1) {
         int space = MAXLEN - opcode.length() + 2;
     
         p.print(label + ":");
         p.print("\t" + opcode);
+        numInstructions++;
         if (arg1 != "") {
             for (int k = 1; k <= space; k++) 
                 p.print(" ");
@@ -203,8 +239,8 @@ public class Codegen {
         p.println();
     }
 
-    public static void generateLabeled(String label, String opcode,
-                                       String comment) {
+    public void generateLabeled(String label, String opcode,
+                                String comment) {
         generateLabeled(label, opcode, comment, "");
     }
 
@@ -212,7 +248,7 @@ public class Codegen {
     // genPush
     //    generate code to push the given value onto the stack
     // **********************************************************************
-    public static void genPush(String s) {
+    public void genPush(String s) {
         generateIndexed("sw", s, SP, 0, "PUSH");
         generate("subu", SP, SP, 4);
     }
@@ -221,7 +257,7 @@ public class Codegen {
     // genPop
     //    generate code to pop into the given register
     // **********************************************************************
-    public static void genPop(String s) {
+    public void genPop(String s) {
         generateIndexed("lw", s, SP, 4, "POP");
         generate("addu", SP, SP, 4);
     }
@@ -231,14 +267,14 @@ public class Codegen {
     //   given:    label L and comment (comment may be empty)
     //   generate: L:    # comment
     // **********************************************************************
-    public static void genLabel(String label, String comment) {
+    public void genLabel(String label, String comment) {
         p.print(label + ":");
         if (comment != "") 
             p.print("\t\t" + "# " + comment);
         p.println();
     }
     
-    public static void genLabel(String label) {
+    public void genLabel(String label) {
         genLabel(label, "");
     }
     
@@ -246,9 +282,38 @@ public class Codegen {
     // Return a different label each time:
     //        L0 L1 L2, etc.
     // **********************************************************************
-    public static String nextLabel() {
+    public String nextLabel() {
         Integer k = new Integer(currLabel++);
         String tmp = ".L" + k;
         return(tmp);
     }
+
+    // **********************************************************************
+    // Return the number of the label nextLabel will return next
+    // **********************************************************************
+    public int peekLabel() {
+        return currLabel;
+    }
+
+    // **********************************************************************
+    // Skip n labels (used when code that uses them comes from a cache)
+    // **********************************************************************
+    public void skipLabels(int n) {
+        currLabel += n;
+    }
+
+    // **********************************************************************
+    // Return the number of instructions generated so far
+    // **********************************************************************
+    public int getInstructionCount() {
+        return numInstructions;
+    }
+
+    // **********************************************************************
+    // Count n instructions that were not generated here (used when code
+    // comes from a cache)
+    // **********************************************************************
+    public void addInstructions(int n) {
+        numInstructions += n;
+    }
 }
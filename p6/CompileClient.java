@@ -0,0 +1,131 @@
+import java.io.*;
+import java.net.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+
+/**
+ * CompileClient
+ *
+ * A thin client for the compile server. It is invoked through P6 as
+ *
+ *     java P6 -client [-socket path] <infile> <outfile>
+ *
+ * and behaves like "java P6 <infile> <outfile>": error messages go to
+ * System.err and the exit code is 0 on success and -1 otherwise. If no
+ * compile server is listening on the socket, or the directory of the
+ * socket is not private to the user (see CompileServer.checkDirectory),
+ * the file is compiled in this process instead.
+ */
+public class CompileClient {
+
+    /**
+     * Compiles one file, through the server if one is running.
+     * @param args command line args, starting with "-client"
+     * @return process exit code
+     */
+    public static int run(String[] args) {
+        Path socket = CompileServer.defaultSocket();
+        int k = 1;
+        if (k + 1 < args.length && args[k].equals("-socket")) {
+            socket = Paths.get(args[k + 1]).toAbsolutePath();
+            k += 2;
+        }
+        if (args.length - k < 2) {
+            System.err.println("please supply name of the input file "
+                               + "and name of file for assembly output.");
+            return -1;
+        }
+        String infile = new File(args[k]).getAbsolutePath();
+        String outfile = new File(args[k + 1]).getAbsolutePath();
+
+        if (!Files.exists(socket, LinkOption.NOFOLLOW_LINKS)) {
+            return finish(compileInProcess(infile, outfile));
+        }
+        String problem = CompileServer.checkDirectory(socket.getParent());
+        if (problem != null) {
+            System.err.println("Not using the compile server: " + problem);
+            return finish(compileInProcess(infile, outfile));
+        }
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(UnixDomainSocketAddress.of(socket));
+        } catch (IOException ex) {
+            return finish(compileInProcess(infile, outfile));
+        }
+        return finish(compileRemote(channel, infile, outfile));
+    }
+
+    /**
+     * Sends a FILE request and copies the diagnostics to System.err.
+     * @return the result code sent by the server
+     */
+    private static int compileRemote(SocketChannel channel, String infile,
+                                     String outfile) {
+        int resultCode = P6.RESULT_OTHER_ERROR;
+        try {
+            PrintWriter out = new PrintWriter(new BufferedWriter(
+                new OutputStreamWriter(Channels.newOutputStream(channel),
+                                       "UTF-8")));
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                Channels.newInputStream(channel), "UTF-8"));
+
+            out.println(CompileServer.REQ_FILE);
+            out.println(infile);
+            out.println(outfile);
+            out.flush();
+
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith(CompileServer.RESP_DIAG)) {
+                    System.err.println(
+                        line.substring(CompileServer.RESP_DIAG.length()));
+                } else if (line.startsWith(CompileServer.RESP_RESULT)) {
+                    String rest =
+                        line.substring(CompileServer.RESP_RESULT.length());
+                    int end = rest.indexOf(' ');
+                    resultCode = Integer.parseInt(
+                        end < 0 ? rest : rest.substring(0, end));
+                }
+            }
+        } catch (IOException ex) {
+            System.err.println("Lost connection to compile server: " +
+                               ex.getMessage());
+        } catch (NumberFormatException ex) {
+            System.err.println("Bad answer from compile server");
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                // nothing left to clean up
+            }
+        }
+        return resultCode;
+    }
+
+    /**
+     * Compiles the file in this JVM (no server running).
+     * @return the result code of P6.process
+     */
+    private static int compileInProcess(String infile, String outfile) {
+        P6 compiler = new P6();
+        int resultCode = P6.RESULT_OTHER_ERROR;
+        try {
+            compiler.setInfile(infile);
+            compiler.setOutfile(outfile);
+            resultCode = compiler.process();
+        } catch (Exception ex) {
+            System.err.println(ex.getMessage());
+        } finally {
+            compiler.cleanup();
+        }
+        return resultCode;
+    }
+
+    private static int finish(int resultCode) {
+        if (resultCode == P6.RESULT_CORRECT) {
+            return 0;
+        }
+        System.err.println(P6.resultMessage(resultCode));
+        return -1;
+    }
+}
@@ -0,0 +1,107 @@
+import java.io.*;
+
+/**
+ * CompileContext
+ *
+ * This class holds all of the state that belongs to a single compilation:
+ * the error reporter, the code generator (output file and label counter),
+ * the scanner's current character number and table of identifiers, and
+ * the bookkeeping used by name analysis to assign offsets to locals and
+ * parameters.
+ *
+ * A new context is created for every compilation and is passed through the
+ * scanner, parser, name analyzer, type checker and code generator, so that
+ * several compilations can run in the same JVM (even concurrently, one per
+ * thread) without sharing any state.
+ *
+ * A compilation can also analyze its functions on several threads, each
+ * with a fork of the context (see fork).
+ */
+public class CompileContext {
+    // error reporter for this compilation
+    public final ErrMsg errMsg;
+
+    // code generator for this compilation
+    public final Codegen codegen;
+
+    // character number at which the current token starts on its line
+    public int charNum = 1;
+
+    // name of the function currently being analyzed
+    public String curFunc = "main";
+
+    // offset of the next local (negative) or parameter (positive) slot
+    public int offset = 8;
+
+    // number of tokens read by the parser
+    public int numTokens = 0;
+
+    // identifiers of the program, numbered by the scanner
+    public final NameTable names;
+
+    /**
+     * Creates a context whose generated code is written to out.
+     * @param out destination of the generated assembly code (may be null
+     *            if code generation will not be performed)
+     */
+    public CompileContext(PrintWriter out) {
+        this(out, null);
+    }
+
+    /**
+     * Creates a context whose generated code is written to out and whose
+     * error messages are labeled with the given file name.
+     * @param out destination of the generated assembly code
+     * @param fileName label for error messages (null for no label)
+     */
+    public CompileContext(PrintWriter out, String fileName) {
+        this(out, fileName, System.err);
+    }
+
+    /**
+     * Creates a context whose generated code is written to out and whose
+     * error messages, labeled with the given file name, go to diagOut.
+     * @param out destination of the generated assembly code
+     * @param fileName label for error messages (null for no label)
+     * @param diagOut destination of error messages
+     */
+    public CompileContext(PrintWriter out, String fileName,
+                          PrintStream diagOut) {
+        errMsg = new ErrMsg(fileName, diagOut);
+        codegen = new Codegen(out);
+        names = new NameTable();
+    }
+
+    private CompileContext(CompileContext parent) {
+        errMsg = parent.errMsg.fork();
+        codegen = parent.codegen;
+        names = parent.names;
+        curFunc = parent.curFunc;
+    }
+
+    /**
+     * Creates a context for analyzing a part of the program on another
+     * thread. It has the code generator and names of this context, its
+     * own analysis bookkeeping, and an error reporter that keeps its
+     * messages until the fork is joined.
+     */
+    public CompileContext fork() {
+        return new CompileContext(this);
+    }
+
+    /**
+     * Tells whether this is a fork made after one that reached the limit
+     * of errors, so that it need not run (see ErrMsg.stopped).
+     */
+    public boolean stopped() {
+        return errMsg.stopped();
+    }
+
+    /**
+     * Reports the messages of a fork of this context (see fork), as if
+     * they had been reported here.
+     */
+    public void join(CompileContext fork) {
+        errMsg.join(fork.errMsg);
+    }
+}
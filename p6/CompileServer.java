@@ -0,0 +1,365 @@
+import java.io.*;
+import java.net.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.util.Set;
+import java.util.concurrent.*;
+
+/**
+ * CompileServer
+ *
+ * A long-running compile server. It is started through P6 as
+ *
+ *     java P6 -server [-socket path] [-j threads]
+ *
+ * and listens on a Unix-domain socket (by default DEFAULT_SOCKET in the
+ * user's home directory). The directory of the socket must belong to the
+ * user running the server and be closed to everyone else (the server
+ * creates it that way if it is missing, and refuses to start otherwise),
+ * so only that user can connect: a request can make the server read and
+ * write any file the user can. Staying alive between
+ * compilations means the JVM start-up, the loading of the scanner, parser
+ * and CUP runtime classes and the JIT warm-up are paid once instead of
+ * once per file; the server also compiles a small built-in program a few
+ * times at start-up, both from a file and from text, so that the first
+ * real request of either kind is already fast.
+ *
+ * Each connection carries one request, one line per field:
+ *
+ *     FILE            TEXT            SHUTDOWN
+ *     <infile>        <outfile>
+ *     <outfile>       <number of chars>
+ *                     <source text>
+ *
+ * Paths should be absolute since the server may run in another directory.
+ * The server answers with one "DIAG <message>" line per error or warning,
+ * followed by a single "RESULT <code> <outfile>" line, where code is one
+ * of the P6.RESULT_* codes. A malformed request (a missing line, or a
+ * number of chars that is not a number between 0 and MAX_TEXT_LENGTH) is
+ * answered with a DIAG line and RESULT P6.RESULT_OTHER_ERROR. Compilations
+ * run concurrently on a fixed pool of worker threads, each with its own
+ * P6 instance and CompileContext.
+ */
+public class CompileServer {
+    public static final String DEFAULT_SOCKET = ".carrot/compile-server";
+    public static final int MAX_TEXT_LENGTH = 64 << 20;
+
+    public static final String REQ_FILE = "FILE";
+    public static final String REQ_TEXT = "TEXT";
+    public static final String REQ_SHUTDOWN = "SHUTDOWN";
+    public static final String RESP_DIAG = "DIAG ";
+    public static final String RESP_RESULT = "RESULT ";
+
+    private static final int WARMUP_ROUNDS = 200;
+    private static final String WARMUP_PROGRAM =
+        "struct P { int x; bool y; };\n" +
+        "int g;\n" +
+        "int f(int a, bool b) {\n" +
+        "    int c;\n" +
+        "    c = a * 2 + 1;\n" +
+        "    if (b && c > 3) { c = c - 1; } else { c = -c; }\n" +
+        "    while (c < 100) { c = c + a / 2; c++; }\n" +
+        "    return c;\n" +
+        "}\n" +
+        "int main() {\n" +
+        "    g = f(3, true);\n" +
+        "    cout << \"g = \";\n" +
+        "    cout << g;\n" +
+        "    return 0;\n" +
+        "}\n";
+
+    private ServerSocketChannel serverChannel;
+    private ExecutorService pool;
+
+    /**
+     * Returns the socket path used when none is given: DEFAULT_SOCKET in
+     * the user's home directory.
+     */
+    public static Path defaultSocket() {
+        return Paths.get(System.getProperty("user.home"), DEFAULT_SOCKET);
+    }
+
+    /**
+     * Checks that the directory of a socket belongs to the current user
+     * and that no one else can read, write or search it.
+     * @return what is wrong with the directory, or null if nothing is
+     */
+    public static String checkDirectory(Path dir) {
+        try {
+            PosixFileAttributes attrs = Files.readAttributes(
+                dir, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            if (!attrs.isDirectory()) {
+                return dir + " is not a directory";
+            }
+            if (!attrs.owner().getName()
+                      .equals(System.getProperty("user.name"))) {
+                return dir + " belongs to " + attrs.owner().getName();
+            }
+            Set<PosixFilePermission> perms = attrs.permissions();
+            perms.removeAll(PosixFilePermissions.fromString("rwx------"));
+            if (!perms.isEmpty()) {
+                return dir + " is open to other users (" +
+                       PosixFilePermissions.toString(attrs.permissions()) +
+                       ")";
+            }
+            return null;
+        } catch (UnsupportedOperationException ex) {
+            return "cannot check the permissions of " + dir;
+        } catch (IOException ex) {
+            return "cannot read " + dir + ": " + ex.getMessage();
+        }
+    }
+
+    /**
+     * Runs the server until a SHUTDOWN request arrives.
+     * @param args command line args, starting with "-server"
+     * @return process exit code
+     */
+    public static int run(String[] args) {
+        Path socket = defaultSocket();
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        for (int k = 1; k < args.length; k++) {
+            try {
+                if (args[k].equals("-socket") && k + 1 < args.length) {
+                    socket = Paths.get(args[++k]).toAbsolutePath();
+                } else if (args[k].equals("-j") && k + 1 < args.length) {
+                    threads = Integer.parseInt(args[++k]);
+                } else {
+                    System.err.println("unknown server option: " + args[k]);
+                    return -1;
+                }
+            } catch (NumberFormatException ex) {
+                System.err.println("bad number: " + args[k]);
+                return -1;
+            }
+        }
+        if (threads < 1) {
+            System.err.println("bad number of threads: " + threads);
+            return -1;
+        }
+
+        CompileServer server = new CompileServer();
+        try {
+            server.serve(socket, threads);
+        } catch (IOException ex) {
+            System.err.println("Compile server failed: " + ex.getMessage());
+            return -1;
+        }
+        return 0;
+    }
+
+    /**
+     * Accepts connections until the server socket is closed.
+     */
+    private void serve(Path socket, int threads) throws IOException {
+        Path dir = socket.getParent();
+        if (Files.notExists(dir, LinkOption.NOFOLLOW_LINKS)) {
+            Files.createDirectories(dir, PosixFilePermissions.asFileAttribute(
+                PosixFilePermissions.fromString("rwx------")));
+        }
+        String problem = checkDirectory(dir);
+        if (problem != null) {
+            throw new IOException(problem);
+        }
+        if (Files.exists(socket, LinkOption.NOFOLLOW_LINKS)) {
+            // left by a server that did not shut down, unless one is
+            // still listening
+            try (SocketChannel other = SocketChannel.open(
+                     UnixDomainSocketAddress.of(socket))) {
+                throw new IOException("a server is already listening on "
+                                      + socket);
+            } catch (ConnectException ex) {
+                Files.delete(socket);
+            }
+        }
+
+        serverChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        serverChannel.bind(UnixDomainSocketAddress.of(socket));
+        pool = Executors.newFixedThreadPool(threads);
+        try {
+            warmUp();
+            System.err.println("Compile server listening on " + socket);
+
+            while (serverChannel.isOpen()) {
+                final SocketChannel channel;
+                try {
+                    channel = serverChannel.accept();
+                } catch (ClosedChannelException ex) {
+                    break; // closed by a SHUTDOWN request
+                }
+                pool.submit(new Runnable() {
+                    public void run() {
+                        handle(channel);
+                    }
+                });
+            }
+        } finally {
+            pool.shutdown();
+            serverChannel.close();
+            Files.deleteIfExists(socket);
+        }
+    }
+
+    /**
+     * Compiles the built-in program a number of times so that the classes
+     * are loaded and the hot paths are JIT-compiled before the first
+     * request arrives: from a file, which takes the path of FILE requests
+     * (ByteScanner and LRParser), and from a reader, which takes the path
+     * of TEXT requests (Yylex and the CUP parser).
+     */
+    private void warmUp() throws IOException {
+        PrintStream sink = new PrintStream(OutputStream.nullOutputStream());
+        Path file = Files.createTempFile("carrot-warmup", ".crrt");
+        try {
+            Files.write(file, WARMUP_PROGRAM.getBytes("US-ASCII"));
+            for (int k = 0; k < WARMUP_ROUNDS; k++) {
+                P6 compiler = new P6();
+                try {
+                    compiler.setInfile(file.toString());
+                } catch (Exception ex) {
+                    throw new IOException("cannot read " + file, ex);
+                }
+                compiler.setOutput(new StringWriter());
+                compiler.setDiagnosticsStream(sink);
+                compiler.process();
+                compiler.cleanup();
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+        for (int k = 0; k < WARMUP_ROUNDS; k++) {
+            P6 compiler = new P6();
+            compiler.setInput(new StringReader(WARMUP_PROGRAM));
+            compiler.setOutput(new StringWriter());
+            compiler.setDiagnosticsStream(sink);
+            compiler.process();
+            compiler.cleanup();
+        }
+    }
+
+    /**
+     * Serves one request.
+     */
+    private void handle(SocketChannel channel) {
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                Channels.newInputStream(channel), "UTF-8"));
+            PrintWriter out = new PrintWriter(new BufferedWriter(
+                new OutputStreamWriter(Channels.newOutputStream(channel),
+                                       "UTF-8")));
+
+            String kind = in.readLine();
+            if (REQ_SHUTDOWN.equals(kind)) {
+                out.println(RESP_RESULT + P6.RESULT_CORRECT + " ");
+                out.flush();
+                serverChannel.close();
+            } else if (REQ_FILE.equals(kind)) {
+                String infile = in.readLine();
+                String outfile = in.readLine();
+                if (infile == null || outfile == null) {
+                    reject(out, "FILE request without an input and an "
+                                + "output file");
+                } else {
+                    compile(infile, null, outfile, out);
+                }
+            } else if (REQ_TEXT.equals(kind)) {
+                String outfile = in.readLine();
+                String lengthLine = in.readLine();
+                int length = -1;
+                try {
+                    if (lengthLine != null) {
+                        length = Integer.parseInt(lengthLine.trim());
+                    }
+                } catch (NumberFormatException ex) {
+                    // rejected below
+                }
+                if (outfile == null || length < 0
+                    || length > MAX_TEXT_LENGTH) {
+                    reject(out, "TEXT request without an output file and "
+                                + "a number of chars from 0 to "
+                                + MAX_TEXT_LENGTH);
+                } else {
+                    char[] text = new char[length];
+                    int read = 0;
+                    while (read < length) {
+                        int n = in.read(text, read, length - read);
+                        if (n < 0) {
+                            break;
+                        }
+                        read += n;
+                    }
+                    if (read < length) {
+                        reject(out, "source text is truncated");
+                    } else {
+                        compile(null, new CharArrayReader(text), outfile,
+                                out);
+                    }
+                }
+            } else {
+                reject(out, "unknown request: " + kind);
+            }
+            out.flush();
+        } catch (IOException ex) {
+            // the client went away; nothing to answer
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                // nothing left to clean up
+            }
+        }
+    }
+
+    /**
+     * Answers a malformed request.
+     */
+    private static void reject(PrintWriter out, String msg) {
+        out.println(RESP_DIAG + msg);
+        out.println(RESP_RESULT + P6.RESULT_OTHER_ERROR + " ");
+    }
+
+    /**
+     * Compiles either the file infile or the text in source to outfile
+     * and sends the diagnostics and the result to out.
+     */
+    private void compile(String infile, Reader source, String outfile,
+                         PrintWriter out) {
+        ByteArrayOutputStream diagBytes = new ByteArrayOutputStream();
+        PrintStream diag = new PrintStream(diagBytes, true);
+        int resultCode = P6.RESULT_OTHER_ERROR;
+
+        P6 compiler = new P6();
+        compiler.setDiagnosticsStream(diag);
+        try {
+            if (source != null) {
+                compiler.setInput(source);
+            } else {
+                compiler.setInfile(infile);
+            }
+            compiler.setOutfile(outfile);
+            resultCode = compiler.process();
+        } catch (Exception ex) {
+            diag.println(ex.getMessage() != null ? ex.getMessage()
+                                                 : ex.toString());
+        } catch (StackOverflowError ex) {
+            diag.println("program too deeply nested");
+        } finally {
+            compiler.cleanup();
+        }
+
+        diag.flush();
+        BufferedReader lines = new BufferedReader(
+            new StringReader(diagBytes.toString()));
+        try {
+            String line;
+            while ((line = lines.readLine()) != null) {
+                out.println(RESP_DIAG + line);
+            }
+        } catch (IOException ex) {
+            // cannot happen when reading from a string
+        }
+        out.println(RESP_RESULT + resultCode + " " + outfile);
+    }
+}
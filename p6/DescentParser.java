@@ -0,0 +1,517 @@
+import java.util.*;
+
+/**
+ * DescentParser
+ *
+ * A hand-written parser for Carrot that builds the same AST as the
+ * grammar in Carrot.cup, reading the tokens of a TokenBuffer directly:
+ * recursive descent for declarations and statements, and precedence
+ * climbing for expressions, with no tables and no Symbols.
+ *
+ * The precedence declarations of Carrot.cup give the binary operators
+ * five levels, from || (loosest) to * and / (tightest); all are left
+ * associative but the relational ones, which do not associate, so a
+ * second relational operator right after a relational expression is a
+ * syntax error. The unary operators follow from how CUP resolves their
+ * conflicts: "exp ::= MINUS exp" has the precedence of binary minus, so
+ * the operand of a unary minus takes in any * and / after it (-a * b is
+ * -(a * b)), while ! binds tighter than every binary operator. An
+ * assignment "loc = exp" may appear wherever an operand can, and takes
+ * the whole expression after it (a + b = c + d is a + (b = (c + d))).
+ *
+ * Like any LR parser, CUP detects a syntax error at the first token that
+ * cannot continue a valid program; so does this parser, which looks only
+ * at the current token to choose what to parse, and reads the tokens
+ * (giving ErrMsg the messages of the scanner before each) in the same
+ * order. It does not recover from syntax errors itself: at the first one
+ * it starts over with LRParser, which reports it and recovers with the
+ * error productions of Carrot.cup as the CUP parser does, so its output
+ * is the same too. ParserDiff checks all of this against the CUP parser.
+ *
+ * Expressions and blocks nested very deeply (thousands of levels) can
+ * overflow the stack of the thread; the parse then starts over with
+ * LRParser too, which keeps its states in an array.
+ */
+public class DescentParser {
+    // the precedence of each binary operator, indexed by token kind (0 for
+    // a token that is not a binary operator)
+    private static final int[] PRECEDENCE = new int[sym.terminalNames.length];
+    private static final int OR = 1;
+    private static final int AND = 2;
+    private static final int RELATIONAL = 3;
+    private static final int ADDITIVE = 4;
+    private static final int MULTIPLICATIVE = 5;
+    static {
+        PRECEDENCE[sym.OR] = OR;
+        PRECEDENCE[sym.AND] = AND;
+        PRECEDENCE[sym.EQUALS] = RELATIONAL;
+        PRECEDENCE[sym.NOTEQUALS] = RELATIONAL;
+        PRECEDENCE[sym.LESS] = RELATIONAL;
+        PRECEDENCE[sym.GREATER] = RELATIONAL;
+        PRECEDENCE[sym.LESSEQ] = RELATIONAL;
+        PRECEDENCE[sym.GREATEREQ] = RELATIONAL;
+        PRECEDENCE[sym.PLUS] = ADDITIVE;
+        PRECEDENCE[sym.MINUS] = ADDITIVE;
+        PRECEDENCE[sym.TIMES] = MULTIPLICATIVE;
+        PRECEDENCE[sym.DIVIDE] = MULTIPLICATIVE;
+    }
+
+    private final TokenBuffer tokens;
+    private final CompileContext ctx;
+
+    // the current token: its index and kind
+    private int pos;
+    private int kind;
+
+    // the next message of the scanner to give to ErrMsg (see
+    // TokenBuffer.replay)
+    private int nextMessage = 0;
+
+    /**
+     * Creates a parser for the tokens of a source file, scanned by
+     * ByteScanner.scanAll for the compilation of ctx.
+     */
+    public DescentParser(TokenBuffer tokens, CompileContext ctx) {
+        this.tokens = tokens;
+        this.ctx = ctx;
+    }
+
+    /**
+     * A syntax error, found but not reported yet.
+     */
+    private static class SyntaxError extends Exception {
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Parses the tokens. A program with syntax errors, or nested too deeply
+     * for the stack, is parsed again by LRParser, from the start, as far as
+     * it can recover from its syntax errors.
+     * @return the root of the AST, without the parts in error
+     * @throws Exception on a syntax error LRParser cannot recover from,
+     *                   after reporting it
+     */
+    public ProgramNode parse() throws Exception {
+        int numTokens = ctx.numTokens;
+        try {
+            read(0);
+            LinkedList<DeclNode> decls = new LinkedList<DeclNode>();
+            while (kind != sym.EOF) {
+                decls.addLast(decl());
+            }
+            return new ProgramNode(new DeclListNode(decls), ctx.names);
+        } catch (SyntaxError | StackOverflowError ex) {
+            // the messages of the scanner given so far are not given again
+            ctx.numTokens = numTokens;
+            return new LRParser(tokens, ctx, nextMessage).parse();
+        }
+    }
+
+    /**
+     * Makes the token with the given index current, giving ErrMsg the
+     * messages of the scanner that come before it, and counts it (for the
+     * statistics of P6 -stats).
+     */
+    private void read(int index) {
+        pos = Math.min(index, tokens.size() - 1);
+        nextMessage = tokens.replay(pos, nextMessage, ctx.errMsg);
+        kind = tokens.kind(pos);
+        if (kind != sym.EOF) {
+            ctx.numTokens++;
+        }
+    }
+
+    /**
+     * Moves past the current token.
+     * @return its index
+     */
+    private int advance() {
+        int index = pos;
+        read(pos + 1);
+        return index;
+    }
+
+    /**
+     * Moves past the current token, which must be of the given kind.
+     * @return its index
+     */
+    private int expect(int k) throws Exception {
+        if (kind != k) {
+            throw syntaxError();
+        }
+        return advance();
+    }
+
+    /**
+     * Returns the exception to stop parsing with at a syntax error at the
+     * current token (LRParser will report it).
+     */
+    private Exception syntaxError() {
+        return new SyntaxError();
+    }
+
+    private boolean atVarDecl() {
+        return kind == sym.INT || kind == sym.BOOL || kind == sym.VOID
+            || kind == sym.STRUCT;
+    }
+
+    /**
+     * decl ::= varDecl | fnDecl | structDecl
+     */
+    private DeclNode decl() throws Exception {
+        if (kind == sym.STRUCT) {
+            advance();
+            IdNode name = id();
+            if (kind != sym.LCURLY) {
+                IdNode var = id();
+                expect(sym.SEMICOLON);
+                return new VarDeclNode(new StructNode(name), var, 0);
+            }
+            advance();
+            LinkedList<DeclNode> fields = new LinkedList<DeclNode>();
+            do {
+                fields.addLast(varDecl());
+            } while (atVarDecl());
+            expect(sym.RCURLY);
+            expect(sym.SEMICOLON);
+            return new StructDeclNode(name, new DeclListNode(fields));
+        }
+
+        TypeNode type = type();
+        IdNode name = id();
+        if (kind == sym.SEMICOLON) {
+            advance();
+            return new VarDeclNode(type, name, VarDeclNode.NOT_STRUCT);
+        }
+        LinkedList<FormalDeclNode> formals = formals();
+        FnBodyNode body = fnBody();
+        return new FnDeclNode(type, name, new FormalsListNode(formals), body);
+    }
+
+    /**
+     * varDecl ::= type id SEMICOLON | STRUCT id id SEMICOLON
+     */
+    private VarDeclNode varDecl() throws Exception {
+        if (kind == sym.STRUCT) {
+            advance();
+            IdNode struct = id();
+            IdNode name = id();
+            expect(sym.SEMICOLON);
+            return new VarDeclNode(new StructNode(struct), name, 0);
+        }
+        TypeNode type = type();
+        IdNode name = id();
+        expect(sym.SEMICOLON);
+        return new VarDeclNode(type, name, VarDeclNode.NOT_STRUCT);
+    }
+
+    /**
+     * varDeclList ::= varDecl*
+     */
+    private LinkedList<DeclNode> varDeclList() throws Exception {
+        LinkedList<DeclNode> decls = new LinkedList<DeclNode>();
+        while (atVarDecl()) {
+            decls.addLast(varDecl());
+        }
+        return decls;
+    }
+
+    /**
+     * formals ::= LPAREN [formalDecl (COMMA formalDecl)*] RPAREN
+     */
+    private LinkedList<FormalDeclNode> formals() throws Exception {
+        expect(sym.LPAREN);
+        LinkedList<FormalDeclNode> formals = new LinkedList<FormalDeclNode>();
+        if (kind == sym.RPAREN) {
+            advance();
+            return formals;
+        }
+        while (true) {
+            TypeNode type = type();
+            formals.addLast(new FormalDeclNode(type, id()));
+            if (kind != sym.COMMA) {
+                break;
+            }
+            advance();
+        }
+        expect(sym.RPAREN);
+        return formals;
+    }
+
+    /**
+     * fnBody ::= LCURLY varDeclList stmtList RCURLY
+     */
+    private FnBodyNode fnBody() throws Exception {
+        expect(sym.LCURLY);
+        LinkedList<DeclNode> decls = varDeclList();
+        LinkedList<StmtNode> stmts = stmtList();
+        expect(sym.RCURLY);
+        return new FnBodyNode(new DeclListNode(decls), new StmtListNode(stmts));
+    }
+
+    /**
+     * stmtList ::= stmt*, up to the closing RCURLY
+     */
+    private LinkedList<StmtNode> stmtList() throws Exception {
+        LinkedList<StmtNode> stmts = new LinkedList<StmtNode>();
+        while (kind != sym.RCURLY) {
+            stmts.addLast(stmt());
+        }
+        return stmts;
+    }
+
+    private StmtNode stmt() throws Exception {
+        switch (kind) {
+        case sym.IF: {
+            advance();
+            ExpNode cond = condition();
+            expect(sym.LCURLY);
+            LinkedList<DeclNode> decls = varDeclList();
+            LinkedList<StmtNode> stmts = stmtList();
+            expect(sym.RCURLY);
+            if (kind != sym.ELSE) {
+                return new IfStmtNode(cond, new DeclListNode(decls),
+                                      new StmtListNode(stmts));
+            }
+            advance();
+            expect(sym.LCURLY);
+            LinkedList<DeclNode> elseDecls = varDeclList();
+            LinkedList<StmtNode> elseStmts = stmtList();
+            expect(sym.RCURLY);
+            return new IfElseStmtNode(cond, new DeclListNode(decls),
+                                      new StmtListNode(stmts),
+                                      new DeclListNode(elseDecls),
+                                      new StmtListNode(elseStmts));
+        }
+
+        case sym.WHILE:
+        case sym.REPEAT: {
+            boolean repeat = kind == sym.REPEAT;
+            advance();
+            ExpNode cond = condition();
+            expect(sym.LCURLY);
+            LinkedList<DeclNode> decls = varDeclList();
+            LinkedList<StmtNode> stmts = stmtList();
+            expect(sym.RCURLY);
+            if (repeat) {
+                return new RepeatStmtNode(cond, new DeclListNode(decls),
+                                          new StmtListNode(stmts));
+            }
+            return new WhileStmtNode(cond, new DeclListNode(decls),
+                                     new StmtListNode(stmts));
+        }
+
+        case sym.RETURN: {
+            advance();
+            ExpNode exp = null;
+            if (kind != sym.SEMICOLON) {
+                exp = exp(OR);
+            }
+            expect(sym.SEMICOLON);
+            return new ReturnStmtNode(exp);
+        }
+
+        case sym.CIN: {
+            advance();
+            expect(sym.READ);
+            ExpNode loc = loc(id());
+            expect(sym.SEMICOLON);
+            return new ReadStmtNode(loc);
+        }
+
+        case sym.COUT: {
+            advance();
+            expect(sym.WRITE);
+            ExpNode exp = exp(OR);
+            expect(sym.SEMICOLON);
+            return new WriteStmtNode(exp);
+        }
+
+        case sym.ID: {
+            IdNode id = id();
+            if (kind == sym.LPAREN) {
+                CallExpNode call = call(id);
+                expect(sym.SEMICOLON);
+                return new CallStmtNode(call);
+            }
+            ExpNode loc = loc(id);
+            StmtNode stmt;
+            if (kind == sym.ASSIGN) {
+                advance();
+                stmt = new AssignStmtNode(new AssignNode(loc, exp(OR)));
+            } else if (kind == sym.PLUSPLUS) {
+                advance();
+                stmt = new PostIncStmtNode(loc);
+            } else if (kind == sym.MINUSMINUS) {
+                advance();
+                stmt = new PostDecStmtNode(loc);
+            } else {
+                throw syntaxError();
+            }
+            expect(sym.SEMICOLON);
+            return stmt;
+        }
+
+        default:
+            throw syntaxError();
+        }
+    }
+
+    /**
+     * LPAREN exp RPAREN, after IF, WHILE or REPEAT
+     */
+    private ExpNode condition() throws Exception {
+        expect(sym.LPAREN);
+        ExpNode exp = exp(OR);
+        expect(sym.RPAREN);
+        return exp;
+    }
+
+    /**
+     * Parses an expression whose binary operators all have at least the
+     * given precedence.
+     */
+    private ExpNode exp(int min) throws Exception {
+        ExpNode left = unary();
+        while (PRECEDENCE[kind] >= min) {
+            int op = kind;
+            int prec = PRECEDENCE[op];
+            advance();
+            left = binary(op, left, exp(prec + 1));
+            if (prec == RELATIONAL && PRECEDENCE[kind] == RELATIONAL) {
+                throw syntaxError();
+            }
+        }
+        return left;
+    }
+
+    private ExpNode unary() throws Exception {
+        if (kind == sym.MINUS) {
+            advance();
+            return new UnaryMinusNode(exp(MULTIPLICATIVE));
+        }
+        if (kind == sym.NOT) {
+            advance();
+            return new NotNode(unary());
+        }
+        return term();
+    }
+
+    /**
+     * term, or an assignExp
+     */
+    private ExpNode term() throws Exception {
+        int token = pos;
+        switch (kind) {
+        case sym.INTLITERAL:
+            advance();
+            return new IntLitNode(tokens.lineNum(token),
+                                  tokens.charNum(token), tokens.value(token));
+
+        case sym.STRINGLITERAL:
+            advance();
+            return new StringLitNode(tokens.lineNum(token),
+                                     tokens.charNum(token),
+                                     tokens.string(token));
+
+        case sym.TRUE:
+            advance();
+            return new TrueNode(tokens.lineNum(token), tokens.charNum(token));
+
+        case sym.FALSE:
+            advance();
+            return new FalseNode(tokens.lineNum(token), tokens.charNum(token));
+
+        case sym.LPAREN: {
+            advance();
+            ExpNode exp = exp(OR);
+            expect(sym.RPAREN);
+            return exp;
+        }
+
+        case sym.ID: {
+            IdNode id = id();
+            if (kind == sym.LPAREN) {
+                return call(id);
+            }
+            ExpNode loc = loc(id);
+            if (kind == sym.ASSIGN) {
+                advance();
+                return new AssignNode(loc, exp(OR));
+            }
+            return loc;
+        }
+
+        default:
+            throw syntaxError();
+        }
+    }
+
+    private ExpNode binary(int op, ExpNode left, ExpNode right) {
+        switch (op) {
+        case sym.PLUS:      return new PlusNode(left, right);
+        case sym.MINUS:     return new MinusNode(left, right);
+        case sym.TIMES:     return new TimesNode(left, right);
+        case sym.DIVIDE:    return new DivideNode(left, right);
+        case sym.AND:       return new AndNode(left, right);
+        case sym.OR:        return new OrNode(left, right);
+        case sym.EQUALS:    return new EqualsNode(left, right);
+        case sym.NOTEQUALS: return new NotEqualsNode(left, right);
+        case sym.LESS:      return new LessNode(left, right);
+        case sym.GREATER:   return new GreaterNode(left, right);
+        case sym.LESSEQ:    return new LessEqNode(left, right);
+        default:            return new GreaterEqNode(left, right);
+        }
+    }
+
+    /**
+     * fncall ::= id LPAREN [exp (COMMA exp)*] RPAREN, after the id
+     */
+    private CallExpNode call(IdNode id) throws Exception {
+        expect(sym.LPAREN);
+        LinkedList<ExpNode> actuals = new LinkedList<ExpNode>();
+        if (kind != sym.RPAREN) {
+            actuals.addLast(exp(OR));
+            while (kind == sym.COMMA) {
+                advance();
+                actuals.addLast(exp(OR));
+            }
+        }
+        expect(sym.RPAREN);
+        return new CallExpNode(id, new ExpListNode(actuals));
+    }
+
+    /**
+     * loc ::= id (DOT id)*, after the first id
+     */
+    private ExpNode loc(IdNode id) throws Exception {
+        ExpNode loc = id;
+        while (kind == sym.DOT) {
+            advance();
+            loc = new DotAccessExpNode(loc, id());
+        }
+        return loc;
+    }
+
+    private TypeNode type() throws Exception {
+        switch (kind) {
+        case sym.INT:
+            advance();
+            return new IntNode();
+        case sym.BOOL:
+            advance();
+            return new BoolNode();
+        case sym.VOID:
+            advance();
+            return new VoidNode();
+        default:
+            throw syntaxError();
+        }
+    }
+
+    private IdNode id() throws Exception {
+        int token = expect(sym.ID);
+        return new IdNode(tokens.lineNum(token), tokens.charNum(token),
+                          tokens.name(token), tokens.value(token));
+    }
+}
@@ -1,10 +1,179 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
 /**
  * ErrMsg
  *
  * This class is used to generate warning and fatal error messages.
+ * Each compilation owns its own ErrMsg (see CompileContext), so the error
+ * flag of one compilation never leaks into another.
+ *
+ * Messages are not printed as they are reported but kept until flush,
+ * which sorts them by position and writes them all through one buffered
+ * writer, as text or as one JSON object (see setJson). A message with the
+ * same severity, position and text as an earlier one is a repeat of it
+ * and is dropped; different messages at one position are all kept, and
+ * so are messages without a position (0:0), which cannot be told apart by
+ * where they are. At most maxErrors errors are kept: the one that reaches
+ * the limit throws TooManyErrorsException, so that the phase reporting
+ * them can stop there (see P6.process).
+ *
+ * A part of a compilation that runs on another thread (see
+ * DeclListNode.nameAnalysis) reports to a fork of the ErrMsg, which keeps
+ * its messages until they are joined back, in the order the forks were
+ * made (source order). A fork throws TooManyErrorsException at the error
+ * that brings its errors and those of the forks made before it (and of
+ * the parent) to the limit, since the limit is reached there or earlier
+ * when they are joined; the forks made after it are then stopped (see
+ * stopped), as none of their messages would be kept.
  */
 class ErrMsg {
-	private static boolean err = false;
+	public static final int DEFAULT_MAX_ERRORS = 100;
+
+	private boolean err = false;
+	private String fileName = null;
+	private String prefix = "";
+	private PrintStream out = System.err;
+	private boolean forked = false;
+	private boolean json = false;
+	private int maxErrors = DEFAULT_MAX_ERRORS;
+
+	private volatile int numErrors = 0;	// read by later forks
+	private int numWarnings = 0;
+	private boolean truncated = false;
+	private List<Diagnostic> pending = null;	// reported, not written yet
+	private Set<String> reported = null;	// see isRepeat
+
+	// of a fork: the reporter it was made from, the fork of that reporter
+	// made just before it and its number among them
+	private ErrMsg parent = null;
+	private ErrMsg previous = null;
+	private int forkNumber = 0;
+
+	// of a reporter with forks: the last fork made and not joined yet,
+	// the number of forks made, and the number of the first fork known to
+	// reach the limit (see stopped)
+	private ErrMsg lastFork = null;
+	private int numForks = 0;
+	private AtomicInteger limitFork = null;
+
+	/**
+	 * A message waiting to be written.
+	 */
+	private static class Diagnostic {
+		final int lineNum;
+		final int charNum;
+		final boolean error;
+		final String msg;
+
+		Diagnostic(int lineNum, int charNum, boolean error, String msg) {
+			this.lineNum = lineNum;
+			this.charNum = charNum;
+			this.error = error;
+			this.msg = msg;
+		}
+
+		/**
+		 * The key that orders messages by position; 0:0 is the end of
+		 * the file.
+		 */
+		long position() {
+			if (lineNum <= 0 && charNum <= 0) {
+				return Long.MAX_VALUE;
+			}
+			return ((long)lineNum << 32) | (charNum & 0xffffffffL);
+		}
+	}
+
+	private static final Comparator<Diagnostic> BY_POSITION =
+		new Comparator<Diagnostic>() {
+			public int compare(Diagnostic a, Diagnostic b) {
+				return Long.compare(a.position(), b.position());
+			}
+		};
+
+	/**
+	 * Creates an error reporter whose messages are not labeled.
+	 */
+	ErrMsg() {
+	}
+
+	/**
+	 * Creates an error reporter whose messages start with the given file
+	 * name, so that messages of concurrent compilations can be told apart.
+	 * @param fileName name of the file being compiled (may be null)
+	 */
+	ErrMsg(String fileName) {
+		if (fileName != null) {
+			this.fileName = fileName;
+			prefix = fileName + ":";
+		}
+	}
+
+	/**
+	 * Creates an error reporter whose messages start with the given file
+	 * name and are printed to the given stream.
+	 * @param fileName name of the file being compiled (may be null)
+	 * @param stream destination of the messages
+	 */
+	ErrMsg(String fileName, PrintStream stream) {
+		this(fileName);
+		out = stream;
+	}
+
+	/**
+	 * Sets the number of errors after which the compilation stops; 0 for
+	 * no limit.
+	 */
+	void setMaxErrors(int max) {
+		maxErrors = max;
+	}
+
+	/**
+	 * Writes the messages as one JSON object instead of one line each.
+	 */
+	void setJson(boolean json) {
+		this.json = json;
+	}
+
+	/**
+	 * Creates an error reporter with the same label as this one that keeps
+	 * its messages (see join). Forks are joined in the order they are made.
+	 */
+	ErrMsg fork() {
+		ErrMsg fork = new ErrMsg();
+		fork.fileName = fileName;
+		fork.prefix = prefix;
+		fork.out = null;
+		fork.forked = true;
+		fork.maxErrors = maxErrors;
+		fork.parent = this;
+		fork.previous = lastFork;
+		fork.forkNumber = numForks++;
+		if (limitFork == null) {
+			limitFork = new AtomicInteger(Integer.MAX_VALUE);
+		}
+		lastFork = fork;
+		return fork;
+	}
+
+	/**
+	 * Reports the messages kept by a fork of this reporter, as if they had
+	 * been reported here, and sets the err flag if the fork's is set.
+	 * @param fork the fork, which is no longer used
+	 */
+	void join(ErrMsg fork) {
+		if (fork == lastFork) {
+			lastFork = null;
+		}
+		err |= fork.err;
+		if (fork.pending != null) {
+			for (Diagnostic d : fork.pending) {
+				report(d);
+			}
+		}
+	}
 
 	/**
 	 * Generates a fatal error message.
@@ -12,9 +181,9 @@ class ErrMsg {
 	 * @param charNum character number (i.e., column) for error location
 	 * @param msg associated message for error
 	 */
-	static void fatal(int lineNum, int charNum, String msg) {
+	void fatal(int lineNum, int charNum, String msg) {
 		err = true;
-		System.err.println(lineNum + ":" + charNum + " ***ERROR*** " + msg);
+		report(new Diagnostic(lineNum, charNum, true, msg));
 	}
 
 	/**
@@ -23,14 +192,159 @@ class ErrMsg {
 	 * @param charNum character number (i.e., column) for warning location
 	 * @param msg associated message for warning
 	 */
-	static void warn(int lineNum, int charNum, String msg) {
-		System.err.println(lineNum + ":" + charNum + " ***WARNING*** " + msg);
+	void warn(int lineNum, int charNum, String msg) {
+		report(new Diagnostic(lineNum, charNum, false, msg));
+	}
+
+	/**
+	 * Tells whether this is a fork made after one that reached the limit,
+	 * so that none of its messages would be kept when it is joined.
+	 */
+	boolean stopped() {
+		return forked && parent.limitFork.get() < forkNumber;
+	}
+
+	private void report(Diagnostic d) {
+		if (truncated || isRepeat(d)) {
+			return;
+		}
+		if (d.error) {
+			numErrors++;
+		} else {
+			if (maxErrors > 0 && numWarnings >= maxErrors) {
+				return;
+			}
+			numWarnings++;
+		}
+		if (pending == null) {
+			pending = new ArrayList<Diagnostic>();
+		}
+		pending.add(d);
+		if (d.error && maxErrors > 0
+		    && numErrors + errorsBefore() >= maxErrors) {
+			truncated = true;
+			if (forked) {
+				parent.reachLimit(forkNumber);
+			}
+			throw new TooManyErrorsException(maxErrors);
+		}
+	}
+
+	/**
+	 * Returns the number of errors of the parent of this fork and of the
+	 * forks made before it, counted until it reaches maxErrors; 0 if this
+	 * is not a fork. Messages of different forks are at different
+	 * positions, so none of them is dropped as a repeat of another when
+	 * they are joined.
+	 */
+	private int errorsBefore() {
+		if (!forked) {
+			return 0;
+		}
+		int sum = parent.numErrors;
+		for (ErrMsg f = previous; f != null && sum < maxErrors;
+		     f = f.previous) {
+			sum += f.numErrors;
+		}
+		return sum;
+	}
+
+	/**
+	 * Records that the fork with the given number reached the limit.
+	 */
+	private void reachLimit(int number) {
+		int first = limitFork.get();
+		while (number < first && !limitFork.compareAndSet(first, number)) {
+			first = limitFork.get();
+		}
+	}
+
+	/**
+	 * Tells whether d has the same severity, position and text as a
+	 * message reported before, and remembers it if not. A message without
+	 * a position is never a repeat.
+	 */
+	private boolean isRepeat(Diagnostic d) {
+		if (d.position() == Long.MAX_VALUE) {
+			return false;
+		}
+		if (reported == null) {
+			reported = new HashSet<String>();
+		}
+		return !reported.add((d.error ? "E " : "W ") + d.lineNum + ":"
+		                     + d.charNum + " " + d.msg);
+	}
+
+	/**
+	 * Writes the messages reported since the last flush, sorted by
+	 * position (messages at the same position stay in the order they
+	 * were reported). In JSON mode this writes one object, even if there
+	 * are no messages.
+	 */
+	void flush() {
+		List<Diagnostic> list = pending != null ? pending
+		                                        : new ArrayList<Diagnostic>();
+		pending = null;
+		if (list.isEmpty() && !json) {
+			return;
+		}
+		Collections.sort(list, BY_POSITION);
+
+		PrintWriter w = new PrintWriter(new BufferedWriter(
+			new OutputStreamWriter(out)));
+		if (json) {
+			writeJson(w, list);
+		} else {
+			for (Diagnostic d : list) {
+				w.println(prefix + d.lineNum + ":" + d.charNum
+				          + (d.error ? " ***ERROR*** " : " ***WARNING*** ")
+				          + d.msg);
+			}
+			if (truncated) {
+				w.println(prefix + "too many errors, only the first "
+				          + maxErrors + " are reported");
+			}
+		}
+		w.flush();
+	}
+
+	private void writeJson(PrintWriter w, List<Diagnostic> list) {
+		w.print("{\"source\":");
+		w.print(fileName == null ? "null" : quote(fileName));
+		w.print(",\"errors\":" + numErrors);
+		w.print(",\"truncated\":" + truncated);
+		w.print(",\"diagnostics\":[");
+		for (int k = 0; k < list.size(); k++) {
+			Diagnostic d = list.get(k);
+			if (k > 0) {
+				w.print(',');
+			}
+			w.print("{\"line\":" + d.lineNum + ",\"column\":" + d.charNum
+			        + ",\"severity\":\"" + (d.error ? "error" : "warning")
+			        + "\",\"message\":" + quote(d.msg) + "}");
+		}
+		w.println("]}");
+	}
+
+	private static String quote(String s) {
+		StringBuilder sb = new StringBuilder("\"");
+		for (int k = 0; k < s.length(); k++) {
+			char c = s.charAt(k);
+			if (c == '"' || c == '\\') {
+				sb.append('\\').append(c);
+			} else if (c < ' ') {
+				sb.append(String.format("\\u%04x", (int)c));
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.append('"').toString();
 	}
 
 	/**
 	 * Returns the err flag.
 	 */
-	static boolean getErr() {
+	boolean getErr() {
 		return err;
 	}
 
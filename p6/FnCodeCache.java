@@ -0,0 +1,338 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.*;
+import java.util.*;
+
+/**
+ * FnCodeCache
+ *
+ * An on-disk cache of the code generated for each function, so that after
+ * a change to one function of a large file only that function is analyzed
+ * and compiled again (parsing and the analysis of the global declarations
+ * still run for the whole file).
+ *
+ * The key of a function (see key) is computed during name analysis, just
+ * after its signature is declared and before its body is analyzed. It is a
+ * SHA-256 hash of the source of the function and of the signature of every
+ * global that is visible to the function under a name used in it: the
+ * parameter and return types of a function, the type of a variable, and
+ * the size and the offset and type of every field (recursively) of a
+ * struct. The source is the text of its tokens, without their positions
+ * (see TokenBuffer.setSources), so moving a function does not change its
+ * key; a function parsed from a Reader (by Yylex) has no tokens, and its
+ * unparsed text is used instead. Every name is looked up, so a name that
+ * is not a global now but becomes one later changes the key as well. That
+ * is everything the analysis and the code of the body depend on; globals
+ * are addressed through their labels, so the layout of the other globals
+ * does not matter. If the entry of the key is found (see lookup), the
+ * analysis of the body is skipped: a cache entry is only written by a
+ * compilation without errors, and the same body in the same globals has
+ * no errors again. The name of the entry is a hash of the key,
+ * FORMAT_VERSION and the unroll factor of the code generator;
+ * FORMAT_VERSION must be changed whenever the code generator changes.
+ *
+ * Labels produced by Codegen.nextLabel are numbered per compilation. An
+ * entry stores the code of one function with its labels renumbered from
+ * .L0; when the entry is reused they are shifted to the current label
+ * number, so the output is the same as that of an uncached compilation.
+ *
+ * Each entry is a file. The first line holds the
+ * number of labels used by the function and the number of instructions in
+ * it, and the rest is its code. Entries
+ * are written to a temporary file and then renamed, so that concurrent
+ * compilations sharing a cache directory never see a partial entry.
+ */
+public class FnCodeCache {
+    public static final String FORMAT_VERSION = "7";
+
+    private static final String ENTRY_SUFFIX = ".s";
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final File dir;
+    private int hits = 0;
+    private int misses = 0;
+
+    /**
+     * Creates a cache that keeps its entries in the given directory
+     * (created if needed).
+     * @param dir cache directory
+     */
+    public FnCodeCache(File dir) {
+        this.dir = dir;
+        dir.mkdirs();
+    }
+
+    public int getHits() {
+        return hits;
+    }
+
+    public int getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns the key of fn, given the symbol table in which its signature
+     * was just declared (so its innermost scope is the global scope).
+     */
+    public static String key(FnDeclNode fn, SymTable symTab) {
+        String text = fn.sourceText();
+        if (text == null) {
+            return textKey(fn, symTab);
+        }
+        StringBuilder sb = new StringBuilder(text.length() + 256);
+        sb.append(text).append('\0');
+        for (int name : fn.sourceNames()) {
+            // in the order of the first use of each name in the text
+            appendSignature(sb, symTab.lookupLocal(name));
+            sb.append('\n');
+        }
+        return hash(sb.toString());
+    }
+
+    /**
+     * Returns the key of fn computed from its unparsed text, for a function
+     * that was not parsed from a TokenBuffer (see FnDeclNode.setSource).
+     */
+    private static String textKey(FnDeclNode fn, SymTable symTab) {
+        StringWriter source = new StringWriter();
+        PrintWriter sourceWriter = new PrintWriter(source);
+        fn.unparse(sourceWriter, 0);
+        sourceWriter.flush();
+        String text = source.toString();
+
+        StringBuilder sb = new StringBuilder(text);
+        sb.append('\0');
+        Set<String> seen = new HashSet<String>();
+        int len = text.length();
+        int k = 0;
+        while (k < len) {
+            char c = text.charAt(k);
+            if (c == '"') {
+                // skip a string literal
+                k++;
+                while (k < len && text.charAt(k) != '"') {
+                    k += text.charAt(k) == '\\' ? 2 : 1;
+                }
+                k++;
+            } else if (Character.isLetter(c) || c == '_') {
+                int end = k + 1;
+                while (end < len && (Character.isLetterOrDigit(text.charAt(end))
+                                     || text.charAt(end) == '_')) {
+                    end++;
+                }
+                String name = text.substring(k, end);
+                if (seen.add(name)) {
+                    sb.append(name).append(' ');
+                    appendSignature(sb, symTab.lookupLocal(name));
+                    sb.append('\n');
+                }
+                k = end;
+            } else {
+                k++;
+            }
+        }
+        return hash(sb.toString());
+    }
+
+    /**
+     * Appends to sb what the code of a function that uses a global with
+     * the given Sym depends on (see the comment at the top).
+     */
+    private static void appendSignature(StringBuilder sb, Sym sym) {
+        if (sym == null) {
+            sb.append('-');
+        } else if (sym instanceof FnSym) {
+            FnSym fnSym = (FnSym)sym;
+            if (fnSym.getParamTypes() == null) {
+                // the function itself: its formals are in its text
+                sb.append("fn ").append(fnSym.getReturnType());
+            } else {
+                sb.append("fn ").append(fnSym);
+            }
+        } else if (sym instanceof StructDefSym) {
+            StructDefSym def = (StructDefSym)sym;
+            sb.append("struct ").append(def.getSize()).append(" {");
+            for (Map.Entry<String, Sym> field
+                     : def.getSymTable().getLocalScope().entrySet()) {
+                sb.append(field.getKey()).append(' ')
+                  .append(field.getValue().offset).append(' ');
+                appendSignature(sb, field.getValue());
+                sb.append(';');
+            }
+            sb.append('}');
+        } else if (sym instanceof StructSym) {
+            sb.append("var ");
+            appendSignature(sb, ((StructSym)sym).getStructType().sym());
+        } else {
+            sb.append("var ").append(sym);
+        }
+    }
+
+    /**
+     * Returns the entry of a function with the given key for the current
+     * unroll factor, or null if there is none.
+     */
+    public String lookup(String key, int unrollFactor) {
+        String cached = read(entry(key, unrollFactor));
+        if (cached != null) {
+            hits++;
+        }
+        return cached;
+    }
+
+    /**
+     * Writes the code of an entry returned by lookup to cg.
+     */
+    public void emit(String cached, Codegen cg) {
+        int newline = cached.indexOf('\n');
+        String[] counts = cached.substring(0, newline).split(" ");
+        relabel(cached, newline + 1, cg.peekLabel(), cg.p);
+        cg.skipLabels(Integer.parseInt(counts[0]));
+        cg.addInstructions(Integer.parseInt(counts[1]));
+    }
+
+    /**
+     * Writes the code of fn, whose key is key, to cg, taking it from the
+     * cache if possible, and records it in the cache otherwise.
+     */
+    public void codeGen(FnDeclNode fn, String key, Codegen cg) {
+        File entry = entry(key, cg.unrollFactor);
+        String cached = read(entry);
+        if (cached != null) {
+            emit(cached, cg);
+            hits++;
+            return;
+        }
+
+        // generate the function into a buffer, then record it
+        PrintWriter out = cg.p;
+        StringWriter code = new StringWriter();
+        cg.p = new PrintWriter(code);
+        int base = cg.peekLabel();
+        int firstInstruction = cg.getInstructionCount();
+        try {
+            fn.genFunction(cg);
+        } finally {
+            cg.p.flush();
+            cg.p = out;
+        }
+        out.print(code.toString());
+        misses++;
+
+        int numLabels = cg.peekLabel() - base;
+        int numInstructions = cg.getInstructionCount() - firstInstruction;
+        StringWriter contents = new StringWriter();
+        PrintWriter contentsWriter = new PrintWriter(contents);
+        contentsWriter.print(numLabels + " " + numInstructions + "\n");
+        relabel(code.toString(), 0, -base, contentsWriter);
+        contentsWriter.flush();
+        write(entry, contents.toString());
+    }
+
+    /**
+     * Returns the file of the entry of a function with the given key for
+     * the given unroll factor.
+     */
+    private File entry(String key, int unrollFactor) {
+        return new File(dir, hash(FORMAT_VERSION + "\0" + unrollFactor + "\0"
+                                  + key) + ENTRY_SUFFIX);
+    }
+
+    /**
+     * Returns the SHA-256 hash of text, in hex.
+     */
+    private static String hash(String text) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            md.update(text.getBytes(StandardCharsets.UTF_8));
+            byte[] digest = md.digest();
+            char[] hex = new char[2 * digest.length];
+            for (int k = 0; k < digest.length; k++) {
+                hex[2 * k] = HEX_DIGITS[(digest[k] >> 4) & 0xf];
+                hex[2 * k + 1] = HEX_DIGITS[digest[k] & 0xf];
+            }
+            return new String(hex);
+        } catch (NoSuchAlgorithmException ex) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Writes code, from index start on, to out, adding delta to the number
+     * of every .Ln label. Only the part of each line before the first
+     * double quote is changed, so that string literals are left alone.
+     */
+    static void relabel(String code, int start, int delta, PrintWriter out) {
+        int len = code.length();
+        int copied = start;
+        int k = start;
+        while ((k = code.indexOf(".L", k)) >= 0) {
+            int end = k + 2;
+            while (end < len && Character.isDigit(code.charAt(end))) {
+                end++;
+            }
+            if (end > k + 2) {
+                int lineStart = code.lastIndexOf('\n', k) + 1;
+                int quote = code.indexOf('"', lineStart);
+                if (quote < 0 || quote > k) {
+                    out.write(code, copied, k + 2 - copied);
+                    out.print(Integer.parseInt(code, k + 2, end, 10) + delta);
+                    copied = end;
+                }
+            }
+            k = end;
+        }
+        out.write(code, copied, len - copied);
+    }
+
+    /**
+     * Returns the contents of an entry, or null if there is no (valid)
+     * entry.
+     */
+    private static String read(File entry) {
+        try {
+            String text = new String(Files.readAllBytes(entry.toPath()),
+                                     StandardCharsets.UTF_8);
+            int newline = text.indexOf('\n');
+            if (newline < 0) {
+                return null;
+            }
+            String[] counts = text.substring(0, newline).split(" ");
+            if (counts.length != 2) {
+                return null;
+            }
+            Integer.parseInt(counts[0]);
+            Integer.parseInt(counts[1]);
+            return text;
+        } catch (IOException ex) {
+            return null;
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Records an entry. Failing to write the cache is not an error; the
+     * function will simply be generated again next time.
+     */
+    private void write(File entry, String contents) {
+        Path tmp = null;
+        try {
+            tmp = Files.createTempFile(dir.toPath(), "tmp", ENTRY_SUFFIX);
+            Files.write(tmp, contents.getBytes(StandardCharsets.UTF_8));
+            try {
+                Files.move(tmp, entry.toPath(),
+                           StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tmp, entry.toPath(),
+                           StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException ex) {
+            if (tmp != null) {
+                tmp.toFile().delete();
+            }
+        }
+    }
+}
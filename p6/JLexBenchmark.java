@@ -0,0 +1,171 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * JLexBenchmark
+ *
+ * Times JLex (the version in deps) generating scanners from the given
+ * specs and from synthetic specs with many keyword rules. Usage:
+ *
+ *     java JLexBenchmark [-rounds n] [-keywords n,n...] file.jlex...
+ *
+ * There is a synthetic spec for each number of keywords given (1000 by
+ * default, 0 for none). Its keywords are made of random letters from a
+ * fixed seed, and are followed by the identifier, number, string, comment
+ * and white space rules of a typical scanner; its keyword rules make the
+ * NFA large and give the DFA one long chain of states per keyword.
+ *
+ * Every spec is copied to a temporary directory and run through JLex
+ * (in this JVM, with its progress output captured) for the given
+ * number of rounds; the first half are warm-up, and the fastest of the
+ * rest is printed with the number of states of the minimized DFA (as
+ * JLex reports it) and the size of the generated scanner.
+ */
+public class JLexBenchmark {
+    private static final int DEFAULT_ROUNDS = 10;
+    private static final String DEFAULT_KEYWORDS = "1000";
+
+    private static final String STATES_MESSAGE =
+        " states after removal of redundant states.";
+
+    // what JLex printed when it last ran
+    private static ByteArrayOutputStream progress;
+
+    public static void main(String[] args) throws Exception {
+        int rounds = DEFAULT_ROUNDS;
+        String keywords = DEFAULT_KEYWORDS;
+        int k = 0;
+        while (k + 1 < args.length && args[k].startsWith("-")) {
+            if (args[k].equals("-rounds")) {
+                rounds = Integer.parseInt(args[k + 1]);
+            } else if (args[k].equals("-keywords")) {
+                keywords = args[k + 1];
+            } else {
+                usage();
+            }
+            k += 2;
+        }
+        List<Integer> counts = new ArrayList<Integer>();
+        for (String count : keywords.split(",")) {
+            if (Integer.parseInt(count) > 0) {
+                counts.add(Integer.parseInt(count));
+            }
+        }
+        if (rounds < 2 || (k >= args.length && counts.isEmpty())) {
+            usage();
+        }
+
+        File dir = Files.createTempDirectory("carrot-jlexgen").toFile();
+        List<String> names = new ArrayList<String>();
+        List<File> specs = new ArrayList<File>();
+        for (; k < args.length; k++) {
+            File spec = new File(dir, specs.size() + ".jlex");
+            Files.copy(Paths.get(args[k]), spec.toPath());
+            names.add(args[k]);
+            specs.add(spec);
+        }
+        for (int count : counts) {
+            File spec = new File(dir, "keywords" + count + ".jlex");
+            Files.write(spec.toPath(), syntheticSpec(count)
+                                           .getBytes(StandardCharsets.UTF_8));
+            names.add("(" + count + " keywords)");
+            specs.add(spec);
+        }
+
+        System.out.printf("%-30s %10s %8s %12s%n", "spec", "ms", "states",
+                          "output bytes");
+        for (int s = 0; s < specs.size(); s++) {
+            File spec = specs.get(s);
+            long best = Long.MAX_VALUE;
+            for (int r = 0; r < rounds; r++) {
+                long nanos = generate(spec);
+                if (r >= rounds / 2) {
+                    best = Math.min(best, nanos);
+                }
+            }
+            System.out.printf("%-30s %10.1f %8s %12d%n", names.get(s),
+                              best / 1e6, states(),
+                              new File(spec.getPath() + ".java").length());
+        }
+
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    private static void usage() {
+        System.err.println("usage: java JLexBenchmark [-rounds n] " +
+                           "[-keywords n,n...] file.jlex...");
+        System.exit(-1);
+    }
+
+    /**
+     * Runs JLex on spec and returns the time it took.
+     */
+    private static long generate(File spec) throws IOException {
+        PrintStream out = System.out;
+        progress = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(progress));
+        try {
+            long start = System.nanoTime();
+            JLex.Main.main(new String[] { spec.getPath() });
+            return System.nanoTime() - start;
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+    /**
+     * Returns the number of states of the minimized DFA that JLex reported
+     * when it last ran, or "?" if it did not.
+     */
+    private static String states() {
+        for (String line : progress.toString().split("\n")) {
+            if (line.endsWith(STATES_MESSAGE)) {
+                return line.substring(0, line.length()
+                                         - STATES_MESSAGE.length());
+            }
+        }
+        return "?";
+    }
+
+    /**
+     * Returns a spec with the given number of keyword rules.
+     */
+    private static String syntheticSpec(int keywords) {
+        Random random = new Random(536);
+        Set<String> words = new LinkedHashSet<String>();
+        while (words.size() < keywords) {
+            int length = 2 + random.nextInt(9);
+            StringBuilder word = new StringBuilder();
+            for (int i = 0; i < length; i++) {
+                word.append((char)('a' + random.nextInt(26)));
+            }
+            words.add(word.toString());
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("%%\n");
+        sb.append("%class Keywords\n");
+        sb.append("%integer\n");
+        sb.append("%line\n");
+        sb.append("%%\n");
+        int token = 1;
+        for (String word : words) {
+            sb.append('"').append(word).append("\" { return ")
+              .append(token++).append("; }\n");
+        }
+        sb.append("[a-zA-Z_][a-zA-Z_0-9]* { return ").append(token++)
+          .append("; }\n");
+        sb.append("[0-9]+ { return ").append(token++).append("; }\n");
+        sb.append("\\\"([^\\n\\\"\\\\]|\\\\[nt'\\\"?\\\\])*\\\" { return ")
+          .append(token++).append("; }\n");
+        sb.append("\"//\"[^\\n]* { }\n");
+        sb.append("[\\ \\t\\n]+ { }\n");
+        sb.append(". { return ").append(token++).append("; }\n");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,709 @@
+import java.util.*;
+
+/**
+ * LRParser
+ *
+ * Parses the tokens of a TokenBuffer with the LALR tables that CUP makes
+ * from Carrot.cup, running the actions of the grammar to build exactly the
+ * AST the CUP-generated parser builds, with the same error messages.
+ *
+ * The CUP parser keeps a java.util.Stack of Symbols (whose methods are
+ * synchronized), looks every action up in packed short[][] rows, and gets
+ * its tokens as Symbols. This parser instead unpacks the tables once into
+ * flat int arrays indexed by state and symbol, keeps its states in an int
+ * array, and keeps only values an action can use in a separate value
+ * stack: the results of nonterminals. Terminals push no value. The only
+ * actions that use the value of a terminal reduce it alone (as in
+ * "id ::= ID"), so that terminal is always the last token shifted, and its
+ * value is read from the token buffer.
+ *
+ * The actions below must be kept in step with those of Carrot.cup. The
+ * productions are listed in CUP's order in PRODUCTIONS, and the class
+ * checks when it is loaded that they still have the left-hand sides and
+ * lengths of CUP's production table.
+ *
+ * On a syntax error the parser recovers with the error productions of
+ * Carrot.cup exactly as java_cup.runtime.lr_parser does (see recover), so
+ * it reports the same errors and builds the same partial AST. The error
+ * symbol is the one terminal with a value (always null) on the value
+ * stack, so that the states popped while recovering tell which values to
+ * pop with them (see VALUED).
+ */
+public class LRParser {
+    // the productions of Carrot.cup in the order CUP numbers them (see the
+    // comments in parser.java); a word starting in lower case is a
+    // nonterminal
+    private static final String[] PRODUCTIONS = {
+        "$START ::= program EOF",
+        "program ::= declList",
+        "declList ::= declList decl",
+        "declList ::=",
+        "decl ::= varDecl",
+        "decl ::= fnDecl",
+        "decl ::= structDecl",
+        "varDeclList ::= varDeclList varDecl",
+        "varDeclList ::=",
+        "varDecl ::= type id SEMICOLON",
+        "varDecl ::= STRUCT id id SEMICOLON",
+        "fnDecl ::= type id formals fnBody",
+        "structDecl ::= STRUCT id LCURLY structBody RCURLY SEMICOLON",
+        "structBody ::= structBody varDecl",
+        "structBody ::= varDecl",
+        "formals ::= LPAREN RPAREN",
+        "formals ::= LPAREN formalsList RPAREN",
+        "formalsList ::= formalDecl",
+        "formalsList ::= formalDecl COMMA formalsList",
+        "formalDecl ::= type id",
+        "fnBody ::= LCURLY varDeclList stmtList RCURLY",
+        "stmtList ::= stmtList stmt",
+        "stmtList ::=",
+        "stmt ::= assignExp SEMICOLON",
+        "stmt ::= loc PLUSPLUS SEMICOLON",
+        "stmt ::= loc MINUSMINUS SEMICOLON",
+        "stmt ::= CIN READ loc SEMICOLON",
+        "stmt ::= COUT WRITE exp SEMICOLON",
+        "stmt ::= IF LPAREN exp RPAREN LCURLY varDeclList stmtList RCURLY",
+        "stmt ::= IF LPAREN exp RPAREN LCURLY varDeclList stmtList RCURLY"
+            + " ELSE LCURLY varDeclList stmtList RCURLY",
+        "stmt ::= WHILE LPAREN exp RPAREN LCURLY varDeclList stmtList RCURLY",
+        "stmt ::= REPEAT LPAREN exp RPAREN LCURLY varDeclList stmtList RCURLY",
+        "stmt ::= RETURN exp SEMICOLON",
+        "stmt ::= RETURN SEMICOLON",
+        "stmt ::= fncall SEMICOLON",
+        "assignExp ::= loc ASSIGN exp",
+        "exp ::= assignExp",
+        "exp ::= exp PLUS exp",
+        "exp ::= exp MINUS exp",
+        "exp ::= exp TIMES exp",
+        "exp ::= exp DIVIDE exp",
+        "exp ::= NOT exp",
+        "exp ::= exp AND exp",
+        "exp ::= exp OR exp",
+        "exp ::= exp EQUALS exp",
+        "exp ::= exp NOTEQUALS exp",
+        "exp ::= exp LESS exp",
+        "exp ::= exp GREATER exp",
+        "exp ::= exp LESSEQ exp",
+        "exp ::= exp GREATEREQ exp",
+        "exp ::= MINUS exp",
+        "exp ::= term",
+        "term ::= loc",
+        "term ::= INTLITERAL",
+        "term ::= STRINGLITERAL",
+        "term ::= TRUE",
+        "term ::= FALSE",
+        "term ::= LPAREN exp RPAREN",
+        "term ::= fncall",
+        "fncall ::= id LPAREN RPAREN",
+        "fncall ::= id LPAREN actualList RPAREN",
+        "actualList ::= exp",
+        "actualList ::= actualList COMMA exp",
+        "type ::= INT",
+        "type ::= BOOL",
+        "type ::= VOID",
+        "loc ::= id",
+        "loc ::= loc DOT id",
+        "id ::= ID",
+        "varDeclList ::= varDeclList error SEMICOLON",
+        "varDeclList ::= varDeclList error",
+        "stmtList ::= stmtList error SEMICOLON",
+        "stmtList ::= stmtList error",
+        "structBody ::= structBody error SEMICOLON",
+        "structBody ::= structBody error",
+        "structBody ::= error SEMICOLON",
+        "structBody ::= error",
+        "declList ::= declList error SEMICOLON",
+        "declList ::= declList error RCURLY",
+        "declList ::= declList error"
+    };
+
+    // the number of tokens that must parse after a syntax error for the
+    // parser to go on (lr_parser.error_sync_size)
+    private static final int ERROR_SYNC_SIZE = 3;
+
+    private static final int NUM_TERMINALS = sym.terminalNames.length;
+    private static final int NUM_NONTERMINALS;
+
+    // ACTIONS[state * NUM_TERMINALS + terminal] is as in CUP: state + 1 to
+    // shift to state, -(production + 1) to reduce by production, 0 for an
+    // error
+    private static final int[] ACTIONS;
+
+    // GOTOS[state * NUM_NONTERMINALS + nonterminal] is the state to go to
+    // after a reduction to nonterminal uncovers state
+    private static final int[] GOTOS;
+
+    // the left-hand side, the number of symbols and the number of values
+    // (nonterminals) of the right-hand side of each production
+    private static final int[] LHS;
+    private static final int[] LENGTH;
+    private static final int[] VALUES;
+
+    // whether the symbol each state is entered by (the one on top of the
+    // stack in that state) has a value: a nonterminal or error
+    private static final boolean[] VALUED;
+
+    static {
+        short[][] productions = parser._production_table;
+        short[][] actions = parser._action_table;
+        short[][] gotos = parser._reduce_table;
+        if (productions.length != PRODUCTIONS.length) {
+            throw new IllegalStateException(
+                "LRParser does not match Carrot.cup: " + productions.length
+                + " productions instead of " + PRODUCTIONS.length);
+        }
+
+        int numProductions = productions.length;
+        LHS = new int[numProductions];
+        LENGTH = new int[numProductions];
+        VALUES = new int[numProductions];
+        Map<String, Integer> lhs = new HashMap<String, Integer>();
+        int numNonterminals = 0;
+        for (int p = 0; p < numProductions; p++) {
+            String[] words = PRODUCTIONS[p].split(" ");
+            Integer known = lhs.get(words[0]);
+            if (productions[p][1] != words.length - 2
+                || (known != null && known != productions[p][0])) {
+                throw new IllegalStateException(
+                    "LRParser does not match Carrot.cup: production " + p
+                    + " is not " + PRODUCTIONS[p]);
+            }
+            lhs.put(words[0], (int)productions[p][0]);
+            LHS[p] = productions[p][0];
+            LENGTH[p] = productions[p][1];
+            for (int w = 2; w < words.length; w++) {
+                if (Character.isLowerCase(words[w].charAt(0))) {
+                    VALUES[p]++;
+                }
+            }
+            numNonterminals = Math.max(numNonterminals, LHS[p] + 1);
+        }
+        NUM_NONTERMINALS = numNonterminals;
+
+        // a row of CUP's tables is (symbol, entry) pairs, ending with the
+        // default entry under symbol -1
+        int numStates = actions.length;
+        ACTIONS = new int[numStates * NUM_TERMINALS];
+        GOTOS = new int[numStates * NUM_NONTERMINALS];
+        VALUED = new boolean[numStates];
+        for (int state = 0; state < numStates; state++) {
+            short[] row = actions[state];
+            int base = state * NUM_TERMINALS;
+            Arrays.fill(ACTIONS, base, base + NUM_TERMINALS,
+                        row[row.length - 1]);
+            for (int k = 0; k < row.length - 2; k += 2) {
+                ACTIONS[base + row[k]] = row[k + 1];
+                if (row[k] == sym.error && row[k + 1] > 0) {
+                    VALUED[row[k + 1] - 1] = true;
+                }
+            }
+
+            row = gotos[state];
+            base = state * NUM_NONTERMINALS;
+            Arrays.fill(GOTOS, base, base + NUM_NONTERMINALS, -1);
+            for (int k = row.length - 2; k >= 0; k -= 2) {
+                if (row[k] < 0) {
+                    Arrays.fill(GOTOS, base, base + NUM_NONTERMINALS,
+                                row[k + 1]);
+                } else {
+                    GOTOS[base + row[k]] = row[k + 1];
+                    VALUED[row[k + 1]] = true;
+                }
+            }
+        }
+    }
+
+    private final TokenBuffer tokens;
+    private final CompileContext ctx;
+
+    // the index of the next token to read, and of the next message of the
+    // scanner to give to ErrMsg (see TokenBuffer.replay)
+    private int next = 0;
+    private int nextMessage;
+
+    // the stack: a state for each symbol, and the values of the symbols
+    // that have one
+    private int[] states = new int[64];
+    private Object[] values = new Object[64];
+    private int top = 0;        // the index of the current state in states
+    private int numValues = 0;
+    private int shifted = -1;   // the index of the last token shifted
+
+    // the root of the AST, if the program was accepted while recovering
+    private ProgramNode accepted = null;
+
+    // the indexes of the tokens read ahead while recovering from a syntax
+    // error (lr_parser.lookahead)
+    private final int[] sync = new int[ERROR_SYNC_SIZE];
+
+    /**
+     * Creates a parser for the tokens of a source file, scanned by
+     * ByteScanner.scanAll for the compilation of ctx.
+     */
+    public LRParser(TokenBuffer tokens, CompileContext ctx) {
+        this(tokens, ctx, 0);
+    }
+
+    /**
+     * Creates a parser for tokens whose first scanner messages, up to
+     * message number firstMessage, have already been given to ErrMsg (by
+     * DescentParser, which hands a program with syntax errors over).
+     */
+    LRParser(TokenBuffer tokens, CompileContext ctx, int firstMessage) {
+        this.tokens = tokens;
+        this.ctx = ctx;
+        this.nextMessage = firstMessage;
+    }
+
+    /**
+     * Parses the tokens, reporting every syntax error it can recover from.
+     * @return the root of the AST, without the parts in error
+     * @throws Exception on a syntax error it cannot recover from, after
+     *                   reporting it
+     */
+    public ProgramNode parse() throws Exception {
+        // the stack is kept in locals here, and in the fields while
+        // recovering
+        int[] states = this.states;
+        Object[] values = this.values;
+        int top = this.top;
+        int numValues = this.numValues;
+        int shifted = this.shifted;
+        int lookahead = read();
+
+        while (true) {
+            int action = ACTIONS[states[top] * NUM_TERMINALS + lookahead];
+            if (action > 0) {
+                if (++top == states.length) {
+                    states = Arrays.copyOf(states, 2 * top);
+                    values = Arrays.copyOf(values, 2 * top);
+                }
+                states[top] = action - 1;
+                shifted = next - 1;
+                lookahead = read();
+            } else if (action < 0) {
+                int production = -action - 1;
+                if (production == 0) {
+                    return (ProgramNode)values[numValues - 1];
+                }
+                Object result = reduce(production, values, numValues,
+                                       shifted);
+                numValues -= VALUES[production];
+                values[numValues++] = result;
+                top -= LENGTH[production];
+                states[top + 1] =
+                    GOTOS[states[top] * NUM_NONTERMINALS + LHS[production]];
+                top++;
+            } else {
+                // as parser.syntax_error does
+                if (lookahead == sym.EOF) {
+                    ctx.errMsg.fatal(0,0, "Syntax error at end of file");
+                } else {
+                    ctx.errMsg.fatal(tokens.lineNum(next - 1),
+                                     tokens.charNum(next - 1),
+                                     "Syntax error");
+                }
+                this.states = states;
+                this.values = values;
+                this.top = top;
+                this.numValues = numValues;
+                this.shifted = shifted;
+                if (!recover()) {
+                    // as parser.unrecovered_syntax_error does
+                    throw new Exception("Can't recover from previous error(s)");
+                }
+                if (accepted != null) {
+                    return accepted;
+                }
+                states = this.states;
+                values = this.values;
+                top = this.top;
+                numValues = this.numValues;
+                shifted = this.shifted;
+                lookahead = tokens.kind(next - 1);
+            }
+        }
+    }
+
+    /**
+     * Pushes a state (while recovering; a value, if its symbol has one, is
+     * pushed by the caller).
+     */
+    private void push(int state) {
+        if (++top == states.length) {
+            states = Arrays.copyOf(states, 2 * top);
+            values = Arrays.copyOf(values, 2 * top);
+        }
+        states[top] = state;
+    }
+
+    /**
+     * Reduces by a production other than the start production while
+     * recovering, as parse does: runs its action and replaces its
+     * right-hand side on the stack with its left-hand side.
+     */
+    private void reduceBy(int production) {
+        Object result = reduce(production, values, numValues, shifted);
+        numValues -= VALUES[production];
+        values[numValues++] = result;
+        top -= LENGTH[production];
+        push(GOTOS[states[top] * NUM_NONTERMINALS + LHS[production]]);
+    }
+
+    /**
+     * Recovers from a syntax error at the current token, the last one
+     * read, as lr_parser.error_recovery does: pops states until one that
+     * can shift error and shifts it, then drops tokens until the next
+     * ERROR_SYNC_SIZE tokens can be parsed (or the program accepted) and
+     * parses them. If they end the program, its AST is put in accepted.
+     * @return false if no state can shift error, or the end of the file
+     *         is reached without finding tokens that parse
+     */
+    private boolean recover() {
+        while (ACTIONS[states[top] * NUM_TERMINALS + sym.error] <= 0) {
+            if (VALUED[states[top]]) {
+                numValues--;
+            }
+            if (--top < 0) {
+                return false;
+            }
+        }
+        push(ACTIONS[states[top] * NUM_TERMINALS + sym.error] - 1);
+        values[numValues++] = null;
+
+        // the token in error and the ones after it (lr_parser.read_lookahead)
+        sync[0] = next - 1;
+        for (int k = 1; k < ERROR_SYNC_SIZE; k++) {
+            read();
+            sync[k] = next - 1;
+        }
+        read();
+
+        while (!parseAhead()) {
+            if (tokens.kind(sync[0]) == sym.EOF) {
+                return false;
+            }
+            System.arraycopy(sync, 1, sync, 0, ERROR_SYNC_SIZE - 1);
+            sync[ERROR_SYNC_SIZE - 1] = next - 1;
+            read();
+        }
+
+        // parse the tokens read ahead (lr_parser.parse_lookahead)
+        int k = 0;
+        while (k < ERROR_SYNC_SIZE) {
+            int kind = tokens.kind(sync[k]);
+            int action = ACTIONS[states[top] * NUM_TERMINALS + kind];
+            if (action > 0) {
+                push(action - 1);
+                shifted = sync[k++];
+            } else if (action == -1) {
+                accepted = (ProgramNode)values[numValues - 1];
+                return true;
+            } else if (action < 0) {
+                reduceBy(-action - 1);
+            } else {
+                throw new IllegalStateException("tokens parsed ahead do not parse");
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Tells whether the tokens read ahead can be parsed from the current
+     * stack, on a copy of its states (lr_parser.try_parse_ahead).
+     */
+    private boolean parseAhead() {
+        int[] copy = Arrays.copyOf(states, top + 1 + ERROR_SYNC_SIZE);
+        int copyTop = top;
+        int k = 0;
+        while (true) {
+            int action = ACTIONS[copy[copyTop] * NUM_TERMINALS
+                                 + tokens.kind(sync[k])];
+            if (action == 0) {
+                return false;
+            } else if (action == -1) {
+                return true;    // the start production: accepted
+            }
+            if (copyTop + 1 == copy.length) {
+                copy = Arrays.copyOf(copy, 2 * copy.length);
+            }
+            if (action > 0) {
+                copy[++copyTop] = action - 1;
+                if (++k == ERROR_SYNC_SIZE) {
+                    return true;
+                }
+            } else {
+                int production = -action - 1;
+                copyTop -= LENGTH[production];
+                copy[copyTop + 1] = GOTOS[copy[copyTop] * NUM_NONTERMINALS
+                                          + LHS[production]];
+                copyTop++;
+            }
+        }
+    }
+
+    /**
+     * Reads the next token, giving ErrMsg the messages of the scanner that
+     * come before it, and counts it (for the statistics of P6 -stats).
+     * After the final EOF, reads it again.
+     * @return its kind
+     */
+    private int read() {
+        int index = Math.min(next, tokens.size() - 1);
+        nextMessage = tokens.replay(index, nextMessage, ctx.errMsg);
+        int kind = tokens.kind(index);
+        if (kind != sym.EOF) {
+            ctx.numTokens++;
+        }
+        next = index + 1;
+        return kind;
+    }
+
+    /**
+     * Runs the action of a production, whose values are at the top of the
+     * value stack v (below index top).
+     * @param token the index of the last token shifted
+     * @return the value of the left-hand side
+     */
+    @SuppressWarnings("unchecked")
+    private Object reduce(int production, Object[] v, int top, int token) {
+        switch (production) {
+        case 1: // program ::= declList
+            return new ProgramNode(
+                new DeclListNode((LinkedList<DeclNode>)v[top - 1]),
+                ctx.names);
+
+        case 2: // declList ::= declList decl
+        case 7: // varDeclList ::= varDeclList varDecl
+        case 13: // structBody ::= structBody varDecl
+        case 21: // stmtList ::= stmtList stmt
+            ((LinkedList<Object>)v[top - 2]).addLast(v[top - 1]);
+            return v[top - 2];
+
+        case 69: // varDeclList ::= varDeclList error SEMICOLON
+        case 70: // varDeclList ::= varDeclList error
+        case 71: // stmtList ::= stmtList error SEMICOLON
+        case 72: // stmtList ::= stmtList error
+        case 73: // structBody ::= structBody error SEMICOLON
+        case 74: // structBody ::= structBody error
+        case 77: // declList ::= declList error SEMICOLON
+        case 78: // declList ::= declList error RCURLY
+        case 79: // declList ::= declList error
+            return v[top - 2];
+
+        case 75: // structBody ::= error SEMICOLON
+        case 76: // structBody ::= error
+            return new LinkedList<VarDeclNode>();
+
+        case 3: // declList ::=
+            return new LinkedList<DeclNode>();
+
+        case 4: // decl ::= varDecl
+        case 5: // decl ::= fnDecl
+        case 6: // decl ::= structDecl
+        case 36: // exp ::= assignExp
+        case 51: // exp ::= term
+        case 52: // term ::= loc
+        case 57: // term ::= LPAREN exp RPAREN
+        case 58: // term ::= fncall
+        case 66: // loc ::= id
+            return v[top - 1];
+
+        case 8: // varDeclList ::=
+            return new LinkedList<VarDeclNode>();
+
+        case 9: // varDecl ::= type id SEMICOLON
+            return new VarDeclNode((TypeNode)v[top - 2], (IdNode)v[top - 1],
+                                   VarDeclNode.NOT_STRUCT);
+
+        case 10: // varDecl ::= STRUCT id id SEMICOLON
+            return new VarDeclNode(new StructNode((IdNode)v[top - 2]),
+                                   (IdNode)v[top - 1], 0);
+
+        case 11: // fnDecl ::= type id formals fnBody
+            return new FnDeclNode((TypeNode)v[top - 4], (IdNode)v[top - 3],
+                new FormalsListNode((LinkedList<FormalDeclNode>)v[top - 2]),
+                (FnBodyNode)v[top - 1]);
+
+        case 12: // structDecl ::= STRUCT id LCURLY structBody RCURLY SEMICOLON
+            return new StructDeclNode((IdNode)v[top - 2],
+                new DeclListNode((LinkedList<DeclNode>)v[top - 1]));
+
+        case 14: // structBody ::= varDecl
+        case 17: { // formalsList ::= formalDecl
+            LinkedList<Object> list = new LinkedList<Object>();
+            list.addLast(v[top - 1]);
+            return list;
+        }
+
+        case 15: // formals ::= LPAREN RPAREN
+            return new LinkedList<FormalDeclNode>();
+
+        case 16: // formals ::= LPAREN formalsList RPAREN
+            return v[top - 1];
+
+        case 18: // formalsList ::= formalDecl COMMA formalsList
+            ((LinkedList<Object>)v[top - 1]).addFirst(v[top - 2]);
+            return v[top - 1];
+
+        case 19: // formalDecl ::= type id
+            return new FormalDeclNode((TypeNode)v[top - 2],
+                                      (IdNode)v[top - 1]);
+
+        case 20: // fnBody ::= LCURLY varDeclList stmtList RCURLY
+            return new FnBodyNode(
+                new DeclListNode((LinkedList<DeclNode>)v[top - 2]),
+                new StmtListNode((LinkedList<StmtNode>)v[top - 1]));
+
+        case 22: // stmtList ::=
+            return new LinkedList<StmtNode>();
+
+        case 23: // stmt ::= assignExp SEMICOLON
+            return new AssignStmtNode((AssignNode)v[top - 1]);
+
+        case 24: // stmt ::= loc PLUSPLUS SEMICOLON
+            return new PostIncStmtNode((ExpNode)v[top - 1]);
+
+        case 25: // stmt ::= loc MINUSMINUS SEMICOLON
+            return new PostDecStmtNode((ExpNode)v[top - 1]);
+
+        case 26: // stmt ::= CIN READ loc SEMICOLON
+            return new ReadStmtNode((ExpNode)v[top - 1]);
+
+        case 27: // stmt ::= COUT WRITE exp SEMICOLON
+            return new WriteStmtNode((ExpNode)v[top - 1]);
+
+        case 28: // stmt ::= IF LPAREN exp RPAREN LCURLY varDeclList stmtList RCURLY
+            return new IfStmtNode((ExpNode)v[top - 3],
+                new DeclListNode((LinkedList<DeclNode>)v[top - 2]),
+                new StmtListNode((LinkedList<StmtNode>)v[top - 1]));
+
+        case 29: // stmt ::= IF LPAREN exp RPAREN LCURLY varDeclList stmtList RCURLY ELSE LCURLY varDeclList stmtList RCURLY
+            return new IfElseStmtNode((ExpNode)v[top - 5],
+                new DeclListNode((LinkedList<DeclNode>)v[top - 4]),
+                new StmtListNode((LinkedList<StmtNode>)v[top - 3]),
+                new DeclListNode((LinkedList<DeclNode>)v[top - 2]),
+                new StmtListNode((LinkedList<StmtNode>)v[top - 1]));
+
+        case 30: // stmt ::= WHILE LPAREN exp RPAREN LCURLY varDeclList stmtList RCURLY
+            return new WhileStmtNode((ExpNode)v[top - 3],
+                new DeclListNode((LinkedList<DeclNode>)v[top - 2]),
+                new StmtListNode((LinkedList<StmtNode>)v[top - 1]));
+
+        case 31: // stmt ::= REPEAT LPAREN exp RPAREN LCURLY varDeclList stmtList RCURLY
+            return new RepeatStmtNode((ExpNode)v[top - 3],
+                new DeclListNode((LinkedList<DeclNode>)v[top - 2]),
+                new StmtListNode((LinkedList<StmtNode>)v[top - 1]));
+
+        case 32: // stmt ::= RETURN exp SEMICOLON
+            return new ReturnStmtNode((ExpNode)v[top - 1]);
+
+        case 33: // stmt ::= RETURN SEMICOLON
+            return new ReturnStmtNode(null);
+
+        case 34: // stmt ::= fncall SEMICOLON
+            return new CallStmtNode((CallExpNode)v[top - 1]);
+
+        case 35: // assignExp ::= loc ASSIGN exp
+            return new AssignNode((ExpNode)v[top - 2], (ExpNode)v[top - 1]);
+
+        case 37: // exp ::= exp PLUS exp
+            return new PlusNode((ExpNode)v[top - 2], (ExpNode)v[top - 1]);
+
+        case 38: // exp ::= exp MINUS exp
+            return new MinusNode((ExpNode)v[top - 2], (ExpNode)v[top - 1]);
+
+        case 39: // exp ::= exp TIMES exp
+            return new TimesNode((ExpNode)v[top - 2], (ExpNode)v[top - 1]);
+
+        case 40: // exp ::= exp DIVIDE exp
+            return new DivideNode((ExpNode)v[top - 2], (ExpNode)v[top - 1]);
+
+        case 41: // exp ::= NOT exp
+            return new NotNode((ExpNode)v[top - 1]);
+
+        case 42: // exp ::= exp AND exp
+            return new AndNode((ExpNode)v[top - 2], (ExpNode)v[top - 1]);
+
+        case 43: // exp ::= exp OR exp
+            return new OrNode((ExpNode)v[top - 2], (ExpNode)v[top - 1]);
+
+        case 44: // exp ::= exp EQUALS exp
+            return new EqualsNode((ExpNode)v[top - 2], (ExpNode)v[top - 1]);
+
+        case 45: // exp ::= exp NOTEQUALS exp
+            return new NotEqualsNode((ExpNode)v[top - 2],
+                                     (ExpNode)v[top - 1]);
+
+        case 46: // exp ::= exp LESS exp
+            return new LessNode((ExpNode)v[top - 2], (ExpNode)v[top - 1]);
+
+        case 47: // exp ::= exp GREATER exp
+            return new GreaterNode((ExpNode)v[top - 2], (ExpNode)v[top - 1]);
+
+        case 48: // exp ::= exp LESSEQ exp
+            return new LessEqNode((ExpNode)v[top - 2], (ExpNode)v[top - 1]);
+
+        case 49: // exp ::= exp GREATEREQ exp
+            return new GreaterEqNode((ExpNode)v[top - 2],
+                                     (ExpNode)v[top - 1]);
+
+        case 50: // exp ::= MINUS exp
+            return new UnaryMinusNode((ExpNode)v[top - 1]);
+
+        case 53: // term ::= INTLITERAL
+            return new IntLitNode(tokens.lineNum(token),
+                                  tokens.charNum(token), tokens.value(token));
+
+        case 54: // term ::= STRINGLITERAL
+            return new StringLitNode(tokens.lineNum(token),
+                                     tokens.charNum(token),
+                                     tokens.string(token));
+
+        case 55: // term ::= TRUE
+            return new TrueNode(tokens.lineNum(token), tokens.charNum(token));
+
+        case 56: // term ::= FALSE
+            return new FalseNode(tokens.lineNum(token), tokens.charNum(token));
+
+        case 59: // fncall ::= id LPAREN RPAREN
+            return new CallExpNode((IdNode)v[top - 1],
+                new ExpListNode(new LinkedList<ExpNode>()));
+
+        case 60: // fncall ::= id LPAREN actualList RPAREN
+            return new CallExpNode((IdNode)v[top - 2],
+                new ExpListNode((LinkedList<ExpNode>)v[top - 1]));
+
+        case 61: { // actualList ::= exp
+            LinkedList<ExpNode> list = new LinkedList<ExpNode>();
+            list.addLast((ExpNode)v[top - 1]);
+            return list;
+        }
+
+        case 62: // actualList ::= actualList COMMA exp
+            ((LinkedList<ExpNode>)v[top - 2]).addLast((ExpNode)v[top - 1]);
+            return v[top - 2];
+
+        case 63: // type ::= INT
+            return new IntNode();
+
+        case 64: // type ::= BOOL
+            return new BoolNode();
+
+        case 65: // type ::= VOID
+            return new VoidNode();
+
+        case 67: // loc ::= loc DOT id
+            return new DotAccessExpNode((ExpNode)v[top - 2],
+                                        (IdNode)v[top - 1]);
+
+        case 68: // id ::= ID
+            return new IdNode(tokens.lineNum(token), tokens.charNum(token),
+                              tokens.name(token), tokens.value(token));
+
+        default:
+            throw new IllegalStateException("no action for production "
+                                            + production);
+        }
+    }
+}
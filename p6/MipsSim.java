@@ -0,0 +1,518 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * MipsSim
+ *
+ * Runs the assembly code written by P6, so that the code generator can be
+ * tested where SPIM is not installed. Usage:
+ *
+ *     java MipsSim file.s
+ *
+ * It knows only what Codegen writes: the .data, .text, .align, .space and
+ * .asciiz directives, the instructions generated in ast.java, and the
+ * print int (1), print string (4), read int (5) and exit (10) system
+ * calls, which use System.in and System.out. The program starts at
+ * __start.
+ *
+ * It also checks that the code keeps the calling convention: when a
+ * function returns with jr $ra, $s0..$s7, $fp and $ra must be what they
+ * were just after the jal that called it. Each difference is printed to
+ * System.err; the
+ * exit status is 1 if there were any and 2 if the program could not be
+ * run (an unknown instruction or label, a bad address, a division by zero
+ * or too many instructions executed).
+ */
+public class MipsSim {
+    private static final int TEXT_BASE = 0x00400000;
+    private static final int DATA_BASE = 0x10010000;
+    private static final int STACK_TOP = 0x7fffeffc;
+    private static final int STACK_SIZE = 16 << 20;
+    private static final long MAX_STEPS = 50000000L;
+
+    private static final String[] REGISTERS = {
+        "$zero", "$at", "$v0", "$v1", "$a0", "$a1", "$a2", "$a3",
+        "$t0", "$t1", "$t2", "$t3", "$t4", "$t5", "$t6", "$t7",
+        "$s0", "$s1", "$s2", "$s3", "$s4", "$s5", "$s6", "$s7",
+        "$t8", "$t9", "$k0", "$k1", "$gp", "$sp", "$fp", "$ra"
+    };
+    private static final int V0 = 2;
+    private static final int A0 = 4;
+    private static final int S0 = 16;
+    private static final int SP = 29;
+    private static final int FP = 30;
+    private static final int RA = 31;
+
+    // the registers a function must give back to its caller
+    private static final int[] PRESERVED = {
+        S0, S0 + 1, S0 + 2, S0 + 3, S0 + 4, S0 + 5, S0 + 6, S0 + 7, FP, RA
+    };
+
+    /**
+     * An instruction: its opcode, its operands as written, and the line
+     * it is on.
+     */
+    private static class Instr {
+        final String op;
+        final String[] args;
+        final int line;
+
+        Instr(String op, String[] args, int line) {
+            this.op = op;
+            this.args = args;
+            this.line = line;
+        }
+    }
+
+    /**
+     * What a called function must give back: the values of the PRESERVED
+     * registers at the jal that called it.
+     */
+    private static class Call {
+        final String fn;
+        final int[] preserved = new int[PRESERVED.length];
+
+        Call(String fn, int[] regs) {
+            this.fn = fn;
+            for (int k = 0; k < PRESERVED.length; k++) {
+                preserved[k] = regs[PRESERVED[k]];
+            }
+        }
+    }
+
+    /**
+     * A problem that stops the program.
+     */
+    private static class SimError extends RuntimeException {
+        SimError(String msg) {
+            super(msg);
+        }
+    }
+
+    private final List<Instr> text = new ArrayList<Instr>();
+    private final Map<String, Integer> textLabels =
+        new HashMap<String, Integer>();
+    private final Map<String, Integer> dataLabels =
+        new HashMap<String, Integer>();
+    private byte[] data = new byte[1024];
+    private int dataSize = 0;
+    private final byte[] stack = new byte[STACK_SIZE];
+
+    private final int[] regs = new int[REGISTERS.length];
+    private int lo;
+    private final Deque<Call> calls = new ArrayDeque<Call>();
+    private int violations = 0;
+
+    private final StreamTokenizer in = new StreamTokenizer(
+        new BufferedReader(new InputStreamReader(System.in)));
+    private final PrintStream out = new PrintStream(
+        new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)),
+        false);
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("usage: java MipsSim file.s");
+            System.exit(-1);
+        }
+        MipsSim sim = new MipsSim();
+        int status;
+        try {
+            sim.load(Files.readAllLines(Paths.get(args[0]),
+                                        StandardCharsets.US_ASCII));
+            sim.run();
+            status = sim.violations == 0 ? 0 : 1;
+        } catch (SimError ex) {
+            sim.out.flush();
+            System.err.println("MipsSim: " + ex.getMessage());
+            status = 2;
+        }
+        sim.out.flush();
+        System.exit(status);
+    }
+
+    /**
+     * Reads the lines of an assembly file: lays out its data and collects
+     * its instructions and labels.
+     */
+    private void load(List<String> lines) {
+        boolean inText = true;
+        for (int n = 1; n <= lines.size(); n++) {
+            String line = stripComment(lines.get(n - 1)).trim();
+            int colon;
+            while ((colon = labelEnd(line)) > 0) {
+                String label = line.substring(0, colon);
+                if (inText) {
+                    textLabels.put(label, text.size());
+                } else {
+                    dataLabels.put(label, DATA_BASE + dataSize);
+                }
+                line = line.substring(colon + 1).trim();
+            }
+            if (line.isEmpty()) {
+                continue;
+            }
+
+            int space = 0;
+            while (space < line.length()
+                   && !Character.isWhitespace(line.charAt(space))) {
+                space++;
+            }
+            String op = line.substring(0, space);
+            String rest = line.substring(space).trim();
+            if (op.equals(".text")) {
+                inText = true;
+            } else if (op.equals(".data")) {
+                inText = false;
+            } else if (op.equals(".align")) {
+                int align = 1 << Integer.parseInt(rest);
+                reserve((align - dataSize % align) % align);
+            } else if (op.equals(".space")) {
+                reserve(Integer.parseInt(rest));
+            } else if (op.equals(".asciiz")) {
+                byte[] bytes = unquote(rest, n);
+                int start = reserve(bytes.length + 1);
+                System.arraycopy(bytes, 0, data, start, bytes.length);
+            } else if (op.startsWith(".")) {
+                throw new SimError("line " + n + ": unknown directive " + op);
+            } else {
+                String[] args = rest.isEmpty() ? new String[0]
+                                               : rest.split("\\s*,\\s*");
+                text.add(new Instr(op, args, n));
+            }
+        }
+    }
+
+    /**
+     * Returns line without its comment, if any.
+     */
+    private static String stripComment(String line) {
+        boolean quoted = false;
+        for (int k = 0; k < line.length(); k++) {
+            char c = line.charAt(k);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == '\\' && quoted) {
+                k++;
+            } else if (c == '#' && !quoted) {
+                return line.substring(0, k);
+            }
+        }
+        return line;
+    }
+
+    /**
+     * Returns the index of the colon that ends the label at the start of
+     * line, or -1 if line does not start with a label.
+     */
+    private static int labelEnd(String line) {
+        int k = 0;
+        while (k < line.length()) {
+            char c = line.charAt(k);
+            if (!Character.isLetterOrDigit(c) && c != '_' && c != '.'
+                && c != '$') {
+                break;
+            }
+            k++;
+        }
+        return k > 0 && k < line.length() && line.charAt(k) == ':' ? k : -1;
+    }
+
+    /**
+     * Returns the bytes of a quoted string of an .asciiz directive.
+     */
+    private static byte[] unquote(String s, int line) {
+        if (s.length() < 2 || s.charAt(0) != '"'
+            || s.charAt(s.length() - 1) != '"') {
+            throw new SimError("line " + line + ": bad string " + s);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (int k = 1; k < s.length() - 1; k++) {
+            char c = s.charAt(k);
+            if (c == '\\') {
+                c = s.charAt(++k);
+                if (c == 'n') {
+                    c = '\n';
+                } else if (c == 't') {
+                    c = '\t';
+                }
+            }
+            bytes.write(c);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Adds n bytes of zeros to the data.
+     * @return the index of the first of them
+     */
+    private int reserve(int n) {
+        if (dataSize + n > data.length) {
+            data = Arrays.copyOf(data, Math.max(2 * data.length,
+                                                dataSize + n));
+        }
+        dataSize += n;
+        return dataSize - n;
+    }
+
+    /**
+     * Runs the program from __start until it exits.
+     */
+    private void run() {
+        regs[SP] = STACK_TOP;
+        regs[FP] = STACK_TOP;
+        int pc = textLabel("__start", 0);
+        for (long steps = 0; ; steps++) {
+            if (steps == MAX_STEPS) {
+                throw new SimError("more than " + MAX_STEPS
+                                   + " instructions executed");
+            }
+            if (pc < 0 || pc >= text.size()) {
+                throw new SimError("jump out of the program");
+            }
+            Instr i = text.get(pc);
+            pc = execute(i, pc + 1);
+            if (pc < 0) {
+                return;  // exit system call
+            }
+            regs[0] = 0;
+        }
+    }
+
+    /**
+     * Executes one instruction.
+     * @param next the index of the next instruction
+     * @return the index of the instruction to execute next, or -1 if the
+     *         program exits
+     */
+    private int execute(Instr i, int next) {
+        String op = i.op;
+        String[] a = i.args;
+        if (op.equals("lw")) {
+            regs[reg(a[0], i)] = load(address(a[1], i), i);
+        } else if (op.equals("sw")) {
+            store(address(a[1], i), regs[reg(a[0], i)], i);
+        } else if (op.equals("li")) {
+            regs[reg(a[0], i)] = Integer.parseInt(a[1]);
+        } else if (op.equals("la")) {
+            regs[reg(a[0], i)] = address(a[1], i);
+        } else if (op.equals("move")) {
+            regs[reg(a[0], i)] = regs[reg(a[1], i)];
+        } else if (op.equals("mflo")) {
+            regs[reg(a[0], i)] = lo;
+        } else if (op.equals("mult")) {
+            lo = regs[reg(a[0], i)] * regs[reg(a[1], i)];
+        } else if (op.equals("div")) {
+            int divisor = regs[reg(a[1], i)];
+            if (divisor == 0) {
+                throw new SimError("line " + i.line + ": division by zero");
+            }
+            lo = regs[reg(a[0], i)] / divisor;
+        } else if (op.equals("j")) {
+            return textLabel(a[0], i.line);
+        } else if (op.equals("jal")) {
+            regs[RA] = TEXT_BASE + 4 * next;
+            calls.push(new Call(a[0], regs));
+            return textLabel(a[0], i.line);
+        } else if (op.equals("jr")) {
+            int target = regs[reg(a[0], i)];
+            if (a[0].equals("$ra") && !calls.isEmpty()) {
+                check(calls.pop(), i);
+            }
+            return (target - TEXT_BASE) / 4;
+        } else if (op.equals("beq")) {
+            if (regs[reg(a[0], i)] == operand(a[1], i)) {
+                return textLabel(a[2], i.line);
+            }
+        } else if (op.equals("bgtz")) {
+            if (regs[reg(a[0], i)] > 0) {
+                return textLabel(a[1], i.line);
+            }
+        } else if (op.equals("blez")) {
+            if (regs[reg(a[0], i)] <= 0) {
+                return textLabel(a[1], i.line);
+            }
+        } else if (op.equals("syscall")) {
+            return syscall(i) ? next : -1;
+        } else {
+            int x = regs[reg(a[1], i)];
+            int y = operand(a[2], i);
+            int result;
+            if (op.equals("add") || op.equals("addi") || op.equals("addu")) {
+                result = x + y;
+            } else if (op.equals("sub") || op.equals("subu")) {
+                result = x - y;
+            } else if (op.equals("seq")) {
+                result = x == y ? 1 : 0;
+            } else if (op.equals("sne")) {
+                result = x != y ? 1 : 0;
+            } else if (op.equals("slt")) {
+                result = x < y ? 1 : 0;
+            } else if (op.equals("sle")) {
+                result = x <= y ? 1 : 0;
+            } else if (op.equals("sgt")) {
+                result = x > y ? 1 : 0;
+            } else if (op.equals("sge")) {
+                result = x >= y ? 1 : 0;
+            } else {
+                throw new SimError("line " + i.line + ": unknown instruction "
+                                   + op);
+            }
+            regs[reg(a[0], i)] = result;
+        }
+        return next;
+    }
+
+    /**
+     * Makes a system call.
+     * @return false if it is the exit call
+     */
+    private boolean syscall(Instr i) {
+        switch (regs[V0]) {
+        case 1:
+            out.print(regs[A0]);
+            return true;
+        case 4:
+            for (int addr = regs[A0]; ; addr++) {
+                byte b = loadByte(addr, i);
+                if (b == 0) {
+                    break;
+                }
+                out.write(b);
+            }
+            return true;
+        case 5:
+            out.flush();
+            try {
+                if (in.nextToken() != StreamTokenizer.TT_NUMBER) {
+                    throw new SimError("line " + i.line
+                                       + ": no integer to read");
+                }
+            } catch (IOException ex) {
+                throw new SimError("line " + i.line + ": " + ex.getMessage());
+            }
+            regs[V0] = (int)in.nval;
+            return true;
+        case 10:
+            return false;
+        default:
+            throw new SimError("line " + i.line + ": unknown system call "
+                               + regs[V0]);
+        }
+    }
+
+    /**
+     * Reports the PRESERVED registers that differ from what call must
+     * give back.
+     */
+    private void check(Call call, Instr i) {
+        for (int k = 0; k < PRESERVED.length; k++) {
+            if (regs[PRESERVED[k]] != call.preserved[k]) {
+                violations++;
+                out.flush();
+                System.err.println("MipsSim: line " + i.line + ": " + call.fn
+                                   + " returns with "
+                                   + REGISTERS[PRESERVED[k]] + " changed");
+            }
+        }
+    }
+
+    private int reg(String name, Instr i) {
+        for (int k = 0; k < REGISTERS.length; k++) {
+            if (REGISTERS[k].equals(name)) {
+                return k;
+            }
+        }
+        throw new SimError("line " + i.line + ": unknown register " + name);
+    }
+
+    /**
+     * Returns the value of a register or immediate operand.
+     */
+    private int operand(String arg, Instr i) {
+        if (arg.startsWith("$")) {
+            return regs[reg(arg, i)];
+        }
+        try {
+            return Integer.parseInt(arg);
+        } catch (NumberFormatException ex) {
+            throw new SimError("line " + i.line + ": bad operand " + arg);
+        }
+    }
+
+    /**
+     * Returns the address of a memory operand: offset(register), label or
+     * label+offset.
+     */
+    private int address(String arg, Instr i) {
+        int paren = arg.indexOf('(');
+        if (paren >= 0) {
+            int offset = paren == 0 ? 0
+                : Integer.parseInt(arg.substring(0, paren));
+            return regs[reg(arg.substring(paren + 1, arg.length() - 1), i)]
+                   + offset;
+        }
+        int plus = arg.indexOf('+');
+        String label = plus < 0 ? arg : arg.substring(0, plus);
+        Integer addr = dataLabels.get(label);
+        if (addr == null) {
+            throw new SimError("line " + i.line + ": unknown label " + label);
+        }
+        return addr + (plus < 0 ? 0 : Integer.parseInt(arg.substring(plus + 1)));
+    }
+
+    private int textLabel(String label, int line) {
+        Integer index = textLabels.get(label);
+        if (index == null) {
+            throw new SimError("line " + line + ": unknown label " + label);
+        }
+        return index;
+    }
+
+    private int load(int addr, Instr i) {
+        if ((addr & 3) != 0) {
+            throw new SimError("line " + i.line + ": unaligned address "
+                               + Integer.toHexString(addr));
+        }
+        int word = 0;
+        for (int k = 3; k >= 0; k--) {
+            word = (word << 8) | (loadByte(addr + k, i) & 0xff);
+        }
+        return word;
+    }
+
+    private void store(int addr, int word, Instr i) {
+        if ((addr & 3) != 0) {
+            throw new SimError("line " + i.line + ": unaligned address "
+                               + Integer.toHexString(addr));
+        }
+        for (int k = 0; k < 4; k++) {
+            byte[] memory = memory(addr + k, i);
+            memory[index(addr + k)] = (byte)(word >> (8 * k));
+        }
+    }
+
+    private byte loadByte(int addr, Instr i) {
+        return memory(addr, i)[index(addr)];
+    }
+
+    /**
+     * Returns the array that holds the byte at addr.
+     */
+    private byte[] memory(int addr, Instr i) {
+        if (addr >= DATA_BASE && addr < DATA_BASE + dataSize) {
+            return data;
+        }
+        if (addr <= STACK_TOP + 3 && addr > STACK_TOP + 3 - STACK_SIZE) {
+            return stack;
+        }
+        throw new SimError("line " + i.line + ": bad address "
+                           + Integer.toHexString(addr));
+    }
+
+    private int index(int addr) {
+        return addr >= DATA_BASE && addr < DATA_BASE + dataSize
+               ? addr - DATA_BASE : STACK_TOP + 3 - addr;
+    }
+}
@@ -0,0 +1,139 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * NameTable
+ *
+ * The identifiers of one program, numbered densely from 0 in the order in
+ * which they are first seen. The scanner gives every identifier token the
+ * number of its name, each IdNode carries it, and SymTable is keyed on it,
+ * so names are hashed once, when they are scanned, and compared as ints
+ * from then on. There is one String per distinct name, shared by all the
+ * IdNodes that use it.
+ *
+ * A table belongs to one program (see ProgramNode.names) and is not
+ * thread-safe.
+ */
+public class NameTable {
+    private String[] names = new String[64];
+    private int[] hashes = new int[64];
+    private int size = 0;
+
+    // open addressing index: slot holds id + 1, or 0 if empty
+    private int[] slots = new int[128];
+
+    /**
+     * Returns the number of the given name, adding it if it is new.
+     */
+    public int id(String name) {
+        int hash = name.hashCode();
+        int mask = slots.length - 1;
+        for (int k = hash & mask; ; k = (k + 1) & mask) {
+            int id = slots[k] - 1;
+            if (id < 0) {
+                return add(name, hash, k);
+            }
+            if (hashes[id] == hash && names[id].equals(name)) {
+                return id;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of the name spelled by the ASCII bytes
+     * buf[start .. start + length), adding it if it is new. hash must be
+     * the String.hashCode() of the name.
+     */
+    public int id(ByteBuffer buf, int start, int length, int hash) {
+        int mask = slots.length - 1;
+        for (int k = hash & mask; ; k = (k + 1) & mask) {
+            int id = slots[k] - 1;
+            if (id < 0) {
+                byte[] bytes = new byte[length];
+                ((ByteBuffer)buf.duplicate().position(start)).get(bytes);
+                return add(new String(bytes, StandardCharsets.US_ASCII),
+                           hash, k);
+            }
+            if (hashes[id] == hash && sameBytes(names[id], buf, start,
+                                                length)) {
+                return id;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of the given name, or -1 if it is not in the
+     * table.
+     */
+    public int find(String name) {
+        int hash = name.hashCode();
+        int mask = slots.length - 1;
+        for (int k = hash & mask; ; k = (k + 1) & mask) {
+            int id = slots[k] - 1;
+            if (id < 0) {
+                return -1;
+            }
+            if (hashes[id] == hash && names[id].equals(name)) {
+                return id;
+            }
+        }
+    }
+
+    /**
+     * Returns the name with the given number.
+     */
+    public String name(int id) {
+        return names[id];
+    }
+
+    /**
+     * Returns the number of names in the table.
+     */
+    public int size() {
+        return size;
+    }
+
+    private static boolean sameBytes(String name, ByteBuffer buf, int start,
+                                     int length) {
+        if (name.length() != length) {
+            return false;
+        }
+        for (int k = 0; k < length; k++) {
+            if (name.charAt(k) != buf.get(start + k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds a name at an empty slot of the index.
+     */
+    private int add(String name, int hash, int slot) {
+        if (size == names.length) {
+            names = Arrays.copyOf(names, 2 * size);
+            hashes = Arrays.copyOf(hashes, 2 * size);
+        }
+        int id = size++;
+        names[id] = name;
+        hashes[id] = hash;
+        slots[slot] = id + 1;
+        if (2 * size > slots.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    private void rehash() {
+        slots = new int[2 * slots.length];
+        int mask = slots.length - 1;
+        for (int id = 0; id < size; id++) {
+            int k = hashes[id] & mask;
+            while (slots[k] != 0) {
+                k = (k + 1) & mask;
+            }
+            slots[k] = id + 1;
+        }
+    }
+}
@@ -1,4 +1,5 @@
 import java.io.*;
+import java.util.concurrent.ForkJoinPool;
 
 import java_cup.runtime.*;
 
@@ -8,6 +9,33 @@ import java_cup.runtime.*;
  * There should be 2 command-line arguments:
  *    1. the file to be parsed
  *    2. the output MIPS file
+ * optionally preceded by "-cache <dir>" to skip the analysis of the
+ * functions that did not change since an earlier compilation and reuse
+ * their code (see FnCodeCache) and
+ * by "-astcache <dir>" to reuse the analyzed AST of a file whose text did
+ * not change (see AstFile). "-stats table" prints the time, CPU time and
+ * memory allocated by each phase and the size of the program (in tokens,
+ * AST nodes, symbols, labels and instructions) to System.err, and
+ * "-stats json" prints the same as JSON to System.out (see PhaseStats).
+ * Error messages are sorted by position and printed at the end of the
+ * compilation, which stops after 100 errors (see ErrMsg); "-maxerrors n"
+ * changes the limit (0 for none) and "-diagnostics json" prints the
+ * messages as one JSON object.
+ * A source file is scanned in memory by ByteScanner; "-scanner jlex"
+ * scans it with the JLex-generated Yylex instead. The tokens of a source
+ * file scanned by ByteScanner are parsed by LRParser; "-parser descent"
+ * parses them with DescentParser, and "-parser cup" with the
+ * CUP-generated parser instead. The bodies of the functions of large
+ * programs are analyzed and type checked in parallel; "-analysis
+ * sequential" analyzes them one after the other. Repeat loops with a
+ * literal count are unrolled 4 times; "-unroll n" changes the factor (1
+ * for no unrolling).
+ *
+ * Alternatively, "-batch [-j threads] [options] file-or-dir..." compiles
+ * many files at once with the same options (see BatchCompiler), "-server [-socket path]" starts a
+ * long-running compile server (see CompileServer), and "-client [-socket
+ * path] <infile> <outfile>" compiles through that server (see
+ * CompileClient).
  *
  * The program opens the two files, creates a scanner and a parser, and
  * calls the parser.  If the parse is successful, then it will call name
@@ -15,8 +43,15 @@ import java_cup.runtime.*;
  * it will generate MIPS code to the output file.
  */
 public class P6 {
-	FileReader inFile;
+	Reader inFile;
+	private String inFileName;
 	private PrintWriter outFile;
+	private String diagLabel;
+	private PrintStream diagStream = System.err;
+	private File cacheDir;
+	private FnCodeCache fnCache;
+	private File astCacheDir;
+	private boolean astLoaded;
 	private static PrintStream outStream = System.err;
 
 	public static final int RESULT_CORRECT = 0;
@@ -25,6 +60,61 @@ public class P6 {
 	public static final int RESULT_NAME_ANALYSIS_ERROR = 3;
 	public static final int RESULT_OTHER_ERROR = -1;
 
+	public static final int PHASE_PARSE = 0;
+	public static final int PHASE_NAME_ANALYSIS = 1;
+	public static final int PHASE_TYPE_CHECK = 2;
+	public static final int PHASE_CODEGEN = 3;
+	public static final String[] PHASE_NAMES =
+		{ "parse", "nameAnalysis", "typeCheck", "codeGen" };
+
+	// wall time (in nanoseconds) spent in each phase by the last process()
+	private long[] phaseNanos = new long[PHASE_NAMES.length];
+	private long phaseStart;
+
+	// detailed statistics of the last process() (null unless asked for)
+	private boolean collectStats;
+	private PhaseStats stats;
+	private String statsFormat;
+
+	public static final String STATS_TABLE = "table";
+	public static final String STATS_JSON = "json";
+
+	// whether a source file is scanned by ByteScanner instead of Yylex
+	private boolean mappedScanner = true;
+
+	public static final String SCANNER_MAPPED = "mapped";
+	public static final String SCANNER_JLEX = "jlex";
+
+	// which parser parses the tokens of ByteScanner (one of the PARSER_*
+	// names)
+	private String parserName = PARSER_LR;
+
+	public static final String PARSER_LR = "lr";
+	public static final String PARSER_DESCENT = "descent";
+	public static final String PARSER_CUP = "cup";
+
+	// whether the functions are analyzed in parallel, on the common
+	// ForkJoinPool, if there are enough of them and the pool has several
+	// threads
+	private boolean parallelAnalysis = true;
+
+	public static final int PARALLEL_MIN_FUNCTIONS = 64;
+
+	public static final String ANALYSIS_PARALLEL = "parallel";
+	public static final String ANALYSIS_SEQUENTIAL = "sequential";
+
+	// number of errors after which a compilation stops (0 for no limit)
+	private int maxErrors = ErrMsg.DEFAULT_MAX_ERRORS;
+
+	// how error messages are written (one of the DIAGNOSTICS_* names)
+	private String diagFormat = DIAGNOSTICS_TEXT;
+
+	public static final String DIAGNOSTICS_TEXT = "text";
+	public static final String DIAGNOSTICS_JSON = "json";
+
+	// copies of the body per trip of a repeat loop with a literal count
+	private int unrollFactor = Codegen.DEFAULT_UNROLL_FACTOR;
+
 	/**
 	 * P6 constructor for client programs and testers. Note that
 	 * users MUST invoke {@link setInfile} and {@link setOutfile}
@@ -37,19 +127,30 @@ public class P6 {
 	 * is the command line to use. It shouldn't be invoked from
 	 * outside the class (hence the private constructor) because
 	 * it
-	 * @param args command line args array for [<infile> <outfile>]
+	 * @param args command line args array for
+	 *             [-cache <dir>] [-astcache <dir>] [-stats table|json]
+	 *             [-scanner mapped|jlex] [-parser lr|descent|cup]
+	 *             [-analysis parallel|sequential] [-maxerrors n]
+	 *             [-diagnostics text|json] [-unroll n] <infile> <outfile>
 	 */
 	private P6(String[] args) {
 		//Parse arguments
-		if (args.length < 2) {
+		int first = 0;
+		while (args.length - first > 1 && args[first].startsWith("-")) {
+			if (!setOption(args[first], args[first + 1])) {
+				pukeAndDie("unknown option " + args[first]);
+			}
+			first += 2;
+		}
+		if (args.length - first < 2) {
 			String msg = "please supply name of the input file "
 				+ "and name of file for assembly output.";
 			pukeAndDie(msg);
 		}
 
 		try {
-			setInfile(args[0]);
-			setOutfile(args[1]);
+			setInfile(args[first]);
+			setOutfile(args[first + 1]);
 		} catch(BadInfileException e) {
 			pukeAndDie(e.getMessage());
 		} catch(BadOutfileException e) {
@@ -57,6 +158,48 @@ public class P6 {
 		}
 	}
 
+	/**
+	 * Sets one of the options that the command line gives before the files
+	 * @param name name of the option, such as "-parser"
+	 * @param value value of the option, such as "descent"
+	 * @return false if there is no such option or the value is not one of
+	 *         its values
+	 */
+	public boolean setOption(String name, String value) {
+		if (name.equals("-cache")) {
+			setCacheDir(new File(value));
+		} else if (name.equals("-astcache")) {
+			setAstCacheDir(new File(value));
+		} else if (name.equals("-stats")
+		           && (value.equals(STATS_TABLE) || value.equals(STATS_JSON))) {
+			statsFormat = value;
+			setCollectStats(true);
+		} else if (name.equals("-scanner")
+		           && (value.equals(SCANNER_MAPPED)
+		               || value.equals(SCANNER_JLEX))) {
+			setMappedScanner(value.equals(SCANNER_MAPPED));
+		} else if (name.equals("-parser")
+		           && (value.equals(PARSER_LR) || value.equals(PARSER_DESCENT)
+		               || value.equals(PARSER_CUP))) {
+			setParser(value);
+		} else if (name.equals("-analysis")
+		           && (value.equals(ANALYSIS_PARALLEL)
+		               || value.equals(ANALYSIS_SEQUENTIAL))) {
+			setParallelAnalysis(value.equals(ANALYSIS_PARALLEL));
+		} else if (name.equals("-maxerrors") && value.matches("[0-9]+")) {
+			setMaxErrors(Integer.parseInt(value));
+		} else if (name.equals("-diagnostics")
+		           && (value.equals(DIAGNOSTICS_TEXT)
+		               || value.equals(DIAGNOSTICS_JSON))) {
+			setDiagnosticsFormat(value);
+		} else if (name.equals("-unroll") && value.matches("[1-9][0-9]*")) {
+			setUnrollFactor(Integer.parseInt(value));
+		} else {
+			return false;
+		}
+		return true;
+	}
+
 	/**
 	 * Source code file path
 	 * @param filename path to source file
@@ -64,6 +207,7 @@ public class P6 {
 	public void setInfile(String filename) throws BadInfileException{
 		try {
 			inFile = new FileReader(filename);
+			inFileName = filename;
 		} catch (FileNotFoundException ex) {
 			throw new BadInfileException(ex, filename);
 		}
@@ -79,7 +223,180 @@ public class P6 {
 		} catch (FileNotFoundException ex) {
 			throw new BadOutfileException(ex, filename);
 		}
-		Codegen.p = outFile;
+	}
+
+	/**
+	 * Source code read from an already open reader (for instance, the
+	 * text of a compile request sent to the compile server)
+	 * @param reader source code
+	 */
+	public void setInput(Reader reader) {
+		inFile = reader;
+		inFileName = null;
+	}
+
+	/**
+	 * Assembly output written to an already open writer
+	 * @param writer destination of the generated code
+	 */
+	public void setOutput(Writer writer) {
+		outFile = new PrintWriter(writer);
+	}
+
+	/**
+	 * Send error and warning messages to the given stream instead of
+	 * System.err
+	 * @param stream destination of error messages
+	 */
+	public void setDiagnosticsStream(PrintStream stream) {
+		diagStream = stream;
+	}
+
+	/**
+	 * Reuse the code generated for unchanged functions by earlier
+	 * compilations, keeping it in the given directory (see FnCodeCache)
+	 * @param dir cache directory, or null to disable caching
+	 */
+	public void setCacheDir(File dir) {
+		cacheDir = dir;
+	}
+
+	/**
+	 * Keep the analyzed AST of each source file in the given directory and
+	 * load it from there instead of parsing and analyzing the file again
+	 * when its text has not changed (see AstFile). Only used when the
+	 * source is given with {@link setInfile}.
+	 * @param dir AST cache directory, or null to disable it
+	 */
+	public void setAstCacheDir(File dir) {
+		astCacheDir = dir;
+	}
+
+	/**
+	 * Whether the last call to {@link process} loaded the analyzed AST
+	 * from the AST cache instead of parsing and analyzing the source
+	 */
+	public boolean isAstLoaded() {
+		return astLoaded;
+	}
+
+	/**
+	 * Collect detailed statistics (see PhaseStats) in {@link process}
+	 * @param collect whether to collect them
+	 */
+	public void setCollectStats(boolean collect) {
+		collectStats = collect;
+	}
+
+	/**
+	 * Scan a source file given with {@link setInfile} by mapping it into
+	 * memory (see ByteScanner) instead of with the JLex-generated Yylex.
+	 * This is the default. Files that are not ASCII are always scanned
+	 * with Yylex.
+	 * @param mapped whether to use ByteScanner
+	 */
+	public void setMappedScanner(boolean mapped) {
+		mappedScanner = mapped;
+	}
+
+	/**
+	 * Choose the parser for the tokens of a source file scanned by
+	 * ByteScanner: LRParser (PARSER_LR, the default), DescentParser
+	 * (PARSER_DESCENT) or the CUP-generated parser (PARSER_CUP). All build
+	 * the same AST; tokens from Yylex are always parsed by the
+	 * CUP-generated parser.
+	 * @param name one of the PARSER_* names
+	 */
+	public void setParser(String name) {
+		parserName = name;
+	}
+
+	/**
+	 * Analyze and type check the bodies of the functions in parallel, on
+	 * the common ForkJoinPool, after the globals, struct definitions and
+	 * function signatures have been processed in order (see
+	 * DeclListNode.nameAnalysis). This is the default, but programs with
+	 * fewer than PARALLEL_MIN_FUNCTIONS functions, and all programs when
+	 * the pool has a single thread, are analyzed sequentially anyway,
+	 * since handing functions to other threads would cost more than it
+	 * saves. The messages are the same, and in the same order, as when
+	 * analyzing sequentially.
+	 * @param parallel whether to analyze the functions in parallel
+	 */
+	public void setParallelAnalysis(boolean parallel) {
+		parallelAnalysis = parallel;
+	}
+
+	/**
+	 * Stop a compilation after the given number of errors, leaving the
+	 * rest of the phase that reported them undone. The default is
+	 * ErrMsg.DEFAULT_MAX_ERRORS.
+	 * @param max number of errors, or 0 for no limit
+	 */
+	public void setMaxErrors(int max) {
+		maxErrors = max;
+	}
+
+	/**
+	 * Write error and warning messages as text lines (DIAGNOSTICS_TEXT,
+	 * the default) or as one JSON object per compilation
+	 * (DIAGNOSTICS_JSON), for tools
+	 * @param format one of the DIAGNOSTICS_* names
+	 */
+	public void setDiagnosticsFormat(String format) {
+		diagFormat = format;
+	}
+
+	/**
+	 * Unroll repeat loops whose count is a literal (and whose body holds
+	 * no other repeat loop) by the given factor. The default is
+	 * Codegen.DEFAULT_UNROLL_FACTOR.
+	 * @param factor copies of the body per trip, 1 for no unrolling
+	 */
+	public void setUnrollFactor(int factor) {
+		unrollFactor = factor;
+	}
+
+	/**
+	 * Statistics of the last call to {@link process}, or null if they were
+	 * not collected
+	 */
+	public PhaseStats getStats() {
+		return stats;
+	}
+
+	/**
+	 * Number of functions whose code the last call to {@link process}
+	 * took from the function code cache
+	 */
+	public int getCacheHits() {
+		return fnCache == null ? 0 : fnCache.getHits();
+	}
+
+	/**
+	 * Number of functions whose code the last call to {@link process}
+	 * had to generate although the function code cache was enabled
+	 */
+	public int getCacheMisses() {
+		return fnCache == null ? 0 : fnCache.getMisses();
+	}
+
+	/**
+	 * Label error messages with the given name (usually the source file
+	 * name). Used when several files are compiled at once.
+	 * @param label prefix for error messages, or null for none
+	 */
+	public void setDiagnosticsLabel(String label) {
+		diagLabel = label;
+	}
+
+	/**
+	 * Wall time spent in each phase by the last call to {@link process},
+	 * indexed by the PHASE_* constants. Phases that did not run are 0.
+	 * @return nanoseconds per phase
+	 */
+	public long[] getPhaseNanos() {
+		return phaseNanos;
 	}
 
 	/**
@@ -124,48 +441,230 @@ public class P6 {
 		System.exit(-1);
 	}
 
-	/** the parser will return a Symbol whose value
-	 * field is the translation of the root nonterminal
-	 * (i.e., of the nonterminal "program")
-	 * @return root of the CFG
+	/** the parser will return the translation of the root
+	 * nonterminal (i.e., of the nonterminal "program")
+	 * @param ctx context of the current compilation
+	 * @return root of the AST, or null after a syntax error
 	 */
-	private Symbol parseCFG() {
+	private ProgramNode parseCFG(CompileContext ctx) {
 		try {
-			parser P = new parser(new Yylex(inFile));
-			return P.parse();
+			if (mappedScanner && inFileName != null) {
+				ByteScanner bytes = ByteScanner.open(new File(inFileName),
+				                                     ctx);
+				if (bytes != null) {
+					TokenBuffer tokens = bytes.scanAll();
+					ProgramNode root;
+					if (parserName.equals(PARSER_LR)) {
+						root = new LRParser(tokens, ctx).parse();
+					} else if (parserName.equals(PARSER_DESCENT)) {
+						root = new DescentParser(tokens, ctx).parse();
+					} else {
+						root = (ProgramNode)new parser(
+							tokens.scanner(ctx.errMsg), ctx).parse().value;
+					}
+					if (root != null && ctx.codegen.fnCache != null) {
+						// the keys of the functions in the cache
+						tokens.setSources(root.functions());
+					}
+					return root;
+				}
+			}
+			parser P = new parser(new Yylex(inFile, ctx), ctx);
+			return (ProgramNode)P.parse().value;
 		} catch (Exception e) {
 			return null;
 		}
 	}
 
+	/**
+	 * Compiles the input file into the output file. Every call uses a
+	 * fresh CompileContext, so a P6 instance holds no state that could
+	 * leak into another compilation. The error messages are written when
+	 * the compilation ends.
+	 * @return one of the RESULT_* codes
+	 */
 	public int process() {
-		Symbol cfgRoot = parseCFG();
-
-		ProgramNode astRoot = (ProgramNode)cfgRoot.value;
-		if (ErrMsg.getErr()) {
-			return P6.RESULT_SYNTAX_ERROR;
+		CompileContext ctx = new CompileContext(outFile, diagLabel,
+		                                        diagStream);
+		ctx.errMsg.setMaxErrors(maxErrors);
+		ctx.errMsg.setJson(DIAGNOSTICS_JSON.equals(diagFormat));
+		try {
+			return process(ctx);
+		} finally {
+			ctx.errMsg.flush();
 		}
+	}
+
+	private int process(CompileContext ctx) {
+		phaseNanos = new long[PHASE_NAMES.length];
+		stats = collectStats ? new PhaseStats() : null;
+		astLoaded = false;
 
-		astRoot.nameAnalysis();	 // perform name analysis
-		if (ErrMsg.getErr()) {
-			return P6.RESULT_NAME_ANALYSIS_ERROR;
+		// name analysis looks functions up in the function code cache
+		ctx.codegen.unrollFactor = unrollFactor;
+		if (cacheDir != null) {
+			fnCache = new FnCodeCache(cacheDir);
+			ctx.codegen.fnCache = fnCache;
 		}
 
-		astRoot.typeCheck();
-		if (ErrMsg.getErr()) {
-			return P6.RESULT_TYPE_ERROR;
+		// try the AST cache first (its time is counted as parse time)
+		startPhase(PHASE_PARSE);
+		ProgramNode astRoot = null;
+		byte[] sourceHash = null;
+		File astFile = null;
+		if (astCacheDir != null && inFileName != null) {
+			try {
+				sourceHash = AstFile.hashSource(inFileName);
+				astFile = new File(astCacheDir, AstFile.fileName(sourceHash));
+				astRoot = AstFile.load(astFile, sourceHash);
+			} catch (IOException ex) {
+				astFile = null; // the parser will report the problem
+			}
 		}
 
-		astRoot.codeGen();
+		if (astRoot != null) {
+			astLoaded = true;
+			endPhase(PHASE_PARSE);
+		} else {
+			astRoot = parseCFG(ctx);
+			endPhase(PHASE_PARSE);
+			countTokens(ctx);
+
+			if (astRoot == null || ctx.errMsg.getErr()) {
+				return P6.RESULT_SYNTAX_ERROR;
+			}
+
+			ForkJoinPool pool = null;
+			if (parallelAnalysis
+			    && ForkJoinPool.getCommonPoolParallelism() > 1
+			    && astRoot.numFunctions() >= PARALLEL_MIN_FUNCTIONS) {
+				pool = ForkJoinPool.commonPool();
+			}
+			startPhase(PHASE_NAME_ANALYSIS);
+			try {
+				astRoot.nameAnalysis(ctx, pool);	 // perform name analysis
+			} catch (TooManyErrorsException ex) {
+				// the error flag is set: stop here
+			}
+			endPhase(PHASE_NAME_ANALYSIS);
+			if (ctx.errMsg.getErr()) {
+				return P6.RESULT_NAME_ANALYSIS_ERROR;
+			}
+
+			startPhase(PHASE_TYPE_CHECK);
+			try {
+				astRoot.typeCheck(ctx, pool);
+			} catch (TooManyErrorsException ex) {
+				// the error flag is set: stop here
+			}
+			endPhase(PHASE_TYPE_CHECK);
+			if (ctx.errMsg.getErr()) {
+				return P6.RESULT_TYPE_ERROR;
+			}
+
+			// the bodies of functions found in the function code cache
+			// were not analyzed, so such an AST cannot be saved
+			if (astFile != null && (fnCache == null
+			                        || fnCache.getHits() == 0)) {
+				AstFile.save(astRoot, sourceHash, astFile);
+			}
+		}
+		countNodes(astRoot);
 
+		startPhase(PHASE_CODEGEN);
+		astRoot.codeGen(ctx.codegen);
+		endPhase(PHASE_CODEGEN);
+		countCode(ctx);
 
 		return P6.RESULT_CORRECT;
 	}
 
+	/**
+	 * Start timing a phase (one of the PHASE_* numbers)
+	 */
+	private void startPhase(int phase) {
+		if (stats != null) {
+			stats.startPhase(phase);
+		}
+		phaseStart = System.nanoTime();
+	}
+
+	/**
+	 * Stop timing the phase started last
+	 */
+	private void endPhase(int phase) {
+		phaseNanos[phase] = System.nanoTime() - phaseStart;
+		if (stats != null) {
+			stats.endPhase(phase);
+		}
+	}
+
+	private void countTokens(CompileContext ctx) {
+		if (stats != null) {
+			stats.numTokens = ctx.numTokens;
+		}
+	}
+
+	/**
+	 * Count the nodes and symbols of the analyzed AST (outside of the timed
+	 * phases)
+	 */
+	private void countNodes(ProgramNode astRoot) {
+		if (stats == null) {
+			return;
+		}
+		stats.astLoaded = astLoaded;
+		try {
+			AstWriter counter = new AstWriter(new DataOutputStream(
+				OutputStream.nullOutputStream()));
+			astRoot.write(counter);
+			stats.numNodes = counter.getNodeCount();
+			stats.numSyms = counter.getSymCount();
+		} catch (IOException ex) {
+			// cannot happen when writing to a null stream
+		}
+	}
+
+	private void countCode(CompileContext ctx) {
+		if (stats != null) {
+			stats.numLabels = ctx.codegen.peekLabel();
+			stats.numInstructions = ctx.codegen.getInstructionCount();
+		}
+	}
+
+	/**
+	 * Returns the message that describes a result code of {@link process}
+	 * @param resultCode one of the RESULT_* codes
+	 * @return description of the result
+	 */
+	public static String resultMessage(int resultCode) {
+		switch(resultCode) {
+		case RESULT_CORRECT:
+			return "Success";
+		case RESULT_SYNTAX_ERROR:
+			return "Syntax error";
+		case RESULT_TYPE_ERROR:
+			return "Type checking error";
+		case RESULT_NAME_ANALYSIS_ERROR:
+			return "Name analysis error";
+		default:
+			return "Unknown error";
+		}
+	}
+
 	public void run() {
 		int resultCode = process();
+		if (STATS_TABLE.equals(statsFormat)) {
+			stats.printTable(System.err);
+		} else if (STATS_JSON.equals(statsFormat)) {
+			System.out.println(stats.toJson(inFileName));
+		}
 		if (resultCode == RESULT_CORRECT) {
 			cleanup();
+			if (cacheDir != null) {
+				System.out.println("function cache: " + getCacheHits()
+					+ " hits, " + getCacheMisses() + " misses");
+			}
 			return;
 		}
 
@@ -212,6 +711,15 @@ public class P6 {
 	}
 
 	public static void main(String[] args) {
+		if (args.length > 0 && args[0].equals("-batch")) {
+			System.exit(BatchCompiler.run(args));
+		}
+		if (args.length > 0 && args[0].equals("-server")) {
+			System.exit(CompileServer.run(args));
+		}
+		if (args.length > 0 && args[0].equals("-client")) {
+			System.exit(CompileClient.run(args));
+		}
 		P6 instance = new P6(args);
 		instance.run();
 	}
@@ -0,0 +1,323 @@
+import java.io.*;
+import java.lang.reflect.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * ParserDiff
+ *
+ * Checks LRParser and DescentParser against the CUP-generated parser on a
+ * large corpus of valid and invalid programs. Usage:
+ *
+ *     java ParserDiff [-seed n] [-programs n] [-mutations n] file.crrt...
+ *
+ * The corpus is made of the given files, the given number of programs
+ * made by ProgramGenerator (with random shapes), as many random functions
+ * full of expressions that mix every operator, assignments, calls and
+ * field accesses (to check precedence and associativity), and for each of
+ * these the given number of mutants, with a few random spans of text
+ * deleted, duplicated or replaced by a random token, most of which have
+ * syntax errors.
+ *
+ * Every source is scanned by ByteScanner and parsed by each parser with
+ * a CompileContext of its own. The error messages, the number of tokens
+ * read, whether the parse failed and the AST (every field of every node,
+ * found by reflection; a partial one after syntax errors) must be the
+ * same for all parsers. The first few
+ * differences are printed with their source; the exit status is 1 if
+ * there were any.
+ */
+public class ParserDiff {
+    private static final String[] PARSERS =
+        { P6.PARSER_CUP, P6.PARSER_LR, P6.PARSER_DESCENT };
+
+    private static final int MAX_REPORTS = 3;
+
+    // pieces of text for mutants and random expressions
+    private static final String[] PIECES = {
+        ";", "{", "}", "(", ")", ",", ".", "=", "+", "-", "*", "/", "!",
+        "&&", "||", "==", "!=", "<", ">", "<=", ">=", "++", "--", "<<",
+        ">>", "int", "bool", "void", "struct", "if", "else", "while",
+        "repeat", "return", "cin", "cout", "true", "false", "x", "s.f",
+        "f()", "7", "\"str\"", "\"open", "#", "//", "\n"
+    };
+    private static final String[] BINARY = {
+        "+", "-", "*", "/", "&&", "||", "==", "!=", "<", ">", "<=", ">="
+    };
+    private static final int NUM_ASSOCIATIVE = 6;
+
+    private static int sources = 0;
+    private static int failures = 0;
+    private static int unrecovered = 0;
+    private static int differences = 0;
+
+    public static void main(String[] args) throws Exception {
+        long seed = 1;
+        int programs = 100;
+        int mutations = 20;
+        int k = 0;
+        while (k + 1 < args.length && args[k].startsWith("-")) {
+            if (args[k].equals("-seed")) {
+                seed = Long.parseLong(args[k + 1]);
+            } else if (args[k].equals("-programs")) {
+                programs = Integer.parseInt(args[k + 1]);
+            } else if (args[k].equals("-mutations")) {
+                mutations = Integer.parseInt(args[k + 1]);
+            } else {
+                usage();
+            }
+            k += 2;
+        }
+
+        Random random = new Random(seed);
+        List<String> corpus = new ArrayList<String>();
+        List<String> names = new ArrayList<String>();
+        for (; k < args.length; k++) {
+            corpus.add(new String(Files.readAllBytes(Paths.get(args[k])),
+                                  StandardCharsets.US_ASCII));
+            names.add(args[k]);
+        }
+        for (int p = 0; p < programs; p++) {
+            ProgramGenerator.Shape shape = new ProgramGenerator.Shape();
+            shape.seed = random.nextLong();
+            shape.functions = 1 + random.nextInt(8);
+            shape.globals = random.nextInt(8);
+            shape.structs = random.nextInt(4);
+            shape.fields = 1 + random.nextInt(4);
+            shape.depth = random.nextInt(4);
+            shape.expSize = 1 + random.nextInt(8);
+            shape.stmts = 1 + random.nextInt(8);
+            corpus.add(ProgramGenerator.generate(shape));
+            names.add("generated program " + p);
+            corpus.add(expressions(random));
+            names.add("random expressions " + p);
+        }
+
+        for (int c = 0; c < corpus.size(); c++) {
+            String source = corpus.get(c);
+            check(source, names.get(c));
+            for (int m = 0; m < mutations; m++) {
+                check(mutate(source, random),
+                      names.get(c) + ", mutant " + m);
+            }
+        }
+
+        System.out.printf("%d sources (%d with syntax errors, %d not " +
+                          "recovered from), %d differences%n", sources,
+                          failures, unrecovered, differences);
+        System.exit(differences == 0 ? 0 : 1);
+    }
+
+    private static void usage() {
+        System.err.println("usage: java ParserDiff [-seed n] [-programs n] " +
+                           "[-mutations n] file.crrt...");
+        System.exit(-1);
+    }
+
+    /**
+     * Parses source with every parser and compares the results.
+     */
+    private static void check(String source, String name) {
+        sources++;
+        String[] results = new String[PARSERS.length];
+        for (int p = 0; p < PARSERS.length; p++) {
+            results[p] = parse(source, PARSERS[p]);
+        }
+        if (results[0].contains("***ERROR*** Syntax error")) {
+            failures++;
+        }
+        if (results[0].startsWith("failed")) {
+            unrecovered++;
+        }
+        for (int p = 1; p < PARSERS.length; p++) {
+            if (!results[p].equals(results[0])) {
+                differences++;
+                if (differences <= MAX_REPORTS) {
+                    System.out.println("=== " + PARSERS[p] + " differs from "
+                                       + PARSERS[0] + " on " + name);
+                    System.out.println(source);
+                    System.out.println("--- " + PARSERS[0]);
+                    System.out.println(results[0]);
+                    System.out.println("--- " + PARSERS[p]);
+                    System.out.println(results[p]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Parses source with one parser.
+     * @return everything the parser did, as text
+     */
+    private static String parse(String source, String parserName) {
+        ByteArrayOutputStream messages = new ByteArrayOutputStream();
+        CompileContext ctx = new CompileContext(null, null,
+                                                new PrintStream(messages));
+        TokenBuffer tokens = new ByteScanner(
+            ByteBuffer.wrap(source.getBytes(StandardCharsets.US_ASCII)),
+            ctx).scanAll();
+        ProgramNode root;
+        try {
+            if (parserName.equals(P6.PARSER_LR)) {
+                root = new LRParser(tokens, ctx).parse();
+            } else if (parserName.equals(P6.PARSER_DESCENT)) {
+                root = new DescentParser(tokens, ctx).parse();
+            } else {
+                root = (ProgramNode)new parser(tokens.scanner(ctx.errMsg),
+                                               ctx).parse().value;
+            }
+        } catch (Exception ex) {
+            root = null;
+        }
+        ctx.errMsg.flush();
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(root == null ? "failed" : "parsed").append(", ")
+          .append(ctx.numTokens).append(" tokens read\n");
+        sb.append(messages.toString());
+        if (root != null) {
+            dump(root, sb);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Appends the class and every field of an AST node, recursively.
+     */
+    private static void dump(Object value, StringBuilder sb) {
+        if (value == null || value instanceof String
+            || value instanceof Number || value instanceof Boolean) {
+            sb.append(value);
+        } else if (value instanceof NameTable) {
+            sb.append("names");
+        } else if (value instanceof Iterable) {
+            sb.append('[');
+            for (Object element : (Iterable<?>)value) {
+                dump(element, sb);
+                sb.append(' ');
+            }
+            sb.append(']');
+        } else {
+            sb.append(value.getClass().getName()).append('(');
+            for (Class<?> c = value.getClass(); c != Object.class;
+                 c = c.getSuperclass()) {
+                for (Field f : c.getDeclaredFields()) {
+                    if (Modifier.isStatic(f.getModifiers())) {
+                        continue;
+                    }
+                    f.setAccessible(true);
+                    sb.append(f.getName()).append('=');
+                    try {
+                        dump(f.get(value), sb);
+                    } catch (IllegalAccessException ex) {
+                        throw new IllegalStateException(ex);
+                    }
+                    sb.append(' ');
+                }
+            }
+            sb.append(')');
+        }
+    }
+
+    /**
+     * Returns source with one to three random edits.
+     */
+    private static String mutate(String source, Random random) {
+        StringBuilder sb = new StringBuilder(source);
+        int edits = 1 + random.nextInt(3);
+        for (int e = 0; e < edits; e++) {
+            int start = random.nextInt(sb.length() + 1);
+            int end = Math.min(sb.length(), start + 1 + random.nextInt(12));
+            switch (random.nextInt(3)) {
+            case 0:
+                sb.delete(start, end);
+                break;
+            case 1:
+                sb.insert(start, sb.substring(start, end));
+                break;
+            default:
+                sb.replace(start, Math.min(end, start + random.nextInt(2)),
+                           " " + PIECES[random.nextInt(PIECES.length)] + " ");
+                break;
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns a function whose statements are random expressions.
+     */
+    private static String expressions(Random random) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("struct S { int f; };\n");
+        sb.append("int f(int x, bool y) {\n    struct S s;\n");
+        int stmts = 1 + random.nextInt(10);
+        for (int k = 0; k < stmts; k++) {
+            int kind = random.nextInt(4);
+            sb.append(kind == 0 ? "    x = "
+                      : kind == 1 ? "    cout << "
+                      : kind == 2 ? "    if (" : "    return ");
+            expression(sb, random, 1 + random.nextInt(4));
+            sb.append(kind == 2 ? ") { }\n" : ";\n");
+        }
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    private static void expression(StringBuilder sb, Random random,
+                                   int depth) {
+        int operands = 1 + random.nextInt(4);
+        for (int k = 0; k < operands; k++) {
+            if (k > 0) {
+                // relational operators do not associate, so most chains of
+                // them are syntax errors: make them rarer
+                int op = random.nextInt(BINARY.length);
+                if (op >= NUM_ASSOCIATIVE && random.nextInt(4) != 0) {
+                    op = random.nextInt(NUM_ASSOCIATIVE);
+                }
+                sb.append(' ').append(BINARY[op]).append(' ');
+            }
+            int unary = random.nextInt(6);
+            if (unary == 0) {
+                sb.append('-');
+            } else if (unary == 1) {
+                sb.append('!');
+            }
+            int choice = depth > 0 ? random.nextInt(9) : random.nextInt(5);
+            switch (choice) {
+            case 0:
+                sb.append('x');
+                break;
+            case 1:
+                sb.append("s.f");
+                break;
+            case 2:
+                sb.append(random.nextInt(100));
+                break;
+            case 3:
+                sb.append(random.nextBoolean() ? "true" : "false");
+                break;
+            case 4:
+                sb.append("\"s\"");
+                break;
+            case 5:
+            case 6:
+                sb.append('(');
+                expression(sb, random, depth - 1);
+                sb.append(')');
+                break;
+            case 7:
+                sb.append(random.nextBoolean() ? "x = " : "s.f = ");
+                expression(sb, random, depth - 1);
+                break;
+            default:
+                sb.append("f(");
+                expression(sb, random, depth - 1);
+                sb.append(", y)");
+                break;
+            }
+        }
+    }
+}
@@ -0,0 +1,219 @@
+/**
+ * PersistentSymTable
+ *
+ * An immutable symbol table: addScope, addDecl and removeScope leave the
+ * table alone and return a new version of it. Versions share almost all
+ * of their structure, so keeping one (a snapshot of the scopes at some
+ * point of the program) costs nothing, and versions can be read by any
+ * number of threads at once without locking.
+ *
+ * Like SymTable, a table maps the numbers a NameTable gives to names; the
+ * methods that take a String translate it through the same NameTable,
+ * which is not thread-safe (see NameTable), so threads should use the
+ * int methods.
+ *
+ * The innermost binding of every name is kept in a hash array mapped
+ * trie keyed on the name number: each node has up to 32 children, picked
+ * by 5 bits of the number, lowest bits first, and a bitmap of the ones it
+ * has. Since name numbers are dense, the trie is as shallow as it can be,
+ * and it is at most 7 levels deep. Looking a name up reads one node per
+ * level; adding a declaration copies the nodes on the path to it and
+ * shares all the others. Each binding records the depth of its scope,
+ * for lookupLocal, and each version the version it was made from by
+ * addScope, which removeScope returns.
+ */
+public final class PersistentSymTable {
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    private static final Node EMPTY_NODE = new Node(0, new Object[0]);
+
+    private final NameTable names;
+    private final Node root;
+    private final int depth;
+    private final PersistentSymTable outer;
+
+    /**
+     * A node of the trie. Its children are Bindings and Nodes, in the
+     * order of the bits of bitmap.
+     */
+    private static final class Node {
+        final int bitmap;
+        final Object[] children;
+
+        Node(int bitmap, Object[] children) {
+            this.bitmap = bitmap;
+            this.children = children;
+        }
+    }
+
+    /**
+     * The innermost binding of a name, and the depth of its scope.
+     */
+    private static final class Binding {
+        final int name;
+        final Sym sym;
+        final int depth;
+
+        Binding(int name, Sym sym, int depth) {
+            this.name = name;
+            this.sym = sym;
+            this.depth = depth;
+        }
+    }
+
+    /**
+     * Creates a table with one empty scope, whose names are numbered by
+     * the given NameTable.
+     */
+    public PersistentSymTable(NameTable names) {
+        this(names, EMPTY_NODE, 1, null);
+    }
+
+    private PersistentSymTable(NameTable names, Node root, int depth,
+                               PersistentSymTable outer) {
+        this.names = names;
+        this.root = root;
+        this.depth = depth;
+        this.outer = outer;
+    }
+
+    /**
+     * Returns the NameTable that numbers the names of this table.
+     */
+    public NameTable names() {
+        return names;
+    }
+
+    /**
+     * Returns a table with the declarations of this one and a new, empty
+     * innermost scope.
+     */
+    public PersistentSymTable addScope() {
+        return new PersistentSymTable(names, root, depth + 1, this);
+    }
+
+    /**
+     * Returns this table without its innermost scope.
+     */
+    public PersistentSymTable removeScope() throws EmptySymTableException {
+        if (depth == 0) {
+            throw new EmptySymTableException();
+        }
+        return outer != null ? outer
+                             : new PersistentSymTable(names, EMPTY_NODE, 0,
+                                                      null);
+    }
+
+    public PersistentSymTable addDecl(String name, Sym sym)
+        throws DuplicateSymException, EmptySymTableException,
+               WrongArgumentException {
+        if (name == null && sym == null) {
+            throw new WrongArgumentException("Arguments name and sym are null.");
+        }
+        else if (name == null) {
+            throw new WrongArgumentException("Argument name is null.");
+        }
+        return addDecl(names.id(name), sym);
+    }
+
+    /**
+     * Returns a table with the declarations of this one and sym declared
+     * as name in the innermost scope.
+     */
+    public PersistentSymTable addDecl(int name, Sym sym)
+        throws DuplicateSymException, EmptySymTableException,
+               WrongArgumentException {
+        if (name < 0) {
+            throw new WrongArgumentException("Argument name is not a name number.");
+        }
+        else if (sym == null) {
+            throw new WrongArgumentException("Argument sym is null.");
+        }
+        if (depth == 0) {
+            throw new EmptySymTableException();
+        }
+        if (lookupLocal(name) != null) {
+            throw new DuplicateSymException();
+        }
+        Node newRoot = put(root, 0, new Binding(name, sym, depth));
+        return new PersistentSymTable(names, newRoot, depth, outer);
+    }
+
+    public Sym lookupLocal(String name) {
+        int id = names.find(name);
+        return id < 0 ? null : lookupLocal(id);
+    }
+
+    public Sym lookupLocal(int name) {
+        Binding b = get(name);
+        return b != null && b.depth == depth ? b.sym : null;
+    }
+
+    public Sym lookupGlobal(String name) {
+        int id = names.find(name);
+        return id < 0 ? null : lookupGlobal(id);
+    }
+
+    public Sym lookupGlobal(int name) {
+        Binding b = get(name);
+        return b != null ? b.sym : null;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    private Binding get(int name) {
+        Node node = root;
+        for (int shift = 0; ; shift += BITS) {
+            int bit = 1 << ((name >>> shift) & MASK);
+            if ((node.bitmap & bit) == 0) {
+                return null;
+            }
+            Object child = node.children[Integer.bitCount(node.bitmap
+                                                          & (bit - 1))];
+            if (child instanceof Binding) {
+                Binding b = (Binding)child;
+                return b.name == name ? b : null;
+            }
+            node = (Node)child;
+        }
+    }
+
+    /**
+     * Returns a copy of node, at the given shift, with b in place of the
+     * binding of its name, if it has one.
+     */
+    private static Node put(Node node, int shift, Binding b) {
+        int bit = 1 << ((b.name >>> shift) & MASK);
+        int index = Integer.bitCount(node.bitmap & (bit - 1));
+        Object[] children = node.children;
+
+        if ((node.bitmap & bit) == 0) {
+            Object[] copy = new Object[children.length + 1];
+            System.arraycopy(children, 0, copy, 0, index);
+            copy[index] = b;
+            System.arraycopy(children, index, copy, index + 1,
+                             children.length - index);
+            return new Node(node.bitmap | bit, copy);
+        }
+
+        Object child = children[index];
+        Object replacement;
+        if (child instanceof Node) {
+            replacement = put((Node)child, shift + BITS, b);
+        }
+        else if (((Binding)child).name == b.name) {
+            replacement = b;
+        }
+        else {
+            // two names share this slot: push both down a level
+            Node pair = put(EMPTY_NODE, shift + BITS, (Binding)child);
+            replacement = put(pair, shift + BITS, b);
+        }
+        Object[] copy = children.clone();
+        copy[index] = replacement;
+        return new Node(node.bitmap, copy);
+    }
+}
@@ -0,0 +1,186 @@
+import java.io.*;
+import java.lang.management.*;
+
+/**
+ * PhaseStats
+ *
+ * Statistics of one compilation, collected by P6.process when they are
+ * asked for (see P6 -stats): for every phase the wall time, the CPU time
+ * and the number of bytes allocated by the compiling thread, and the
+ * number of tokens, AST nodes, symbols, labels and instructions.
+ *
+ * CPU time and allocated bytes come from the ThreadMXBean of the JVM.
+ * They are -1 if the JVM does not support them (allocated bytes need the
+ * com.sun.management extension, which HotSpot JVMs provide).
+ */
+public class PhaseStats {
+    private final long[] wallNanos = new long[P6.PHASE_NAMES.length];
+    private final long[] cpuNanos = new long[P6.PHASE_NAMES.length];
+    private final long[] allocBytes = new long[P6.PHASE_NAMES.length];
+
+    // values at the start of the running phase
+    private long startWall;
+    private long startCpu;
+    private long startAlloc;
+
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final boolean cpuSupported;
+    private final boolean allocSupported;
+
+    // counts, filled in by P6.process
+    int numTokens;
+    int numNodes;
+    int numSyms;
+    int numLabels;
+    int numInstructions;
+
+    // whether the AST came from the AST cache (so there were no tokens)
+    boolean astLoaded;
+
+    public PhaseStats() {
+        cpuSupported = threads.isCurrentThreadCpuTimeSupported()
+                       && threads.isThreadCpuTimeEnabled();
+        allocSupported = threads instanceof com.sun.management.ThreadMXBean
+            && ((com.sun.management.ThreadMXBean)threads)
+                   .isThreadAllocatedMemoryEnabled();
+        java.util.Arrays.fill(cpuNanos, cpuSupported ? 0 : -1);
+        java.util.Arrays.fill(allocBytes, allocSupported ? 0 : -1);
+    }
+
+    /**
+     * Marks the start of a phase (one of the P6.PHASE_* numbers).
+     */
+    void startPhase(int phase) {
+        startAlloc = allocatedBytes();
+        startCpu = cpuSupported ? threads.getCurrentThreadCpuTime() : 0;
+        startWall = System.nanoTime();
+    }
+
+    /**
+     * Marks the end of the phase started last.
+     */
+    void endPhase(int phase) {
+        wallNanos[phase] += System.nanoTime() - startWall;
+        if (cpuSupported) {
+            cpuNanos[phase] += threads.getCurrentThreadCpuTime() - startCpu;
+        }
+        if (allocSupported) {
+            allocBytes[phase] += allocatedBytes() - startAlloc;
+        }
+    }
+
+    private long allocatedBytes() {
+        if (!allocSupported) {
+            return 0;
+        }
+        return ((com.sun.management.ThreadMXBean)threads)
+            .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    public long getWallNanos(int phase) {
+        return wallNanos[phase];
+    }
+
+    public long getCpuNanos(int phase) {
+        return cpuNanos[phase];
+    }
+
+    public long getAllocatedBytes(int phase) {
+        return allocBytes[phase];
+    }
+
+    public int getTokenCount() {
+        return numTokens;
+    }
+
+    public int getNodeCount() {
+        return numNodes;
+    }
+
+    public int getSymCount() {
+        return numSyms;
+    }
+
+    public int getLabelCount() {
+        return numLabels;
+    }
+
+    public int getInstructionCount() {
+        return numInstructions;
+    }
+
+    /**
+     * Prints the statistics as a table.
+     */
+    public void printTable(PrintStream out) {
+        out.printf("%-14s %10s %10s %12s%n", "phase", "wall ms", "cpu ms",
+                   "alloc KB");
+        long wall = 0;
+        long cpu = 0;
+        long alloc = 0;
+        for (int k = 0; k < P6.PHASE_NAMES.length; k++) {
+            String name = P6.PHASE_NAMES[k];
+            if (k == P6.PHASE_PARSE && astLoaded) {
+                name = "load AST";
+            }
+            out.printf("%-14s %10.2f %10s %12s%n", name, wallNanos[k] / 1e6,
+                       millis(cpuNanos[k]), kilobytes(allocBytes[k]));
+            wall += wallNanos[k];
+            cpu += cpuNanos[k];
+            alloc += allocBytes[k];
+        }
+        out.printf("%-14s %10.2f %10s %12s%n", "total", wall / 1e6,
+                   millis(cpuSupported ? cpu : -1),
+                   kilobytes(allocSupported ? alloc : -1));
+        out.println();
+        out.printf("%-14s %10d%n", "tokens", numTokens);
+        out.printf("%-14s %10d%n", "AST nodes", numNodes);
+        out.printf("%-14s %10d%n", "symbols", numSyms);
+        out.printf("%-14s %10d%n", "labels", numLabels);
+        out.printf("%-14s %10d%n", "instructions", numInstructions);
+    }
+
+    private static String millis(long nanos) {
+        return nanos < 0 ? "n/a" : String.format("%.2f", nanos / 1e6);
+    }
+
+    private static String kilobytes(long bytes) {
+        return bytes < 0 ? "n/a" : String.format("%.1f", bytes / 1024.0);
+    }
+
+    /**
+     * Returns the statistics as a JSON object. Times are in nanoseconds;
+     * unsupported measurements are -1.
+     * @param source name of the compiled file (may be null)
+     */
+    public String toJson(String source) {
+        StringBuilder sb = new StringBuilder("{");
+        sb.append("\"source\":");
+        if (source == null) {
+            sb.append("null");
+        } else {
+            sb.append('"').append(source.replace("\\", "\\\\")
+                                        .replace("\"", "\\\"")).append('"');
+        }
+        sb.append(",\"astLoaded\":").append(astLoaded);
+        sb.append(",\"phases\":{");
+        for (int k = 0; k < P6.PHASE_NAMES.length; k++) {
+            if (k > 0) {
+                sb.append(',');
+            }
+            sb.append('"').append(P6.PHASE_NAMES[k]).append("\":{")
+              .append("\"wallNanos\":").append(wallNanos[k])
+              .append(",\"cpuNanos\":").append(cpuNanos[k])
+              .append(",\"allocatedBytes\":").append(allocBytes[k])
+              .append('}');
+        }
+        sb.append("},\"counts\":{")
+          .append("\"tokens\":").append(numTokens)
+          .append(",\"astNodes\":").append(numNodes)
+          .append(",\"symbols\":").append(numSyms)
+          .append(",\"labels\":").append(numLabels)
+          .append(",\"instructions\":").append(numInstructions)
+          .append("}}");
+        return sb.toString();
+    }
+}
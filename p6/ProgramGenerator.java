@@ -0,0 +1,493 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * ProgramGenerator
+ *
+ * Generates random but valid Carrot programs of a given shape, for
+ * measuring how compile time grows with the size of the input. The same
+ * seed and shape always give the same program. Usage:
+ *
+ *     java ProgramGenerator [-seed n] [-functions n] [-globals n]
+ *                           [-structs n] [-fields n] [-depth n]
+ *                           [-expsize n] [-stmts n]
+ *
+ * prints a program to System.out with the given number of global
+ * variables (ints and bools), struct types of the given number of fields
+ * each (with one global variable of each struct type), and functions of
+ * the given number of top-level statements each, plus main. Statements
+ * are nested up to the given depth of if/while/repeat blocks (of a few
+ * statements each, so the size of a program grows linearly with every
+ * dimension but depth), and expressions have about the given number of
+ * operators. Functions only call functions declared before them.
+ */
+public class ProgramGenerator {
+
+    /**
+     * The shape of a generated program.
+     */
+    public static class Shape implements Cloneable {
+        public long seed = 1;
+        public int functions = 10;
+        public int globals = 10;
+        public int structs = 2;
+        public int fields = 4;
+        public int depth = 2;
+        public int expSize = 4;
+        public int stmts = 10;
+
+        public Shape copy() {
+            try {
+                return (Shape)clone();
+            } catch (CloneNotSupportedException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        /**
+         * Sets the dimension with the given name (the name of the command
+         * line option without the "-").
+         * @return false if there is no such dimension
+         */
+        public boolean set(String name, long value) {
+            switch (name) {
+            case "seed":      seed = value;            break;
+            case "functions": functions = (int)value;  break;
+            case "globals":   globals = (int)value;    break;
+            case "structs":   structs = (int)value;    break;
+            case "fields":    fields = (int)value;     break;
+            case "depth":     depth = (int)value;      break;
+            case "expsize":   expSize = (int)value;    break;
+            case "stmts":     stmts = (int)value;      break;
+            default:
+                return false;
+            }
+            return true;
+        }
+    }
+
+    // the types of variables and functions
+    private static final int INT = 0;
+    private static final int BOOL = 1;
+    private static final int VOID = 2;
+    private static final String[] TYPE_NAMES = {"int", "bool", "void"};
+
+    // number of statements in an if, while or repeat block
+    private static final int BLOCK_STMTS = 3;
+
+    /**
+     * A function declared so far.
+     */
+    private static class Fn {
+        String name;
+        int retType;
+        int[] params;
+    }
+
+    private final Shape shape;
+    private Random random;
+    private final StringBuilder out = new StringBuilder();
+
+    // int and bool variables visible in the function being generated
+    private final List<List<String>> vars = new ArrayList<List<String>>();
+
+    // int and bool struct field accesses, like "s3.f1.f0"
+    private final List<List<String>> fieldAccesses =
+        new ArrayList<List<String>>();
+
+    private final List<Fn> fns = new ArrayList<Fn>();
+    private int numLocals;
+
+    private ProgramGenerator(Shape shape) {
+        this.shape = shape;
+        for (int k = 0; k < 2; k++) {
+            vars.add(new ArrayList<String>());
+            fieldAccesses.add(new ArrayList<String>());
+        }
+    }
+
+    /**
+     * Generates a program of the given shape.
+     */
+    public static String generate(Shape shape) {
+        ProgramGenerator gen = new ProgramGenerator(shape);
+        gen.program();
+        return gen.out.toString();
+    }
+
+    public static void main(String[] args) {
+        Shape shape = new Shape();
+        for (int k = 0; k < args.length; k += 2) {
+            boolean ok = args[k].startsWith("-") && k + 1 < args.length;
+            try {
+                ok = ok && shape.set(args[k].substring(1),
+                                     Long.parseLong(args[k + 1]));
+            } catch (NumberFormatException ex) {
+                ok = false;
+            }
+            if (!ok) {
+                System.err.println("usage: java ProgramGenerator [-seed n] " +
+                                   "[-functions n] [-globals n] " +
+                                   "[-structs n] [-fields n] [-depth n] " +
+                                   "[-expsize n] [-stmts n]");
+                System.exit(-1);
+            }
+        }
+        System.out.print(generate(shape));
+    }
+
+    /**
+     * Starts the random choices for one part of the program: the structs
+     * (part 0), the globals (part 1), main (part 2) or function k (part
+     * k + 3). Each part has its own sequence, so that changing one
+     * dimension does not change the parts it does not affect.
+     */
+    private void startPart(int part) {
+        random = new Random(shape.seed * 1000003L + part);
+    }
+
+    private void program() {
+        startPart(0);
+        structs();
+        startPart(1);
+        for (int k = 0; k < shape.globals; k++) {
+            int type = random.nextInt(2);
+            String name = "g" + k;
+            out.append(TYPE_NAMES[type]).append(' ').append(name)
+               .append(";\n");
+            vars.get(type).add(name);
+        }
+        out.append('\n');
+        for (int k = 0; k < shape.functions; k++) {
+            startPart(k + 3);
+            function("f" + k, random.nextInt(3), random.nextInt(4));
+        }
+        startPart(2);
+        main();
+    }
+
+    /**
+     * Struct k has fields f0, f1, ... of type int, bool or an earlier
+     * struct; global variable sk is of struct k.
+     */
+    private void structs() {
+        // the int and bool field paths of each struct, like ".f1.f0"
+        List<List<List<String>>> paths = new ArrayList<List<List<String>>>();
+        for (int s = 0; s < shape.structs; s++) {
+            List<List<String>> mine = new ArrayList<List<String>>();
+            mine.add(new ArrayList<String>());
+            mine.add(new ArrayList<String>());
+            out.append("struct S").append(s).append(" {\n");
+            for (int f = 0; f < Math.max(1, shape.fields); f++) {
+                String field = ".f" + f;
+                if (s > 0 && random.nextInt(4) == 0) {
+                    int inner = random.nextInt(s);
+                    out.append("    struct S").append(inner).append(" f")
+                       .append(f).append(";\n");
+                    for (int t = 0; t < 2; t++) {
+                        for (String path : paths.get(inner).get(t)) {
+                            mine.get(t).add(field + path);
+                        }
+                    }
+                } else {
+                    int type = random.nextInt(2);
+                    out.append("    ").append(TYPE_NAMES[type]).append(" f")
+                       .append(f).append(";\n");
+                    mine.get(type).add(field);
+                }
+            }
+            out.append("};\n\n");
+            paths.add(mine);
+        }
+        for (int s = 0; s < shape.structs; s++) {
+            out.append("struct S").append(s).append(" s").append(s)
+               .append(";\n");
+            for (int t = 0; t < 2; t++) {
+                for (String path : paths.get(s).get(t)) {
+                    fieldAccesses.get(t).add("s" + s + path);
+                }
+            }
+        }
+    }
+
+    private void function(String name, int retType, int numParams) {
+        Fn fn = new Fn();
+        fn.name = name;
+        fn.retType = retType;
+        fn.params = new int[numParams];
+        numLocals = 0;
+
+        out.append(TYPE_NAMES[retType]).append(' ').append(name).append('(');
+        List<String> params = new ArrayList<String>();
+        for (int k = 0; k < numParams; k++) {
+            fn.params[k] = random.nextInt(2);
+            String param = "p" + k;
+            out.append(k > 0 ? ", " : "").append(TYPE_NAMES[fn.params[k]])
+               .append(' ').append(param);
+            vars.get(fn.params[k]).add(param);
+            params.add(param);
+        }
+        out.append(") {\n");
+        body(1, shape.stmts);
+        if (retType != VOID) {
+            indent(1).append("return ").append(exp(retType, shape.expSize))
+                     .append(";\n");
+        }
+        out.append("}\n\n");
+        forget(params);
+        fns.add(fn);
+    }
+
+    private void main() {
+        numLocals = 0;
+        out.append("int main() {\n");
+        List<String> declared = locals(1);
+        statements(1, shape.stmts);
+        // call every function at least once
+        for (Fn fn : fns) {
+            if (fn.retType == VOID) {
+                indent(1).append(call(fn, shape.expSize)).append(";\n");
+            } else {
+                indent(1).append("cout << ").append(call(fn, shape.expSize))
+                         .append(";\n");
+            }
+        }
+        indent(1).append("return 0;\n");
+        out.append("}\n");
+        forget(declared);
+    }
+
+    /**
+     * Writes the locals and n statements of a block at the given level.
+     */
+    private void body(int level, int n) {
+        List<String> declared = locals(level);
+        statements(level, n);
+        forget(declared);
+    }
+
+    /**
+     * Declares the locals of a block: an int, a bool, and up to two more.
+     * @return their names
+     */
+    private List<String> locals(int level) {
+        List<String> names = new ArrayList<String>();
+        int n = 2 + random.nextInt(3);
+        for (int k = 0; k < n; k++) {
+            int type = k < 2 ? k : random.nextInt(2);
+            String name = "v" + numLocals++;
+            indent(level).append(TYPE_NAMES[type]).append(' ').append(name)
+                         .append(";\n");
+            vars.get(type).add(name);
+            names.add(name);
+        }
+        return names;
+    }
+
+    /**
+     * Makes variables invisible again at the end of their block.
+     */
+    private void forget(List<String> names) {
+        for (String name : names) {
+            vars.get(INT).remove(name);
+            vars.get(BOOL).remove(name);
+        }
+    }
+
+    private void statements(int level, int n) {
+        for (int k = 0; k < n; k++) {
+            statement(level);
+        }
+    }
+
+    private void statement(int level) {
+        int choice = random.nextInt(level <= shape.depth ? 10 : 6);
+        switch (choice) {
+        case 0:
+        case 1:
+        case 2: {
+            int type = random.nextInt(2);
+            indent(level).append(randomLocation(type)).append(" = ")
+                         .append(exp(type, shape.expSize)).append(";\n");
+            break;
+        }
+        case 3:
+            indent(level).append(randomVar(INT))
+                         .append(random.nextBoolean() ? "++;\n" : "--;\n");
+            break;
+        case 4:
+            if (random.nextBoolean()) {
+                indent(level).append("cout << ")
+                             .append(exp(random.nextInt(2), shape.expSize))
+                             .append(";\n");
+            } else {
+                indent(level).append("cin >> ")
+                             .append(randomVar(random.nextInt(2)))
+                             .append(";\n");
+            }
+            break;
+        case 5: {
+            Fn fn = randomFn(-1);
+            if (fn == null) {
+                indent(level).append("cout << \"no calls\";\n");
+            } else {
+                indent(level).append(call(fn, shape.expSize)).append(";\n");
+            }
+            break;
+        }
+        case 6:
+            indent(level).append("if (").append(exp(BOOL, shape.expSize))
+                         .append(") {\n");
+            body(level + 1, BLOCK_STMTS);
+            indent(level).append("}\n");
+            break;
+        case 7:
+            indent(level).append("if (").append(exp(BOOL, shape.expSize))
+                         .append(") {\n");
+            body(level + 1, BLOCK_STMTS);
+            indent(level).append("} else {\n");
+            body(level + 1, BLOCK_STMTS);
+            indent(level).append("}\n");
+            break;
+        case 8:
+            indent(level).append("while (").append(exp(BOOL, shape.expSize))
+                         .append(") {\n");
+            body(level + 1, BLOCK_STMTS);
+            indent(level).append("}\n");
+            break;
+        default:
+            indent(level).append("repeat (").append(exp(INT, shape.expSize))
+                         .append(") {\n");
+            body(level + 1, BLOCK_STMTS);
+            indent(level).append("}\n");
+            break;
+        }
+    }
+
+    private StringBuilder indent(int level) {
+        for (int k = 0; k < level; k++) {
+            out.append("    ");
+        }
+        return out;
+    }
+
+    /**
+     * Returns an expression of the given type with about size operators.
+     */
+    private String exp(int type, int size) {
+        if (size <= 0) {
+            return leaf(type);
+        }
+        int left = random.nextInt(size);
+        int right = size - 1 - left;
+        if (type == INT) {
+            switch (random.nextInt(6)) {
+            case 0:
+                return "-" + paren(exp(INT, size - 1));
+            case 1:
+                Fn fn = randomFn(INT);
+                if (fn != null) {
+                    return call(fn, size);
+                }
+                // fall through
+            default:
+                String op = new String[]{"+", "-", "*", "/"}[random.nextInt(4)];
+                return paren(exp(INT, left)) + " " + op + " " +
+                       paren(exp(INT, right));
+            }
+        }
+        switch (random.nextInt(5)) {
+        case 0:
+            return "!" + paren(exp(BOOL, size - 1));
+        case 1:
+        case 2:
+            String cmp = new String[]{"<", ">", "<=", ">=", "==", "!="}
+                [random.nextInt(6)];
+            return paren(exp(INT, left)) + " " + cmp + " " +
+                   paren(exp(INT, right));
+        default:
+            String op = random.nextBoolean() ? "&&" : "||";
+            return paren(exp(BOOL, left)) + " " + op + " " +
+                   paren(exp(BOOL, right));
+        }
+    }
+
+    /**
+     * Parenthesizes exp unless it is a single name, literal or call.
+     */
+    private static String paren(String exp) {
+        if (exp.indexOf(' ') < 0 && exp.charAt(0) != '-'
+            && exp.charAt(0) != '!') {
+            return exp;
+        }
+        return "(" + exp + ")";
+    }
+
+    private String leaf(int type) {
+        int choice = random.nextInt(4);
+        if (choice == 0 && !fieldAccesses.get(type).isEmpty()) {
+            List<String> reads = fieldAccesses.get(type);
+            return reads.get(random.nextInt(reads.size()));
+        }
+        if (choice == 1) {
+            if (type == INT) {
+                return Integer.toString(random.nextInt(1000));
+            }
+            return random.nextBoolean() ? "true" : "false";
+        }
+        return randomVar(type);
+    }
+
+    /**
+     * Returns a variable or a struct field of the given type, or a literal
+     * if there is none.
+     */
+    private String randomLocation(int type) {
+        List<String> fields = fieldAccesses.get(type);
+        if (!fields.isEmpty() && random.nextInt(4) == 0) {
+            return fields.get(random.nextInt(fields.size()));
+        }
+        return randomVar(type);
+    }
+
+    /**
+     * Returns a variable of the given type, or a literal if there is none.
+     */
+    private String randomVar(int type) {
+        List<String> candidates = vars.get(type);
+        if (candidates.isEmpty()) {
+            return type == INT ? "0" : "true";
+        }
+        return candidates.get(random.nextInt(candidates.size()));
+    }
+
+    /**
+     * Returns a function declared so far with the given return type (any
+     * type if retType is -1), or null if there is none.
+     */
+    private Fn randomFn(int retType) {
+        if (fns.isEmpty()) {
+            return null;
+        }
+        for (int tries = 0; tries < 4; tries++) {
+            Fn fn = fns.get(random.nextInt(fns.size()));
+            if (retType < 0 || fn.retType == retType) {
+                return fn;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns a call of fn whose arguments have about size operators in
+     * total.
+     */
+    private String call(Fn fn, int size) {
+        StringBuilder sb = new StringBuilder(fn.name).append('(');
+        int argSize = (size - 1) / Math.max(1, fn.params.length);
+        for (int k = 0; k < fn.params.length; k++) {
+            sb.append(k > 0 ? ", " : "").append(exp(fn.params[k], argSize));
+        }
+        return sb.append(')').toString();
+    }
+}
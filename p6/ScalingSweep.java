@@ -0,0 +1,299 @@
+import java.io.*;
+import java.lang.management.*;
+import java.util.*;
+
+/**
+ * ScalingSweep
+ *
+ * Measures how the time and memory of each compiler phase grow with the
+ * size of the program, using programs made by ProgramGenerator. Usage:
+ *
+ *     java ScalingSweep [-seed n] [-steps n] [-reps n] [-csv file]
+ *                       [dimension...]
+ *
+ * For each dimension (all of them if none is given) the other dimensions
+ * are kept at their base value and the swept one is doubled at every step
+ * (depth is increased by one instead). Each program is compiled reps
+ * times; the time of a phase is the fastest of those runs. The peak heap
+ * of a phase is measured after a System.gc(), as the sum of the peak
+ * usage of the heap memory pools while the phase ran, so it includes the
+ * data kept from earlier phases.
+ *
+ * Every sweep is printed as a table with a bar plot of the total time and
+ * a growth column: the exponent k in time ~ size^k between a row and the
+ * row before it, where size is the length of the program. Linear phases
+ * give about 1; a clearly larger value points at superlinear behavior.
+ * With -csv, all measurements are also written to a file for plotting.
+ */
+public class ScalingSweep {
+    private static final String[] DIMENSIONS = {
+        "functions", "globals", "structs", "fields", "depth", "expsize",
+        "stmts"
+    };
+
+    private static final int NUM_PHASES = P6.PHASE_NAMES.length;
+    private static final int PLOT_WIDTH = 30;
+    private static final int WARMUP_ROUNDS = 20;
+
+    private static final PrintStream SINK =
+        new PrintStream(OutputStream.nullOutputStream());
+
+    /**
+     * Measurements for one program.
+     */
+    static class Point {
+        long value;
+        int bytes;
+        int lines;
+        long[] nanos = new long[NUM_PHASES];
+        long[] peakHeap = new long[NUM_PHASES];
+
+        long totalNanos() {
+            long sum = 0;
+            for (long n : nanos) {
+                sum += n;
+            }
+            return sum;
+        }
+    }
+
+    private static List<MemoryPoolMXBean> heapPools;
+
+    public static void main(String[] args) throws IOException {
+        long seed = 1;
+        int steps = 6;
+        int reps = 5;
+        String csvName = null;
+        List<String> dims = new ArrayList<String>();
+
+        for (int k = 0; k < args.length; k++) {
+            try {
+                if (args[k].equals("-seed") && k + 1 < args.length) {
+                    seed = Long.parseLong(args[++k]);
+                } else if (args[k].equals("-steps") && k + 1 < args.length) {
+                    steps = Integer.parseInt(args[++k]);
+                } else if (args[k].equals("-reps") && k + 1 < args.length) {
+                    reps = Integer.parseInt(args[++k]);
+                } else if (args[k].equals("-csv") && k + 1 < args.length) {
+                    csvName = args[++k];
+                } else if (Arrays.asList(DIMENSIONS).contains(args[k])) {
+                    dims.add(args[k]);
+                } else {
+                    usage();
+                }
+            } catch (NumberFormatException ex) {
+                usage();
+            }
+        }
+        if (steps < 1 || reps < 1) {
+            usage();
+        }
+        if (dims.isEmpty()) {
+            dims.addAll(Arrays.asList(DIMENSIONS));
+        }
+
+        heapPools = new ArrayList<MemoryPoolMXBean>();
+        for (MemoryPoolMXBean pool :
+                 ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                heapPools.add(pool);
+            }
+        }
+
+        ProgramGenerator.Shape base = baseShape(seed);
+        String warmup = ProgramGenerator.generate(base);
+        for (int k = 0; k < WARMUP_ROUNDS; k++) {
+            measure(warmup, 1, false);
+        }
+
+        PrintWriter csv = null;
+        if (csvName != null) {
+            csv = new PrintWriter(new FileWriter(csvName));
+            csv.print("dimension,value,bytes,lines");
+            for (String phase : P6.PHASE_NAMES) {
+                csv.print("," + phase + "_ms," + phase + "_peak_mb");
+            }
+            csv.println();
+        }
+
+        for (String dim : dims) {
+            List<Point> points = new ArrayList<Point>();
+            for (int step = 0; step < steps; step++) {
+                ProgramGenerator.Shape shape = base.copy();
+                long value = valueAt(dim, step);
+                shape.set(dim, value);
+                String source = ProgramGenerator.generate(shape);
+                Point p = measure(source, reps, true);
+                if (p == null) {
+                    System.err.println("generated program does not compile: "
+                                       + dim + " = " + value);
+                    System.exit(-1);
+                }
+                p.value = value;
+                points.add(p);
+                if (csv != null) {
+                    writeCsv(csv, dim, p);
+                }
+            }
+            print(dim, points);
+        }
+        if (csv != null) {
+            csv.close();
+        }
+    }
+
+    private static void usage() {
+        System.err.println("usage: java ScalingSweep [-seed n] [-steps n] " +
+                           "[-reps n] [-csv file] [dimension...]");
+        System.err.println("dimensions: " + String.join(" ", DIMENSIONS));
+        System.exit(-1);
+    }
+
+    /**
+     * The shape the sweeps start from: a program of about 1000 lines.
+     */
+    private static ProgramGenerator.Shape baseShape(long seed) {
+        ProgramGenerator.Shape shape = new ProgramGenerator.Shape();
+        shape.seed = seed;
+        for (String dim : DIMENSIONS) {
+            shape.set(dim, valueAt(dim, 0));
+        }
+        return shape;
+    }
+
+    /**
+     * The value of a dimension at a step of its sweep.
+     */
+    private static long valueAt(String dim, int step) {
+        switch (dim) {
+        case "functions": return 16L << step;
+        case "globals":   return 16L << step;
+        case "structs":   return 4L << step;
+        case "fields":    return 4L << step;
+        case "depth":     return 1 + step;
+        case "expsize":   return 4L << step;
+        default:          return 8L << step; // stmts
+        }
+    }
+
+    /**
+     * Compiles source reps times, keeping the fastest time of every phase
+     * and the largest peak heap.
+     * @return the measurements, or null if the program has errors
+     */
+    private static Point measure(String source, int reps, boolean heap) {
+        Point p = new Point();
+        p.bytes = source.length();
+        for (int k = 0; k < source.length(); k++) {
+            if (source.charAt(k) == '\n') {
+                p.lines++;
+            }
+        }
+        Arrays.fill(p.nanos, Long.MAX_VALUE);
+
+        for (int r = 0; r < reps; r++) {
+            CompileContext ctx = new CompileContext(
+                new PrintWriter(Writer.nullWriter()), null, SINK);
+            ProgramNode root = null;
+            for (int phase = 0; phase < NUM_PHASES; phase++) {
+                if (heap) {
+                    System.gc();
+                    for (MemoryPoolMXBean pool : heapPools) {
+                        pool.resetPeakUsage();
+                    }
+                }
+                long start = System.nanoTime();
+                root = runPhase(phase, source, root, ctx);
+                long nanos = System.nanoTime() - start;
+                if (root == null || ctx.errMsg.getErr()) {
+                    return null;
+                }
+                p.nanos[phase] = Math.min(p.nanos[phase], nanos);
+                if (heap) {
+                    long peak = 0;
+                    for (MemoryPoolMXBean pool : heapPools) {
+                        peak += pool.getPeakUsage().getUsed();
+                    }
+                    p.peakHeap[phase] = Math.max(p.peakHeap[phase], peak);
+                }
+            }
+        }
+        return p;
+    }
+
+    /**
+     * Runs one phase (one of the P6.PHASE_* numbers).
+     * @return the AST, or null if the program could not be parsed
+     */
+    private static ProgramNode runPhase(int phase, String source,
+                                        ProgramNode root,
+                                        CompileContext ctx) {
+        switch (phase) {
+        case P6.PHASE_PARSE:
+            try {
+                parser P = new parser(new Yylex(new StringReader(source),
+                                                ctx), ctx);
+                return (ProgramNode)P.parse().value;
+            } catch (Exception ex) {
+                return null;
+            }
+        case P6.PHASE_NAME_ANALYSIS:
+            root.nameAnalysis(ctx);
+            return root;
+        case P6.PHASE_TYPE_CHECK:
+            root.typeCheck(ctx);
+            return root;
+        default:
+            root.codeGen(ctx.codegen);
+            return root;
+        }
+    }
+
+    private static void print(String dim, List<Point> points) {
+        PrintStream out = System.out;
+        out.println();
+        out.println("Sweep of " + dim);
+        out.printf("%8s %9s %7s", dim, "bytes", "lines");
+        for (String phase : P6.PHASE_NAMES) {
+            out.printf(" %13s", phase + " ms");
+        }
+        for (String phase : P6.PHASE_NAMES) {
+            out.printf(" %13s", phase + " MB");
+        }
+        out.printf(" %7s  %s%n", "growth", "total time");
+
+        long maxTotal = 1;
+        for (Point p : points) {
+            maxTotal = Math.max(maxTotal, p.totalNanos());
+        }
+        Point prev = null;
+        for (Point p : points) {
+            out.printf("%8d %9d %7d", p.value, p.bytes, p.lines);
+            for (long n : p.nanos) {
+                out.printf(" %13.2f", n / 1e6);
+            }
+            for (long b : p.peakHeap) {
+                out.printf(" %13.1f", b / 1048576.0);
+            }
+            if (prev == null || p.bytes == prev.bytes) {
+                out.printf(" %7s", "");
+            } else {
+                double k = Math.log((double)p.totalNanos() / prev.totalNanos())
+                         / Math.log((double)p.bytes / prev.bytes);
+                out.printf(" %7.2f", k);
+            }
+            int bar = (int)(PLOT_WIDTH * p.totalNanos() / maxTotal);
+            out.println("  " + "#".repeat(Math.max(1, bar)));
+            prev = p;
+        }
+    }
+
+    private static void writeCsv(PrintWriter csv, String dim, Point p) {
+        csv.print(dim + "," + p.value + "," + p.bytes + "," + p.lines);
+        for (int phase = 0; phase < NUM_PHASES; phase++) {
+            csv.printf(Locale.ROOT, ",%.3f,%.2f", p.nanos[phase] / 1e6,
+                       p.peakHeap[phase] / 1048576.0);
+        }
+        csv.println();
+    }
+}
@@ -0,0 +1,235 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java_cup.runtime.Symbol;
+
+/**
+ * ScanDiff
+ *
+ * Checks ByteScanner against the JLex-generated Yylex on a large corpus of
+ * well-formed and malformed sources. Usage:
+ *
+ *     java ScanDiff [-seed n] [-random n] [-mutations n] file...
+ *
+ * The corpus is made of the given files, the given number of random
+ * sources glued together from pieces of text that make every token and
+ * every kind of bad token (illegal characters, unterminated strings,
+ * strings with bad escapes, integer literals that are too large, unclosed
+ * comments at the end of the file) and every kind of line end, and for
+ * each file the given number of mutants, with a few random spans of text
+ * deleted, duplicated or replaced by one of those pieces.
+ *
+ * Every source is scanned with a CompileContext of its own by Yylex, by
+ * ByteScanner one token at a time, and by ByteScanner into a TokenBuffer
+ * that is read back through TokenBuffer.scanner, the way each parser gets
+ * its tokens. The kind, line and character number of every token, the
+ * name of every ID, the value of every INTLITERAL, the text of every
+ * STRINGLITERAL and the error messages must be the same for all three,
+ * and each scanner must give every name one number in the NameTable of
+ * its compilation (the numbers differ: ByteScanner numbers the keywords
+ * as well). Yylex stops with an Error on every carriage return, where
+ * ByteScanner reports an illegal character, so the sources on which it
+ * stops are counted but not compared. The
+ * first few differences are printed with their source; the exit status is
+ * 1 if there were any.
+ */
+public class ScanDiff {
+    private static final String[] SCANNERS =
+        { "Yylex", "ByteScanner", "TokenBuffer" };
+
+    private static final int MAX_REPORTS = 3;
+
+    // pieces of text for random sources and mutants
+    private static final String[] PIECES = {
+        "\"", "\\", "\\n", "\\q", "\n", "\r", "\r\n", " ", "  \t ", "\t",
+        "a", "x_1", "int", "intx", "repeat", "true", "false", "t",
+        "12", "99999999999", "2147483647", "2147483648", "/", "//", "#",
+        "<", "<<", "<=", ">", ">>", "=", "==", "!", "!=", "&", "&&", "|",
+        "||", "+", "++", "-", "--", "{", "}", "(", ")", ";", ",", ".", "*",
+        "$", "@", "'", "?", "\\\"", "\\\\", "\"abc\""
+    };
+
+    private static int sources = 0;
+    private static int stopped = 0;
+    private static int differences = 0;
+
+    public static void main(String[] args) throws Exception {
+        long seed = 1;
+        int randoms = 100000;
+        int mutations = 20;
+        int k = 0;
+        while (k + 1 < args.length && args[k].startsWith("-")) {
+            if (args[k].equals("-seed")) {
+                seed = Long.parseLong(args[k + 1]);
+            } else if (args[k].equals("-random")) {
+                randoms = Integer.parseInt(args[k + 1]);
+            } else if (args[k].equals("-mutations")) {
+                mutations = Integer.parseInt(args[k + 1]);
+            } else {
+                usage();
+            }
+            k += 2;
+        }
+
+        Random random = new Random(seed);
+        for (; k < args.length; k++) {
+            String source = new String(Files.readAllBytes(Paths.get(args[k])),
+                                       StandardCharsets.US_ASCII);
+            check(source, args[k]);
+            for (int m = 0; m < mutations; m++) {
+                check(mutate(source, random), args[k] + ", mutant " + m);
+            }
+        }
+        for (int r = 0; r < randoms; r++) {
+            StringBuilder sb = new StringBuilder();
+            int pieces = random.nextInt(30);
+            for (int p = 0; p < pieces; p++) {
+                sb.append(PIECES[random.nextInt(PIECES.length)]);
+            }
+            check(sb.toString(), "random source " + r);
+        }
+
+        System.out.printf("%d sources (%d stopped Yylex), %d differences%n",
+                          sources, stopped, differences);
+        System.exit(differences == 0 ? 0 : 1);
+    }
+
+    private static void usage() {
+        System.err.println("usage: java ScanDiff [-seed n] [-random n] " +
+                           "[-mutations n] file...");
+        System.exit(-1);
+    }
+
+    /**
+     * Scans source with every scanner and compares the results.
+     */
+    private static void check(String source, String name) {
+        sources++;
+        String[] results = new String[SCANNERS.length];
+        for (int s = 0; s < SCANNERS.length; s++) {
+            results[s] = scan(source, s);
+            if (results[s] == null) {
+                stopped++;
+                return;
+            }
+        }
+        for (int s = 1; s < SCANNERS.length; s++) {
+            if (!results[s].equals(results[0])) {
+                differences++;
+                if (differences <= MAX_REPORTS) {
+                    System.out.println("=== " + SCANNERS[s] + " differs from "
+                                       + SCANNERS[0] + " on " + name);
+                    System.out.println(source.replace("\r", "\\r"));
+                    System.out.println("--- " + SCANNERS[0]);
+                    System.out.println(results[0]);
+                    System.out.println("--- " + SCANNERS[s]);
+                    System.out.println(results[s]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Scans source with one scanner (an index in SCANNERS).
+     * @return the tokens and the error messages, as text, or null if
+     *         Yylex stopped
+     */
+    private static String scan(String source, int scanner) {
+        ByteArrayOutputStream messages = new ByteArrayOutputStream();
+        CompileContext ctx = new CompileContext(null, null,
+                                                new PrintStream(messages));
+        ByteBuffer bytes =
+            ByteBuffer.wrap(source.getBytes(StandardCharsets.US_ASCII));
+        java_cup.runtime.Scanner tokens;
+        if (scanner == 0) {
+            tokens = new Yylex(new StringReader(source), ctx);
+        } else if (scanner == 1) {
+            tokens = new ByteScanner(bytes, ctx);
+        } else {
+            tokens = new ByteScanner(bytes, ctx).scanAll()
+                .scanner(ctx.errMsg);
+        }
+
+        StringBuilder sb = new StringBuilder();
+        Map<String, Integer> numbers = new HashMap<String, Integer>();
+        try {
+            Symbol token;
+            do {
+                token = tokens.next_token();
+                dump(token, ctx, numbers, sb);
+            } while (token.sym != sym.EOF);
+        } catch (Error ex) {
+            if (scanner == 0) {
+                return null;  // Yylex found no rule for a character
+            }
+            sb.append("failed: ").append(ex).append('\n');
+        } catch (Exception ex) {
+            sb.append("failed: ").append(ex).append('\n');
+        }
+        ctx.errMsg.flush();
+        sb.append(messages.toString());
+        return sb.toString();
+    }
+
+    /**
+     * Appends a line that describes token, given the number of each name
+     * seen so far.
+     */
+    private static void dump(Symbol token, CompileContext ctx,
+                             Map<String, Integer> numbers, StringBuilder sb) {
+        sb.append(sym.terminalNames[token.sym]);
+        if (token.sym != sym.EOF) {
+            // the tokens of a TokenBuffer that have no value keep their
+            // position in left and right
+            if (token.value instanceof TokenVal) {
+                TokenVal value = (TokenVal)token.value;
+                sb.append(' ').append(value.linenum).append(':')
+                  .append(value.charnum);
+            } else {
+                sb.append(' ').append(token.left).append(':')
+                  .append(token.right);
+            }
+        }
+        if (token.value instanceof IdTokenVal) {
+            IdTokenVal id = (IdTokenVal)token.value;
+            sb.append(' ').append(id.idVal);
+            Integer number = numbers.putIfAbsent(id.idVal, id.nameId);
+            if ((number != null && number != id.nameId)
+                || !ctx.names.name(id.nameId).equals(id.idVal)) {
+                sb.append(" (wrong number ").append(id.nameId).append(')');
+            }
+        } else if (token.value instanceof IntLitTokenVal) {
+            sb.append(' ').append(((IntLitTokenVal)token.value).intVal);
+        } else if (token.value instanceof StrLitTokenVal) {
+            sb.append(' ').append(((StrLitTokenVal)token.value).strVal());
+        }
+        sb.append('\n');
+    }
+
+    /**
+     * Returns source with one to three random edits.
+     */
+    private static String mutate(String source, Random random) {
+        StringBuilder sb = new StringBuilder(source);
+        int edits = 1 + random.nextInt(3);
+        for (int e = 0; e < edits; e++) {
+            int start = random.nextInt(sb.length() + 1);
+            int end = Math.min(sb.length(), start + 1 + random.nextInt(12));
+            switch (random.nextInt(3)) {
+            case 0:
+                sb.delete(start, end);
+                break;
+            case 1:
+                sb.insert(start, sb.substring(start, end));
+                break;
+            default:
+                sb.replace(start, Math.min(end, start + random.nextInt(2)),
+                           PIECES[random.nextInt(PIECES.length)]);
+                break;
+            }
+        }
+        return sb.toString();
+    }
+}
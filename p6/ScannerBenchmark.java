@@ -0,0 +1,275 @@
+import java.io.*;
+import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+/**
+ * ScannerBenchmark
+ *
+ * Compares the scanners JLex generates from Carrot.jlex in each of its
+ * table modes, and ByteScanner. Usage:
+ *
+ *     java ScannerBenchmark [-spec file.jlex] [-rounds n] file.crrt...
+ *
+ * For every mode the spec is copied with the mode's directive, run
+ * through JLex and compiled into a temporary directory (this needs a
+ * JDK). The resulting Yylex is loaded by a class loader of its own, so
+ * that all the versions can be run side by side in one JVM. The modes
+ * are:
+ *
+ *     tables    the full yy_nxt matrix (JLex's default)
+ *     compress  row-displacement tables (%compress)
+ *     direct    transitions written out as code (%direct)
+ *
+ * The size of Yylex.class is printed for each mode. Then every scanner
+ * scans all the files over and over for the given number of rounds; the
+ * rounds go through the scanners in turn, the first half are warm-up,
+ * and the fastest of the rest is printed as tokens and megabytes per
+ * second.
+ */
+public class ScannerBenchmark {
+    private static final String[] MODES = { "tables", "compress", "direct" };
+    private static final String[] DIRECTIVES = { null, "%compress", "%direct" };
+
+    private static final int DEFAULT_ROUNDS = 40;
+    private static final long ROUND_NANOS = 100000000L;
+
+    private static final PrintStream SINK =
+        new PrintStream(OutputStream.nullOutputStream());
+
+    /**
+     * Loads the classes generated from the spec (Yylex and the token
+     * classes) from a directory of its own, and everything else from the
+     * class path.
+     */
+    private static class YylexLoader extends ClassLoader {
+        private final File dir;
+
+        YylexLoader(File dir) {
+            super(ScannerBenchmark.class.getClassLoader());
+            this.dir = dir;
+        }
+
+        protected Class<?> loadClass(String name, boolean resolve)
+            throws ClassNotFoundException {
+            File file = new File(dir, name + ".class");
+            if (!file.exists()) {
+                return super.loadClass(name, resolve);
+            }
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> c = findLoadedClass(name);
+                if (c == null) {
+                    try {
+                        byte[] bytes = Files.readAllBytes(file.toPath());
+                        c = defineClass(name, bytes, 0, bytes.length);
+                    } catch (IOException ex) {
+                        throw new ClassNotFoundException(name, ex);
+                    }
+                }
+                return c;
+            }
+        }
+    }
+
+    /**
+     * A scanner under test.
+     */
+    private static abstract class Candidate {
+        String name;
+        long classBytes = -1;
+        long bestNanos = Long.MAX_VALUE;
+
+        abstract int scan(String source, byte[] bytes) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String spec = "Carrot.jlex";
+        int rounds = DEFAULT_ROUNDS;
+        int k = 0;
+        while (k + 1 < args.length && args[k].startsWith("-")) {
+            if (args[k].equals("-spec")) {
+                spec = args[k + 1];
+            } else if (args[k].equals("-rounds")) {
+                rounds = Integer.parseInt(args[k + 1]);
+            } else {
+                usage();
+            }
+            k += 2;
+        }
+        if (k >= args.length || rounds < 2) {
+            usage();
+        }
+
+        List<String> sources = new ArrayList<String>();
+        long sourceBytes = 0;
+        for (; k < args.length; k++) {
+            String source = new String(Files.readAllBytes(Paths.get(args[k])),
+                                       StandardCharsets.US_ASCII);
+            sources.add(source);
+            sourceBytes += source.length();
+        }
+
+        List<Candidate> candidates = new ArrayList<Candidate>();
+        File dir = Files.createTempDirectory("carrot-jlex").toFile();
+        String text = new String(Files.readAllBytes(Paths.get(spec)),
+                                 StandardCharsets.UTF_8);
+        for (int m = 0; m < MODES.length; m++) {
+            File modeDir = new File(dir, MODES[m]);
+            modeDir.mkdir();
+            candidates.add(generate(MODES[m], DIRECTIVES[m], text, modeDir));
+        }
+        candidates.add(new Candidate() {
+            {
+                name = "ByteScanner";
+            }
+
+            int scan(String source, byte[] bytes) {
+                CompileContext ctx = new CompileContext(null, null, SINK);
+                ByteScanner scanner =
+                    new ByteScanner(ByteBuffer.wrap(bytes), ctx);
+                int count = 0;
+                while (scanner.next_token().sym != sym.EOF) {
+                    count++;
+                }
+                return count;
+            }
+        });
+
+        List<byte[]> bytes = new ArrayList<byte[]>();
+        for (String source : sources) {
+            bytes.add(source.getBytes(StandardCharsets.US_ASCII));
+        }
+
+        // scan each file enough times to make a round last ROUND_NANOS
+        int tokens = 0;
+        long start = System.nanoTime();
+        for (int s = 0; s < sources.size(); s++) {
+            tokens += candidates.get(0).scan(sources.get(s), bytes.get(s));
+        }
+        int passes = (int)Math.max(1, ROUND_NANOS
+                                      / Math.max(1, System.nanoTime() - start));
+
+        for (int r = 0; r < rounds; r++) {
+            for (Candidate c : candidates) {
+                start = System.nanoTime();
+                for (int p = 0; p < passes; p++) {
+                    for (int s = 0; s < sources.size(); s++) {
+                        c.scan(sources.get(s), bytes.get(s));
+                    }
+                }
+                long nanos = (System.nanoTime() - start) / passes;
+                if (r >= rounds / 2) {
+                    c.bestNanos = Math.min(c.bestNanos, nanos);
+                }
+            }
+        }
+
+        System.out.printf("%d files, %d bytes, %d tokens%n", sources.size(),
+                          sourceBytes, tokens);
+        System.out.printf("%-12s %12s %14s %10s%n", "scanner", "class bytes",
+                          "Mtokens/s", "MB/s");
+        for (Candidate c : candidates) {
+            System.out.printf("%-12s %12s %14.2f %10.1f%n", c.name,
+                              c.classBytes < 0 ? "-"
+                                               : Long.toString(c.classBytes),
+                              tokens * 1e3 / c.bestNanos,
+                              sourceBytes * 1e9 / 1048576.0 / c.bestNanos);
+        }
+        deleteAll(dir);
+    }
+
+    private static void usage() {
+        System.err.println("usage: java ScannerBenchmark [-spec file.jlex] " +
+                           "[-rounds n] file.crrt...");
+        System.exit(-1);
+    }
+
+    /**
+     * Generates, compiles and loads the scanner of the spec in one mode.
+     */
+    private static Candidate generate(String mode, String directive,
+                                      String spec, File dir)
+        throws Exception {
+        // drop the mode directives of the spec and add the one of the mode
+        StringBuilder sb = new StringBuilder();
+        boolean inDeclarations = false;
+        for (String line : spec.split("\n", -1)) {
+            String trimmed = line.trim();
+            for (String d : DIRECTIVES) {
+                if (d != null && trimmed.equals(d)) {
+                    trimmed = null;
+                    break;
+                }
+            }
+            if (trimmed == null) {
+                continue;
+            }
+            sb.append(line).append('\n');
+            if (trimmed.equals("%%") && !inDeclarations) {
+                inDeclarations = true;
+                if (directive != null) {
+                    sb.append(directive).append('\n');
+                }
+            }
+        }
+        File specFile = new File(dir, "Carrot.jlex");
+        Files.write(specFile.toPath(),
+                    sb.toString().getBytes(StandardCharsets.UTF_8));
+
+        PrintStream out = System.out;
+        System.setOut(SINK);
+        try {
+            JLex.Main.main(new String[] { specFile.getPath() });
+        } finally {
+            System.setOut(out);
+        }
+
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        if (javac == null) {
+            System.err.println("no Java compiler (a JDK is needed)");
+            System.exit(-1);
+        }
+        int status = javac.run(null, null, SINK, "-g", "-nowarn",
+                               "-cp", System.getProperty("java.class.path"),
+                               "-d", dir.getPath(),
+                               specFile.getPath() + ".java");
+        if (status != 0) {
+            System.err.println("generated scanner does not compile: " + mode);
+            System.exit(-1);
+        }
+
+        final Constructor<?> make =
+            new YylexLoader(dir).loadClass("Yylex")
+                .getDeclaredConstructor(Reader.class, CompileContext.class);
+        make.setAccessible(true);
+        Candidate c = new Candidate() {
+            int scan(String source, byte[] bytes) throws Exception {
+                CompileContext ctx = new CompileContext(null, null, SINK);
+                java_cup.runtime.Scanner scanner = (java_cup.runtime.Scanner)
+                    make.newInstance(new StringReader(source), ctx);
+                int count = 0;
+                while (scanner.next_token().sym != sym.EOF) {
+                    count++;
+                }
+                return count;
+            }
+        };
+        c.name = mode;
+        c.classBytes = new File(dir, "Yylex.class").length();
+        return c;
+    }
+
+    private static void deleteAll(File f) {
+        File[] children = f.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteAll(child);
+            }
+        }
+        f.delete();
+    }
+}
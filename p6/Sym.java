@@ -34,7 +34,7 @@ class FnSym extends Sym {
     private List<Type> paramTypes;
     
     public FnSym(Type type, int numparams) {
-        super(new FnType());
+        super(Type.FN);
         returnType = type;
         numParams = numparams;
     }
@@ -83,13 +83,36 @@ class StructSym extends Sym {
     private IdNode structType;  // name of the struct type
     
     public StructSym(IdNode id) {
-        super(new StructType(id));
+        super(instanceType(id));
         structType = id;
     }
 
+    /**
+     * Returns the type of the variables of the struct that id names (the
+     * StructType of its definition).
+     */
+    private static Type instanceType(IdNode id) {
+        Sym sym = id.sym();
+        if (sym instanceof StructDefSym) {
+            return ((StructDefSym)sym).getInstanceType();
+        }
+        return new StructType(id.name());  // not linked to a definition
+    }
+
     public IdNode getStructType() {
         return structType;
     }    
+
+    /**
+     * Returns the number of bytes a variable of this struct takes.
+     */
+    public int getSize() {
+        Sym sym = structType.sym();
+        if (sym instanceof StructDefSym) {
+            return ((StructDefSym)sym).getSize();
+        }
+        return 4;  // not linked to a definition
+    }
 }
 
 /**
@@ -97,17 +120,42 @@ class StructSym extends Sym {
  * definition of a struct type. 
  * Each StructDefSym contains a symbol table to hold information about its 
  * fields.
+ *
+ * The layout of the struct is fixed by name analysis: its fields follow
+ * one another in the order they are declared, and the offset of each from
+ * the start of the struct is the offset of its Sym. Every field is a word
+ * or a struct of words, so every field is word-aligned and the size is a
+ * multiple of 4.
  */
 class StructDefSym extends Sym {
     // new fields
     private SymTable symTab;
+    private StructType instanceType;
+    private int size;
     
-    public StructDefSym(SymTable table) {
-        super(new StructDefType());
+    public StructDefSym(SymTable table, String name, int size) {
+        super(Type.STRUCT_DEF);
         symTab = table;
+        instanceType = new StructType(name);
+        this.size = size;
     }
 
     public SymTable getSymTable() {
         return symTab;
     }
+
+    /**
+     * Returns the type of the variables of this struct, the one StructType
+     * of this definition.
+     */
+    public StructType getInstanceType() {
+        return instanceType;
+    }
+
+    /**
+     * Returns the number of bytes a variable of this struct takes.
+     */
+    public int getSize() {
+        return size;
+    }
 }
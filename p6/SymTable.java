@@ -1,16 +1,108 @@
 import java.util.*;
 
+/**
+ * SymTable
+ *
+ * A stack of scopes, each mapping names to symbols. Names are the numbers
+ * given to identifiers by a NameTable (see IdNode.nameId), so lookups hash
+ * and compare ints; the methods that take a String translate it through
+ * the same NameTable.
+ *
+ * The scopes are not kept as separate tables. Every declaration is pushed
+ * on one log, with the binding of the same name that it hides, and each
+ * name number indexes the innermost binding of that name. Looking a name
+ * up, locally or globally, is a single array access whatever the depth of
+ * nesting, and so is declare, which checks for a duplicate and adds the
+ * declaration at once. A scope is the part of the log above where it
+ * started: removeScope pops it, putting back the bindings it hid.
+ *
+ * The global scope of a table can be a PersistentSymTable (a snapshot of
+ * the global scope of another table, see globalScope), so that the
+ * function bodies of a program can be analyzed on several threads, each
+ * with a table of its own on top of the globals declared before it.
+ */
 public class SymTable {
-    public String curFunc = "main";
-    public int offset = 8;
-    private List<HashMap<String, Sym>> list;
-    
+    private NameTable names;
+
+    // innermost[name] is 1 + the log index of the innermost binding of
+    // the name, or 0 if it has none (or is past the end of the array)
+    private int[] innermost = new int[16];
+
+    // the declarations of all the open scopes, outermost first, with the
+    // innermost entry of their names before they were declared
+    private int[] logNames = new int[16];
+    private Sym[] logSyms = new Sym[16];
+    private int[] logHidden = new int[16];
+    private int logSize = 0;
+
+    // scopeStarts[d] is the log index where scope d (0 is global) starts
+    private int[] scopeStarts = new int[8];
+    private int depth = 0;
+
+    // the global declarations under those of the log, if any
+    private PersistentSymTable outer;
+
+    // the global declarations so far, as of log index globalCount
+    private PersistentSymTable globals;
+    private int globalCount = 0;
+
+    /**
+     * Creates a table whose names are numbered by a NameTable of its own.
+     */
     public SymTable() {
-        list = new LinkedList<HashMap<String, Sym>>();
-        list.add(new HashMap<String, Sym>());
+        this(new NameTable());
+    }
+
+    /**
+     * Creates a table whose names are numbered by the given NameTable.
+     */
+    public SymTable(NameTable names) {
+        this.names = names;
+        addScope();
     }
-    
-    public void addDecl(String name, Sym sym) 
+
+    /**
+     * Creates a table whose global scope holds the declarations of the
+     * innermost scope of the given table (usually one returned by
+     * globalScope), and whose names are numbered by its NameTable. The
+     * given table is only read, and only through its int methods.
+     */
+    public SymTable(PersistentSymTable globals) {
+        this(globals.names());
+        outer = globals;
+    }
+
+    /**
+     * Makes this table like one just created with the given globals, or
+     * with one empty scope and its NameTable if globals is null. Undoing
+     * the declarations takes as long as making them, but the arrays of
+     * the table are kept, so a table that is reset for every function of
+     * a program only grows once.
+     */
+    public void reset(PersistentSymTable globals) {
+        for (int k = logSize - 1; k >= 0; k--) {
+            innermost[logNames[k]] = 0;
+            logSyms[k] = null;
+        }
+        logSize = 0;
+        depth = 0;
+        this.globals = null;
+        globalCount = 0;
+        outer = globals;
+        if (globals != null) {
+            names = globals.names();
+        }
+        addScope();
+    }
+
+    /**
+     * Returns the NameTable that numbers the names of this table.
+     */
+    public NameTable names() {
+        return names;
+    }
+
+    public void addDecl(String name, Sym sym)
 	throws DuplicateSymException, EmptySymTableException, WrongArgumentException {
 	if (name == null && sym == null) {
 	    throw new WrongArgumentException("Arguments name and sym are null.");
@@ -18,65 +110,170 @@ public class SymTable {
 	else if (name == null) {
 	    throw new WrongArgumentException("Argument name is null.");
 	}
+        addDecl(names.id(name), sym);
+    }
+
+    public void addDecl(int name, Sym sym)
+	throws DuplicateSymException, EmptySymTableException, WrongArgumentException {
+	if (name < 0) {
+	    throw new WrongArgumentException("Argument name is not a name number.");
+	}
 	else if (sym == null) {
 	    throw new WrongArgumentException("Argument sym is null.");
 	}
-               
-        if (list.isEmpty()) {
+
+        if (declare(name, sym) != null)
+            throw new DuplicateSymException();
+    }
+
+    /**
+     * Declares a name (a name number, not negative) in the innermost
+     * scope, unless it is already declared there.
+     * @return the symbol the name already has in the innermost scope, in
+     *         which case nothing is changed, or null if sym was added
+     */
+    public Sym declare(int name, Sym sym) throws EmptySymTableException {
+        if (depth == 0) {
             throw new EmptySymTableException();
         }
-	
-        HashMap<String, Sym> symTab = list.get(0);
-        if (symTab.containsKey(name))
-            throw new DuplicateSymException();
-        
-        symTab.put(name, sym);
+
+        int top = name < innermost.length ? innermost[name] : 0;
+        if (top > scopeStarts[depth - 1]) {
+            return logSyms[top - 1];
+        }
+        if (depth == 1 && outer != null) {
+            Sym old = outer.lookupLocal(name);
+            if (old != null) {
+                return old;
+            }
+        }
+
+        if (name >= innermost.length) {
+            innermost = Arrays.copyOf(innermost,
+                                      Math.max(2 * innermost.length, name + 1));
+        }
+        if (logSize == logNames.length) {
+            logNames = Arrays.copyOf(logNames, 2 * logSize);
+            logSyms = Arrays.copyOf(logSyms, 2 * logSize);
+            logHidden = Arrays.copyOf(logHidden, 2 * logSize);
+        }
+        logNames[logSize] = name;
+        logSyms[logSize] = sym;
+        logHidden[logSize] = top;
+        logSize++;
+        innermost[name] = logSize;
+        return null;
     }
-    
+
     public void addScope() {
-        list.add(0, new HashMap<String, Sym>());
+        if (depth == scopeStarts.length) {
+            scopeStarts = Arrays.copyOf(scopeStarts, 2 * depth);
+        }
+        scopeStarts[depth++] = logSize;
     }
-    
+
     public Sym lookupLocal(String name) {
-        if (list.isEmpty())
+        int id = names.find(name);
+        return id < 0 ? null : lookupLocal(id);
+    }
+
+    public Sym lookupLocal(int name) {
+        if (depth == 0 || name < 0)
             return null;
-        
-        HashMap<String, Sym> symTab = list.get(0); 
-        return symTab.get(name);
+
+        int top = name < innermost.length ? innermost[name] : 0;
+        if (top > scopeStarts[depth - 1])
+            return logSyms[top - 1];
+        return depth == 1 && outer != null ? outer.lookupLocal(name) : null;
     }
-    
+
     public Sym lookupGlobal(String name) {
-        if (list.isEmpty())
+        int id = names.find(name);
+        return id < 0 ? null : lookupGlobal(id);
+    }
+
+    public Sym lookupGlobal(int name) {
+        if (name < 0)
             return null;
-        
-        for (HashMap<String, Sym> symTab : list) {
-            Sym sym = symTab.get(name);
-            if (sym != null)
-                return sym;
+
+        int top = name < innermost.length ? innermost[name] : 0;
+        if (top > 0)
+            return logSyms[top - 1];
+        return depth > 0 && outer != null ? outer.lookupGlobal(name) : null;
+    }
+
+    /**
+     * Returns the declarations of the global scope so far (including those
+     * of the PersistentSymTable this table was created with, if any) as
+     * the innermost scope of a PersistentSymTable. The declarations made
+     * since the last call are added to the table that call returned, so
+     * calling this after every global declaration costs one persistent
+     * declaration each.
+     */
+    public PersistentSymTable globalScope() {
+        if (globals == null) {
+            globals = outer != null ? outer : new PersistentSymTable(names);
         }
-        return null;
+        int end = depth > 1 ? scopeStarts[1] : logSize;
+        try {
+            for (; globalCount < end; globalCount++) {
+                globals = globals.addDecl(logNames[globalCount],
+                                          logSyms[globalCount]);
+            }
+        } catch (DuplicateSymException | EmptySymTableException
+                 | WrongArgumentException ex) {
+            throw new IllegalStateException(ex);  // not in a scope twice
+        }
+        return globals;
     }
-    
+
     public void removeScope() throws EmptySymTableException {
-        if (list.isEmpty())
+        if (depth == 0)
             throw new EmptySymTableException();
-        list.remove(0);
+
+        int start = scopeStarts[--depth];
+        for (int k = logSize - 1; k >= start; k--) {
+            innermost[logNames[k]] = logHidden[k];
+            logSyms[k] = null;
+        }
+        logSize = start;
+        if (depth == 0) {
+            globals = null;
+            globalCount = 0;
+        }
     }
-    
+
     public void print() {
         System.out.print("\n=== Sym Table ===\n");
-        for (HashMap<String, Sym> symTab : list) {
-            System.out.println(symTab.toString());
+        for (int d = depth - 1; d >= 0; d--) {
+            System.out.println(toMap(d).toString());
         }
         System.out.println();
     }
 
     public int getDepth() {
-        return list.size();
+        return depth;
     }
 
     public int getLocalCount(){
-        return list.get(0).size();
+        return logSize - scopeStarts[depth - 1];
+    }
+
+    /**
+     * Returns the names and symbols of the innermost scope, in the order
+     * in which they were declared.
+     */
+    public Map<String, Sym> getLocalScope() {
+        return Collections.unmodifiableMap(toMap(depth - 1));
+    }
+
+    private Map<String, Sym> toMap(int scope) {
+        Map<String, Sym> map = new LinkedHashMap<String, Sym>();
+        int end = scope + 1 < depth ? scopeStarts[scope + 1] : logSize;
+        for (int k = scopeStarts[scope]; k < end; k++) {
+            map.put(names.name(logNames[k]), logSyms[k]);
+        }
+        return map;
     }
 
 }
@@ -0,0 +1,307 @@
+import java.nio.ByteBuffer;
+import java.util.*;
+import java_cup.runtime.*;
+
+/**
+ * TokenBuffer
+ *
+ * The tokens of a whole source file, filled in by ByteScanner.scanAll.
+ * A token is four ints at the same index of parallel arrays: its kind (a
+ * sym number), line, character number, and value: the number of the name
+ * of an ID (see NameTable), the value of an INTLITERAL, or the index of a
+ * STRINGLITERAL in the string arrays, which hold where its text is in the
+ * source. The last token is always EOF.
+ *
+ * LRParser reads the arrays directly. The CUP parser reads Symbols, made
+ * by {@link scanner} one at a time as it asks for them. Only the tokens
+ * whose value is used by an action of the grammar (the terminals with a
+ * type in Carrot.cup) get a TokenVal; the others keep their position in
+ * Symbol.left and .right.
+ */
+public class TokenBuffer {
+    private int[] kinds;
+    private int[] lines;
+    private int[] chars;
+    private int[] values;
+    private int size = 0;
+
+    // where the text of each string literal is in the source
+    private int[] strStarts = new int[16];
+    private int[] strLengths = new int[16];
+    private int numStrings = 0;
+
+    private final ByteBuffer source;
+    private final NameTable names;
+
+    /**
+     * An error message of the scanner, to be given to ErrMsg just before
+     * the token with the given index.
+     */
+    private static class Message {
+        final int token;
+        final boolean fatal;
+        final int lineNum;
+        final int charNum;
+        final String msg;
+
+        Message(int token, boolean fatal, int lineNum, int charNum,
+                String msg) {
+            this.token = token;
+            this.fatal = fatal;
+            this.lineNum = lineNum;
+            this.charNum = charNum;
+            this.msg = msg;
+        }
+    }
+
+    private final List<Message> messages = new ArrayList<Message>();
+
+    /**
+     * Creates an empty buffer for the tokens of source, whose IDs are
+     * numbered by names.
+     */
+    TokenBuffer(ByteBuffer source, NameTable names) {
+        this.source = source;
+        this.names = names;
+        // about one token for every four bytes of a typical program
+        int capacity = Math.max(16, source.limit() / 4);
+        kinds = new int[capacity];
+        lines = new int[capacity];
+        chars = new int[capacity];
+        values = new int[capacity];
+    }
+
+    /**
+     * Adds a token.
+     */
+    void add(int kind, int lineNum, int charNum, int value) {
+        if (size == kinds.length) {
+            int capacity = 2 * size;
+            kinds = Arrays.copyOf(kinds, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+            chars = Arrays.copyOf(chars, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        kinds[size] = kind;
+        lines[size] = lineNum;
+        chars[size] = charNum;
+        values[size] = value;
+        size++;
+    }
+
+    /**
+     * Adds the text of a string literal (including its quotes).
+     * @return the value of its token
+     */
+    int addString(int start, int length) {
+        if (numStrings == strStarts.length) {
+            strStarts = Arrays.copyOf(strStarts, 2 * numStrings);
+            strLengths = Arrays.copyOf(strLengths, 2 * numStrings);
+        }
+        strStarts[numStrings] = start;
+        strLengths[numStrings] = length;
+        return numStrings++;
+    }
+
+    /**
+     * Adds an error message (a warning unless fatal), which comes before
+     * the next token added.
+     */
+    void addMessage(boolean fatal, int lineNum, int charNum, String msg) {
+        messages.add(new Message(size, fatal, lineNum, charNum, msg));
+    }
+
+    /**
+     * Returns the number of tokens, including the final EOF.
+     */
+    public int size() {
+        return size;
+    }
+
+    public int kind(int index) {
+        return kinds[index];
+    }
+
+    public int lineNum(int index) {
+        return lines[index];
+    }
+
+    public int charNum(int index) {
+        return chars[index];
+    }
+
+    public int value(int index) {
+        return values[index];
+    }
+
+    /**
+     * Returns the index of the token at the given position, or -1 if no
+     * token starts there.
+     */
+    public int find(int lineNum, int charNum) {
+        int lo = 0;
+        int hi = size - 1;  // leave out the EOF token
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (lines[mid] < lineNum
+                || (lines[mid] == lineNum && chars[mid] < charNum)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo < size - 1 && lines[lo] == lineNum && chars[lo] == charNum
+               ? lo : -1;
+    }
+
+    /**
+     * Gives each of the functions fns of the program the text of its
+     * tokens, from its return type to its closing brace, without their
+     * positions, and the numbers of the names in them (see
+     * FnDeclNode.setSource).
+     */
+    public void setSources(List<FnDeclNode> fns) {
+        StringBuilder sb = new StringBuilder();
+        BitSet seen = new BitSet();
+        for (FnDeclNode fn : fns) {
+            int first = find(fn.lineNum(), fn.charNum());
+            if (first < 1) {
+                continue;  // not parsed from these tokens
+            }
+            first--;
+            if (kinds[first] == sym.ID) {
+                first--;  // struct S
+            }
+            sb.setLength(0);
+            seen.clear();
+            int[] fnNames = new int[8];
+            int numNames = 0;
+            int depth = 0;
+            int k = first;
+            int kind;
+            do {
+                kind = kinds[k];
+                sb.append(kind);
+                switch (kind) {
+                case sym.LCURLY:
+                    depth++;
+                    break;
+                case sym.RCURLY:
+                    depth--;
+                    break;
+                case sym.ID:
+                    sb.append(' ').append(names.name(values[k]));
+                    if (!seen.get(values[k])) {
+                        seen.set(values[k]);
+                        if (numNames == fnNames.length) {
+                            fnNames = Arrays.copyOf(fnNames, 2 * numNames);
+                        }
+                        fnNames[numNames++] = values[k];
+                    }
+                    break;
+                case sym.INTLITERAL:
+                    sb.append(' ').append(values[k]);
+                    break;
+                case sym.STRINGLITERAL:
+                    sb.append(' ').append(string(k));
+                    break;
+                }
+                sb.append('\n');
+                k++;
+            } while ((kind != sym.RCURLY || depth > 0) && kind != sym.EOF);
+            fn.setSource(sb.toString(), Arrays.copyOf(fnNames, numNames));
+        }
+    }
+
+    /**
+     * Returns the name of an ID token.
+     */
+    public String name(int index) {
+        return names.name(values[index]);
+    }
+
+    /**
+     * Returns the text of a STRINGLITERAL token (including its quotes).
+     */
+    public String string(int index) {
+        int string = values[index];
+        byte[] bytes = new byte[strLengths[string]];
+        ((ByteBuffer)source.duplicate().position(strStarts[string])).get(bytes);
+        return new String(bytes, java.nio.charset.StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Makes the Symbol the parser gets for a token.
+     */
+    public Symbol symbol(int index) {
+        int kind = kinds[index];
+        int lineNum = lines[index];
+        int charNum = chars[index];
+        switch (kind) {
+        case sym.EOF:
+            return new Symbol(sym.EOF);
+        case sym.ID:
+            return new Symbol(kind, lineNum, charNum,
+                              new IdTokenVal(lineNum, charNum,
+                                             names.name(values[index]),
+                                             values[index]));
+        case sym.INTLITERAL:
+            return new Symbol(kind, lineNum, charNum,
+                              new IntLitTokenVal(lineNum, charNum,
+                                                 values[index]));
+        case sym.STRINGLITERAL: {
+            int string = values[index];
+            return new Symbol(kind, lineNum, charNum,
+                              new StrLitTokenVal(lineNum, charNum, source,
+                                                 strStarts[string],
+                                                 strLengths[string]));
+        }
+        case sym.TRUE:
+        case sym.FALSE:
+            return new Symbol(kind, lineNum, charNum,
+                              new TokenVal(lineNum, charNum));
+        default:
+            return new Symbol(kind, lineNum, charNum);
+        }
+    }
+
+    /**
+     * Gives errMsg the error messages of the scanner that come before the
+     * token with the given index, starting with message number first.
+     * @return the number of the first message not given
+     */
+    int replay(int token, int first, ErrMsg errMsg) {
+        int k = first;
+        while (k < messages.size() && messages.get(k).token <= token) {
+            Message m = messages.get(k++);
+            if (m.fatal) {
+                errMsg.fatal(m.lineNum, m.charNum, m.msg);
+            } else {
+                errMsg.warn(m.lineNum, m.charNum, m.msg);
+            }
+        }
+        return k;
+    }
+
+    /**
+     * Returns a scanner that gives the parser the tokens of this buffer in
+     * order, and gives the error messages of the scanner to errMsg as it
+     * goes, so that they are printed (and set the error flag) just when
+     * they would have been had the source been scanned token by token.
+     */
+    public java_cup.runtime.Scanner scanner(final ErrMsg errMsg) {
+        return new java_cup.runtime.Scanner() {
+            private int next = 0;
+            private int nextMessage = 0;
+
+            public Symbol next_token() {
+                nextMessage = replay(next, nextMessage, errMsg);
+                Symbol token = symbol(next);
+                if (next < size - 1) {
+                    next++;
+                }
+                return token;
+            }
+        };
+    }
+}
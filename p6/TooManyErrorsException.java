@@ -0,0 +1,11 @@
+/**
+ * Thrown by ErrMsg when a compilation reaches its maximum number of
+ * errors, to stop the phase that reported them.
+ */
+public class TooManyErrorsException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public TooManyErrorsException(int maxErrors) {
+        super("too many errors (" + maxErrors + ")");
+    }
+}
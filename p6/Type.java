@@ -1,68 +1,90 @@
 /**
  * Type class and its subclasses: 
  * ErrorType, IntType, BoolType, VoidType, StringType, FnType, StructType,
+ *
+ * There is one instance of each primitive type (and of FnType, which
+ * carries no signature, and StructDefType). Use the constants below rather
+ * than creating types, so that the isXXXType tests and equals are
+ * reference comparisons, and type checking allocates nothing.
+ *
+ * Struct types are not canonical. Each struct declaration makes its own
+ * StructType (see StructDefSym), so two struct types are the same object
+ * only if they come from the same declaration, not whenever they have the
+ * same name. A variable whose struct name is not linked to a definition
+ * gets a StructType of its own (see StructSym), and so does every struct
+ * type read back from an AST file (see AstReader).
  */
 abstract public class Type {
+    public static final Type ERROR = new ErrorType();
+    public static final Type INT = new IntType();
+    public static final Type BOOL = new BoolType();
+    public static final Type VOID = new VoidType();
+    public static final Type STRING = new StringType();
+    public static final Type FN = new FnType();
+    public static final Type STRUCT_DEF = new StructDefType();
 
     /**
      * default constructor
      */
-    public Type() {
+    Type() {
     }
 
     /**
-     * every subclass must provide a toString method and an equals method
+     * every subclass must provide a toString method
      */
     abstract public String toString();
-    abstract public boolean equals(Type t);
 
     /**
-     * default methods for "isXXXType"
+     * Two types are equal if they are the same type, or if both are struct
+     * types, of any definitions (struct variables are never assigned or
+     * compared: the type checker reports that before comparing types).
      */
-    public boolean isErrorType() {
-        return false;
+    public final boolean equals(Type t) {
+        return t == this
+            || (t instanceof StructType && this instanceof StructType);
     }
 
-    public boolean isIntType() {
-        return false;
+    /**
+     * "isXXXType" tests
+     */
+    public final boolean isErrorType() {
+        return this == ERROR;
+    }
+
+    public final boolean isIntType() {
+        return this == INT;
     }
 
-    public boolean isBoolType() {
-        return false;
+    public final boolean isBoolType() {
+        return this == BOOL;
     }
 
-    public boolean isVoidType() {
-        return false;
+    public final boolean isVoidType() {
+        return this == VOID;
     }
     
-    public boolean isStringType() {
-        return false;
+    public final boolean isStringType() {
+        return this == STRING;
     }
 
-    public boolean isFnType() {
-        return false;
+    public final boolean isFnType() {
+        return this == FN;
     }
 
-    public boolean isStructType() {
-        return false;
+    public final boolean isStructType() {
+        return this instanceof StructType;
     }
     
-    public boolean isStructDefType() {
-        return false;
+    public final boolean isStructDefType() {
+        return this == STRUCT_DEF;
     }
 }
 
 // **********************************************************************
 // ErrorType
 // **********************************************************************
-class ErrorType extends Type {
-
-    public boolean isErrorType() {
-        return true;
-    }
-
-    public boolean equals(Type t) {
-        return t.isErrorType();
+final class ErrorType extends Type {
+    ErrorType() {
     }
 
     public String toString() {
@@ -73,14 +95,8 @@ class ErrorType extends Type {
 // **********************************************************************
 // IntType
 // **********************************************************************
-class IntType extends Type {
-
-    public boolean isIntType() {
-        return true;
-    }
-
-    public boolean equals(Type t) {
-        return t.isIntType();
+final class IntType extends Type {
+    IntType() {
     }
 
     public String toString() {
@@ -91,14 +107,8 @@ class IntType extends Type {
 // **********************************************************************
 // BoolType
 // **********************************************************************
-class BoolType extends Type {
-
-    public boolean isBoolType() {
-        return true;
-    }
-
-    public boolean equals(Type t) {
-        return t.isBoolType();
+final class BoolType extends Type {
+    BoolType() {
     }
 
     public String toString() {
@@ -109,14 +119,8 @@ class BoolType extends Type {
 // **********************************************************************
 // VoidType
 // **********************************************************************
-class VoidType extends Type {
-
-    public boolean isVoidType() {
-        return true;
-    }
-
-    public boolean equals(Type t) {
-        return t.isVoidType();
+final class VoidType extends Type {
+    VoidType() {
     }
 
     public String toString() {
@@ -127,14 +131,8 @@ class VoidType extends Type {
 // **********************************************************************
 // StringType
 // **********************************************************************
-class StringType extends Type {
-
-    public boolean isStringType() {
-        return true;
-    }
-
-    public boolean equals(Type t) {
-        return t.isStringType();
+final class StringType extends Type {
+    StringType() {
     }
 
     public String toString() {
@@ -145,14 +143,8 @@ class StringType extends Type {
 // **********************************************************************
 // FnType
 // **********************************************************************
-class FnType extends Type {
-
-    public boolean isFnType() {
-        return true;
-    }
-
-    public boolean equals(Type t) {
-        return t.isFnType();
+final class FnType extends Type {
+    FnType() {
     }
 
     public String toString() {
@@ -163,37 +155,32 @@ class FnType extends Type {
 // **********************************************************************
 // StructType
 // **********************************************************************
-class StructType extends Type {
-    private IdNode myId;
+final class StructType extends Type {
+    private String myName;
     
-    public StructType(IdNode id) {
-        myId = id;
-    }
-    
-    public boolean isStructType() {
-        return true;
+    /**
+     * Creates a struct type, which is only identical to itself. StructDefSym
+     * makes one for each struct declaration; StructSym and AstReader make
+     * one when there is no declaration to take it from.
+     */
+    StructType(String name) {
+        myName = name;
     }
 
-    public boolean equals(Type t) {
-        return t.isStructType();
+    public String name() {
+        return myName;
     }
 
     public String toString() {
-        return myId.name();
+        return myName;
     }
 }
 
 // **********************************************************************
 // StructDefType
 // **********************************************************************
-class StructDefType extends Type {
-
-    public boolean isStructDefType() {
-        return true;
-    }
-
-    public boolean equals(Type t) {
-        return t.isStructDefType();
+final class StructDefType extends Type {
+    StructDefType() {
     }
 
     public String toString() {
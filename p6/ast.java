@@ -1,5 +1,7 @@
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 // **********************************************************************
 // The ASTnode class defines the nodes of the abstract-syntax tree that
@@ -115,7 +117,11 @@ abstract class ASTnode {
         for (int k=0; k<indent; k++) p.print(" ");
     }
 
-    public void codeGen(){}
+    public void codeGen(Codegen cg){}
+
+    // every subclass must be able to write itself in the binary AST
+    // format (see AstFile)
+    abstract public void write(AstWriter w) throws IOException;
 }
 
 // **********************************************************************
@@ -124,8 +130,33 @@ abstract class ASTnode {
 // **********************************************************************
 
 class ProgramNode extends ASTnode {
-    public ProgramNode(DeclListNode L) {
+    /**
+     * names is the NameTable that numbers the IDs of the program.
+     */
+    public ProgramNode(DeclListNode L, NameTable names) {
         myDeclList = L;
+        myNames = names;
+    }
+
+    /**
+     * Return the NameTable that numbers the IDs of the program.
+     */
+    public NameTable names() {
+        return myNames;
+    }
+
+    /**
+     * Return the number of functions declared in the program.
+     */
+    public int numFunctions() {
+        return myDeclList.numFunctions();
+    }
+
+    /**
+     * Return the function decls of the program.
+     */
+    public List<FnDeclNode> functions() {
+        return myDeclList.functions();
     }
 
     /**
@@ -133,32 +164,68 @@ class ProgramNode extends ASTnode {
      * Creates an empty symbol table for the outermost scope, then processes
      * all of the globals, struct defintions, and functions in the program.
      */
-    public void nameAnalysis() {
-        SymTable symTab = new SymTable();
-        myDeclList.nameAnalysis(symTab);
+    public void nameAnalysis(CompileContext ctx) {
+        nameAnalysis(ctx, null);
+    }
+
+    /**
+     * nameAnalysis
+     * As above, but if pool is not null, the bodies of the functions are
+     * analyzed on it, in parallel (see DeclListNode.nameAnalysis).
+     */
+    public void nameAnalysis(CompileContext ctx, ForkJoinPool pool) {
+        SymTable symTab = new SymTable(myNames);
+        if (pool == null) {
+            myDeclList.nameAnalysis(symTab, ctx);
+        } else {
+            myDeclList.nameAnalysis(symTab, ctx, pool);
+        }
         Sym mainSym = symTab.lookupGlobal("main");
         if(mainSym == null || !mainSym.getType().isFnType()) 
-            ErrMsg.fatal(0, 0, "No main function");
+            ctx.errMsg.fatal(0, 0, "No main function");
     }
     
     /**
      * typeCheck
      */
-    public void typeCheck() {
-        myDeclList.typeCheck();
+    public void typeCheck(CompileContext ctx) {
+        myDeclList.typeCheck(ctx);
+    }
+
+    /**
+     * typeCheck
+     * As above, but if pool is not null, the functions are checked on it,
+     * in parallel (see DeclListNode.typeCheck).
+     */
+    public void typeCheck(CompileContext ctx, ForkJoinPool pool) {
+        if (pool == null) {
+            myDeclList.typeCheck(ctx);
+        } else {
+            myDeclList.typeCheck(ctx, pool);
+        }
     }
     
     public void unparse(PrintWriter p, int indent) {
         myDeclList.unparse(p, indent);
     }
 
+    /**
+     * write
+     */
+    public void write(AstWriter w) throws IOException {
+        w.writeTag(this);
+        w.writeNode(myDeclList);
+    }
+
     @Override
-    public void codeGen(){
-        myDeclList.codeGen();
+    public void codeGen(Codegen cg){
+        myDeclList.codeGen(cg);
     }
 
     // 1 kid
     private DeclListNode myDeclList;
+
+    private NameTable myNames;
 }
 
 class DeclListNode extends ASTnode {
@@ -167,17 +234,43 @@ class DeclListNode extends ASTnode {
     }
 
     @Override
-    public void codeGen(){
+    public void codeGen(Codegen cg){
         for (DeclNode node : myDecls) 
-            node.codeGen();
+            node.codeGen(cg);
+    }
+
+    /**
+     * Return the number of function decls in the list.
+     */
+    public int numFunctions() {
+        int count = 0;
+        for (DeclNode node : myDecls) {
+            if (node instanceof FnDeclNode) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Return the function decls in the list.
+     */
+    public List<FnDeclNode> functions() {
+        List<FnDeclNode> fns = new ArrayList<FnDeclNode>();
+        for (DeclNode node : myDecls) {
+            if (node instanceof FnDeclNode) {
+                fns.add((FnDeclNode)node);
+            }
+        }
+        return fns;
     }
 
     /**
      * nameAnalysis
      * Given a symbol table symTab, process all of the decls in the list.
      */
-    public void nameAnalysis(SymTable symTab) {
-        nameAnalysis(symTab, symTab);
+    public void nameAnalysis(SymTable symTab, CompileContext ctx) {
+        nameAnalysis(symTab, symTab, ctx);
     }
     
     /**
@@ -186,22 +279,131 @@ class DeclListNode extends ASTnode {
      * (for processing struct names in variable decls), process all of the 
      * decls in the list.
      */    
-    public void nameAnalysis(SymTable symTab, SymTable globalTab) {
+    public void nameAnalysis(SymTable symTab, SymTable globalTab,
+                             CompileContext ctx) {
         for (DeclNode node : myDecls) {
             if (node instanceof VarDeclNode) {
-                ((VarDeclNode)node).nameAnalysis(symTab, globalTab);
+                ((VarDeclNode)node).nameAnalysis(symTab, globalTab, ctx);
             } else {
-                node.nameAnalysis(symTab);
+                node.nameAnalysis(symTab, ctx);
             }
         }
     }    
+
+    /**
+     * layoutFields
+     * Given that this list is the body of a struct and has been through
+     * nameAnalysis, place its fields one after the other in the order they
+     * are declared, and return the size of the struct.
+     */
+    public int layoutFields() {
+        int offset = 0;
+        for (DeclNode node : myDecls) {
+            offset = ((VarDeclNode)node).layoutField(offset);
+        }
+        return offset;
+    }
     
+    /**
+     * nameAnalysis
+     * Given the global symbol table symTab, process all of the decls in the
+     * list like the method above, but analyze the bodies of the functions
+     * in parallel on pool. First the globals, struct definitions and
+     * function signatures are processed in order, and a snapshot of the
+     * global scope is taken after each signature (see
+     * SymTable.globalScope); then each body is analyzed against the
+     * snapshot of its function, with a fork of ctx. The messages of all
+     * the parts are reported in the order of the decls, so they are the
+     * same as those of the method above. A part that reaches the limit of
+     * errors stops there, and so do the parts after it (see
+     * ErrMsg.stopped).
+     */
+    public void nameAnalysis(SymTable symTab, CompileContext ctx,
+                             ForkJoinPool pool) {
+        List<FnDeclNode> fns = new ArrayList<FnDeclNode>();
+        List<PersistentSymTable> globals = new ArrayList<PersistentSymTable>();
+        List<CompileContext> bodies = new ArrayList<CompileContext>();
+        List<CompileContext> parts = new ArrayList<CompileContext>();
+        CompileContext part = ctx.fork();
+        parts.add(part);
+        try {
+            for (DeclNode node : myDecls) {
+                if (node instanceof FnDeclNode) {
+                    FnDeclNode fn = (FnDeclNode)node;
+                    globals.add(fn.nameAnalysisSignature(symTab, part));
+                    fns.add(fn);
+                    CompileContext body = ctx.fork();
+                    bodies.add(body);
+                    parts.add(body);
+                    part = ctx.fork();
+                    parts.add(part);
+                } else if (node instanceof VarDeclNode) {
+                    ((VarDeclNode)node).nameAnalysis(symTab, symTab, part);
+                } else {
+                    node.nameAnalysis(symTab, part);
+                }
+            }
+        } catch (TooManyErrorsException ex) {
+            // the limit is reached in part: the joins below stop there
+        }
+        if (!fns.isEmpty()) {
+            pool.invoke(new FnBodyTask(fns.toArray(new FnDeclNode[0]),
+                                       globals.toArray(new PersistentSymTable[0]),
+                                       bodies.toArray(new CompileContext[0]),
+                                       0, fns.size(),
+                                       FnBodyTask.grain(fns.size(), pool)));
+        }
+        for (CompileContext c : parts) {
+            ctx.join(c);
+        }
+    }
+
     /**
      * typeCheck
      */
-    public void typeCheck() {
+    public void typeCheck(CompileContext ctx) {
         for (DeclNode node : myDecls) {
-            node.typeCheck();
+            node.typeCheck(ctx);
+        }
+    }
+
+    /**
+     * typeCheck
+     * As above, but the functions are checked in parallel on pool, each
+     * with a fork of ctx, and the messages are reported in the order of
+     * the decls. As in nameAnalysis, the parts stop at the limit of
+     * errors.
+     */
+    public void typeCheck(CompileContext ctx, ForkJoinPool pool) {
+        List<FnDeclNode> fns = new ArrayList<FnDeclNode>();
+        List<CompileContext> bodies = new ArrayList<CompileContext>();
+        List<CompileContext> parts = new ArrayList<CompileContext>();
+        CompileContext part = ctx.fork();
+        parts.add(part);
+        try {
+            for (DeclNode node : myDecls) {
+                if (node instanceof FnDeclNode) {
+                    fns.add((FnDeclNode)node);
+                    CompileContext body = ctx.fork();
+                    bodies.add(body);
+                    parts.add(body);
+                    part = ctx.fork();
+                    parts.add(part);
+                } else {
+                    node.typeCheck(part);
+                }
+            }
+        } catch (TooManyErrorsException ex) {
+            // the limit is reached in part: the joins below stop there
+        }
+        if (!fns.isEmpty()) {
+            pool.invoke(new FnBodyTask(fns.toArray(new FnDeclNode[0]), null,
+                                       bodies.toArray(new CompileContext[0]),
+                                       0, fns.size(),
+                                       FnBodyTask.grain(fns.size(), pool)));
+        }
+        for (CompileContext c : parts) {
+            ctx.join(c);
         }
     }
     
@@ -217,12 +419,100 @@ class DeclListNode extends ASTnode {
         }
     }
 
+    /**
+     * write
+     */
+    public void write(AstWriter w) throws IOException {
+        w.writeTag(this);
+        w.writeNodes(myDecls);
+    }
+
     
 
     // list of kids (DeclNodes)
     private List<DeclNode> myDecls;
 }
 
+/**
+ * FnBodyTask
+ * Runs name analysis (if globals is not null) or type checking on the
+ * bodies of some functions, on a ForkJoinPool: fns[k] is analyzed with
+ * contexts[k], against globals[k], for lo <= k < hi. The range is split
+ * in halves down to at most grain functions, so that idle threads can
+ * steal the halves; those are done in order on one thread. A function
+ * whose context reaches the limit of errors stops there, and one whose
+ * context is stopped (see CompileContext.stopped) is skipped.
+ */
+class FnBodyTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    // pieces per thread of the pool, to even out functions of different
+    // sizes
+    private static final int PIECES_PER_THREAD = 8;
+
+    // a symbol table for each thread, reset for every function
+    private static final ThreadLocal<SymTable> TABLES =
+        new ThreadLocal<SymTable>() {
+            protected SymTable initialValue() {
+                return new SymTable();
+            }
+        };
+
+    private final FnDeclNode[] fns;
+    private final PersistentSymTable[] globals;
+    private final CompileContext[] contexts;
+    private final int lo;
+    private final int hi;
+    private final int grain;
+
+    FnBodyTask(FnDeclNode[] fns, PersistentSymTable[] globals,
+               CompileContext[] contexts, int lo, int hi, int grain) {
+        this.fns = fns;
+        this.globals = globals;
+        this.contexts = contexts;
+        this.lo = lo;
+        this.hi = hi;
+        this.grain = grain;
+    }
+
+    /**
+     * Returns the number of functions below which a range of count
+     * functions is not split on pool.
+     */
+    static int grain(int count, ForkJoinPool pool) {
+        return Math.max(1, count / (PIECES_PER_THREAD
+                                    * pool.getParallelism()));
+    }
+
+    protected void compute() {
+        if (hi - lo <= grain) {
+            SymTable symTab = globals != null ? TABLES.get() : null;
+            for (int k = lo; k < hi; k++) {
+                if (contexts[k].stopped()) {
+                    continue;
+                }
+                try {
+                    if (globals != null) {
+                        symTab.reset(globals[k]);
+                        fns[k].nameAnalysisBody(symTab, contexts[k]);
+                    } else {
+                        fns[k].typeCheck(contexts[k]);
+                    }
+                } catch (TooManyErrorsException ex) {
+                    // its messages are kept up to the limit
+                }
+            }
+            if (symTab != null) {
+                symTab.reset(null);  // let go of the program
+            }
+        } else {
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new FnBodyTask(fns, globals, contexts, lo, mid, grain),
+                      new FnBodyTask(fns, globals, contexts, mid, hi, grain));
+        }
+    }
+}
+
 class FormalsListNode extends ASTnode {
     public FormalsListNode(List<FormalDeclNode> S) {
         myFormals = S;
@@ -235,11 +525,11 @@ class FormalsListNode extends ASTnode {
      *     process the formal decl
      *     if there was no error, add type of formal decl to list
      */
-    public List<Type> nameAnalysis(SymTable symTab) {
-        symTab.offset = 4;
+    public List<Type> nameAnalysis(SymTable symTab, CompileContext ctx) {
+        ctx.offset = 4;
         List<Type> typeList = new LinkedList<Type>();
         for (FormalDeclNode node : myFormals) {
-            Sym sym = node.nameAnalysis(symTab);
+            Sym sym = node.nameAnalysis(symTab, ctx);
             if (sym != null) {
                 typeList.add(sym.getType());
             }
@@ -247,6 +537,25 @@ class FormalsListNode extends ASTnode {
         return typeList;
     }    
     
+    /**
+     * Given a symbol table symTab, declare again the formals that were
+     * declared by nameAnalysis (those that had no error).
+     */
+    public void declare(SymTable symTab) {
+        try {
+            for (FormalDeclNode node : myFormals) {
+                Sym sym = node.sym();
+                if (sym != null) {
+                    symTab.declare(node.nameId(), sym);
+                }
+            }
+        } catch (EmptySymTableException ex) {
+            System.err.println("Unexpected EmptySymTableException " +
+                               " in FormalsListNode.declare");
+            System.exit(-1);
+        }
+    }
+
     /**
      * Return the number of formals in this list.
      */
@@ -265,6 +574,14 @@ class FormalsListNode extends ASTnode {
         } 
     }
 
+    /**
+     * write
+     */
+    public void write(AstWriter w) throws IOException {
+        w.writeTag(this);
+        w.writeNodes(myFormals);
+    }
+
     // list of kids (FormalDeclNodes)
     private List<FormalDeclNode> myFormals;
 }
@@ -276,8 +593,15 @@ class FnBodyNode extends ASTnode {
     }
 
     @Override
-    public void codeGen(){
-        myStmtList.codeGen();
+    public void codeGen(Codegen cg){
+        myStmtList.codeGen(cg);
+    }
+
+    /**
+     * Return the number of levels of repeat loops nested in the body.
+     */
+    public int repeatDepth() {
+        return myStmtList.repeatDepth();
     }
 
     /**
@@ -286,17 +610,17 @@ class FnBodyNode extends ASTnode {
      * - process the declaration list
      * - process the statement list
      */
-    public void nameAnalysis(SymTable symTab) {
-        symTab.offset = -8;
-        myDeclList.nameAnalysis(symTab);
-        myStmtList.nameAnalysis(symTab);
+    public void nameAnalysis(SymTable symTab, CompileContext ctx) {
+        ctx.offset = -8;
+        myDeclList.nameAnalysis(symTab, ctx);
+        myStmtList.nameAnalysis(symTab, ctx);
     }    
  
     /**
      * typeCheck
      */
-    public void typeCheck(Type retType) {
-        myStmtList.typeCheck(retType);
+    public void typeCheck(Type retType, CompileContext ctx) {
+        myStmtList.typeCheck(retType, ctx);
     }    
           
     public void unparse(PrintWriter p, int indent) {
@@ -304,6 +628,15 @@ class FnBodyNode extends ASTnode {
         myStmtList.unparse(p, indent);
     }
 
+    /**
+     * write
+     */
+    public void write(AstWriter w) throws IOException {
+        w.writeTag(this);
+        w.writeNode(myDeclList);
+        w.writeNode(myStmtList);
+    }
+
     // 2 kids
     private DeclListNode myDeclList;
     private StmtListNode myStmtList;
@@ -315,27 +648,38 @@ class StmtListNode extends ASTnode {
     }
 
     @Override
-    public void codeGen(){
+    public void codeGen(Codegen cg){
         for(StmtNode s : myStmts)
-            s.codeGen();
+            s.codeGen(cg);
+    }
+
+    /**
+     * Return the number of levels of repeat loops nested in the list.
+     */
+    public int repeatDepth() {
+        int depth = 0;
+        for (StmtNode node : myStmts) {
+            depth = Math.max(depth, node.repeatDepth());
+        }
+        return depth;
     }
 
     /**
      * nameAnalysis
      * Given a symbol table symTab, process each statement in the list.
      */
-    public void nameAnalysis(SymTable symTab) {
+    public void nameAnalysis(SymTable symTab, CompileContext ctx) {
         for (StmtNode node : myStmts) {
-            node.nameAnalysis(symTab);
+            node.nameAnalysis(symTab, ctx);
         }
     }    
     
     /**
      * typeCheck
      */
-    public void typeCheck(Type retType) {
+    public void typeCheck(Type retType, CompileContext ctx) {
         for(StmtNode node : myStmts) {
-            node.typeCheck(retType);
+            node.typeCheck(retType, ctx);
         }
     }
     
@@ -346,6 +690,14 @@ class StmtListNode extends ASTnode {
         }
     }
 
+    /**
+     * write
+     */
+    public void write(AstWriter w) throws IOException {
+        w.writeTag(this);
+        w.writeNodes(myStmts);
+    }
+
     // list of kids (StmtNodes)
     private List<StmtNode> myStmts;
 }
@@ -363,26 +715,26 @@ class ExpListNode extends ASTnode {
      * nameAnalysis
      * Given a symbol table symTab, process each exp in the list.
      */
-    public void nameAnalysis(SymTable symTab) {
+    public void nameAnalysis(SymTable symTab, CompileContext ctx) {
         for (ExpNode node : myExps) {
-            node.nameAnalysis(symTab);
+            node.nameAnalysis(symTab, ctx);
         }
     }
     
     /**
      * typeCheck
      */
-    public void typeCheck(List<Type> typeList) {
+    public void typeCheck(List<Type> typeList, CompileContext ctx) {
         int k = 0;
         try {
             for (ExpNode node : myExps) {
-                Type actualType = node.typeCheck();     // actual type of arg
+                Type actualType = node.typeCheck(ctx);     // actual type of arg
                 
                 if (!actualType.isErrorType()) {        // if this is not an error
                     Type formalType = typeList.get(k);  // get the formal type
                     if (!formalType.equals(actualType)) {
-                        ErrMsg.fatal(node.lineNum(), node.charNum(),
-                                     "Type of actual does not match type of formal");
+                        ctx.errMsg.fatal(node.lineNum(), node.charNum(),
+                                         "Type of actual does not match type of formal");
                     }
                 }
                 k++;
@@ -404,10 +756,18 @@ class ExpListNode extends ASTnode {
         } 
     }
 
-    public void codeGen() {
+    /**
+     * write
+     */
+    public void write(AstWriter w) throws IOException {
+        w.writeTag(this);
+        w.writeNodes(myExps);
+    }
+
+    public void codeGen(Codegen cg) {
         ListIterator<ExpNode> itr = myExps.listIterator(myExps.size());
 		while (itr.hasPrevious()) {
-			itr.previous().codeGen();
+			itr.previous().codeGen(cg);
 		}
     }
 
@@ -423,10 +783,10 @@ abstract class DeclNode extends ASTnode {
     /**
      * Note: a formal decl needs to return a sym
      */
-    abstract public Sym nameAnalysis(SymTable symTab);
+    abstract public Sym nameAnalysis(SymTable symTab, CompileContext ctx);
 
     // default version of typeCheck for non-function decls
-    public void typeCheck() { }
+    public void typeCheck(CompileContext ctx) { }
 }
 
 class VarDeclNode extends DeclNode {
@@ -437,11 +797,37 @@ class VarDeclNode extends DeclNode {
     }
 
     @Override
-    public void codeGen(){
-        Codegen.p.println(".data");
-        Codegen.p.println(".align 4");
-        Codegen.p.println("_" + myId.name() + ": .space 4");
-        Codegen.p.println();
+    public void codeGen(Codegen cg){
+        cg.p.println(".data");
+        cg.p.println(".align 4");
+        cg.p.println("_" + myId.name() + ": .space " + size(myId.sym()));
+        cg.p.println();
+    }
+
+    /**
+     * Return the number of bytes the variable of the given symbol takes
+     * (a word unless it is a struct).
+     */
+    private static int size(Sym sym) {
+        if (sym instanceof StructSym) {
+            return ((StructSym)sym).getSize();
+        }
+        return 4;
+    }
+
+    /**
+     * layoutField
+     * Given that this is the declaration of a struct field at the given
+     * offset from the start of the struct, record the offset in its
+     * symbol, and return the offset of the next field.
+     */
+    public int layoutField(int offset) {
+        Sym sym = myId.sym();
+        if (sym == null) {  // not declared
+            return offset;
+        }
+        sym.offset = offset;
+        return offset + size(sym);
     }
 
     /**
@@ -459,45 +845,48 @@ class VarDeclNode extends DeclNode {
      * globalTab is global symbol table (for struct type names)
      * symTab and globalTab can be the same
      */
-    public Sym nameAnalysis(SymTable symTab) {
-        return nameAnalysis(symTab, symTab);
+    public Sym nameAnalysis(SymTable symTab, CompileContext ctx) {
+        return nameAnalysis(symTab, symTab, ctx);
     }
     
-    public Sym nameAnalysis(SymTable symTab, SymTable globalTab) {
+    public Sym nameAnalysis(SymTable symTab, SymTable globalTab,
+                            CompileContext ctx) {
         boolean badDecl = false;
-        String name = myId.name();
+        int name = myId.nameId();
         Sym sym = null;
         IdNode structId = null;
 
         if (myType instanceof VoidNode) {  // check for void type
-            ErrMsg.fatal(myId.lineNum(), myId.charNum(), 
-                         "Non-function declared void");
+            ctx.errMsg.fatal(myId.lineNum(), myId.charNum(), 
+                             "Non-function declared void");
             badDecl = true;        
         }
         
         else if (myType instanceof StructNode) {
             structId = ((StructNode)myType).idNode();
-            sym = globalTab.lookupGlobal(structId.name());
+            sym = globalTab.lookupGlobal(structId.nameId());
             
             // if the name for the struct type is not found, 
             // or is not a struct type
             if (sym == null || !(sym instanceof StructDefSym)) {
-                ErrMsg.fatal(structId.lineNum(), structId.charNum(), 
-                             "Invalid name of struct type");
+                ctx.errMsg.fatal(structId.lineNum(), structId.charNum(), 
+                                 "Invalid name of struct type");
                 badDecl = true;
             }
             else {
                 structId.link(sym);
             }
+            sym = null;
         }
         
-        if (symTab.lookupLocal(name) != null) {
-            ErrMsg.fatal(myId.lineNum(), myId.charNum(), 
-                         "Multiply declared identifier");
-            badDecl = true;            
+        if (badDecl) {
+            if (symTab.lookupLocal(name) != null) {
+                ctx.errMsg.fatal(myId.lineNum(), myId.charNum(), 
+                                 "Multiply declared identifier");
+            }
         }
         
-        if (!badDecl) {  // insert into symbol table
+        else {  // insert into symbol table, unless already declared
             try {
                 if (myType instanceof StructNode) {
                     sym = new StructSym(structId);
@@ -505,26 +894,29 @@ class VarDeclNode extends DeclNode {
                 else {
                     sym = new Sym(myType.type());
                 }
-                symTab.addDecl(name, sym);
-                myId.link(sym);
-            } catch (DuplicateSymException ex) {
-                System.err.println("Unexpected DuplicateSymException " +
-                                   " in VarDeclNode.nameAnalysis");
-                System.exit(-1);
+                if (symTab.declare(name, sym) != null) {
+                    ctx.errMsg.fatal(myId.lineNum(), myId.charNum(), 
+                                     "Multiply declared identifier");
+                    sym = null;
+                }
+                else {
+                    myId.link(sym);
+                }
             } catch (EmptySymTableException ex) {
                 System.err.println("Unexpected EmptySymTableException " +
                                    " in VarDeclNode.nameAnalysis");
                 System.exit(-1);
-            } catch (WrongArgumentException ex) {
-                System.err.println("Unexpected WrongArgumentException " +
-                                   " in VarDeclNode.nameAnalysis");
-                System.exit(-1);
             } 
         }
 
-        sym.isGlobal = symTab.getDepth() == 1;
-        sym.offset = sym.isGlobal ? 0 : symTab.offset;
-        symTab.offset -= 4;
+        // a local takes the slots from ctx.offset down, and its offset is
+        // that of the lowest one (the start of a struct)
+        int size = size(sym);
+        if (sym != null) {
+            sym.isGlobal = symTab.getDepth() == 1;
+            sym.offset = sym.isGlobal ? 0 : ctx.offset - size + 4;
+        }
+        ctx.offset -= size;
 
         return sym;
     }    
@@ -533,10 +925,23 @@ class VarDeclNode extends DeclNode {
         addIndent(p, indent);
         myType.unparse(p, 0);
         p.print(" ");
-        p.print(myId.name() + " (" + myId.sym().offset + ")");
+        p.print(myId.name());
+        if (myId.sym() != null) {
+            p.print(" (" + myId.sym().offset + ")");
+        }
         p.println(";");
     }
 
+    /**
+     * write
+     */
+    public void write(AstWriter w) throws IOException {
+        w.writeTag(this);
+        w.writeNode(myType);
+        w.writeNode(myId);
+        w.writeInt(mySize);
+    }
+
     // 3 kids
     private TypeNode myType;
     private IdNode myId;
@@ -556,50 +961,131 @@ class FnDeclNode extends DeclNode {
         myBody = body;
     }
 
+    /**
+     * codeGen
+     * If name analysis found the code of this function in the function
+     * code cache, write that; if the compilation uses the cache, let it
+     * supply (or record) the code; otherwise generate it.
+     */
     @Override
-    public void codeGen(){
+    public void codeGen(Codegen cg){
+        if (myCachedCode != null) {
+            cg.fnCache.emit(myCachedCode, cg);
+        } else if (cg.fnCache != null && myCacheKey != null) {
+            cg.fnCache.codeGen(this, myCacheKey, cg);
+        } else {
+            genFunction(cg);
+        }
+    }
+
+    /**
+     * Set the key of this function in the function code cache (when the
+     * AST is read back from an AST file).
+     */
+    public void setCacheKey(String key) {
+        myCacheKey = key;
+    }
+
+    /**
+     * Set the text of the tokens of this function (without their
+     * positions) and the numbers of the names in it, in the order in which
+     * they first appear, from which FnCodeCache.key computes its key.
+     */
+    public void setSource(String text, int[] names) {
+        mySourceText = text;
+        mySourceNames = names;
+    }
+
+    public String sourceText() {
+        return mySourceText;
+    }
+
+    public int[] sourceNames() {
+        return mySourceNames;
+    }
+
+    /**
+     * Return the name of this function.
+     */
+    public String name() {
+        return myId.name();
+    }
+
+    /**
+     * Return the line and character number of the name of this function.
+     */
+    public int lineNum() {
+        return myId.lineNum();
+    }
+
+    public int charNum() {
+        return myId.charNum();
+    }
+
+    /**
+     * genFunction
+     * Generate the preamble, prologue, body and epilogue of this function.
+     */
+    public void genFunction(Codegen cg){
         // 1. preamble
-        Codegen.p.println(".text");
-        Codegen.genLabel(myId.name());
+        cg.p.println(".text");
+        cg.genLabel(myId.name());
         
         if(myId.name().equals("main"))
-            Codegen.genLabel("__start");
+            cg.genLabel("__start");
 
 
         // 2. prologue
-        int offset = -myId.sym().offset;
+        // below the locals, the frame has a slot for each level of repeat
+        // loops, which holds the caller's value of the level's register
+        // (or the trip counter, see RepeatStmtNode.codeGen)
+        int repeats = myBody.repeatDepth();
+        int saved = myId.name().equals("main") ? 0  // main never returns
+                    : Math.min(repeats, Codegen.SAVED.length);
+        int offset = -myId.sym().offset + 4 * repeats;
         
-        Codegen.genPush(Codegen.RA);
-        Codegen.genPush(Codegen.FP);
+        cg.genPush(Codegen.RA);
+        cg.genPush(Codegen.FP);
         
-        Codegen.generate("subu", Codegen.SP, Codegen.SP, offset - 8);
-        Codegen.generate("addu", Codegen.FP, Codegen.SP, offset);
+        cg.generate("subu", Codegen.SP, Codegen.SP, offset - 8);
+        cg.generate("addu", Codegen.FP, Codegen.SP, offset);
 
-        Codegen.p.println();
+        cg.repeatBase = myId.sym().offset;
+        cg.repeatDepth = 0;
+        for (int k = 0; k < saved; k++) {
+            cg.generateIndexed("sw", Codegen.SAVED[k], Codegen.FP,
+                               cg.repeatBase - 4 * k);
+        }
+
+        cg.p.println();
 
         // 3. body
-        myBody.codeGen();
+        myBody.codeGen(cg);
         
         // 4. epilogue
-        Codegen.genLabel("_" + myId.name() + "_exit");
+        cg.genLabel("_" + myId.name() + "_exit");
         if(myId.name().equals("main")){
-            Codegen.generate("li", Codegen.V0, 10);
-            Codegen.generate("syscall");
+            cg.generate("li", Codegen.V0, 10);
+            cg.generate("syscall");
         } else {
-            Codegen.genPop(Codegen.V0);
+            cg.genPop(Codegen.V0);
 
-            Codegen.generateIndexed("lw", Codegen.RA, Codegen.FP, 0); // restore return address
-            Codegen.generate("move", Codegen.T0, Codegen.FP);         // 
-            Codegen.generateIndexed("lw", Codegen.FP, Codegen.FP, -4);
-            Codegen.generate("move", Codegen.SP, Codegen.T0);
-            Codegen.generate("addi", Codegen.SP, Codegen.SP, Integer.toString(myFormalsList.length() * 4));
+            for (int k = 0; k < saved; k++) {
+                cg.generateIndexed("lw", Codegen.SAVED[k], Codegen.FP,
+                                   cg.repeatBase - 4 * k);
+            }
+            cg.generateIndexed("lw", Codegen.RA, Codegen.FP, 0); // restore return address
+            cg.generate("move", Codegen.T0, Codegen.FP);         // 
+            cg.generateIndexed("lw", Codegen.FP, Codegen.FP, -4);
+            cg.generate("move", Codegen.SP, Codegen.T0);
+            cg.generate("addi", Codegen.SP, Codegen.SP, Integer.toString(myFormalsList.length() * 4));
             
-            Codegen.genPush(Codegen.V0);
+            cg.genPush(Codegen.V0);
 
-            Codegen.generate("jr", Codegen.RA);
+            cg.generate("jr", Codegen.RA);
         }
         
-        Codegen.p.println();
+        cg.p.println();
     }
 
     /**
@@ -612,68 +1098,125 @@ class FnDeclNode extends DeclNode {
      *     process the formals
      *     if this function is not multiply declared,
      *         update symbol table entry with types of formals
-     *     process the body of the function
+     *     process the body of the function (unless its code was found in
+     *     the function code cache)
      *     exit scope
      */
-    public Sym nameAnalysis(SymTable symTab) {
-        String name = myId.name();
-        FnSym sym = null;
+    public Sym nameAnalysis(SymTable symTab, CompileContext ctx) {
+        declareSignature(symTab, ctx);
+
+        if (myCachedCode == null) {
+            myBody.nameAnalysis(symTab, ctx); // process the function body
 
-        symTab.curFunc = name;
+            Sym sym = myId.sym();
+            if (sym != null) {
+                sym.offset = ctx.offset;
+            }
+        }
         
-        if (symTab.lookupLocal(name) != null) {
-            ErrMsg.fatal(myId.lineNum(), myId.charNum(),
-                         "Multiply declared identifier");
+        try {
+            symTab.removeScope();  // exit scope
+        } catch (EmptySymTableException ex) {
+            System.err.println("Unexpected EmptySymTableException " +
+                               " in FnDeclNode.nameAnalysis");
+            System.exit(-1);
         }
         
-        else { // add function name to local symbol table
-            try {
-                sym = new FnSym(myType.type(), myFormalsList.length());
-                symTab.addDecl(name, sym);
+        return null;
+    }
+
+    /**
+     * nameAnalysisSignature
+     * Given the global symbol table symTab, do the first part of
+     * nameAnalysis: declare the function and process its formals. Return
+     * a snapshot of the global scope (see SymTable.globalScope), against
+     * which nameAnalysisBody analyzes the body, maybe on another thread.
+     */
+    public PersistentSymTable nameAnalysisSignature(SymTable symTab,
+                                                    CompileContext ctx) {
+        declareSignature(symTab, ctx);
+        PersistentSymTable globals = symTab.globalScope();
+        try {
+            symTab.removeScope();
+        } catch (EmptySymTableException ex) {
+            System.err.println("Unexpected EmptySymTableException " +
+                               " in FnDeclNode.nameAnalysisSignature");
+            System.exit(-1);
+        }
+        return globals;
+    }
+
+    /**
+     * nameAnalysisBody
+     * Do the rest of nameAnalysis after nameAnalysisSignature: process the
+     * body of the function in symTab, a table that holds only the globals
+     * of the snapshot nameAnalysisSignature returned, in a scope with the
+     * formals.
+     */
+    public void nameAnalysisBody(SymTable symTab, CompileContext ctx) {
+        if (myCachedCode != null) {
+            return;
+        }
+        symTab.addScope();
+        myFormalsList.declare(symTab);
+        ctx.curFunc = myId.name();
+
+        myBody.nameAnalysis(symTab, ctx);
+
+        Sym sym = myId.sym();
+        if (sym != null) {
+            sym.offset = ctx.offset;
+        }
+    }
+
+    /**
+     * Declare the function in symTab, look it up in the function code
+     * cache (if any), enter a new scope and process the formals in it.
+     */
+    private void declareSignature(SymTable symTab, CompileContext ctx) {
+        int name = myId.nameId();
+        FnSym sym = null;
+
+        ctx.curFunc = myId.name();
+        
+        try { // add function name to local symbol table
+            sym = new FnSym(myType.type(), myFormalsList.length());
+            if (symTab.declare(name, sym) != null) {
+                ctx.errMsg.fatal(myId.lineNum(), myId.charNum(),
+                                 "Multiply declared identifier");
+                sym = null;
+            }
+            else {
                 myId.link(sym);
-            } catch (DuplicateSymException ex) {
-                System.err.println("Unexpected DuplicateSymException " +
-                                   " in FnDeclNode.nameAnalysis");
-                System.exit(-1);
-            } catch (EmptySymTableException ex) {
-                System.err.println("Unexpected EmptySymTableException " +
-                                   " in FnDeclNode.nameAnalysis");
-                System.exit(-1);
-            } catch (WrongArgumentException ex) {
-                System.err.println("Unexpected WrongArgumentException " +
-                                   " in FnDeclNode.nameAnalysis");
-                System.exit(-1);
-            } 
+            }
+        } catch (EmptySymTableException ex) {
+            System.err.println("Unexpected EmptySymTableException " +
+                               " in FnDeclNode.nameAnalysis");
+            System.exit(-1);
+        }
+
+        FnCodeCache cache = ctx.codegen.fnCache;
+        if (cache != null && sym != null) {
+            myCacheKey = FnCodeCache.key(this, symTab);
+            myCachedCode = cache.lookup(myCacheKey, ctx.codegen.unrollFactor);
         }
         
         symTab.addScope();  // add a new scope for locals and params
         
         // process the formals
-        List<Type> typeList = myFormalsList.nameAnalysis(symTab);
+        List<Type> typeList = myFormalsList.nameAnalysis(symTab, ctx);
         if (sym != null) {
             sym.addFormals(typeList);
         }
-        
-        myBody.nameAnalysis(symTab); // process the function body
-
-        sym.offset = symTab.offset;
-        
-        try {
-            symTab.removeScope();  // exit scope
-        } catch (EmptySymTableException ex) {
-            System.err.println("Unexpected EmptySymTableException " +
-                               " in FnDeclNode.nameAnalysis");
-            System.exit(-1);
-        }
-        
-        return null;
     } 
        
     /**
      * typeCheck
      */
-    public void typeCheck() {
-        myBody.typeCheck(myType.type());
+    public void typeCheck(CompileContext ctx) {
+        if (myCachedCode == null) {
+            myBody.typeCheck(myType.type(), ctx);
+        }
     }
         
     public void unparse(PrintWriter p, int indent) {
@@ -681,7 +1224,9 @@ class FnDeclNode extends DeclNode {
         myType.unparse(p, 0);
         p.print(" ");
         p.print(myId.name());
-        p.print("(offset=" + myId.sym().offset + ")");
+        if (myId.sym() != null) {
+            p.print("(offset=" + myId.sym().offset + ")");
+        }
         p.print("(");
         myFormalsList.unparse(p, 0);
         p.println(") {");
@@ -689,11 +1234,33 @@ class FnDeclNode extends DeclNode {
         p.println("}\n");
     }
 
+    /**
+     * write
+     */
+    public void write(AstWriter w) throws IOException {
+        w.writeTag(this);
+        w.writeNode(myType);
+        w.writeNode(myId);
+        w.writeNode(myFormalsList);
+        w.writeNode(myBody);
+        w.writeString(myCacheKey);
+    }
+
     // 4 kids
     private TypeNode myType;
     private IdNode myId;
     private FormalsListNode myFormalsList;
     private FnBodyNode myBody;
+
+    // text of the tokens and numbers of the names of this function (null
+    // if it was not parsed from a TokenBuffer)
+    private String mySourceText;
+    private int[] mySourceNames;
+
+    // key in the function code cache (null if not looked up) and the
+    // cache entry found for it during name analysis
+    private String myCacheKey;
+    private String myCachedCode;
 }
 
 class FormalDeclNode extends DeclNode {
@@ -702,6 +1269,21 @@ class FormalDeclNode extends DeclNode {
         myId = id;
     }
 
+    /**
+     * Return the number of the name of this formal.
+     */
+    public int nameId() {
+        return myId.nameId();
+    }
+
+    /**
+     * Return the symbol of this formal, or null if it was not declared
+     * (or name analysis was not done yet).
+     */
+    public Sym sym() {
+        return myId.sym();
+    }
+
     /**
      * nameAnalysis
      * Given a symbol table symTab, do:
@@ -710,44 +1292,45 @@ class FormalDeclNode extends DeclNode {
      *     then issue multiply declared error message and return null
      * else add a new entry to the symbol table and return that Sym
      */
-    public Sym nameAnalysis(SymTable symTab) {
-        String name = myId.name();
+    public Sym nameAnalysis(SymTable symTab, CompileContext ctx) {
+        int name = myId.nameId();
         boolean badDecl = false;
         Sym sym = null;
         
         if (myType instanceof VoidNode) {
-            ErrMsg.fatal(myId.lineNum(), myId.charNum(), 
-                         "Non-function declared void");
+            ctx.errMsg.fatal(myId.lineNum(), myId.charNum(), 
+                             "Non-function declared void");
             badDecl = true;        
         }
         
-        if (symTab.lookupLocal(name) != null) {
-            ErrMsg.fatal(myId.lineNum(), myId.charNum(), 
-                         "Multiply declared identifier");
-            badDecl = true;
+        if (badDecl) {
+            if (symTab.lookupLocal(name) != null) {
+                ctx.errMsg.fatal(myId.lineNum(), myId.charNum(), 
+                                 "Multiply declared identifier");
+            }
         }
         
-        if (!badDecl) {  // insert into symbol table
+        else {  // insert into symbol table, unless already declared
             try {
                 sym = new Sym(myType.type());
-                symTab.addDecl(name, sym);
-                myId.link(sym);
-            } catch (DuplicateSymException ex) {
-                System.err.println("Unexpected DuplicateSymException " +
-                                   " in VarDeclNode.nameAnalysis");
-                System.exit(-1);
+                if (symTab.declare(name, sym) != null) {
+                    ctx.errMsg.fatal(myId.lineNum(), myId.charNum(), 
+                                     "Multiply declared identifier");
+                    sym = null;
+                }
+                else {
+                    myId.link(sym);
+                }
             } catch (EmptySymTableException ex) {
                 System.err.println("Unexpected EmptySymTableException " +
-                                   " in VarDeclNode.nameAnalysis");
-                System.exit(-1);
-            } catch (WrongArgumentException ex) {
-                System.err.println("Unexpected WrongArgumentException " +
-                                   " in VarDeclNode.nameAnalysis");
+                                   " in FormalDeclNode.nameAnalysis");
                 System.exit(-1);
             }        
 	}
-        sym.offset = symTab.offset;
-        symTab.offset += 4;
+        if (sym != null) {
+            sym.offset = ctx.offset;
+        }
+        ctx.offset += 4;
 
         return sym;
     }    
@@ -755,7 +1338,19 @@ class FormalDeclNode extends DeclNode {
     public void unparse(PrintWriter p, int indent) {
         myType.unparse(p, 0);
         p.print(" ");
-        p.print(myId.name() + "(" + myId.sym().offset + ")");
+        p.print(myId.name());
+        if (myId.sym() != null) {
+            p.print("(" + myId.sym().offset + ")");
+        }
+    }
+
+    /**
+     * write
+     */
+    public void write(AstWriter w) throws IOException {
+        w.writeTag(this);
+        w.writeNode(myType);
+        w.writeNode(myId);
     }
 
     // 2 kids
@@ -779,24 +1374,26 @@ class StructDeclNode extends DeclNode {
      * if no errors
      *     add a new entry to symbol table for this struct
      */
-    public Sym nameAnalysis(SymTable symTab) {
-        String name = myId.name();
+    public Sym nameAnalysis(SymTable symTab, CompileContext ctx) {
+        int name = myId.nameId();
         boolean badDecl = false;
         
         if (symTab.lookupLocal(name) != null) {
-            ErrMsg.fatal(myId.lineNum(), myId.charNum(), 
-                         "Multiply declared identifier");
+            ctx.errMsg.fatal(myId.lineNum(), myId.charNum(), 
+                             "Multiply declared identifier");
             badDecl = true;            
         }
 
-        SymTable structSymTab = new SymTable();
+        SymTable structSymTab = new SymTable(symTab.names());
         
-        // process the fields of the struct
-        myDeclList.nameAnalysis(structSymTab, symTab);
+        // process the fields of the struct and lay them out
+        myDeclList.nameAnalysis(structSymTab, symTab, ctx);
+        int size = myDeclList.layoutFields();
         
         if (!badDecl) {
             try {   // add entry to symbol table
-                StructDefSym sym = new StructDefSym(structSymTab);
+                StructDefSym sym = new StructDefSym(structSymTab,
+                                                    myId.name(), size);
                 symTab.addDecl(name, sym);
                 myId.link(sym);
             } catch (DuplicateSymException ex) {
@@ -828,6 +1425,15 @@ class StructDeclNode extends DeclNode {
 
     }
 
+    /**
+     * write
+     */
+    public void write(AstWriter w) throws IOException {
+        w.writeTag(this);
+        w.writeNode(myId);
+        w.writeNode(myDeclList);
+    }
+
     // 2 kids
     private IdNode myId;
     private DeclListNode myDeclList;
@@ -850,12 +1456,19 @@ class IntNode extends TypeNode {
      * type
      */
     public Type type() {
-        return new IntType();
+        return Type.INT;
     }
     
     public void unparse(PrintWriter p, int indent) {
         p.print("int");
     }
+
+    /**
+     * write
+     */
+    public void write(AstWriter w) throws IOException {
+        w.writeTag(this);
+    }
 }
 
 class BoolNode extends TypeNode {
@@ -866,12 +1479,19 @@ class BoolNode extends TypeNode {
      * type
      */
     public Type type() {
-        return new BoolType();
+        return Type.BOOL;
     }
     
     public void unparse(PrintWriter p, int indent) {
         p.print("bool");
     }
+
+    /**
+     * write
+     */
+    public void write(AstWriter w) throws IOException {
+        w.writeTag(this);
+    }
 }
 
 class VoidNode extends TypeNode {
@@ -882,12 +1502,19 @@ class VoidNode extends TypeNode {
      * type
      */
     public Type type() {
-        return new VoidType();
+        return Type.VOID;
     }
     
     public void unparse(PrintWriter p, int indent) {
         p.print("void");
     }
+
+    /**
+     * write
+     */
+    public void write(AstWriter w) throws IOException {
+        w.writeTag(this);
+    }
 }
 
 class StructNode extends TypeNode {
@@ -903,13 +1530,25 @@ class StructNode extends TypeNode {
      * type
      */
     public Type type() {
-        return new StructType(myId);
+        Sym sym = myId.sym();
+        if (sym instanceof StructDefSym) {
+            return ((StructDefSym)sym).getInstanceType();
+        }
+        return Type.ERROR;  // not (yet) linked to a struct definition
     }
     
     public void unparse(PrintWriter p, int indent) {
         p.print("struct ");
         p.print(myId.name());
     }
+
+    /**
+     * write
+     */
+    public void write(AstWriter w) throws IOException {
+        w.writeTag(this);
+        w.writeNode(myId);
+    }
     
     // 1 kid
     private IdNode myId;
@@ -920,9 +1559,17 @@ class StructNode extends TypeNode {
 // **********************************************************************
 
 abstract class StmtNode extends ASTnode {
-    abstract public void nameAnalysis(SymTable symTab);
-    abstract public void typeCheck(Type retType);
-    abstract public void codeGen();
+    abstract public void nameAnalysis(SymTable symTab, CompileContext ctx);
+    abstract public void typeCheck(Type retType, CompileContext ctx);
+    abstract public void codeGen(Codegen cg);
+
+    /**
+     * Return the number of levels of repeat loops nested in this statement
+     * (this one included).
+     */
+    public int repeatDepth() {
+        return 0;
+    }
 }
 
 class AssignStmtNode extends StmtNode {
@@ -934,15 +1581,15 @@ class AssignStmtNode extends StmtNode {
      * nameAnalysis
      * Given a symbol table symTab, perform name analysis on this node's child
      */
-    public void nameAnalysis(SymTable symTab) {
-        myAssign.nameAnalysis(symTab);
+    public void nameAnalysis(SymTable symTab, CompileContext ctx) {
+        myAssign.nameAnalysis(symTab, ctx);
     }
     
     /**
      * typeCheck
      */
-    public void typeCheck(Type retType) {
-        myAssign.typeCheck();
+    public void typeCheck(Type retType, CompileContext ctx) {
+        myAssign.typeCheck(ctx);
     }
         
     public void unparse(PrintWriter p, int indent) {
@@ -951,12 +1598,20 @@ class AssignStmtNode extends StmtNode {
         p.println(";");
     }
 
+    /**
+     * write
+     */
+    public void write(AstWriter w) throws IOException {
+        w.writeTag(this);
+        w.writeNode(myAssign);
+    }
+
     // 1 kid
     private AssignNode myAssign;
 
 	@Override
-	public void codeGen() {
-        myAssign.codeGen();
+	public void codeGen(Codegen cg) {
+        myAssign.codeGen(cg);
 	}
 }
 
@@ -969,19 +1624,19 @@ class PostIncStmtNode extends StmtNode {
      * nameAnalysis
      * Given a symbol table symTab, perform name analysis on this node's child
      */
-    public void nameAnalysis(SymTable symTab) {
-        myExp.nameAnalysis(symTab);
+    public void nameAnalysis(SymTable symTab, CompileContext ctx) {
+        myExp.nameAnalysis(symTab, ctx);
     }
     
     /**
      * typeCheck
      */
-    public void typeCheck(Type retType) {
-        Type type = myExp.typeCheck();
+    public void typeCheck(Type retType, CompileContext ctx) {
+        Type type = myExp.typeCheck(ctx);
         
         if (!type.isErrorType() && !type.isIntType()) {
-            ErrMsg.fatal(myExp.lineNum(), myExp.charNum(),
-                         "Arithmetic operator applied to non-numeric operand");
+            ctx.errMsg.fatal(myExp.lineNum(), myExp.charNum(),
+                             "Arithmetic operator applied to non-numeric operand");
         }
     }
         
@@ -991,23 +1646,23 @@ class PostIncStmtNode extends StmtNode {
         p.println("++;");
     }
 
+    /**
+     * write
+     */
+    public void write(AstWriter w) throws IOException {
+        w.writeTag(this);
+        w.writeNode(myExp);
+    }
+
     // 1 kid
     private ExpNode myExp;
 
 	@Override
-	public void codeGen() {
-        Sym sym = ((IdNode) myExp).sym();
-
-        if(sym.isGlobal){
-            Codegen.generate("lw", Codegen.V0, "_" + ((IdNode) myExp).name());
-            Codegen.generate("addi", Codegen.V0, Codegen.V0, Integer.toString(1));
-            Codegen.generate("sw", Codegen.V0, "_" + ((IdNode) myExp).name());
-        } else {
-            Codegen.generateIndexed("lw", Codegen.V0, Codegen.FP, sym.offset);
-            Codegen.generate("addi", Codegen.V0, Codegen.V0, Integer.toString(1));
-            Codegen.generateIndexed("sw", Codegen.V0, Codegen.FP, sym.offset);
-        }
-        Codegen.p.println();
+	public void codeGen(Codegen cg) {
+        myExp.genAccess(cg, "lw", Codegen.V0);
+        cg.generate("addi", Codegen.V0, Codegen.V0, Integer.toString(1));
+        myExp.genAccess(cg, "sw", Codegen.V0);
+        cg.p.println();
 	}
 }
 
@@ -1020,19 +1675,19 @@ class PostDecStmtNode extends StmtNode {
      * nameAnalysis
      * Given a symbol table symTab, perform name analysis on this node's child
      */
-    public void nameAnalysis(SymTable symTab) {
-        myExp.nameAnalysis(symTab);
+    public void nameAnalysis(SymTable symTab, CompileContext ctx) {
+        myExp.nameAnalysis(symTab, ctx);
     }
     
     /**
      * typeCheck
      */
-    public void typeCheck(Type retType) {
-        Type type = myExp.typeCheck();
+    public void typeCheck(Type retType, CompileContext ctx) {
+        Type type = myExp.typeCheck(ctx);
         
         if (!type.isErrorType() && !type.isIntType()) {
-            ErrMsg.fatal(myExp.lineNum(), myExp.charNum(),
-                         "Arithmetic operator applied to non-numeric operand");
+            ctx.errMsg.fatal(myExp.lineNum(), myExp.charNum(),
+                             "Arithmetic operator applied to non-numeric operand");
         }
     }
         
@@ -1041,21 +1696,21 @@ class PostDecStmtNode extends StmtNode {
         myExp.unparse(p, 0);
         p.println("--;");
     }
+
+    /**
+     * write
+     */
+    public void write(AstWriter w) throws IOException {
+        w.writeTag(this);
+        w.writeNode(myExp);
+    }
     
     @Override
-	public void codeGen() {
-        Sym sym = ((IdNode) myExp).sym();
-
-        if(sym.isGlobal){
-            Codegen.generate("lw", Codegen.V0, "_" + ((IdNode) myExp).name());
-            Codegen.generate("addi", Codegen.V0, Codegen.V0, Integer.toString(-1));
-            Codegen.generate("sw", Codegen.V0, "_" + ((IdNode) myExp).name());
-        } else {
-            Codegen.generateIndexed("lw", Codegen.V0, Codegen.FP, sym.offset);
-            Codegen.generate("addi", Codegen.V0, Codegen.V0, Integer.toString(-1));
-            Codegen.generateIndexed("sw", Codegen.V0, Codegen.FP, sym.offset);
-        }
-        Codegen.p.println();
+	public void codeGen(Codegen cg) {
+        myExp.genAccess(cg, "lw", Codegen.V0);
+        cg.generate("addi", Codegen.V0, Codegen.V0, Integer.toString(-1));
+        myExp.genAccess(cg, "sw", Codegen.V0);
+        cg.p.println();
     }
     
     // 1 kid
@@ -1071,29 +1726,29 @@ class ReadStmtNode extends StmtNode {
      * nameAnalysis
      * Given a symbol table symTab, perform name analysis on this node's child
      */
-    public void nameAnalysis(SymTable symTab) {
-        myExp.nameAnalysis(symTab);
+    public void nameAnalysis(SymTable symTab, CompileContext ctx) {
+        myExp.nameAnalysis(symTab, ctx);
     }    
  
     /**
      * typeCheck
      */
-    public void typeCheck(Type retType) {
-        type = myExp.typeCheck();
+    public void typeCheck(Type retType, CompileContext ctx) {
+        type = myExp.typeCheck(ctx);
         
         if (type.isFnType()) {
-            ErrMsg.fatal(myExp.lineNum(), myExp.charNum(),
-                         "Attempt to read a function");
+            ctx.errMsg.fatal(myExp.lineNum(), myExp.charNum(),
+                             "Attempt to read a function");
         }
         
         if (type.isStructDefType()) {
-            ErrMsg.fatal(myExp.lineNum(), myExp.charNum(),
-                         "Attempt to read a struct name");
+            ctx.errMsg.fatal(myExp.lineNum(), myExp.charNum(),
+                             "Attempt to read a struct name");
         }
         
         if (type.isStructType()) {
-            ErrMsg.fatal(myExp.lineNum(), myExp.charNum(),
-                         "Attempt to read a struct variable");
+            ctx.errMsg.fatal(myExp.lineNum(), myExp.charNum(),
+                             "Attempt to read a struct variable");
         }
     }
     
@@ -1104,28 +1759,39 @@ class ReadStmtNode extends StmtNode {
         p.println(";");
     }
 
+    /**
+     * write
+     */
+    public void write(AstWriter w) throws IOException {
+        w.writeTag(this);
+        w.writeNode(myExp);
+        w.writeType(type);
+    }
+
+    /**
+     * Set the type of the expression (as found by typeCheck) when the node
+     * is read back from a binary AST file.
+     */
+    void setType(Type t) {
+        type = t;
+    }
 
-    @Override
-	public void codeGen() {
-        Codegen.generate("li", Codegen.V0, "5"); // print
-        Codegen.generate("syscall");
 
-        Sym sym = ((IdNode) myExp).sym();
+    @Override
+	public void codeGen(Codegen cg) {
+        cg.generate("li", Codegen.V0, "5"); // print
+        cg.generate("syscall");
 
         // handle non-zero values
-        String endLabel = Codegen.nextLabel();
-        Codegen.generate("li", Codegen.V1, Codegen.FALSE);
-        Codegen.generate("beq", Codegen.V0, Codegen.V1, endLabel);
-        Codegen.generate("li", Codegen.V0, Codegen.TRUE);
-        Codegen.p.println(endLabel + ": ");
-
-        if(sym.isGlobal){
-            Codegen.generate("sw", Codegen.V0, "_" + ((IdNode) myExp).name());
-        } else {
-            Codegen.generateIndexed("sw", Codegen.V0, Codegen.FP, sym.offset);
-        }
+        String endLabel = cg.nextLabel();
+        cg.generate("li", Codegen.V1, Codegen.FALSE);
+        cg.generate("beq", Codegen.V0, Codegen.V1, endLabel);
+        cg.generate("li", Codegen.V0, Codegen.TRUE);
+        cg.p.println(endLabel + ": ");
+
+        myExp.genAccess(cg, "sw", Codegen.V0);
 
-        Codegen.p.println();
+        cg.p.println();
 	}
     // 1 kid (actually can only be an IdNode or an ArrayExpNode)
     private ExpNode myExp;
@@ -1141,34 +1807,34 @@ class WriteStmtNode extends StmtNode {
      * nameAnalysis
      * Given a symbol table symTab, perform name analysis on this node's child
      */
-    public void nameAnalysis(SymTable symTab) {
-        myExp.nameAnalysis(symTab);
+    public void nameAnalysis(SymTable symTab, CompileContext ctx) {
+        myExp.nameAnalysis(symTab, ctx);
     }
 
     /**
      * typeCheck
      */
-    public void typeCheck(Type retType) {
-        type = myExp.typeCheck();
+    public void typeCheck(Type retType, CompileContext ctx) {
+        type = myExp.typeCheck(ctx);
         
         if (type.isFnType()) {
-            ErrMsg.fatal(myExp.lineNum(), myExp.charNum(),
-                         "Attempt to write a function");
+            ctx.errMsg.fatal(myExp.lineNum(), myExp.charNum(),
+                             "Attempt to write a function");
         }
         
         if (type.isStructDefType()) {
-            ErrMsg.fatal(myExp.lineNum(), myExp.charNum(),
-                         "Attempt to write a struct name");
+            ctx.errMsg.fatal(myExp.lineNum(), myExp.charNum(),
+                             "Attempt to write a struct name");
         }
         
         if (type.isStructType()) {
-            ErrMsg.fatal(myExp.lineNum(), myExp.charNum(),
-                         "Attempt to write a struct variable");
+            ctx.errMsg.fatal(myExp.lineNum(), myExp.charNum(),
+                             "Attempt to write a struct variable");
         }
         
         if (type.isVoidType()) {
-            ErrMsg.fatal(myExp.lineNum(), myExp.charNum(),
-                         "Attempt to write void");
+            ctx.errMsg.fatal(myExp.lineNum(), myExp.charNum(),
+                             "Attempt to write void");
         }
     }
         
@@ -1179,21 +1845,38 @@ class WriteStmtNode extends StmtNode {
         p.println(";");
     }
 
+    /**
+     * write
+     */
+    public void write(AstWriter w) throws IOException {
+        w.writeTag(this);
+        w.writeNode(myExp);
+        w.writeType(type);
+    }
+
+    /**
+     * Set the type of the expression (as found by typeCheck) when the node
+     * is read back from a binary AST file.
+     */
+    void setType(Type t) {
+        type = t;
+    }
+
     @Override
-	public void codeGen() {
-        myExp.codeGen(); 
+	public void codeGen(Codegen cg) {
+        myExp.codeGen(cg); 
 
         if (myExp instanceof StringLitNode) {
-            Codegen.generate("la", Codegen.A0, ((StringLitNode)myExp).getLabel());
-            Codegen.generate("li", Codegen.V0, "4"); // print
-            Codegen.generate("syscall");
+            cg.generate("la", Codegen.A0, ((StringLitNode)myExp).getLabel());
+            cg.generate("li", Codegen.V0, "4"); // print
+            cg.generate("syscall");
         } else if (type.isIntType() || type.isBoolType()) {
-            Codegen.genPop(Codegen.A0);
-            Codegen.generate("li", Codegen.V0, "1"); // print
-            Codegen.generate("syscall");
+            cg.genPop(Codegen.A0);
+            cg.generate("li", Codegen.V0, "1"); // print
+            cg.generate("syscall");
         } 
 
-        Codegen.p.println();	
+        cg.p.println();	
     }
     
     // 1 kid
@@ -1216,11 +1899,11 @@ class IfStmtNode extends StmtNode {
      * - process the decls and stmts
      * - exit the scope
      */
-    public void nameAnalysis(SymTable symTab) {
-        myExp.nameAnalysis(symTab);
+    public void nameAnalysis(SymTable symTab, CompileContext ctx) {
+        myExp.nameAnalysis(symTab, ctx);
         symTab.addScope();
-        myDeclList.nameAnalysis(symTab);
-        myStmtList.nameAnalysis(symTab);
+        myDeclList.nameAnalysis(symTab, ctx);
+        myStmtList.nameAnalysis(symTab, ctx);
         try {
             symTab.removeScope();
         } catch (EmptySymTableException ex) {
@@ -1233,15 +1916,15 @@ class IfStmtNode extends StmtNode {
      /**
      * typeCheck
      */
-    public void typeCheck(Type retType) {
-        Type type = myExp.typeCheck();
+    public void typeCheck(Type retType, CompileContext ctx) {
+        Type type = myExp.typeCheck(ctx);
         
         if (!type.isErrorType() && !type.isBoolType()) {
-            ErrMsg.fatal(myExp.lineNum(), myExp.charNum(),
-                         "Non-bool expression used as an if condition");        
+            ctx.errMsg.fatal(myExp.lineNum(), myExp.charNum(),
+                             "Non-bool expression used as an if condition");        
         }
         
-        myStmtList.typeCheck(retType);
+        myStmtList.typeCheck(retType, ctx);
     }
        
     public void unparse(PrintWriter p, int indent) {
@@ -1255,19 +1938,34 @@ class IfStmtNode extends StmtNode {
         p.println("}");
     }
 
+    /**
+     * write
+     */
+    public void write(AstWriter w) throws IOException {
+        w.writeTag(this);
+        w.writeNode(myExp);
+        w.writeNode(myDeclList);
+        w.writeNode(myStmtList);
+    }
+
     @Override
-	public void codeGen() {
-		String endLabel = Codegen.nextLabel();
+	public void codeGen(Codegen cg) {
+		String endLabel = cg.nextLabel();
 
-        myExp.codeGen();
-        Codegen.genPop(Codegen.V0);
-        Codegen.generate("li", Codegen.V1, "0");
+        myExp.codeGen(cg);
+        cg.genPop(Codegen.V0);
+        cg.generate("li", Codegen.V1, "0");
         
-        Codegen.generate("beq", Codegen.V0, Codegen.V1, endLabel);
+        cg.generate("beq", Codegen.V0, Codegen.V1, endLabel);
         
-        myStmtList.codeGen();
+        myStmtList.codeGen(cg);
 
-        Codegen.p.println(endLabel + ": ");
+        cg.p.println(endLabel + ": ");
+    }
+
+    @Override
+    public int repeatDepth() {
+        return myStmtList.repeatDepth();
     }
     
     // e kids
@@ -1298,11 +1996,11 @@ class IfElseStmtNode extends StmtNode {
      * - process the decls and stmts of else
      * - exit the scope
      */
-    public void nameAnalysis(SymTable symTab) {
-        myExp.nameAnalysis(symTab);
+    public void nameAnalysis(SymTable symTab, CompileContext ctx) {
+        myExp.nameAnalysis(symTab, ctx);
         symTab.addScope();
-        myThenDeclList.nameAnalysis(symTab);
-        myThenStmtList.nameAnalysis(symTab);
+        myThenDeclList.nameAnalysis(symTab, ctx);
+        myThenStmtList.nameAnalysis(symTab, ctx);
         try {
             symTab.removeScope();
         } catch (EmptySymTableException ex) {
@@ -1311,8 +2009,8 @@ class IfElseStmtNode extends StmtNode {
             System.exit(-1);        
         }
         symTab.addScope();
-        myElseDeclList.nameAnalysis(symTab);
-        myElseStmtList.nameAnalysis(symTab);
+        myElseDeclList.nameAnalysis(symTab, ctx);
+        myElseStmtList.nameAnalysis(symTab, ctx);
         try {
             symTab.removeScope();
         } catch (EmptySymTableException ex) {
@@ -1325,16 +2023,16 @@ class IfElseStmtNode extends StmtNode {
     /**
      * typeCheck
      */
-    public void typeCheck(Type retType) {
-        Type type = myExp.typeCheck();
+    public void typeCheck(Type retType, CompileContext ctx) {
+        Type type = myExp.typeCheck(ctx);
         
         if (!type.isErrorType() && !type.isBoolType()) {
-            ErrMsg.fatal(myExp.lineNum(), myExp.charNum(),
-                         "Non-bool expression used as an if condition");        
+            ctx.errMsg.fatal(myExp.lineNum(), myExp.charNum(),
+                             "Non-bool expression used as an if condition");        
         }
         
-        myThenStmtList.typeCheck(retType);
-        myElseStmtList.typeCheck(retType);
+        myThenStmtList.typeCheck(retType, ctx);
+        myElseStmtList.typeCheck(retType, ctx);
     }
         
     public void unparse(PrintWriter p, int indent) {
@@ -1354,26 +2052,44 @@ class IfElseStmtNode extends StmtNode {
         p.println("}");        
     }
 
+    /**
+     * write
+     */
+    public void write(AstWriter w) throws IOException {
+        w.writeTag(this);
+        w.writeNode(myExp);
+        w.writeNode(myThenDeclList);
+        w.writeNode(myThenStmtList);
+        w.writeNode(myElseDeclList);
+        w.writeNode(myElseStmtList);
+    }
+
     @Override
-	public void codeGen() {
-		String endLabel = Codegen.nextLabel();
-        String falseLabel = Codegen.nextLabel();
+	public void codeGen(Codegen cg) {
+		String endLabel = cg.nextLabel();
+        String falseLabel = cg.nextLabel();
 
-        myExp.codeGen();
-        Codegen.genPop(Codegen.V0);
-        Codegen.generate("li", Codegen.V1, "0");
+        myExp.codeGen(cg);
+        cg.genPop(Codegen.V0);
+        cg.generate("li", Codegen.V1, "0");
         
-        Codegen.generate("beq", Codegen.V0, Codegen.V1, falseLabel);
+        cg.generate("beq", Codegen.V0, Codegen.V1, falseLabel);
 
-        myThenStmtList.codeGen();
-        Codegen.generate("j", endLabel);
+        myThenStmtList.codeGen(cg);
+        cg.generate("j", endLabel);
         
-        Codegen.p.println(falseLabel + ": ");
+        cg.p.println(falseLabel + ": ");
 
-        myElseStmtList.codeGen();
+        myElseStmtList.codeGen(cg);
 
-        Codegen.p.println(endLabel + ": ");
+        cg.p.println(endLabel + ": ");
 	}
+
+    @Override
+    public int repeatDepth() {
+        return Math.max(myThenStmtList.repeatDepth(),
+                        myElseStmtList.repeatDepth());
+    }
     // 5 kids
     private ExpNode myExp;
     private DeclListNode myThenDeclList;
@@ -1397,11 +2113,11 @@ class WhileStmtNode extends StmtNode {
      * - process the decls and stmts
      * - exit the scope
      */
-    public void nameAnalysis(SymTable symTab) {
-        myExp.nameAnalysis(symTab);
+    public void nameAnalysis(SymTable symTab, CompileContext ctx) {
+        myExp.nameAnalysis(symTab, ctx);
         symTab.addScope();
-        myDeclList.nameAnalysis(symTab);
-        myStmtList.nameAnalysis(symTab);
+        myDeclList.nameAnalysis(symTab, ctx);
+        myStmtList.nameAnalysis(symTab, ctx);
         try {
             symTab.removeScope();
         } catch (EmptySymTableException ex) {
@@ -1414,15 +2130,15 @@ class WhileStmtNode extends StmtNode {
     /**
      * typeCheck
      */
-    public void typeCheck(Type retType) {
-        Type type = myExp.typeCheck();
+    public void typeCheck(Type retType, CompileContext ctx) {
+        Type type = myExp.typeCheck(ctx);
         
         if (!type.isErrorType() && !type.isBoolType()) {
-            ErrMsg.fatal(myExp.lineNum(), myExp.charNum(),
-                         "Non-bool expression used as a while condition");        
+            ctx.errMsg.fatal(myExp.lineNum(), myExp.charNum(),
+                             "Non-bool expression used as a while condition");        
         }
         
-        myStmtList.typeCheck(retType);
+        myStmtList.typeCheck(retType, ctx);
     }
         
     public void unparse(PrintWriter p, int indent) {
@@ -1436,23 +2152,38 @@ class WhileStmtNode extends StmtNode {
         p.println("}");
     }
 
+    /**
+     * write
+     */
+    public void write(AstWriter w) throws IOException {
+        w.writeTag(this);
+        w.writeNode(myExp);
+        w.writeNode(myDeclList);
+        w.writeNode(myStmtList);
+    }
+
     @Override
-	public void codeGen() {
-		String endLabel = Codegen.nextLabel();
-		String startLabel = Codegen.nextLabel();
+	public void codeGen(Codegen cg) {
+		String endLabel = cg.nextLabel();
+		String startLabel = cg.nextLabel();
 
-        Codegen.p.println(startLabel + ": ");
-        myExp.codeGen();
-        Codegen.genPop(Codegen.V0);
-        Codegen.generate("li", Codegen.V1, "0");
+        cg.p.println(startLabel + ": ");
+        myExp.codeGen(cg);
+        cg.genPop(Codegen.V0);
+        cg.generate("li", Codegen.V1, "0");
         
-        Codegen.generate("beq", Codegen.V0, Codegen.V1, endLabel); // if false
+        cg.generate("beq", Codegen.V0, Codegen.V1, endLabel); // if false
         
-        myStmtList.codeGen();
+        myStmtList.codeGen(cg);
 
-        Codegen.generate("j", startLabel);
+        cg.generate("j", startLabel);
+
+        cg.p.println(endLabel + ": ");
+    }
 
-        Codegen.p.println(endLabel + ": ");
+    @Override
+    public int repeatDepth() {
+        return myStmtList.repeatDepth();
     }
 
     // 3 kids
@@ -1476,11 +2207,11 @@ class RepeatStmtNode extends StmtNode {
      * - process the decls and stmts
      * - exit the scope
      */
-    public void nameAnalysis(SymTable symTab) {
-        myExp.nameAnalysis(symTab);
+    public void nameAnalysis(SymTable symTab, CompileContext ctx) {
+        myExp.nameAnalysis(symTab, ctx);
         symTab.addScope();
-        myDeclList.nameAnalysis(symTab);
-        myStmtList.nameAnalysis(symTab);
+        myDeclList.nameAnalysis(symTab, ctx);
+        myStmtList.nameAnalysis(symTab, ctx);
         try {
             symTab.removeScope();
         } catch (EmptySymTableException ex) {
@@ -1493,15 +2224,15 @@ class RepeatStmtNode extends StmtNode {
     /**
      * typeCheck
      */
-    public void typeCheck(Type retType) {
-        Type type = myExp.typeCheck();
+    public void typeCheck(Type retType, CompileContext ctx) {
+        Type type = myExp.typeCheck(ctx);
         
         if (!type.isErrorType() && !type.isIntType()) {
-            ErrMsg.fatal(myExp.lineNum(), myExp.charNum(),
-                         "Non-integer expression used as a repeat clause");        
+            ctx.errMsg.fatal(myExp.lineNum(), myExp.charNum(),
+                             "Non-integer expression used as a repeat clause");        
         }
         
-        myStmtList.typeCheck(retType);
+        myStmtList.typeCheck(retType, ctx);
     }
         
     public void unparse(PrintWriter p, int indent) {
@@ -1515,10 +2246,98 @@ class RepeatStmtNode extends StmtNode {
         p.println("}");
     }
 
+    /**
+     * write
+     */
+    public void write(AstWriter w) throws IOException {
+        w.writeTag(this);
+        w.writeNode(myExp);
+        w.writeNode(myDeclList);
+        w.writeNode(myStmtList);
+    }
+
+    /**
+     * codeGen
+     * A repeat loop is a counted loop: the count is evaluated once into a
+     * trip counter, and the body is followed by a decrement of the counter
+     * and a branch back while it is positive. The counter of the k-th
+     * level of repeat loops of a function is register $sk (saved by the
+     * function, see FnDeclNode.genFunction) or, past the last one, the
+     * frame slot of the level.
+     *
+     * A loop whose count is a literal and whose body holds no other repeat
+     * loop is unrolled: each trip runs cg.unrollFactor copies of the body,
+     * after count % cg.unrollFactor copies outside of the loop. A count no
+     * larger than the factor needs no loop at all.
+     */
     @Override
-	public void codeGen() {
-		// Repeat
+	public void codeGen(Codegen cg) {
+        int copies = 1;     // copies of the body per trip
+        int trips = -1;     // number of trips, if it is known
+        if (myExp instanceof IntLitNode) {
+            int count = ((IntLitNode)myExp).intVal();
+            if (count <= 0) {
+                return;
+            }
+            if (myStmtList.repeatDepth() == 0) {
+                copies = Math.max(1, Math.min(cg.unrollFactor, count));
+            }
+            for (int k = 0; k < count % copies; k++) {
+                myStmtList.codeGen(cg);
+            }
+            trips = count / copies;
+            if (trips == 1) {
+                for (int k = 0; k < copies; k++) {
+                    myStmtList.codeGen(cg);
+                }
+                return;
+            }
+        }
+
+        int level = cg.repeatDepth;
+        boolean inRegister = level < Codegen.SAVED.length;
+        String counter = inRegister ? Codegen.SAVED[level] : Codegen.T0;
+        int slot = cg.repeatBase - 4 * level;
+        String startLabel = cg.nextLabel();
+        String endLabel = null;
+
+        if (trips > 0) {
+            cg.generate("li", counter, trips);
+        } else {
+            myExp.codeGen(cg);
+            cg.genPop(counter);
+            endLabel = cg.nextLabel();
+            cg.generate("blez", counter, endLabel);
+        }
+        if (!inRegister) {
+            cg.generateIndexed("sw", counter, Codegen.FP, slot);
+        }
+
+        cg.p.println(startLabel + ": ");
+        cg.repeatDepth++;
+        for (int k = 0; k < copies; k++) {
+            myStmtList.codeGen(cg);
+        }
+        cg.repeatDepth--;
+
+        if (!inRegister) {
+            cg.generateIndexed("lw", counter, Codegen.FP, slot);
+        }
+        cg.generate("addi", counter, counter, "-1");
+        if (!inRegister) {
+            cg.generateIndexed("sw", counter, Codegen.FP, slot);
+        }
+        cg.generate("bgtz", counter, startLabel);
+
+        if (endLabel != null) {
+            cg.p.println(endLabel + ": ");
+        }
 	}
+
+    @Override
+    public int repeatDepth() {
+        return 1 + myStmtList.repeatDepth();
+    }
     // 3 kids
     private ExpNode myExp;
     private DeclListNode myDeclList;
@@ -1535,15 +2354,15 @@ class CallStmtNode extends StmtNode {
      * nameAnalysis
      * Given a symbol table symTab, perform name analysis on this node's child
      */
-    public void nameAnalysis(SymTable symTab) {
-        myCall.nameAnalysis(symTab);
+    public void nameAnalysis(SymTable symTab, CompileContext ctx) {
+        myCall.nameAnalysis(symTab, ctx);
     }
     
     /**
      * typeCheck
      */
-    public void typeCheck(Type retType) {
-        myCall.typeCheck();
+    public void typeCheck(Type retType, CompileContext ctx) {
+        myCall.typeCheck(ctx);
     }
     
     public void unparse(PrintWriter p, int indent) {
@@ -1552,9 +2371,17 @@ class CallStmtNode extends StmtNode {
         p.println(";");
     }
 
+    /**
+     * write
+     */
+    public void write(AstWriter w) throws IOException {
+        w.writeTag(this);
+        w.writeNode(myCall);
+    }
+
     @Override
-	public void codeGen() {
-        myCall.codeGen();
+	public void codeGen(Codegen cg) {
+        myCall.codeGen(cg);
     }
     
     // 1 kid
@@ -1571,34 +2398,34 @@ class ReturnStmtNode extends StmtNode {
      * Given a symbol table symTab, perform name analysis on this node's child,
      * if it has one
      */
-    public void nameAnalysis(SymTable symTab) {
+    public void nameAnalysis(SymTable symTab, CompileContext ctx) {
         if (myExp != null) {
-            myExp.nameAnalysis(symTab);
+            myExp.nameAnalysis(symTab, ctx);
         }
-        this.currFunc = symTab.curFunc;
+        this.currFunc = ctx.curFunc;
     }
 
     /**
      * typeCheck
      */
-    public void typeCheck(Type retType) {
+    public void typeCheck(Type retType, CompileContext ctx) {
         if (myExp != null) {  // return value given
-            Type type = myExp.typeCheck();
+            Type type = myExp.typeCheck(ctx);
             
             if (retType.isVoidType()) {
-                ErrMsg.fatal(myExp.lineNum(), myExp.charNum(),
-                             "Return with a value in a void function");                
+                ctx.errMsg.fatal(myExp.lineNum(), myExp.charNum(),
+                                 "Return with a value in a void function");                
             }
             
             else if (!retType.isErrorType() && !type.isErrorType() && !retType.equals(type)){
-                ErrMsg.fatal(myExp.lineNum(), myExp.charNum(),
-                             "Bad return value");
+                ctx.errMsg.fatal(myExp.lineNum(), myExp.charNum(),
+                                 "Bad return value");
             }
         }
         
         else {  // no return value given -- ok if this is a void function
             if (!retType.isVoidType()) {
-                ErrMsg.fatal(0, 0, "Missing return value");                
+                ctx.errMsg.fatal(0, 0, "Missing return value");                
             }
         }
         
@@ -1614,13 +2441,30 @@ class ReturnStmtNode extends StmtNode {
         p.println(";");
     }
 
+    /**
+     * write
+     */
+    public void write(AstWriter w) throws IOException {
+        w.writeTag(this);
+        w.writeNode(myExp);
+        w.writeString(currFunc);
+    }
+
+    /**
+     * Set the name of the enclosing function (as found by nameAnalysis)
+     * when the node is read back from a binary AST file.
+     */
+    void setFunction(String name) {
+        currFunc = name;
+    }
+
     @Override
-	public void codeGen() {
+	public void codeGen(Codegen cg) {
         if(myExp != null) {
-            myExp.codeGen();
+            myExp.codeGen(cg);
         }
-        Codegen.generate("j", "_" + currFunc + "_exit");
-        Codegen.p.println();
+        cg.generate("j", "_" + currFunc + "_exit");
+        cg.p.println();
 	}
 
     // 1 kid
@@ -1636,13 +2480,24 @@ abstract class ExpNode extends ASTnode {
     /**
      * Default version for nodes with no names
      */
-    public void nameAnalysis(SymTable symTab) { }
+    public void nameAnalysis(SymTable symTab, CompileContext ctx) { }
     
-    abstract public Type typeCheck();
+    abstract public Type typeCheck(CompileContext ctx);
     abstract public int lineNum();
     abstract public int charNum();
 
-    abstract public void codeGen();
+    abstract public void codeGen(Codegen cg);
+
+    /**
+     * genAccess
+     * Generate the one instruction that loads (opcode lw) register reg
+     * from the location this expression names, or stores (sw) reg to it.
+     * Only IdNodes and DotAccessExpNodes name locations.
+     */
+    public void genAccess(Codegen cg, String opcode, String reg) {
+        System.err.println("Unexpected location in ExpNode.genAccess");
+        System.exit(-1);
+    }
 }
 
 class IntLitNode extends ExpNode {
@@ -1651,6 +2506,13 @@ class IntLitNode extends ExpNode {
         myCharNum = charNum;
         myIntVal = intVal;
     }
+
+    /**
+     * Return the value of this literal.
+     */
+    public int intVal() {
+        return myIntVal;
+    }
     
     /**
      * Return the line number for this literal.
@@ -1669,18 +2531,28 @@ class IntLitNode extends ExpNode {
     /**
      * typeCheck
      */
-    public Type typeCheck() {
-        return new IntType();
+    public Type typeCheck(CompileContext ctx) {
+        return Type.INT;
     }
     
     public void unparse(PrintWriter p, int indent) {
         p.print(myIntVal);
     }
 
+    /**
+     * write
+     */
+    public void write(AstWriter w) throws IOException {
+        w.writeTag(this);
+        w.writeInt(myLineNum);
+        w.writeInt(myCharNum);
+        w.writeInt(myIntVal);
+    }
+
     @Override
-	public void codeGen() {
-        Codegen.generate("li", Codegen.V0, Integer.toString(myIntVal));	
-        Codegen.genPush(Codegen.V0);
+	public void codeGen(Codegen cg) {
+        cg.generate("li", Codegen.V0, Integer.toString(myIntVal));	
+        cg.genPush(Codegen.V0);
     }
     
     private int myLineNum;
@@ -1712,20 +2584,30 @@ class StringLitNode extends ExpNode {
     /**
      * typeCheck
      */
-    public Type typeCheck() {
-        return new StringType();
+    public Type typeCheck(CompileContext ctx) {
+        return Type.STRING;
     }
         
     public void unparse(PrintWriter p, int indent) {
         p.print(myStrVal);
     }
 
+    /**
+     * write
+     */
+    public void write(AstWriter w) throws IOException {
+        w.writeTag(this);
+        w.writeInt(myLineNum);
+        w.writeInt(myCharNum);
+        w.writeString(myStrVal);
+    }
+
     @Override
-	public void codeGen() {
-        Codegen.p.println(".data");
-        label = Codegen.nextLabel();
-        Codegen.p.println(label + ": .asciiz " + myStrVal);
-        Codegen.p.println(".text");
+	public void codeGen(Codegen cg) {
+        cg.p.println(".data");
+        label = cg.nextLabel();
+        cg.p.println(label + ": .asciiz " + myStrVal);
+        cg.p.println(".text");
     }
     
     public String getLabel(){
@@ -1766,18 +2648,27 @@ class TrueNode extends ExpNode {
     /**
      * typeCheck
      */
-    public Type typeCheck() {
-        return new BoolType();
+    public Type typeCheck(CompileContext ctx) {
+        return Type.BOOL;
     }
         
     public void unparse(PrintWriter p, int indent) {
         p.print("true");
     }
 
+    /**
+     * write
+     */
+    public void write(AstWriter w) throws IOException {
+        w.writeTag(this);
+        w.writeInt(myLineNum);
+        w.writeInt(myCharNum);
+    }
+
     @Override
-	public void codeGen() {
-        Codegen.generate("li", Codegen.V0, Integer.toString(1));	
-        Codegen.genPush(Codegen.V0);
+	public void codeGen(Codegen cg) {
+        cg.generate("li", Codegen.V0, Integer.toString(1));	
+        cg.genPush(Codegen.V0);
     }
     
     private int myLineNum;
@@ -1807,28 +2698,41 @@ class FalseNode extends ExpNode {
     /**
      * typeCheck
      */
-    public Type typeCheck() {
-        return new BoolType();
+    public Type typeCheck(CompileContext ctx) {
+        return Type.BOOL;
     }
         
     public void unparse(PrintWriter p, int indent) {
         p.print("false");
     }
 
+    /**
+     * write
+     */
+    public void write(AstWriter w) throws IOException {
+        w.writeTag(this);
+        w.writeInt(myLineNum);
+        w.writeInt(myCharNum);
+    }
+
     @Override
-	public void codeGen() {
-		Codegen.generate("li", Codegen.V0, Integer.toString(0));	
-        Codegen.genPush(Codegen.V0);
+	public void codeGen(Codegen cg) {
+		cg.generate("li", Codegen.V0, Integer.toString(0));	
+        cg.genPush(Codegen.V0);
 	}
     private int myLineNum;
     private int myCharNum;
 }
 
 class IdNode extends ExpNode {
-    public IdNode(int lineNum, int charNum, String strVal) {
+    /**
+     * nameId is the number of strVal in the NameTable of the program.
+     */
+    public IdNode(int lineNum, int charNum, String strVal, int nameId) {
         myLineNum = lineNum;
         myCharNum = charNum;
         myStrVal = strVal;
+        myNameId = nameId;
     }
 
     /**
@@ -1844,6 +2748,14 @@ class IdNode extends ExpNode {
     public String name() {
         return myStrVal;
     }
+
+    /**
+     * Return the number of the name of this ID in the NameTable of the
+     * program.
+     */
+    public int nameId() {
+        return myNameId;
+    }
     
     /**
      * Return the symbol associated with this ID.
@@ -1872,10 +2784,10 @@ class IdNode extends ExpNode {
      * - check for use of undeclared name
      * - if ok, link to symbol table entry
      */
-    public void nameAnalysis(SymTable symTab) {
-        Sym sym = symTab.lookupGlobal(myStrVal);
+    public void nameAnalysis(SymTable symTab, CompileContext ctx) {
+        Sym sym = symTab.lookupGlobal(myNameId);
         if (sym == null) {
-            ErrMsg.fatal(myLineNum, myCharNum, "Undeclared identifier");
+            ctx.errMsg.fatal(myLineNum, myCharNum, "Undeclared identifier");
         } else {
             link(sym);
         }
@@ -1884,7 +2796,7 @@ class IdNode extends ExpNode {
     /**
      * typeCheck
      */
-    public Type typeCheck() {
+    public Type typeCheck(CompileContext ctx) {
         if (mySym != null) {
             return mySym.getType();
         } 
@@ -1901,20 +2813,48 @@ class IdNode extends ExpNode {
             p.print("(" + mySym + ")");
         }
     }
+
+    /**
+     * write
+     */
+    public void write(AstWriter w) throws IOException {
+        w.writeTag(this);
+        w.writeInt(myLineNum);
+        w.writeInt(myCharNum);
+        w.writeString(myStrVal);
+        w.writeSym(mySym);
+    }
+    @Override
+	public void codeGen(Codegen cg) {
+        genAccess(cg, "lw", Codegen.V0);
+        cg.genPush(Codegen.V0);
+        cg.p.println();
+    }
+
     @Override
-	public void codeGen() {
-        if(mySym.isGlobal) {
-            Codegen.generate("lw", Codegen.V0, "_" + myStrVal);
+    public void genAccess(Codegen cg, String opcode, String reg) {
+        genAccess(cg, opcode, reg, 0);
+    }
+
+    /**
+     * genAccess
+     * Generate the one instruction that loads (lw) or stores (sw) register
+     * reg at the given offset into this variable: through its label if it
+     * is a global, from $fp otherwise.
+     */
+    public void genAccess(Codegen cg, String opcode, String reg, int offset) {
+        if (mySym.isGlobal) {
+            cg.generate(opcode, reg, "_" + myStrVal
+                                     + (offset == 0 ? "" : "+" + offset));
         } else {
-            Codegen.generateIndexed("lw", Codegen.V0, Codegen.FP, mySym.offset);
+            cg.generateIndexed(opcode, reg, Codegen.FP, mySym.offset + offset);
         }
-        Codegen.genPush(Codegen.V0);
-        Codegen.p.println();
     }
     
     private int myLineNum;
     private int myCharNum;
     private String myStrVal;
+    private int myNameId;
     private Sym mySym;
 }
 
@@ -1957,12 +2897,12 @@ class DotAccessExpNode extends ExpNode {
      *   a dot-access "higher up" in the AST can get access to the symbol
      *   table for the appropriate struct definition
      */
-    public void nameAnalysis(SymTable symTab) {
+    public void nameAnalysis(SymTable symTab, CompileContext ctx) {
         badAccess = false;
         SymTable structSymTab = null; // to lookup RHS of dot-access
         Sym sym = null;
         
-        myLoc.nameAnalysis(symTab);  // do name analysis on LHS
+        myLoc.nameAnalysis(symTab, ctx);  // do name analysis on LHS
         
         // if myLoc is really an ID, then sym will be a link to the ID's symbol
         if (myLoc instanceof IdNode) {
@@ -1980,8 +2920,8 @@ class DotAccessExpNode extends ExpNode {
                 structSymTab = ((StructDefSym)tempSym).getSymTable();
             } 
             else {  // LHS is not a struct type
-                ErrMsg.fatal(id.lineNum(), id.charNum(), 
-                             "Dot-access of non-struct type");
+                ctx.errMsg.fatal(id.lineNum(), id.charNum(), 
+                                 "Dot-access of non-struct type");
                 badAccess = true;
             }
         }
@@ -2000,8 +2940,8 @@ class DotAccessExpNode extends ExpNode {
                 sym = loc.sym();
 
                 if (sym == null) {  // no struct in which to look up RHS
-                    ErrMsg.fatal(loc.lineNum(), loc.charNum(), 
-                                 "Dot-access of non-struct type");
+                    ctx.errMsg.fatal(loc.lineNum(), loc.charNum(), 
+                                     "Dot-access of non-struct type");
                     badAccess = true;
                 }
                 else {  // get the struct's symbol table in which to lookup RHS
@@ -2025,10 +2965,10 @@ class DotAccessExpNode extends ExpNode {
         // do name analysis on RHS of dot-access in the struct's symbol table
         if (!badAccess) {
         
-            sym = structSymTab.lookupGlobal(myId.name()); // lookup
+            sym = structSymTab.lookupGlobal(myId.nameId()); // lookup
             if (sym == null) { // not found - RHS is not a valid field name
-                ErrMsg.fatal(myId.lineNum(), myId.charNum(), 
-                             "Invalid struct field name");
+                ctx.errMsg.fatal(myId.lineNum(), myId.charNum(), 
+                                 "Invalid struct field name");
                 badAccess = true;
             }
             
@@ -2046,19 +2986,58 @@ class DotAccessExpNode extends ExpNode {
     /**
      * typeCheck
      */
-    public Type typeCheck() {
-        return myId.typeCheck();
+    public Type typeCheck(CompileContext ctx) {
+        return myId.typeCheck(ctx);
     }
     
     public void unparse(PrintWriter p, int indent) {
         myLoc.unparse(p, 0);
         p.print(".");
         myId.unparse(p, 0);
+        if (myId.sym() != null) {
+            p.print("(+" + myId.sym().offset + ")");
+        }
+    }
+
+    /**
+     * write
+     */
+    public void write(AstWriter w) throws IOException {
+        w.writeTag(this);
+        w.writeNode(myLoc);
+        w.writeNode(myId);
+        w.writeSym(mySym);
+    }
+
+    /**
+     * Link the given struct-definition symbol to this dot-access.
+     */
+    void link(Sym sym) {
+        mySym = sym;
     }
     @Override
-	public void codeGen() {
-		// DotAccess
+	public void codeGen(Codegen cg) {
+        genAccess(cg, "lw", Codegen.V0);
+        cg.genPush(Codegen.V0);
+        cg.p.println();
 	}
+
+    /**
+     * genAccess
+     * The layout of every struct is known, so the whole chain of
+     * dot-accesses folds into one offset into the variable at its root.
+     */
+    @Override
+    public void genAccess(Codegen cg, String opcode, String reg) {
+        int offset = 0;
+        ExpNode loc = this;
+        while (loc instanceof DotAccessExpNode) {
+            DotAccessExpNode access = (DotAccessExpNode)loc;
+            offset += access.myId.sym().offset;
+            loc = access.myLoc;
+        }
+        ((IdNode)loc).genAccess(cg, opcode, reg, offset);
+    }
     // 2 kids
     private ExpNode myLoc;    
     private IdNode myId;
@@ -2095,41 +3074,41 @@ class AssignNode extends ExpNode {
      * Given a symbol table symTab, perform name analysis on this node's 
      * two children
      */
-    public void nameAnalysis(SymTable symTab) {
-        myLhs.nameAnalysis(symTab);
-        myExp.nameAnalysis(symTab);
+    public void nameAnalysis(SymTable symTab, CompileContext ctx) {
+        myLhs.nameAnalysis(symTab, ctx);
+        myExp.nameAnalysis(symTab, ctx);
     }
  
     /**
      * typeCheck
      */
-    public Type typeCheck() {
-        Type typeLhs = myLhs.typeCheck();
-        Type typeExp = myExp.typeCheck();
+    public Type typeCheck(CompileContext ctx) {
+        Type typeLhs = myLhs.typeCheck(ctx);
+        Type typeExp = myExp.typeCheck(ctx);
         Type retType = typeLhs;
         
         if (typeLhs.isFnType() && typeExp.isFnType()) {
-            ErrMsg.fatal(lineNum(), charNum(), "Function assignment");
-            retType = new ErrorType();
+            ctx.errMsg.fatal(lineNum(), charNum(), "Function assignment");
+            retType = Type.ERROR;
         }
         
         if (typeLhs.isStructDefType() && typeExp.isStructDefType()) {
-            ErrMsg.fatal(lineNum(), charNum(), "Struct name assignment");
-            retType = new ErrorType();
+            ctx.errMsg.fatal(lineNum(), charNum(), "Struct name assignment");
+            retType = Type.ERROR;
         }
         
         if (typeLhs.isStructType() && typeExp.isStructType()) {
-            ErrMsg.fatal(lineNum(), charNum(), "Struct variable assignment");
-            retType = new ErrorType();
+            ctx.errMsg.fatal(lineNum(), charNum(), "Struct variable assignment");
+            retType = Type.ERROR;
         }        
         
         if (!typeLhs.equals(typeExp) && !typeLhs.isErrorType() && !typeExp.isErrorType()) {
-            ErrMsg.fatal(lineNum(), charNum(), "Type mismatch");
-            retType = new ErrorType();
+            ctx.errMsg.fatal(lineNum(), charNum(), "Type mismatch");
+            retType = Type.ERROR;
         }
         
         if (typeLhs.isErrorType() || typeExp.isErrorType()) {
-            retType = new ErrorType();
+            retType = Type.ERROR;
         }
         
         return retType;
@@ -2143,19 +3122,21 @@ class AssignNode extends ExpNode {
         if (indent != -1)  p.print(")");
     }
 
-    @Override
-	public void codeGen() {
-        myExp.codeGen();
-        Codegen.genPop(Codegen.V0);
-        
-        Sym sym = ((IdNode) myLhs).sym();
+    /**
+     * write
+     */
+    public void write(AstWriter w) throws IOException {
+        w.writeTag(this);
+        w.writeNode(myLhs);
+        w.writeNode(myExp);
+    }
 
-        if(sym.isGlobal){
-            Codegen.generate("sw", Codegen.V0, "_" + ((IdNode) myLhs).name());
-        } else {
-            Codegen.generateIndexed("sw", Codegen.V0, Codegen.FP, sym.offset);
-        }
-        Codegen.p.println();
+    @Override
+	public void codeGen(Codegen cg) {
+        myExp.codeGen(cg);
+        cg.genPop(Codegen.V0);
+        myLhs.genAccess(cg, "sw", Codegen.V0);
+        cg.p.println();
     }
     
     // 2 kids
@@ -2195,19 +3176,19 @@ class CallExpNode extends ExpNode {
      * Given a symbol table symTab, perform name analysis on this node's 
      * two children
      */
-    public void nameAnalysis(SymTable symTab) {
-        myId.nameAnalysis(symTab);
-        myExpList.nameAnalysis(symTab);
+    public void nameAnalysis(SymTable symTab, CompileContext ctx) {
+        myId.nameAnalysis(symTab, ctx);
+        myExpList.nameAnalysis(symTab, ctx);
     }  
       
     /**
      * typeCheck
      */
-    public Type typeCheck() {
-        if (!myId.typeCheck().isFnType()) {  
-            ErrMsg.fatal(myId.lineNum(), myId.charNum(), 
-                         "Attempt to call a non-function");
-            return new ErrorType();
+    public Type typeCheck(CompileContext ctx) {
+        if (!myId.typeCheck(ctx).isFnType()) {  
+            ctx.errMsg.fatal(myId.lineNum(), myId.charNum(), 
+                             "Attempt to call a non-function");
+            return Type.ERROR;
         }
         
         FnSym fnSym = (FnSym)(myId.sym());
@@ -2218,12 +3199,12 @@ class CallExpNode extends ExpNode {
         }
         
         if (myExpList.size() != fnSym.getNumParams()) {
-            ErrMsg.fatal(myId.lineNum(), myId.charNum(), 
-                         "Function call with wrong number of args");
+            ctx.errMsg.fatal(myId.lineNum(), myId.charNum(), 
+                             "Function call with wrong number of args");
             return fnSym.getReturnType();
         }
         
-        myExpList.typeCheck(fnSym.getParamTypes());
+        myExpList.typeCheck(fnSym.getParamTypes(), ctx);
         return fnSym.getReturnType();
     }
         
@@ -2237,10 +3218,19 @@ class CallExpNode extends ExpNode {
         p.print(")");
     }
 
+    /**
+     * write
+     */
+    public void write(AstWriter w) throws IOException {
+        w.writeTag(this);
+        w.writeNode(myId);
+        w.writeNode(myExpList);
+    }
+
     @Override
-	public void codeGen() {
-        myExpList.codeGen();
-        Codegen.generate("jal", myId.name());
+	public void codeGen(Codegen cg) {
+        myExpList.codeGen(cg);
+        cg.generate("jal", myId.name());
     }
     
     // 2 kids
@@ -2273,10 +3263,18 @@ abstract class UnaryExpNode extends ExpNode {
      * nameAnalysis
      * Given a symbol table symTab, perform name analysis on this node's child
      */
-    public void nameAnalysis(SymTable symTab) {
-        myExp.nameAnalysis(symTab);
+    public void nameAnalysis(SymTable symTab, CompileContext ctx) {
+        myExp.nameAnalysis(symTab, ctx);
     }
     
+    /**
+     * write
+     */
+    public void write(AstWriter w) throws IOException {
+        w.writeTag(this);
+        w.writeNode(myExp);
+    }
+
     // one child
     protected ExpNode myExp;
 }
@@ -2308,11 +3306,20 @@ abstract class BinaryExpNode extends ExpNode {
      * Given a symbol table symTab, perform name analysis on this node's 
      * two children
      */
-    public void nameAnalysis(SymTable symTab) {
-        myExp1.nameAnalysis(symTab);
-        myExp2.nameAnalysis(symTab);
+    public void nameAnalysis(SymTable symTab, CompileContext ctx) {
+        myExp1.nameAnalysis(symTab, ctx);
+        myExp2.nameAnalysis(symTab, ctx);
     }
     
+    /**
+     * write
+     */
+    public void write(AstWriter w) throws IOException {
+        w.writeTag(this);
+        w.writeNode(myExp1);
+        w.writeNode(myExp2);
+    }
+
     // two kids
     protected ExpNode myExp1;
     protected ExpNode myExp2;
@@ -2330,18 +3337,18 @@ class UnaryMinusNode extends UnaryExpNode {
     /**
      * typeCheck
      */
-    public Type typeCheck() {
-        Type type = myExp.typeCheck();
-        Type retType = new IntType();
+    public Type typeCheck(CompileContext ctx) {
+        Type type = myExp.typeCheck(ctx);
+        Type retType = Type.INT;
         
         if (!type.isErrorType() && !type.isIntType()) {
-            ErrMsg.fatal(lineNum(), charNum(),
-                         "Arithmetic operator applied to non-numeric operand");
-            retType = new ErrorType();
+            ctx.errMsg.fatal(lineNum(), charNum(),
+                             "Arithmetic operator applied to non-numeric operand");
+            retType = Type.ERROR;
         }
         
         if (type.isErrorType()) {
-            retType = new ErrorType();
+            retType = Type.ERROR;
         }
         
         return retType;
@@ -2354,12 +3361,12 @@ class UnaryMinusNode extends UnaryExpNode {
     }
 
     @Override
-	public void codeGen() {
-        myExp.codeGen();
-        Codegen.genPop(Codegen.V0);
-        Codegen.generate("li", Codegen.V1, "0");
-        Codegen.generate("sub", Codegen.V0, Codegen.V1, Codegen.V0);
-        Codegen.genPush(Codegen.V0);
+	public void codeGen(Codegen cg) {
+        myExp.codeGen(cg);
+        cg.genPop(Codegen.V0);
+        cg.generate("li", Codegen.V1, "0");
+        cg.generate("sub", Codegen.V0, Codegen.V1, Codegen.V0);
+        cg.genPush(Codegen.V0);
 	}
 }
 
@@ -2371,18 +3378,18 @@ class NotNode extends UnaryExpNode {
     /**
      * typeCheck
      */
-    public Type typeCheck() {
-        Type type = myExp.typeCheck();
-        Type retType = new BoolType();
+    public Type typeCheck(CompileContext ctx) {
+        Type type = myExp.typeCheck(ctx);
+        Type retType = Type.BOOL;
         
         if (!type.isErrorType() && !type.isBoolType()) {
-            ErrMsg.fatal(lineNum(), charNum(),
-                         "Logical operator applied to non-bool operand");
-            retType = new ErrorType();
+            ctx.errMsg.fatal(lineNum(), charNum(),
+                             "Logical operator applied to non-bool operand");
+            retType = Type.ERROR;
         }
         
         if (type.isErrorType()) {
-            retType = new ErrorType();
+            retType = Type.ERROR;
         }
         
         return retType;
@@ -2395,12 +3402,12 @@ class NotNode extends UnaryExpNode {
     }
     
     @Override
-	public void codeGen() {
-        myExp.codeGen();
-        Codegen.genPop(Codegen.V0);
-        Codegen.generate("li", Codegen.V1, "0");
-        Codegen.generate("seq", Codegen.V0, Codegen.V0, Codegen.V1);
-        Codegen.genPush(Codegen.V0);
+	public void codeGen(Codegen cg) {
+        myExp.codeGen(cg);
+        cg.genPop(Codegen.V0);
+        cg.generate("li", Codegen.V1, "0");
+        cg.generate("seq", Codegen.V0, Codegen.V0, Codegen.V1);
+        cg.genPush(Codegen.V0);
 	}
 }
 
@@ -2416,25 +3423,25 @@ abstract class ArithmeticExpNode extends BinaryExpNode {
     /**
      * typeCheck
      */
-    public Type typeCheck() {
-        Type type1 = myExp1.typeCheck();
-        Type type2 = myExp2.typeCheck();
-        Type retType = new IntType();
+    public Type typeCheck(CompileContext ctx) {
+        Type type1 = myExp1.typeCheck(ctx);
+        Type type2 = myExp2.typeCheck(ctx);
+        Type retType = Type.INT;
         
         if (!type1.isErrorType() && !type1.isIntType()) {
-            ErrMsg.fatal(myExp1.lineNum(), myExp1.charNum(),
-                         "Arithmetic operator applied to non-numeric operand");
-            retType = new ErrorType();
+            ctx.errMsg.fatal(myExp1.lineNum(), myExp1.charNum(),
+                             "Arithmetic operator applied to non-numeric operand");
+            retType = Type.ERROR;
         }
         
         if (!type2.isErrorType() && !type2.isIntType()) {
-            ErrMsg.fatal(myExp2.lineNum(), myExp2.charNum(),
-                         "Arithmetic operator applied to non-numeric operand");
-            retType = new ErrorType();
+            ctx.errMsg.fatal(myExp2.lineNum(), myExp2.charNum(),
+                             "Arithmetic operator applied to non-numeric operand");
+            retType = Type.ERROR;
         }
         
         if (type1.isErrorType() || type2.isErrorType()) {
-            retType = new ErrorType();
+            retType = Type.ERROR;
         }
         
         return retType;
@@ -2449,25 +3456,25 @@ abstract class LogicalExpNode extends BinaryExpNode {
     /**
      * typeCheck
      */
-    public Type typeCheck() {
-        Type type1 = myExp1.typeCheck();
-        Type type2 = myExp2.typeCheck();
-        Type retType = new BoolType();
+    public Type typeCheck(CompileContext ctx) {
+        Type type1 = myExp1.typeCheck(ctx);
+        Type type2 = myExp2.typeCheck(ctx);
+        Type retType = Type.BOOL;
         
         if (!type1.isErrorType() && !type1.isBoolType()) {
-            ErrMsg.fatal(myExp1.lineNum(), myExp1.charNum(),
-                         "Logical operator applied to non-bool operand");
-            retType = new ErrorType();
+            ctx.errMsg.fatal(myExp1.lineNum(), myExp1.charNum(),
+                             "Logical operator applied to non-bool operand");
+            retType = Type.ERROR;
         }
         
         if (!type2.isErrorType() && !type2.isBoolType()) {
-            ErrMsg.fatal(myExp2.lineNum(), myExp2.charNum(),
-                         "Logical operator applied to non-bool operand");
-            retType = new ErrorType();
+            ctx.errMsg.fatal(myExp2.lineNum(), myExp2.charNum(),
+                             "Logical operator applied to non-bool operand");
+            retType = Type.ERROR;
         }
         
         if (type1.isErrorType() || type2.isErrorType()) {
-            retType = new ErrorType();
+            retType = Type.ERROR;
         }
         
         return retType;
@@ -2482,43 +3489,43 @@ abstract class EqualityExpNode extends BinaryExpNode {
     /**
      * typeCheck
      */
-    public Type typeCheck() {
-        Type type1 = myExp1.typeCheck();
-        Type type2 = myExp2.typeCheck();
-        Type retType = new BoolType();
+    public Type typeCheck(CompileContext ctx) {
+        Type type1 = myExp1.typeCheck(ctx);
+        Type type2 = myExp2.typeCheck(ctx);
+        Type retType = Type.BOOL;
         
         if (type1.isVoidType() && type2.isVoidType()) {
-            ErrMsg.fatal(lineNum(), charNum(),
-                         "Equality operator applied to void functions");
-            retType = new ErrorType();
+            ctx.errMsg.fatal(lineNum(), charNum(),
+                             "Equality operator applied to void functions");
+            retType = Type.ERROR;
         }
         
         if (type1.isFnType() && type2.isFnType()) {
-            ErrMsg.fatal(lineNum(), charNum(),
-                         "Equality operator applied to functions");
-            retType = new ErrorType();
+            ctx.errMsg.fatal(lineNum(), charNum(),
+                             "Equality operator applied to functions");
+            retType = Type.ERROR;
         }
         
         if (type1.isStructDefType() && type2.isStructDefType()) {
-            ErrMsg.fatal(lineNum(), charNum(),
-                         "Equality operator applied to struct names");
-            retType = new ErrorType();
+            ctx.errMsg.fatal(lineNum(), charNum(),
+                             "Equality operator applied to struct names");
+            retType = Type.ERROR;
         }
         
         if (type1.isStructType() && type2.isStructType()) {
-            ErrMsg.fatal(lineNum(), charNum(),
-                         "Equality operator applied to struct variables");
-            retType = new ErrorType();
+            ctx.errMsg.fatal(lineNum(), charNum(),
+                             "Equality operator applied to struct variables");
+            retType = Type.ERROR;
         }        
         
         if (!type1.equals(type2) && !type1.isErrorType() && !type2.isErrorType()) {
-            ErrMsg.fatal(lineNum(), charNum(),
-                         "Type mismatch");
-            retType = new ErrorType();
+            ctx.errMsg.fatal(lineNum(), charNum(),
+                             "Type mismatch");
+            retType = Type.ERROR;
         }
         
         if (type1.isErrorType() || type2.isErrorType()) {
-            retType = new ErrorType();
+            retType = Type.ERROR;
         }
         
         return retType;
@@ -2533,25 +3540,25 @@ abstract class RelationalExpNode extends BinaryExpNode {
     /**
      * typeCheck
      */
-    public Type typeCheck() {
-        Type type1 = myExp1.typeCheck();
-        Type type2 = myExp2.typeCheck();
-        Type retType = new BoolType();
+    public Type typeCheck(CompileContext ctx) {
+        Type type1 = myExp1.typeCheck(ctx);
+        Type type2 = myExp2.typeCheck(ctx);
+        Type retType = Type.BOOL;
         
         if (!type1.isErrorType() && !type1.isIntType()) {
-            ErrMsg.fatal(myExp1.lineNum(), myExp1.charNum(),
-                         "Relational operator applied to non-numeric operand");
-            retType = new ErrorType();
+            ctx.errMsg.fatal(myExp1.lineNum(), myExp1.charNum(),
+                             "Relational operator applied to non-numeric operand");
+            retType = Type.ERROR;
         }
         
         if (!type2.isErrorType() && !type2.isIntType()) {
-            ErrMsg.fatal(myExp2.lineNum(), myExp2.charNum(),
-                         "Relational operator applied to non-numeric operand");
-            retType = new ErrorType();
+            ctx.errMsg.fatal(myExp2.lineNum(), myExp2.charNum(),
+                             "Relational operator applied to non-numeric operand");
+            retType = Type.ERROR;
         }
         
         if (type1.isErrorType() || type2.isErrorType()) {
-            retType = new ErrorType();
+            retType = Type.ERROR;
         }
         
         return retType;
@@ -2572,14 +3579,14 @@ class PlusNode extends ArithmeticExpNode {
     }
 
     @Override
-	public void codeGen() {
-        myExp1.codeGen();
-        myExp2.codeGen();
-        Codegen.genPop(Codegen.V1);
-        Codegen.genPop(Codegen.V0);
-        Codegen.generate("add", Codegen.V0, Codegen.V0, Codegen.V1);
-        Codegen.genPush(Codegen.V0);
-        Codegen.p.println();
+	public void codeGen(Codegen cg) {
+        myExp1.codeGen(cg);
+        myExp2.codeGen(cg);
+        cg.genPop(Codegen.V1);
+        cg.genPop(Codegen.V0);
+        cg.generate("add", Codegen.V0, Codegen.V0, Codegen.V1);
+        cg.genPush(Codegen.V0);
+        cg.p.println();
 	}
 }
 
@@ -2597,14 +3604,14 @@ class MinusNode extends ArithmeticExpNode {
     }
 
     @Override
-	public void codeGen() {
-        myExp1.codeGen();
-        myExp2.codeGen();
-        Codegen.genPop(Codegen.V1);
-        Codegen.genPop(Codegen.V0);
-        Codegen.generate("sub", Codegen.V0, Codegen.V0, Codegen.V1);
-        Codegen.genPush(Codegen.V0);
-        Codegen.p.println();
+	public void codeGen(Codegen cg) {
+        myExp1.codeGen(cg);
+        myExp2.codeGen(cg);
+        cg.genPop(Codegen.V1);
+        cg.genPop(Codegen.V0);
+        cg.generate("sub", Codegen.V0, Codegen.V0, Codegen.V1);
+        cg.genPush(Codegen.V0);
+        cg.p.println();
 	}
 }
 
@@ -2623,15 +3630,15 @@ class TimesNode extends ArithmeticExpNode {
     }
     
     @Override
-	public void codeGen() {
-        myExp1.codeGen();
-        myExp2.codeGen();
-        Codegen.genPop(Codegen.V1);
-        Codegen.genPop(Codegen.V0);
-        Codegen.generate("mult", Codegen.V0, Codegen.V1);
-        Codegen.generate("mflo", Codegen.V0);
-        Codegen.genPush(Codegen.V0);
-        Codegen.p.println();
+	public void codeGen(Codegen cg) {
+        myExp1.codeGen(cg);
+        myExp2.codeGen(cg);
+        cg.genPop(Codegen.V1);
+        cg.genPop(Codegen.V0);
+        cg.generate("mult", Codegen.V0, Codegen.V1);
+        cg.generate("mflo", Codegen.V0);
+        cg.genPush(Codegen.V0);
+        cg.p.println();
 	}
 }
 
@@ -2649,15 +3656,15 @@ class DivideNode extends ArithmeticExpNode {
     }
     
     @Override
-	public void codeGen() {
-        myExp1.codeGen();
-        myExp2.codeGen();
-        Codegen.genPop(Codegen.V1);
-        Codegen.genPop(Codegen.V0);
-        Codegen.generate("div", Codegen.V0, Codegen.V1);
-        Codegen.generate("mflo", Codegen.V0);
-        Codegen.genPush(Codegen.V0);
-        Codegen.p.println();
+	public void codeGen(Codegen cg) {
+        myExp1.codeGen(cg);
+        myExp2.codeGen(cg);
+        cg.genPop(Codegen.V1);
+        cg.genPop(Codegen.V0);
+        cg.generate("div", Codegen.V0, Codegen.V1);
+        cg.generate("mflo", Codegen.V0);
+        cg.genPush(Codegen.V0);
+        cg.p.println();
 	}
 }
 
@@ -2674,23 +3681,23 @@ class AndNode extends LogicalExpNode {
         p.print(")");
     }
     @Override
-	public void codeGen() {
-        String endLabel = Codegen.nextLabel();
-        String falseLabel = Codegen.nextLabel();
+	public void codeGen(Codegen cg) {
+        String endLabel = cg.nextLabel();
+        String falseLabel = cg.nextLabel();
 
-        myExp1.codeGen();
-        Codegen.genPop(Codegen.V0);
-        Codegen.generate("li", Codegen.V1, "0");
+        myExp1.codeGen(cg);
+        cg.genPop(Codegen.V0);
+        cg.generate("li", Codegen.V1, "0");
         
-        Codegen.generate("beq", Codegen.V0, Codegen.V1, falseLabel);
+        cg.generate("beq", Codegen.V0, Codegen.V1, falseLabel);
         
-        myExp2.codeGen();
-        Codegen.generate("j", endLabel);
+        myExp2.codeGen(cg);
+        cg.generate("j", endLabel);
         
-        Codegen.p.println(falseLabel + ": ");
-        Codegen.genPush(Codegen.V0);
+        cg.p.println(falseLabel + ": ");
+        cg.genPush(Codegen.V0);
 
-        Codegen.p.println(endLabel + ": ");
+        cg.p.println(endLabel + ": ");
 	}
 }
 
@@ -2708,23 +3715,23 @@ class OrNode extends LogicalExpNode {
     }
     
     @Override
-	public void codeGen() {
-		String endLabel = Codegen.nextLabel();
-        String trueLabel = Codegen.nextLabel();
+	public void codeGen(Codegen cg) {
+		String endLabel = cg.nextLabel();
+        String trueLabel = cg.nextLabel();
 
-        myExp1.codeGen();
-        Codegen.genPop(Codegen.V0);
-        Codegen.generate("li", Codegen.V1, "1");
+        myExp1.codeGen(cg);
+        cg.genPop(Codegen.V0);
+        cg.generate("li", Codegen.V1, "1");
         
-        Codegen.generate("beq", Codegen.V0, Codegen.V1, trueLabel);
+        cg.generate("beq", Codegen.V0, Codegen.V1, trueLabel);
         
-        myExp2.codeGen();
-        Codegen.generate("j", endLabel);
+        myExp2.codeGen(cg);
+        cg.generate("j", endLabel);
         
-        Codegen.p.println(trueLabel + ": ");
-        Codegen.genPush(Codegen.V0);
+        cg.p.println(trueLabel + ": ");
+        cg.genPush(Codegen.V0);
 
-        Codegen.p.println(endLabel + ": ");
+        cg.p.println(endLabel + ": ");
 	}
 }
 
@@ -2742,25 +3749,25 @@ class EqualsNode extends EqualityExpNode {
     }
 
     @Override
-	public void codeGen() {
+	public void codeGen(Codegen cg) {
         if (myExp1 instanceof StringLitNode && myExp2 instanceof StringLitNode){
             String str1 = ((StringLitNode) myExp1).toString();
             String str2 = ((StringLitNode) myExp2).toString();
 
-            Codegen.generate("li", Codegen.V0, str1.equals(str2) ? "1" : "0");
-            Codegen.genPush(Codegen.V0);
+            cg.generate("li", Codegen.V0, str1.equals(str2) ? "1" : "0");
+            cg.genPush(Codegen.V0);
             
             return;
         } 
 
-        myExp1.codeGen();
-        myExp2.codeGen();
-        Codegen.genPop(Codegen.V1);
-        Codegen.genPop(Codegen.V0);
+        myExp1.codeGen(cg);
+        myExp2.codeGen(cg);
+        cg.genPop(Codegen.V1);
+        cg.genPop(Codegen.V0);
         
-        Codegen.generate("seq", Codegen.V0, Codegen.V0, Codegen.V1);
+        cg.generate("seq", Codegen.V0, Codegen.V0, Codegen.V1);
 
-        Codegen.genPush(Codegen.V0);
+        cg.genPush(Codegen.V0);
 	}
 }
 
@@ -2778,25 +3785,25 @@ class NotEqualsNode extends EqualityExpNode {
     }
 
     @Override
-	public void codeGen() {
+	public void codeGen(Codegen cg) {
         if (myExp1 instanceof StringLitNode && myExp2 instanceof StringLitNode){
             String str1 = ((StringLitNode) myExp1).toString();
             String str2 = ((StringLitNode) myExp2).toString();
 
-            Codegen.generate("li", Codegen.V0, str1.equals(str2) ? "0" : "1");
-            Codegen.genPush(Codegen.V0);
+            cg.generate("li", Codegen.V0, str1.equals(str2) ? "0" : "1");
+            cg.genPush(Codegen.V0);
             
             return;
         } 
 
-        myExp1.codeGen();
-        myExp2.codeGen();
-        Codegen.genPop(Codegen.V1);
-        Codegen.genPop(Codegen.V0);
+        myExp1.codeGen(cg);
+        myExp2.codeGen(cg);
+        cg.genPop(Codegen.V1);
+        cg.genPop(Codegen.V0);
         
-        Codegen.generate("sne", Codegen.V0, Codegen.V0, Codegen.V1);
+        cg.generate("sne", Codegen.V0, Codegen.V0, Codegen.V1);
 
-        Codegen.genPush(Codegen.V0);
+        cg.genPush(Codegen.V0);
 	}
 }
 
@@ -2814,15 +3821,15 @@ class LessNode extends RelationalExpNode {
     }
 
     @Override
-	public void codeGen() {
-		myExp1.codeGen();
-        myExp2.codeGen();
-        Codegen.genPop(Codegen.V1);
-        Codegen.genPop(Codegen.V0);
+	public void codeGen(Codegen cg) {
+		myExp1.codeGen(cg);
+        myExp2.codeGen(cg);
+        cg.genPop(Codegen.V1);
+        cg.genPop(Codegen.V0);
         
-        Codegen.generate("slt", Codegen.V0, Codegen.V0, Codegen.V1);
+        cg.generate("slt", Codegen.V0, Codegen.V0, Codegen.V1);
 
-        Codegen.genPush(Codegen.V0);
+        cg.genPush(Codegen.V0);
 	}
 }
 
@@ -2840,15 +3847,15 @@ class GreaterNode extends RelationalExpNode {
     }
 
     @Override
-	public void codeGen() {
-		myExp1.codeGen();
-        myExp2.codeGen();
-        Codegen.genPop(Codegen.V1);
-        Codegen.genPop(Codegen.V0);
+	public void codeGen(Codegen cg) {
+		myExp1.codeGen(cg);
+        myExp2.codeGen(cg);
+        cg.genPop(Codegen.V1);
+        cg.genPop(Codegen.V0);
         
-        Codegen.generate("sgt", Codegen.V0, Codegen.V0, Codegen.V1);
+        cg.generate("sgt", Codegen.V0, Codegen.V0, Codegen.V1);
 
-        Codegen.genPush(Codegen.V0);
+        cg.genPush(Codegen.V0);
 	}
 }
 
@@ -2866,15 +3873,15 @@ class LessEqNode extends RelationalExpNode {
     }
     
     @Override
-	public void codeGen() {
-		myExp1.codeGen();
-        myExp2.codeGen();
-        Codegen.genPop(Codegen.V1);
-        Codegen.genPop(Codegen.V0);
+	public void codeGen(Codegen cg) {
+		myExp1.codeGen(cg);
+        myExp2.codeGen(cg);
+        cg.genPop(Codegen.V1);
+        cg.genPop(Codegen.V0);
         
-        Codegen.generate("sle", Codegen.V0, Codegen.V0, Codegen.V1);
+        cg.generate("sle", Codegen.V0, Codegen.V0, Codegen.V1);
 
-        Codegen.genPush(Codegen.V0);
+        cg.genPush(Codegen.V0);
 	}
 }
 
@@ -2892,14 +3899,14 @@ class GreaterEqNode extends RelationalExpNode {
     }
     
     @Override
-	public void codeGen() {
-		myExp1.codeGen();
-        myExp2.codeGen();
-        Codegen.genPop(Codegen.V1);
-        Codegen.genPop(Codegen.V0);
+	public void codeGen(Codegen cg) {
+		myExp1.codeGen(cg);
+        myExp2.codeGen(cg);
+        cg.genPop(Codegen.V1);
+        cg.genPop(Codegen.V0);
         
-        Codegen.generate("sge", Codegen.V0, Codegen.V0, Codegen.V1);
+        cg.generate("sge", Codegen.V0, Codegen.V0, Codegen.V1);
 
-        Codegen.genPush(Codegen.V0);
+        cg.genPush(Codegen.V0);
 	}
 }
@@ -291,6 +291,8 @@ class CSpec
   boolean m_unix;
   boolean m_public;
   boolean m_ignorecase;
+  boolean m_compress; /* Emit row-displacement transition tables? */
+  boolean m_direct; /* Emit transitions as code instead of tables? */
 
   char m_init_code[];
   int m_init_read;
@@ -373,6 +375,8 @@ class CSpec
         m_public = false;
 	m_yyeof = false;
 	m_ignorecase = false;
+	m_compress = false;
+	m_direct = false;
 
 	/* Initialize variables for JLex runtime options. */
 	m_verbose = true;
@@ -1212,6 +1216,12 @@ class CEmit
 	  }
 	m_outstream.println("\t};");
 
+	if (m_spec.m_direct)
+	  {
+	    emit_direct_table();
+	    return;
+	  }
+
 	// CSA: modified yy_cmap to use string packing 9-Aug-1999
 	int[] yy_cmap = new int[m_spec.m_ccls_map.length];
 	for (i = 0; i < m_spec.m_ccls_map.length; ++i)
@@ -1237,6 +1247,11 @@ class CEmit
 	    CUtility.ASSERT(dtrans.m_dtrans.length==m_spec.m_dtrans_ncols);
 	    yy_nxt[elem] = dtrans.m_dtrans;
 	}
+	if (m_spec.m_compress)
+	  {
+	    emit_compressed_table(yy_nxt);
+	    return;
+	  }
 	m_outstream.print
 	  ("\tprivate int yy_nxt[][] = unpackFromString(");
 	emit_table_as_string(yy_nxt);
@@ -1244,6 +1259,234 @@ class CEmit
 	m_outstream.println();
       }
 
+  /***************************************************************
+    Function: emit_direct_table
+    Description: Emits the transition function as code instead
+    of tables: yy_move(state, lookahead) switches on the state
+    (states sharing a row of the transition table share a
+    case) and then finds the next state by a binary search,
+    written out as nested comparisons, over the ranges of
+    lookahead values that have the same next state.
+    **************************************************************/
+  private void emit_direct_table
+    (
+     )
+      throws java.io.IOException
+      {
+	int nrows = m_spec.m_dtrans_vector.size();
+	int nchars = m_spec.m_ccls_map.length;
+	int[] lo = new int[nchars];
+	int[] next = new int[nchars];
+	int nranges;
+	int row;
+	int c;
+	int i;
+	int state;
+	CDTrans dtrans;
+
+	m_outstream.println("\tprivate int yy_move (int yy_state, "
+			    + "int yy_lookahead) {");
+	m_outstream.println("\t\tswitch (yy_state) {");
+	for (row = 0; row < nrows; ++row)
+	  {
+	    for (i = 0; i < m_spec.m_row_map.length; ++i)
+	      {
+		if (row == m_spec.m_row_map[i])
+		  {
+		    m_outstream.println("\t\tcase " + i + ":");
+		  }
+	      }
+
+	    /* Split the lookahead values into ranges with the
+	       same next state. */
+	    dtrans = (CDTrans) m_spec.m_dtrans_vector.elementAt(row);
+	    nranges = 0;
+	    for (c = 0; c < nchars; ++c)
+	      {
+		state = dtrans.m_dtrans[m_spec.m_col_map[m_spec.m_ccls_map[c]]];
+		if (0 == nranges || state != next[nranges - 1])
+		  {
+		    lo[nranges] = c;
+		    next[nranges] = state;
+		    ++nranges;
+		  }
+	      }
+	    emit_direct_search(lo, next, 0, nranges - 1, "\t\t\t");
+	  }
+	m_outstream.println("\t\tdefault:");
+	m_outstream.println("\t\t\treturn YY_F;");
+	m_outstream.println("\t\t}");
+	m_outstream.println("\t}");
+	m_outstream.println();
+      }
+
+  /***************************************************************
+    Function: emit_direct_search
+    Description: Emits the comparisons that find which of the
+    ranges first..last holds yy_lookahead, each range running
+    from lo[i] to lo[i + 1] - 1, and return its next state.
+    **************************************************************/
+  private void emit_direct_search
+    (
+     int[] lo,
+     int[] next,
+     int first,
+     int last,
+     String indent
+     )
+      throws java.io.IOException
+      {
+	int mid;
+
+	if (first == last)
+	  {
+	    m_outstream.println(indent + "return " + next[first] + ";");
+	    return;
+	  }
+
+	mid = (first + last + 1) / 2;
+	m_outstream.println(indent + "if (yy_lookahead < " + lo[mid] + ") {");
+	emit_direct_search(lo, next, first, mid - 1, indent + "\t");
+	m_outstream.println(indent + "} else {");
+	emit_direct_search(lo, next, mid, last, indent + "\t");
+	m_outstream.println(indent + "}");
+      }
+
+  /***************************************************************
+    Function: emit_compressed_table
+    Description: Emits the transition table yy_nxt[row][col] as
+    row-displacement ("comb vector") tables.  Each row keeps
+    its most frequent entry in yy_def[row]; its other entries
+    are stored at yy_nxt[yy_base[row] + col], marked as its own
+    by yy_chk[yy_base[row] + col] == row.  Rows are placed,
+    densest first, at the lowest base where their entries do
+    not collide with those of rows already placed, so the
+    sparse rows fill the holes left by the dense ones.
+    **************************************************************/
+  private void emit_compressed_table
+    (
+     int[][] yy_nxt
+     )
+      throws java.io.IOException
+      {
+	int nrows = yy_nxt.length;
+	int ncols = m_spec.m_dtrans_ncols;
+	int[] yy_def = new int[nrows];
+	int[] yy_base = new int[nrows];
+	int[] count = new int[nrows];
+	int row;
+	int col;
+
+	/* Default entry and number of other entries of each row.
+	   An entry is a state or -1, so freq[entry + 1] counts it;
+	   it is cleared again after each row. */
+	int maxEntry = -1;
+	for (row = 0; row < nrows; ++row)
+	  {
+	    for (col = 0; col < ncols; ++col)
+	      {
+		maxEntry = Math.max(maxEntry, yy_nxt[row][col]);
+	      }
+	  }
+	int[] freq = new int[maxEntry + 2];
+	for (row = 0; row < nrows; ++row)
+	  {
+	    int best = 0;
+	    for (col = 0; col < ncols; ++col)
+	      {
+		int c = ++freq[yy_nxt[row][col] + 1];
+		if (c > best || (c == best && yy_nxt[row][col] < yy_def[row]))
+		  {
+		    best = c;
+		    yy_def[row] = yy_nxt[row][col];
+		  }
+	      }
+	    for (col = 0; col < ncols; ++col)
+	      {
+		freq[yy_nxt[row][col] + 1] = 0;
+	      }
+	    count[row] = ncols - best;
+	  }
+
+	/* Rows by decreasing number of entries, then by number:
+	   sorting (ncols - count) << 32 | row in increasing order. */
+	long[] keys = new long[nrows];
+	for (row = 0; row < nrows; ++row)
+	  {
+	    keys[row] = ((long) (ncols - count[row]) << 32) | row;
+	  }
+	java.util.Arrays.sort(keys);
+	int[] order = new int[nrows];
+	for (row = 0; row < nrows; ++row)
+	  {
+	    order[row] = (int) keys[row];
+	  }
+
+	/* First fit. */
+	int[] chk = new int[nrows * ncols + ncols];
+	int[] nxt = new int[chk.length];
+	java.util.Arrays.fill(chk, -1);
+	int length = ncols;
+	for (int k = 0; k < nrows; ++k)
+	  {
+	    row = order[k];
+	    int base = 0;
+	    if (0 < count[row])
+	      {
+		for (;; ++base)
+		  {
+		    for (col = 0; col < ncols; ++col)
+		      {
+			if (yy_nxt[row][col] != yy_def[row]
+			    && -1 != chk[base + col])
+			  {
+			    break;
+			  }
+		      }
+		    if (col == ncols)
+		      {
+			break;
+		      }
+		  }
+		for (col = 0; col < ncols; ++col)
+		  {
+		    if (yy_nxt[row][col] != yy_def[row])
+		      {
+			chk[base + col] = row;
+			nxt[base + col] = yy_nxt[row][col];
+		      }
+		  }
+	      }
+	    yy_base[row] = base;
+	    length = Math.max(length, base + ncols);
+	  }
+
+	int[] yy_chk = new int[length];
+	int[] yy_nxt_packed = new int[length];
+	System.arraycopy(chk, 0, yy_chk, 0, length);
+	System.arraycopy(nxt, 0, yy_nxt_packed, 0, length);
+
+	m_outstream.print("\tprivate int yy_base[] = unpackFromString(");
+	emit_table_as_string(new int[][] { yy_base });
+	m_outstream.println(")[0];");
+	m_outstream.println();
+
+	m_outstream.print("\tprivate int yy_def[] = unpackFromString(");
+	emit_table_as_string(new int[][] { yy_def });
+	m_outstream.println(")[0];");
+	m_outstream.println();
+
+	m_outstream.print("\tprivate int yy_chk[] = unpackFromString(");
+	emit_table_as_string(new int[][] { yy_chk });
+	m_outstream.println(")[0];");
+	m_outstream.println();
+
+	m_outstream.print("\tprivate int yy_nxt[] = unpackFromString(");
+	emit_table_as_string(new int[][] { yy_nxt_packed });
+	m_outstream.println(")[0];");
+	m_outstream.println();
+      }
+
   /***************************************************************
     Function: emit_driver
     Description: Output an integer table as a string.  Written by
@@ -1394,6 +1637,11 @@ class CEmit
 	  m_outstream.println("\t\tint yy_last_accept_state = YY_NO_STATE;");
     	  m_outstream.println("\t\tboolean yy_initial = true;");
 	  m_outstream.println("\t\tint yy_this_accept;");
+	  if (m_spec.m_compress && !m_spec.m_direct)
+	    {
+	      m_outstream.println("\t\tint yy_row;");
+	      m_outstream.println("\t\tint yy_slot;");
+	    }
 	  m_outstream.println();
 
 	  m_outstream.println("\t\tyy_mark_start();");
@@ -1417,8 +1665,25 @@ class CEmit
 	  m_outstream.println("\t\t\tyy_next_state = YY_F;");
 	  /*m_outstream.println("\t\t\t\tyy_next_state = "
 				 + "yy_next(yy_state,yy_lookahead);");*/
-	  m_outstream.println("\t\t\tyy_next_state = "
- 	   + "yy_nxt[yy_rmap[yy_state]][yy_cmap[yy_lookahead]];");
+	  if (m_spec.m_direct)
+	    {
+	      m_outstream.println("\t\t\tyy_next_state = "
+				  + "yy_move(yy_state, yy_lookahead);");
+	    }
+	  else if (m_spec.m_compress)
+	    {
+	      m_outstream.println("\t\t\tyy_row = yy_rmap[yy_state];");
+	      m_outstream.println("\t\t\tyy_slot = yy_base[yy_row] "
+				  + "+ yy_cmap[yy_lookahead];");
+	      m_outstream.println("\t\t\tyy_next_state = (yy_chk[yy_slot] "
+				  + "== yy_row) ? yy_nxt[yy_slot] "
+				  + ": yy_def[yy_row];");
+	    }
+	  else
+	    {
+	      m_outstream.println("\t\t\tyy_next_state = "
+		+ "yy_nxt[yy_rmap[yy_state]][yy_cmap[yy_lookahead]];");
+	    }
 
 	  if (NOT_EDBG)
 	    {
@@ -1607,36 +1872,6 @@ class CEmit
       }
 }
 
-/***************************************************************
-  Class: CBunch
-  **************************************************************/
-class CBunch
-{
-  /***************************************************************
-    Member Variables
-    **************************************************************/
-  Vector m_nfa_set; /* Vector of CNfa states in dfa state. */
-  SparseBitSet m_nfa_bit; /* BitSet representation of CNfa labels. */
-  CAccept m_accept; /* Accepting actions, or null if nonaccepting state. */
-  int m_anchor; /* Anchors on regular expression. */
-  int m_accept_index; /* CNfa index corresponding to accepting actions. */
-
-  /***************************************************************
-    Function: CBunch
-    Description: Constructor.
-    **************************************************************/
-  CBunch
-    (
-     )
-      {
-	m_nfa_set = null;
-	m_nfa_bit = null;
-	m_accept = null;
-	m_anchor = CSpec.NONE;
-	m_accept_index = -1;
-      }
-}
-
 /***************************************************************
   Class: CMakeNfa
   **************************************************************/
@@ -2408,6 +2643,12 @@ class CMinimize
   Vector m_group;
   int m_ingroup[];
 
+  /***************************************************************
+    Constants
+    **************************************************************/
+  /* Hashtable key of the group of nonaccepting states. */
+  private static final Object NO_ACCEPT = new Object();
+
   /***************************************************************
     Function: CMinimize
     Description: Constructor.
@@ -2586,6 +2827,30 @@ class CMinimize
 	return true;
       }
 
+  /***************************************************************
+    Function: row_hash
+    Description: Returns a hash code of a row, equal for
+    equal rows.
+    **************************************************************/
+  private int row_hash
+    (
+     int row
+     )
+      {
+	int i;
+	int h;
+	CDTrans dtrans;
+
+	dtrans = (CDTrans) m_spec.m_dtrans_vector.elementAt(row);
+	h = 0;
+	for (i = 0; i < m_spec.m_dtrans_ncols; ++i)
+	  {
+	    h = 31 * h + dtrans.m_dtrans[i];
+	  }
+	h *= 0x9e3779b9;
+	return h ^ (h >>> 16);
+      }
+
   /***************************************************************
     Function: reduce
     Description: 
@@ -2603,6 +2868,8 @@ class CMinimize
 	SparseBitSet set;
 	CDTrans dtrans;
 	int size;
+	int index[];
+	int mask;
 
 	set = new SparseBitSet();
 	
@@ -2711,28 +2978,26 @@ class CMinimize
 	    m_spec.m_row_map[i] = -1;
 	  }
 
-	/* Process rows to reduce. */
-	for (reduced_nrows = 0; ; ++reduced_nrows)
+	/* Process rows to reduce, numbering them in order of
+	   first occurrence.  Equal rows are found through a hash
+	   index holding row + 1 for the first of each kind. */
+	index = new int[Integer.highestOneBit(4 * nrows + 1)];
+	mask = index.length - 1;
+	reduced_nrows = 0;
+	for (i = 0; i < nrows; ++i)
 	  {
-	    if (CUtility.DEBUG)
-	      {
-		for (i = 0; i < reduced_nrows; ++i)
-		  {
-		    CUtility.ASSERT(-1 != m_spec.m_row_map[i]);
-		  }
-	      }
-
-	    for (i = reduced_nrows; i < nrows; ++i)
+	    for (k = row_hash(i) & mask; 0 != index[k]; k = (k + 1) & mask)
 	      {
-		if (-1 == m_spec.m_row_map[i])
+		if (true == row_equiv(index[k] - 1,i))
 		  {
 		    break;
 		  }
 	      }
 
-	    if (i >= nrows)
+	    if (0 != index[k])
 	      {
-		break;
+		m_spec.m_row_map[i] = m_spec.m_row_map[index[k] - 1];
+		continue;
 	      }
 
 	    if (CUtility.DEBUG)
@@ -2742,17 +3007,8 @@ class CMinimize
 	      }
 
 	    set.set(i);
-
-	    m_spec.m_row_map[i] = reduced_nrows;
-	    
-	    /* UNDONE: Optimize by doing all comparisons in one batch. */
-	    for (j = i + 1; j < nrows; ++j)
-	      {
-		if (-1 == m_spec.m_row_map[j] && true == row_equiv(i,j))
-		  {
-		    m_spec.m_row_map[j] = reduced_nrows;
-		  }
-	      }
+	    index[k] = i + 1;
+	    m_spec.m_row_map[i] = reduced_nrows++;
 	  }
 
 	/* Reduce rows. */
@@ -2838,112 +3094,244 @@ class CMinimize
 
   /***************************************************************
     Function: minimize
-    Description: Removes redundant transition table states.
+    Description: Removes redundant transition table states,
+    using Hopcroft's partition refinement.  The states start
+    out grouped by accepting action (init_groups), with a sink
+    state standing for CDTrans.F in a group of its own.  A
+    worklist holds splitters: pairs of a group and a column.
+    Each splitter splits every group into the states that go
+    into the splitter's group on its column and those that
+    do not.  When a group is split, the new part is added to
+    the worklist for every column for which the group is on
+    it; for the other columns, the smaller part is added
+    (which is enough, as splitting by the group and by one
+    part splits by the other too).  The groups left when the
+    worklist is empty are numbered in the order of their
+    lowest-numbered states.
     **************************************************************/
   private void minimize
     (
      )
       {
-	Vector dtrans_group;
-	Vector new_group;
+	int nstates;
+	int ncols;
+	int sink;
 	int i;
-	int j;
-	int old_group_count;
-	int group_count;
-	CDTrans next;
-	CDTrans first;
-	int goto_first;
-	int goto_next;
 	int c;
-	int group_size;
-	boolean added;
+	int s;
+	int t;
+	int g;
+	int h;
+	int k;
+	int nsplit;
+	int ngroups;
+	int group_of[];
+	int elem[];
+	int loc[];
+	int first[];
+	int end[];
+	int marked[];
+	int touched[];
+	int ntouched;
+	int pred_start[];
+	int pred[];
+	int count[];
+	int splitter[];
+	int nsplitter;
+	int work[];
+	int nwork;
+	boolean on_work[];
+	CDTrans dtrans;
+	Vector dtrans_group;
 
+	nstates = m_spec.m_dtrans_vector.size();
+	ncols = m_spec.m_dtrans_ncols;
+	sink = nstates;
+
+	/* Inverse transitions: pred[pred_start[c * (nstates + 1) + t]
+	   .. pred_start[c * (nstates + 1) + t + 1] - 1] are the
+	   states that go to t on column c. */
+	count = new int[ncols * (nstates + 1) + 1];
+	for (s = 0; s < nstates; ++s)
+	  {
+	    dtrans = (CDTrans) m_spec.m_dtrans_vector.elementAt(s);
+	    for (c = 0; c < ncols; ++c)
+	      {
+		t = dtrans.m_dtrans[c];
+		++count[c * (nstates + 1) + (CDTrans.F == t ? sink : t) + 1];
+	      }
+	  }
+	pred_start = count;
+	for (i = 1; i < pred_start.length; ++i)
+	  {
+	    pred_start[i] += pred_start[i - 1];
+	  }
+	pred = new int[nstates * ncols];
+	count = new int[pred_start.length];
+	System.arraycopy(pred_start, 0, count, 0, count.length);
+	for (s = 0; s < nstates; ++s)
+	  {
+	    dtrans = (CDTrans) m_spec.m_dtrans_vector.elementAt(s);
+	    for (c = 0; c < ncols; ++c)
+	      {
+		t = dtrans.m_dtrans[c];
+		pred[count[c * (nstates + 1) + (CDTrans.F == t ? sink : t)]++] = s;
+	      }
+	  }
+	count = null;
+
+	/* Groups: the states of group g are elem[first[g]] ..
+	   elem[end[g] - 1], and loc[s] is where s is in elem.
+	   The first marked[g] of them are marked. */
 	init_groups();
+	ngroups = m_group.size() + 1;
+	group_of = new int[nstates + 1];
+	elem = new int[nstates + 1];
+	loc = new int[nstates + 1];
+	first = new int[nstates + 1];
+	end = new int[nstates + 1];
+	marked = new int[nstates + 1];
+	k = 0;
+	for (g = 0; g < ngroups; ++g)
+	  {
+	    first[g] = k;
+	    if (g == ngroups - 1)
+	      {
+		group_of[sink] = g;
+		loc[sink] = k;
+		elem[k++] = sink;
+	      }
+	    else
+	      {
+		dtrans_group = (Vector) m_group.elementAt(g);
+		for (i = 0; i < dtrans_group.size(); ++i)
+		  {
+		    s = ((CDTrans) dtrans_group.elementAt(i)).m_label;
+		    group_of[s] = g;
+		    loc[s] = k;
+		    elem[k++] = s;
+		  }
+	      }
+	    end[g] = k;
+	  }
+	m_group = null;
 
-	group_count = m_group.size();
-	old_group_count = group_count - 1;
+	/* Worklist of splitters g * ncols + c, initially every
+	   group on every column. */
+	on_work = new boolean[(nstates + 1) * ncols];
+	work = new int[(nstates + 1) * ncols];
+	nwork = 0;
+	for (g = 0; g < ngroups; ++g)
+	  {
+	    for (c = 0; c < ncols; ++c)
+	      {
+		on_work[g * ncols + c] = true;
+		work[nwork++] = g * ncols + c;
+	      }
+	  }
 
-	while (old_group_count != group_count)
+	splitter = new int[nstates + 1];
+	touched = new int[nstates + 1];
+	while (0 < nwork)
 	  {
-	    old_group_count = group_count;
+	    k = work[--nwork];
+	    on_work[k] = false;
+	    g = k / ncols;
+	    c = k % ncols;
 
-	    if (CUtility.DEBUG)
+	    /* The states that go into group g on column c. */
+	    nsplitter = 0;
+	    for (i = first[g]; i < end[g]; ++i)
 	      {
-		CUtility.ASSERT(m_group.size() == group_count);
+		t = elem[i];
+		for (k = pred_start[c * (nstates + 1) + t];
+		     k < pred_start[c * (nstates + 1) + t + 1]; ++k)
+		  {
+		    splitter[nsplitter++] = pred[k];
+		  }
 	      }
 
-	    for (i = 0; i < group_count; ++i)
+	    /* Mark them, moving them to the front of their groups. */
+	    ntouched = 0;
+	    for (i = 0; i < nsplitter; ++i)
 	      {
-		dtrans_group = (Vector) m_group.elementAt(i);
+		s = splitter[i];
+		h = group_of[s];
+		if (0 == marked[h])
+		  {
+		    touched[ntouched++] = h;
+		  }
+		k = first[h] + marked[h];
+		t = elem[k];
+		elem[loc[s]] = t;
+		loc[t] = loc[s];
+		elem[k] = s;
+		loc[s] = k;
+		++marked[h];
+	      }
 
-		group_size = dtrans_group.size();
-		if (group_size <= 1)
+	    /* Split the groups that are partly marked. */
+	    for (i = 0; i < ntouched; ++i)
+	      {
+		h = touched[i];
+		nsplit = marked[h];
+		marked[h] = 0;
+		if (nsplit == end[h] - first[h])
 		  {
 		    continue;
 		  }
 
-		new_group = new Vector();
-		added = false;
-		
-		first = (CDTrans) dtrans_group.elementAt(0);
-		for (j = 1; j < group_size; ++j)
+		/* The marked states become the new group. */
+		g = ngroups++;
+		first[g] = first[h];
+		end[g] = first[h] + nsplit;
+		first[h] = end[g];
+		for (k = first[g]; k < end[g]; ++k)
 		  {
-		    next = (CDTrans) dtrans_group.elementAt(j);
+		    group_of[elem[k]] = g;
+		  }
 
-		    for (c = 0; c < m_spec.m_dtrans_ncols; ++c)
+		for (c = 0; c < ncols; ++c)
+		  {
+		    if (on_work[h * ncols + c]
+			|| end[g] - first[g] <= end[h] - first[h])
 		      {
-			goto_first = first.m_dtrans[c];
-			goto_next = next.m_dtrans[c];
-
-			if (goto_first != goto_next
-			    && (goto_first == CDTrans.F
-				|| goto_next == CDTrans.F
-				|| m_ingroup[goto_next] != m_ingroup[goto_first]))
-			  {
-			    if (CUtility.DEBUG)
-			      {
-				CUtility.ASSERT(dtrans_group.elementAt(j) == next);
-			      }
-			    
-			    dtrans_group.removeElementAt(j);
-			    --j;
-			    --group_size;
-			    new_group.addElement(next);
-			    if (false == added)
-			      {
-				added = true;
-				++group_count;
-				m_group.addElement(new_group);
-			      }
-			    m_ingroup[next.m_label] = m_group.size() - 1;
-
-			    if (CUtility.DEBUG)
-			      {
-				CUtility.ASSERT(m_group.contains(new_group)
-						== true);
-				CUtility.ASSERT(m_group.contains(dtrans_group)
-						== true);
-				CUtility.ASSERT(dtrans_group.contains(first)
-						== true);
-				CUtility.ASSERT(dtrans_group.contains(next)
-						== false);
-				CUtility.ASSERT(new_group.contains(first)
-						== false);
-				CUtility.ASSERT(new_group.contains(next)
-						== true);
-				CUtility.ASSERT(dtrans_group.size() == group_size);
-				CUtility.ASSERT(i == m_ingroup[first.m_label]);
-				CUtility.ASSERT((m_group.size() - 1) 
-						== m_ingroup[next.m_label]);
-			      }
-
-			    break;
-			  }
+			k = g * ncols + c;
+		      }
+		    else
+		      {
+			k = h * ncols + c;
+		      }
+		    if (false == on_work[k])
+		      {
+			on_work[k] = true;
+			work[nwork++] = k;
 		      }
 		  }
 	      }
 	  }
 
+	/* Number the groups by their lowest states, and list
+	   their states in order. */
+	m_group = new Vector();
+	m_ingroup = new int[nstates];
+	for (g = 0; g < ngroups; ++g)
+	  {
+	    marked[g] = -1;
+	  }
+	for (s = 0; s < nstates; ++s)
+	  {
+	    g = group_of[s];
+	    if (-1 == marked[g])
+	      {
+		marked[g] = m_group.size();
+		m_group.addElement(new Vector());
+	      }
+	    m_ingroup[s] = marked[g];
+	    dtrans_group = (Vector) m_group.elementAt(marked[g]);
+	    dtrans_group.addElement(m_spec.m_dtrans_vector.elementAt(s));
+	  }
+
 	System.out.println(m_group.size() + " states after removal of redundant states.");
 
 	if (m_spec.m_verbose
@@ -2959,91 +3347,49 @@ class CMinimize
 
   /***************************************************************
     Function: init_groups
-    Description:
+    Description: Groups the states by accepting action, in
+    the order of their lowest-numbered states.
     **************************************************************/
   private void init_groups
     (
      )
       {
 	int i;
-	int j;
-	int group_count;
 	int size;
-	CAccept accept;
 	CDTrans dtrans;
 	Vector dtrans_group;
-	CDTrans first;
-	boolean group_found;
+	Hashtable group_of;
+	Object key;
+	Integer group;
 
 	m_group = new Vector();
-	group_count = 0;
+	group_of = new Hashtable();
 	
 	size = m_spec.m_dtrans_vector.size();
 	m_ingroup = new int[size];
 	
 	for (i = 0; i < size; ++i)
 	  {
-	    group_found = false;
 	    dtrans = (CDTrans) m_spec.m_dtrans_vector.elementAt(i);
 
 	    if (CUtility.DEBUG)
 	      {
 		CUtility.ASSERT(i == dtrans.m_label);
-		CUtility.ASSERT(false == group_found);
-		CUtility.ASSERT(group_count == m_group.size());
 	      }
-	    
-	    for (j = 0; j < group_count; ++j)
-	      {
-		dtrans_group = (Vector) m_group.elementAt(j);
-		
-		if (CUtility.DEBUG)
-		  {
-		    CUtility.ASSERT(false == group_found);
-		    CUtility.ASSERT(0 < dtrans_group.size());
-		  }
-
-		first = (CDTrans) dtrans_group.elementAt(0);
-		
-		if (CUtility.SLOW_DEBUG)
-		  {
-		    CDTrans check;
-		    int k;
-		    int s;
-
-		    s = dtrans_group.size();
-		    CUtility.ASSERT(0 < s);
 
-		    for (k = 1; k < s; ++k)
-		      {
-			check = (CDTrans) dtrans_group.elementAt(k);
-			CUtility.ASSERT(check.m_accept == first.m_accept);
-		      }
-		  }
-
-		if (first.m_accept == dtrans.m_accept)
-		  {
-		    dtrans_group.addElement(dtrans);
-		    m_ingroup[i] = j;
-		    group_found = true;
-		    
-		    if (CUtility.DEBUG)
-		      {
-			CUtility.ASSERT(j == m_ingroup[dtrans.m_label]);
-		      }
-
-		    break;
-		  }
-	      }
-	    
-	    if (false == group_found)
+	    /* CAccepts are told apart by identity. */
+	    key = (null == dtrans.m_accept) ? NO_ACCEPT : dtrans.m_accept;
+	    group = (Integer) group_of.get(key);
+	    if (null == group)
 	      {
-		dtrans_group = new Vector();
-		dtrans_group.addElement(dtrans);
-		m_ingroup[i] = m_group.size();
-		m_group.addElement(dtrans_group);
-		++group_count;
+		group = Integer.valueOf(m_group.size());
+		group_of.put(key, group);
+		m_group.addElement(new Vector());
 	      }
+
+	    dtrans_group = (Vector) m_group.elementAt(group.intValue());
+	    dtrans_group.addElement(dtrans);
+	    m_ingroup[i] = group.intValue();
 	  }
 	
 	if (m_spec.m_verbose
@@ -3118,6 +3464,38 @@ class CNfa2Dfa
   private int m_unmarked_dfa;
   private CLexGen m_lexGen;
 
+  /* The NFA, indexed by state label. */
+  private CNfa m_nfa[];
+  private int m_eps1[]; /* Labels of the epsilon successors of */
+  private int m_eps2[]; /* each state, or -1. */
+  private int m_cols[][]; /* Columns a state has a transition on. */
+  private int m_target[]; /* Label of the state it goes to. */
+
+  /* The DFA states made so far, by label: the labels of their
+     NFA states (in no particular order) and the hash code of
+     that set, and a hash index of them keyed on the set. */
+  private int m_dfa_sets[][];
+  private int m_dfa_hash[];
+  private CAccept m_dfa_accept[];
+  private int m_dfa_anchor[];
+  private int m_ndfa;
+  private int m_index[]; /* Slot holds DFA label + 1, or 0. */
+
+  /* The work set, where the set of NFA states of a DFA state
+     is built: a dense bit set, and the list of its members,
+     which is also the worklist of e_closure. */
+  private long m_work[];
+  private int m_members[];
+  private int m_nmembers;
+  private int m_work_hash;
+  private CAccept m_work_accept;
+  private int m_work_anchor;
+
+  /* Scratch space for the moves of one DFA state: for each
+     column, the labels of the NFA states it moves to. */
+  private int m_moves[][];
+  private int m_nmoves[];
+
   /***************************************************************
     Constants
     **************************************************************/
@@ -3159,6 +3537,23 @@ class CNfa2Dfa
 	m_lexGen = null;
 	m_spec = null;
 	m_unmarked_dfa = 0;
+	m_nfa = null;
+	m_eps1 = null;
+	m_eps2 = null;
+	m_cols = null;
+	m_target = null;
+	m_dfa_sets = null;
+	m_dfa_hash = null;
+	m_dfa_accept = null;
+	m_dfa_anchor = null;
+	m_ndfa = 0;
+	m_index = null;
+	m_work = null;
+	m_members = null;
+	m_nmembers = 0;
+	m_work_accept = null;
+	m_moves = null;
+	m_nmoves = null;
       }
 
   /***************************************************************
@@ -3171,23 +3566,113 @@ class CNfa2Dfa
      CSpec spec
      )
       {
-	int i;
-
 	reset();
 	set(lexGen,spec);
 
+	index_nfa();
 	make_dtrans();
 	free_nfa_states();
 
 	if (m_spec.m_verbose && true == CUtility.OLD_DUMP_DEBUG)
 	  {
-	    System.out.println(m_spec.m_dfa_states.size()
-			       + " DFA states in original machine.");
+	    System.out.println(m_ndfa + " DFA states in original machine.");
 	  }
 
 	free_dfa_states();
       }     
 
+  /***************************************************************
+    Function: index_nfa
+    Description: Copies the edges of the NFA into arrays
+    indexed by state label, listing for each state the
+    columns it has a transition on, so that the moves of a
+    set of states on all columns are found in one pass.
+    **************************************************************/
+  private void index_nfa
+    (
+     )
+      {
+	int nstates;
+	int ncols;
+	int i;
+	int b;
+	int n;
+	int cols[];
+	CNfa nfa;
+
+	nstates = m_spec.m_nfa_states.size();
+	ncols = m_spec.m_dtrans_ncols;
+	m_nfa = new CNfa[nstates];
+	m_eps1 = new int[nstates];
+	m_eps2 = new int[nstates];
+	m_cols = new int[nstates][];
+	m_target = new int[nstates];
+	cols = new int[ncols];
+
+	for (i = 0; i < nstates; ++i)
+	  {
+	    nfa = (CNfa) m_spec.m_nfa_states.elementAt(i);
+
+	    if (CUtility.DEBUG)
+	      {
+		CUtility.ASSERT(i == nfa.m_label);
+	      }
+
+	    m_nfa[i] = nfa;
+	    m_eps1[i] = -1;
+	    m_eps2[i] = -1;
+	    m_target[i] = -1;
+	    n = 0;
+	    if (CNfa.EPSILON == nfa.m_edge)
+	      {
+		if (null != nfa.m_next)
+		  {
+		    m_eps1[i] = nfa.m_next.m_label;
+		  }
+		if (null != nfa.m_next2)
+		  {
+		    m_eps2[i] = nfa.m_next2.m_label;
+		  }
+	      }
+	    else if (CNfa.CCL == nfa.m_edge)
+	      {
+		for (b = 0; b < ncols; ++b)
+		  {
+		    if (nfa.m_set.contains(b))
+		      {
+			cols[n++] = b;
+		      }
+		  }
+	      }
+	    else if (0 <= nfa.m_edge)
+	      {
+		cols[n++] = nfa.m_edge;
+	      }
+	    if (0 < n)
+	      {
+		m_target[i] = nfa.m_next.m_label;
+	      }
+	    m_cols[i] = new int[n];
+	    System.arraycopy(cols, 0, m_cols[i], 0, n);
+	  }
+
+	m_dfa_sets = new int[64][];
+	m_dfa_hash = new int[64];
+	m_dfa_accept = new CAccept[64];
+	m_dfa_anchor = new int[64];
+	m_ndfa = 0;
+	m_index = new int[128];
+	m_work = new long[(nstates + 63) >>> 6];
+	m_members = new int[nstates];
+	m_nmembers = 0;
+	m_moves = new int[ncols][];
+	m_nmoves = new int[ncols];
+	for (b = 0; b < ncols; ++b)
+	  {
+	    m_moves[b] = new int[16];
+	  }
+      }
+
    /***************************************************************
     Function: make_dtrans
     Description: Creates uncompressed CDTrans transition table.
@@ -3195,14 +3680,13 @@ class CNfa2Dfa
   private void make_dtrans
     (
      )
-     /* throws java.lang.CloneNotSupportedException*/
       {
-	CDfa next;
-	CDfa dfa;
-	CBunch bunch;
 	int i;
+	int b;
 	int nextstate;
 	int size;
+	int dfa;
+	int moves[];
 	CDTrans dtrans;
 	CNfa nfa;
 	int istate;
@@ -3210,8 +3694,6 @@ class CNfa2Dfa
 	
 	System.out.print("Working on DFA states.");
 
-	/* Reference passing type and initializations. */
-	bunch = new CBunch();
 	m_unmarked_dfa = 0;
 
 	/* Allocate mapping array. */
@@ -3223,106 +3705,75 @@ class CNfa2Dfa
 	    /* CSA bugfix: if we skip all zero size rules, then
 	       an specification with no rules produces an illegal
 	       lexer (0 states) instead of a lexer that rejects
-	       everything (1 nonaccepting state). [27-Jul-1999]
-	    if (0 == m_spec.m_state_rules[istate].size())
-	      {
-		m_spec.m_state_dtrans[istate] = CDTrans.F;
-		continue;
-	      }
-	    */
-		
-	    /* Create start state and initialize fields. */
-	    bunch.m_nfa_set = (Vector) m_spec.m_state_rules[istate].clone();
-	    sortStates(bunch.m_nfa_set);
-	    
-	    bunch.m_nfa_bit = new SparseBitSet();
-	    
-	    /* Initialize bit set. */
-	    size = bunch.m_nfa_set.size();
+	       everything (1 nonaccepting state). [27-Jul-1999] */
+
+	    /* Create start state. */
+	    clear_work();
+	    size = m_spec.m_state_rules[istate].size();
 	    for (i = 0; size > i; ++i)
 	      {
-		nfa = (CNfa) bunch.m_nfa_set.elementAt(i);
-		bunch.m_nfa_bit.set(nfa.m_label);
+		nfa = (CNfa) m_spec.m_state_rules[istate].elementAt(i);
+		add_to_work(nfa.m_label);
 	      }
-	    
-	    bunch.m_accept = null;
-	    bunch.m_anchor = CSpec.NONE;
-	    bunch.m_accept_index = CUtility.INT_MAX;
-	    
-	    e_closure(bunch);
-	    add_to_dstates(bunch);
+	    e_closure();
+	    add_to_dstates();
 	    
 	    m_spec.m_state_dtrans[istate] = m_spec.m_dtrans_vector.size();
 
 	    /* Main loop of CDTrans creation. */
-	    while (null != (dfa = get_unmarked()))
+	    while (m_unmarked_dfa < m_ndfa)
 	      {
 		System.out.print(".");
 		System.out.flush();
-		
-		if (CUtility.DEBUG)
-		  {
-		    CUtility.ASSERT(false == dfa.m_mark);
-		  }
 
 		/* Get first unmarked node, then mark it. */
-		dfa.m_mark = true;
+		dfa = m_unmarked_dfa++;
 		
 		/* Allocate new CDTrans, then initialize fields. */
 		dtrans = new CDTrans(m_spec.m_dtrans_vector.size(),m_spec);
-		dtrans.m_accept = dfa.m_accept;
-		dtrans.m_anchor = dfa.m_anchor;
+		dtrans.m_accept = m_dfa_accept[dfa];
+		dtrans.m_anchor = m_dfa_anchor[dfa];
+
+		/* Find the moves of the set on every column. */
+		move(m_dfa_sets[dfa]);
 		
 		/* Set CDTrans array for each character transition. */
-		for (i = 0; i < m_spec.m_dtrans_ncols; ++i)
+		for (b = 0; b < m_spec.m_dtrans_ncols; ++b)
 		  {
-		    if (CUtility.DEBUG)
-		      {
-			CUtility.ASSERT(0 <= i);
-			CUtility.ASSERT(m_spec.m_dtrans_ncols > i);
-		      }
-		    
-		    /* Create new dfa set by attempting character transition. */
-		    move(dfa.m_nfa_set,dfa.m_nfa_bit,i,bunch);
-		    if (null != bunch.m_nfa_set)
-		      {
-			e_closure(bunch);
-		      }
-		    
-		    if (CUtility.DEBUG)
-		      {
-			CUtility.ASSERT((null == bunch.m_nfa_set 
-					 && null == bunch.m_nfa_bit)
-					|| (null != bunch.m_nfa_set 
-					    && null != bunch.m_nfa_bit));
-		      }
-		    
-		    /* Create new state or set state to empty. */
-		    if (null == bunch.m_nfa_set)
+		    if (0 == m_nmoves[b])
 		      {
 			nextstate = CDTrans.F;
 		      }
 		    else 
 		      {
-			nextstate = in_dstates(bunch);
-			
+			/* Create new dfa set from the moves. */
+			clear_work();
+			moves = m_moves[b];
+			for (i = 0; i < m_nmoves[b]; ++i)
+			  {
+			    add_to_work(moves[i]);
+			  }
+			e_closure();
+
+			/* Create new state or find the existing one. */
+			nextstate = in_dstates();
 			if (NOT_IN_DSTATES == nextstate)
 			  {
-			    nextstate = add_to_dstates(bunch);
+			    nextstate = add_to_dstates();
 			  }
 		      }
 		    
 		    if (CUtility.DEBUG)
 		      {
-			CUtility.ASSERT(nextstate < m_spec.m_dfa_states.size());
+			CUtility.ASSERT(nextstate < m_ndfa);
 		      }
 		    
-		    dtrans.m_dtrans[i] = nextstate;
+		    dtrans.m_dtrans[b] = nextstate;
 		  }
 		
 		if (CUtility.DEBUG)
 		  {
-		    CUtility.ASSERT(m_spec.m_dtrans_vector.size() == dfa.m_label);
+		    CUtility.ASSERT(m_spec.m_dtrans_vector.size() == dfa);
 		  }
 		
 		m_spec.m_dtrans_vector.addElement(dtrans);
@@ -3341,6 +3792,11 @@ class CNfa2Dfa
       {
 	m_spec.m_dfa_states = null;
 	m_spec.m_dfa_sets = null;
+	m_dfa_sets = null;
+	m_dfa_hash = null;
+	m_dfa_accept = null;
+	m_dfa_anchor = null;
+	m_index = null;
       }
 
   /***************************************************************
@@ -3356,379 +3812,313 @@ class CNfa2Dfa
 	m_spec.m_nfa_states = null;
 	m_spec.m_nfa_start = null;
 	m_spec.m_state_rules = null;
+	m_nfa = null;
+	m_eps1 = null;
+	m_eps2 = null;
+	m_cols = null;
+	m_target = null;
+	m_work = null;
+	m_members = null;
+	m_moves = null;
+	m_nmoves = null;
       }
 
   /***************************************************************
-    Function: e_closure
-    Description: Alters and returns input set.
+    Function: clear_work
+    Description: Empties the work set.
     **************************************************************/
-  private void e_closure
+  private void clear_work
     (
-     CBunch bunch
      )
       {
-	Stack nfa_stack;
-	int size;
 	int i;
-	CNfa state;
+	int label;
 
-	/* Debug checks. */
-	if (CUtility.DEBUG)
+	for (i = 0; i < m_nmembers; ++i)
 	  {
-	    CUtility.ASSERT(null != bunch);
-	    CUtility.ASSERT(null != bunch.m_nfa_set);
-	    CUtility.ASSERT(null != bunch.m_nfa_bit);
+	    label = m_members[i];
+	    m_work[label >>> 6] = 0;
 	  }
+	m_nmembers = 0;
+      }
 
-	bunch.m_accept = null;
-	bunch.m_anchor = CSpec.NONE;
-	bunch.m_accept_index = CUtility.INT_MAX;
-	
-	/* Create initial stack. */
-	nfa_stack = new Stack();
-	size = bunch.m_nfa_set.size();
-	for (i = 0; i < size; ++i)
-	  {
-	    state = (CNfa) bunch.m_nfa_set.elementAt(i);
-	    
-	    if (CUtility.DEBUG)
-	      {
-		CUtility.ASSERT(bunch.m_nfa_bit.get(state.m_label));
-	      }
+  /***************************************************************
+    Function: add_to_work
+    Description: Adds an NFA state to the work set, if it is
+    not there yet.
+    **************************************************************/
+  private void add_to_work
+    (
+     int label
+     )
+      {
+	long bit = 1L << label;
 
-	    nfa_stack.push(state);
+	if (0 == (m_work[label >>> 6] & bit))
+	  {
+	    m_work[label >>> 6] |= bit;
+	    m_members[m_nmembers++] = label;
 	  }
+      }
+
+  /***************************************************************
+    Function: e_closure
+    Description: Adds to the work set the states reachable
+    from its states by epsilon edges, and sets its hash code,
+    and its accepting action and anchor to those of the
+    accepting state with the smallest label, if any.
+    **************************************************************/
+  private void e_closure
+    (
+     )
+      {
+	int label;
+	int accept_label;
+	int hash;
+	int i;
 
-	/* Main loop. */
-	while (false == nfa_stack.empty())
+	for (i = 0; i < m_nmembers; ++i)
 	  {
-	    state = (CNfa) nfa_stack.pop();
-	    
-	    if (CUtility.OLD_DUMP_DEBUG)
+	    label = m_members[i];
+	    if (-1 != m_eps1[label])
 	      {
-		if (null != state.m_accept)
-		  {
-		    System.out.println("Looking at accepting state " + state.m_label
-				       + " with <"
-				       + (new String(state.m_accept.m_action,0,
-						     state.m_accept.m_action_read))
-				       + ">");
-		  }
+		add_to_work(m_eps1[label]);
 	      }
-
-	    if (null != state.m_accept 
-		&& state.m_label < bunch.m_accept_index)
+	    if (-1 != m_eps2[label])
 	      {
-		bunch.m_accept_index = state.m_label;
-		bunch.m_accept = state.m_accept;
-		bunch.m_anchor = state.m_anchor;
-
-		if (CUtility.OLD_DUMP_DEBUG)
-		  {
-		    System.out.println("Found accepting state " + state.m_label
-				       + " with <"
-				       + (new String(state.m_accept.m_action,0,
-						     state.m_accept.m_action_read))
-				       + ">");
-		  }
-
-		if (CUtility.DEBUG)
-		  {
-		    CUtility.ASSERT(null != bunch.m_accept);
-		    CUtility.ASSERT(CSpec.NONE == bunch.m_anchor
-				    || 0 != (bunch.m_anchor & CSpec.END)
-				    || 0 != (bunch.m_anchor & CSpec.START));
-		  }
+		add_to_work(m_eps2[label]);
 	      }
+	  }
 
-	    if (CNfa.EPSILON == state.m_edge)
+	/* The hash code is a sum, so it does not depend on the
+	   order of the members. */
+	hash = 0;
+	accept_label = CUtility.INT_MAX;
+	for (i = 0; i < m_nmembers; ++i)
+	  {
+	    label = m_members[i];
+	    hash += mix(label);
+	    if (null != m_nfa[label].m_accept && label < accept_label)
 	      {
-		if (null != state.m_next)
-		  {
-		    if (false == bunch.m_nfa_set.contains(state.m_next))
-		      {
-			if (CUtility.DEBUG)
-			  {
-			    CUtility.ASSERT(false == bunch.m_nfa_bit.get(state.m_next.m_label));
-			  }
-			
-			bunch.m_nfa_bit.set(state.m_next.m_label);
-			bunch.m_nfa_set.addElement(state.m_next);
-			nfa_stack.push(state.m_next);
-		      }
-		  }
-
-		if (null != state.m_next2)
-		  {
-		    if (false == bunch.m_nfa_set.contains(state.m_next2))
-		      {
-			if (CUtility.DEBUG)
-			  {
-			    CUtility.ASSERT(false == bunch.m_nfa_bit.get(state.m_next2.m_label));
-			  }
-			
-			bunch.m_nfa_bit.set(state.m_next2.m_label);
-			bunch.m_nfa_set.addElement(state.m_next2);
-			nfa_stack.push(state.m_next2);
-		      }
-		  }
+		accept_label = label;
 	      }
 	  }
+	m_work_hash = hash;
 
-	if (null != bunch.m_nfa_set)
+	m_work_accept = null;
+	m_work_anchor = CSpec.NONE;
+	if (CUtility.INT_MAX != accept_label)
 	  {
-	    sortStates(bunch.m_nfa_set);
+	    m_work_accept = m_nfa[accept_label].m_accept;
+	    m_work_anchor = m_nfa[accept_label].m_anchor;
+
+	    if (CUtility.DEBUG)
+	      {
+		CUtility.ASSERT(CSpec.NONE == m_work_anchor
+				|| 0 != (m_work_anchor & CSpec.END)
+				|| 0 != (m_work_anchor & CSpec.START));
+	      }
 	  }
+      }
+
+  /***************************************************************
+    Function: mix
+    Description: Scrambles the bits of an NFA state label for
+    the hash code of a set.
+    **************************************************************/
+  private static int mix
+    (
+     int label
+     )
+      {
+	int h = label * 0x9e3779b9;
 
-	return;
+	return h ^ (h >>> 16);
       }
 
   /***************************************************************
     Function: move
-    Description: Returns null if resulting NFA set is empty.
+    Description: Fills m_moves[b] with the labels of the NFA
+    states the given states go to on column b, for every
+    column b, and m_nmoves[b] with their number.
     **************************************************************/
-  void move
+  private void move
     (
-     Vector nfa_set,
-     SparseBitSet nfa_bit,
-     int b,
-     CBunch bunch
+     int set[]
      )
       {
-	int size;
-	int index;
-	CNfa state;
-	
-	bunch.m_nfa_set = null;
-	bunch.m_nfa_bit = null;
+	int label;
+	int target;
+	int cols[];
+	int grown[];
+	int b;
+	int i;
+	int j;
 
-	size = nfa_set.size();
-	for (index = 0; index < size; ++index)
+	for (b = 0; b < m_nmoves.length; ++b)
 	  {
-	    state = (CNfa) nfa_set.elementAt(index);
-	    
-	    if (b == state.m_edge
-		|| (CNfa.CCL == state.m_edge
-		    && true == state.m_set.contains(b)))
-	      {
-		if (null == bunch.m_nfa_set)
-		  {
-		    if (CUtility.DEBUG)
-		      {
-			CUtility.ASSERT(null == bunch.m_nfa_bit);
-		      }
-		    
-		    bunch.m_nfa_set = new Vector();
-		    /*bunch.m_nfa_bit 
-			= new SparseBitSet(m_spec.m_nfa_states.size());*/
-		    bunch.m_nfa_bit = new SparseBitSet();
-		  }
-
-		bunch.m_nfa_set.addElement(state.m_next);
-		/*System.out.println("Size of bitset: " + bunch.m_nfa_bit.size());
-		System.out.println("Reference index: " + state.m_next.m_label);
-		System.out.flush();*/
-		bunch.m_nfa_bit.set(state.m_next.m_label);
-	      }
+	    m_nmoves[b] = 0;
 	  }
-	
-	if (null != bunch.m_nfa_set)
+
+	for (i = 0; i < set.length; ++i)
 	  {
-	    if (CUtility.DEBUG)
+	    label = set[i];
+	    cols = m_cols[label];
+	    target = m_target[label];
+	    for (j = 0; j < cols.length; ++j)
 	      {
-		CUtility.ASSERT(null != bunch.m_nfa_bit);
+		b = cols[j];
+		if (m_nmoves[b] == m_moves[b].length)
+		  {
+		    grown = new int[2 * m_nmoves[b]];
+		    System.arraycopy(m_moves[b], 0, grown, 0, m_nmoves[b]);
+		    m_moves[b] = grown;
+		  }
+		m_moves[b][m_nmoves[b]++] = target;
 	      }
-	    
-	    sortStates(bunch.m_nfa_set);
 	  }
-
-	return;
       }
 
   /***************************************************************
-    Function: sortStates
+    Function: same_as_work
+    Description: Returns whether the given DFA state has the
+    NFA states of the work set.
     **************************************************************/
-  private void sortStates
+  private boolean same_as_work
     (
-     Vector nfa_set
+     int dfa
      )
       {
-	CNfa elem;
-	int begin;
-	int size;
-	int index;
-	int value;
-	int smallest_index;
-	int smallest_value;
-	CNfa begin_elem;
+	int set[] = m_dfa_sets[dfa];
+	int label;
+	int i;
 
-	size = nfa_set.size();
-	for (begin = 0; begin < size; ++begin)
+	if (m_dfa_hash[dfa] != m_work_hash || set.length != m_nmembers)
 	  {
-	    elem = (CNfa) nfa_set.elementAt(begin);
-	    smallest_value = elem.m_label;
-	    smallest_index = begin;
-
-	    for (index = begin + 1; index < size; ++index)
-	      {
-		elem = (CNfa) nfa_set.elementAt(index);
-		value = elem.m_label;
-
-		if (value < smallest_value)
-		  {
-		    smallest_index = index;
-		    smallest_value = value;
-		  }
-	      }
-
-	    begin_elem = (CNfa) nfa_set.elementAt(begin);
-	    elem = (CNfa) nfa_set.elementAt(smallest_index);
-	    nfa_set.setElementAt(elem,begin);
-	    nfa_set.setElementAt(begin_elem,smallest_index);
+	    return false;
 	  }
-
-	if (CUtility.OLD_DEBUG)
+	for (i = 0; i < set.length; ++i)
 	  {
-	    System.out.print("NFA vector indices: ");  
-	    
-	    for (index = 0; index < size; ++index)
+	    label = set[i];
+	    if (0 == (m_work[label >>> 6] & (1L << label)))
 	      {
-		elem = (CNfa) nfa_set.elementAt(index);
-		System.out.print(elem.m_label + " ");
+		return false;
 	      }
-	    System.out.println();
-	  }	
-
-	return;
+	  }
+	return true;
       }
 
   /***************************************************************
-    Function: get_unmarked
-    Description: Returns next unmarked DFA state.
+    Function: find_slot
+    Description: Returns the slot of the hash index holding
+    the DFA state whose set of NFA states is the work set, or
+    the empty slot where it would go.
     **************************************************************/
-  private CDfa get_unmarked
+  private int find_slot
     (
      )
       {
-	int size;
-	CDfa dfa;
+	int mask = m_index.length - 1;
+	int k;
 
-	size = m_spec.m_dfa_states.size();
-	while (m_unmarked_dfa < size)
+	for (k = m_work_hash & mask; 0 != m_index[k]; k = (k + 1) & mask)
 	  {
-	    dfa = (CDfa) m_spec.m_dfa_states.elementAt(m_unmarked_dfa);
-
-	    if (false == dfa.m_mark)
+	    if (same_as_work(m_index[k] - 1))
 	      {
-		if (CUtility.OLD_DUMP_DEBUG)
-		  {
-		    System.out.print("*");
-		    System.out.flush();
-		  }
-
-		if (m_spec.m_verbose && true == CUtility.OLD_DUMP_DEBUG)
-		  {
-		    System.out.println("---------------");
-		    System.out.print("working on DFA state " 
-				     + m_unmarked_dfa
-				     + " = NFA states: ");
-		    m_lexGen.print_set(dfa.m_nfa_set);
-		    System.out.println();
-		  }
-
-		return dfa;
+		break;
 	      }
-
-	    ++m_unmarked_dfa;
 	  }
-
-	return null;
+	return k;
       }
   
   /***************************************************************
     function: add_to_dstates
-    Description: Takes as input a CBunch with details of
-    a dfa state that needs to be created.
-    1) Allocates a new dfa state and saves it in 
-    the appropriate CSpec vector.
-    2) Initializes the fields of the dfa state
-    with the information in the CBunch.
-    3) Returns index of new dfa.
+    Description: Makes a new DFA state out of the work set,
+    with its accepting action and anchor, and registers it
+    in the hash index (in place of any earlier state with
+    the same set).  Returns the label of the new state.
     **************************************************************/
   private int add_to_dstates
     (
-     CBunch bunch
      )
       {
-	CDfa dfa;
-	
-	if (CUtility.DEBUG)
-	  {
-	    CUtility.ASSERT(null != bunch.m_nfa_set);
-	    CUtility.ASSERT(null != bunch.m_nfa_bit);
-	    CUtility.ASSERT(null != bunch.m_accept 
-			    || CSpec.NONE == bunch.m_anchor);
-	  }
-
-	/* Allocate, passing CSpec so dfa label can be set. */
-	dfa = CAlloc.newCDfa(m_spec);
-	
-	/* Initialize fields, including the mark field. */
-	dfa.m_nfa_set = (Vector) bunch.m_nfa_set.clone();
-	dfa.m_nfa_bit = (SparseBitSet) bunch.m_nfa_bit.clone();
-	dfa.m_accept = bunch.m_accept;
-	dfa.m_anchor = bunch.m_anchor;
-	dfa.m_mark = false;
-	
-	/* Register dfa state using BitSet in CSpec Hashtable. */
-	m_spec.m_dfa_sets.put(dfa.m_nfa_bit,dfa);
-	/*registerCDfa(dfa);*/
+	int dfa;
+	int mask;
+	int k;
+	int i;
+	int old[];
 
-	if (CUtility.OLD_DUMP_DEBUG)
+	if (CUtility.DEBUG)
 	  {
-	    System.out.print("Registering set : ");
-	    m_lexGen.print_set(dfa.m_nfa_set);
-	    System.out.println();
+	    CUtility.ASSERT(null != m_work_accept 
+			    || CSpec.NONE == m_work_anchor);
+	  }
+
+	dfa = m_ndfa++;
+	if (dfa == m_dfa_sets.length)
+	  {
+	    int sets[][] = new int[2 * dfa][];
+	    int hash[] = new int[2 * dfa];
+	    CAccept accept[] = new CAccept[2 * dfa];
+	    int anchor[] = new int[2 * dfa];
+	    System.arraycopy(m_dfa_sets, 0, sets, 0, dfa);
+	    System.arraycopy(m_dfa_hash, 0, hash, 0, dfa);
+	    System.arraycopy(m_dfa_accept, 0, accept, 0, dfa);
+	    System.arraycopy(m_dfa_anchor, 0, anchor, 0, dfa);
+	    m_dfa_sets = sets;
+	    m_dfa_hash = hash;
+	    m_dfa_accept = accept;
+	    m_dfa_anchor = anchor;
+	  }
+	m_dfa_sets[dfa] = new int[m_nmembers];
+	System.arraycopy(m_members, 0, m_dfa_sets[dfa], 0, m_nmembers);
+	m_dfa_hash[dfa] = m_work_hash;
+	m_dfa_accept[dfa] = m_work_accept;
+	m_dfa_anchor[dfa] = m_work_anchor;
+
+	/* Keep the index at most half full.  The sets of the
+	   states in it are all different, so they are moved to
+	   the new index without comparing them. */
+	if (2 * m_ndfa > m_index.length)
+	  {
+	    old = m_index;
+	    m_index = new int[2 * old.length];
+	    mask = m_index.length - 1;
+	    for (i = 0; i < old.length; ++i)
+	      {
+		if (0 != old[i])
+		  {
+		    k = m_dfa_hash[old[i] - 1] & mask;
+		    while (0 != m_index[k])
+		      {
+			k = (k + 1) & mask;
+		      }
+		    m_index[k] = old[i];
+		  }
+	      }
 	  }
 
-	return dfa.m_label;
+	m_index[find_slot()] = dfa + 1;
+	return dfa;
       }
 
   /***************************************************************
     Function: in_dstates
+    Description: Returns the label of the DFA state whose set
+    of NFA states is the work set, or NOT_IN_DSTATES.
     **************************************************************/
   private int in_dstates
     (
-     CBunch bunch
      )
       {
-	CDfa dfa;
-	
-	if (CUtility.OLD_DEBUG)
-	  {
-	    System.out.print("Looking for set : ");
-	    m_lexGen.print_set(bunch.m_nfa_set);
-	  }
-
-	dfa = (CDfa) m_spec.m_dfa_sets.get(bunch.m_nfa_bit);
+	int k = find_slot();
 
-	if (null != dfa)
+	if (0 == m_index[k])
 	  {
-	    if (CUtility.OLD_DUMP_DEBUG)
-	      {
-		System.out.println(" FOUND!");
-	      }
-	    
-	    return dfa.m_label;
-	  }
-
-	if (CUtility.OLD_DUMP_DEBUG)
-	  {
-	    System.out.println(" NOT FOUND!");
+	    return NOT_IN_DSTATES;
 	  }
-	return NOT_IN_DSTATES;
+	return m_index[k] - 1;
       }
-
 }
 
 /***************************************************************
@@ -5242,6 +5632,19 @@ class CLexGen
     '\0'
     };
 
+  private char m_compress_dir[] = { 
+    '%', 'c', 'o', 
+    'm', 'p', 'r',
+    'e', 's', 's',
+    '\0'
+    };
+
+  private char m_direct_dir[] = { 
+    '%', 'd', 'i', 
+    'r', 'e', 'c', 't',
+    '\0'
+    };
+
   private char m_implements_dir[] = { 
     '%', 'i', 'm', 'p', 'l', 'e', 'm', 'e', 'n', 't', 's', 
     '\0'
@@ -5537,6 +5940,35 @@ class CLexGen
 			      "java_cup.runtime.Symbol".toCharArray();
 			  break;
 			}
+		      else if (0 == CUtility.charncmp(m_input.m_line,
+						      0,
+						      m_compress_dir,
+						      0,
+						      m_compress_dir.length - 1))
+			{
+			  /* Set table compression to ON. */
+			  m_input.m_line_index = m_compress_dir.length;
+			  m_spec.m_compress = true;
+			  break;
+			}
+	      
+		      /* Bad directive. */
+		      CError.parse_error(CError.E_DIRECT,
+					 m_input.m_line_number);
+		      break;
+
+		    case 'd':
+		      if (0 == CUtility.charncmp(m_input.m_line,
+						 0,
+						 m_direct_dir,
+						 0,
+						 m_direct_dir.length - 1))
+			{
+			  /* Set direct-coded transitions to ON. */
+			  m_input.m_line_index = m_direct_dir.length;
+			  m_spec.m_direct = true;
+			  break;
+			}
 	      
 		      /* Bad directive. */
 		      CError.parse_error(CError.E_DIRECT,